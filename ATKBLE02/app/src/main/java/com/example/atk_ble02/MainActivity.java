@@ -5,16 +5,9 @@ import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -24,9 +17,15 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -34,39 +33,118 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.atk_ble02.ble.BleConnection;
+import com.example.atk_ble02.ble.BleDeviceManager;
+import com.example.atk_ble02.ble.BleLog;
+import com.example.atk_ble02.ble.BleScanEngine;
+import com.example.atk_ble02.ble.DeviceCache;
+import com.example.atk_ble02.ble.GattOperation;
+import com.example.atk_ble02.ble.GattOperationQueue;
+import com.example.atk_ble02.ble.LinkProfile;
+import com.example.atk_ble02.ble.LoopbackBenchmarkRunner;
+import com.example.atk_ble02.ble.ReliableLink;
+import com.example.atk_ble02.ble.SessionExport;
+import com.example.atk_ble02.ble.SessionRecording;
+import com.example.atk_ble02.ble.SessionReplayRunner;
+import com.example.atk_ble02.ble.StreamSender;
+import com.example.atk_ble02.ble.TelemetryFeed;
+import com.example.atk_ble02.protocol.AtCommandEngine;
+import com.example.atk_ble02.protocol.AtResponse;
+import com.example.atk_ble02.protocol.ConnectionStateMachine;
+import com.example.atk_ble02.protocol.DiscoveryTable;
+import com.example.atk_ble02.protocol.FramePublisher;
+import com.example.atk_ble02.protocol.HexEncoder;
+import com.example.atk_ble02.protocol.LinkMetrics;
+import com.example.atk_ble02.protocol.LoopbackBenchmark;
+import com.example.atk_ble02.protocol.SessionExporter;
+import com.example.atk_ble02.protocol.SessionReplayer;
+import com.example.atk_ble02.protocol.TelemetryLayout;
+import com.example.atk_ble02.ui.ReceivedLogAdapter;
+import com.example.atk_ble02.ui.TelemetryChartView;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 public class MainActivity extends AppCompatActivity {
 
-    private static final String TAG = "MainActivity";
+    private static final String TAG = "MainActivity_BLE";
     private static final int REQUEST_PERMISSION_CODE = 1;
     private static final String TARGET_DEVICE_NAME = "ATK-BLE02";
 
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothGatt bluetoothGatt;
     private TextView statusTextView;
-    private TextView receivedDataTextView;
-    private Button scanButton, connectButton, sendButton;
+    private TextView deviceListTextView;
+    private TextView metricsTextView;
+    private CheckBox showMetricsCheckBox;
+    private ReceivedLogAdapter receivedLog;
+    private static final int RECEIVED_LOG_CAPACITY = 2000;
+    private Button scanButton, connectButton, sendButton, streamButton, disconnectButton, replayButton;
     private EditText atCommandEditText;
     private Button sendAtCommandButton;
+    private CheckBox autoConnectCheckBox;
+    private CheckBox reliableModeCheckBox;
+    private CheckBox recordSessionCheckBox;
+    private SessionRecording sessionRecording;
+    private CheckBox exportSessionCheckBox;
+    private Spinner exportFormatSpinner;
+    private SessionExport sessionExport;
+    private Spinner linkProfileSpinner;
+    private Button loopbackButton;
+    private EditText loopbackSizeEditText;
+    private Spinner loopbackPatternSpinner;
+    private LoopbackBenchmarkRunner loopbackRunner;
+    private Button telemetryButton;
+    private EditText telemetryLayoutEditText;
+    private TelemetryChartView telemetryChartView;
+    private TelemetryFeed telemetryFeed;
+    private static final int TELEMETRY_WINDOW = 2000; // 曲线显示的样本数
+    private Spinner targetDeviceSpinner;
+    private ArrayAdapter<String> targetDeviceAdapter;
+    private final List<String> targetDeviceItems = new ArrayList<>();
+    private static final String TARGET_ALL_DEVICES = "全部设备 (广播)";
+    private Spinner pinnedDeviceSpinner;
+    private ArrayAdapter<String> pinnedDeviceAdapter;
+    private final List<String> pinnedDeviceItems = new ArrayList<>();
+    private final List<String> pinnedDeviceAddresses = new ArrayList<>(); // 和 pinnedDeviceItems 一一对应，"自动"为null
+    private static final String PINNED_AUTO = "自动 (信号最强)";
 
     private Handler handler = new Handler(Looper.getMainLooper());
     private static final long SCAN_PERIOD = 10000;
-    private ScanCallback leScanCallback;
-    private boolean isScanning = false;
-    private BluetoothDevice connectedDevice;
-    private volatile boolean isSafeToSend = false; // Ensure thread safety for this flag
-    private boolean mHasAttemptedInitialCommand = false;
+    private BleScanEngine scanEngine;
+    private static final BleScanEngine.Profile SCAN_PROFILE = BleScanEngine.Profile.LOW_LATENCY;
+    private static final long DISCOVERY_WINDOW_MS = 2000; // 扫描开始后先收集这么久的广播，再按信号选择要连接的模块
+    private boolean discoveryWindowOpen;
+    private DeviceCache deviceCache;
+    private BleDeviceManager deviceManager;
+    private String directConnectAddress; // 正在用缓存地址直接连接，失败时回退到扫描
+    private long connectStartNanos;
+    private static final long DIRECT_CONNECT_TIMEOUT_MS = 3000;
+    private static final long DEVICE_LIST_REFRESH_MS = 1000;
+    private static final long METRICS_REFRESH_MS = 1000;
+    private boolean mHasAttemptedInitialCommand = false; // 每次扫描后第一个就绪的设备执行一次初始化脚本
+    private static final String INITIAL_AT_SCRIPT = "AT"; // 确认模块能响应AT指令，可在这里追加启动时的配置指令
+    private static final int STREAM_TEST_SIZE = 64 * 1024;
 
     private static final UUID SERVICE_UUID = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50100406E");
     private static final UUID CHARACTERISTIC_APP_WRITES_TO_MODULE = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50200406E");
     private static final UUID CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50300406E");
-    private static final UUID CCCD_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -74,12 +152,34 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         statusTextView = findViewById(R.id.statusTextView);
-        receivedDataTextView = findViewById(R.id.receivedDataTextView);
+        deviceListTextView = findViewById(R.id.deviceListTextView);
+        metricsTextView = findViewById(R.id.metricsTextView);
+        showMetricsCheckBox = findViewById(R.id.showMetricsCheckBox);
+        RecyclerView receivedDataRecyclerView = findViewById(R.id.receivedDataRecyclerView);
+        receivedLog = new ReceivedLogAdapter(receivedDataRecyclerView, RECEIVED_LOG_CAPACITY);
         scanButton = findViewById(R.id.scanButton);
         connectButton = findViewById(R.id.connectButton);
         sendButton = findViewById(R.id.sendButton);
+        streamButton = findViewById(R.id.streamButton);
+        replayButton = findViewById(R.id.replayButton);
+        loopbackButton = findViewById(R.id.loopbackButton);
+        loopbackSizeEditText = findViewById(R.id.loopbackSizeEditText);
+        loopbackPatternSpinner = findViewById(R.id.loopbackPatternSpinner);
+        telemetryButton = findViewById(R.id.telemetryButton);
+        telemetryLayoutEditText = findViewById(R.id.telemetryLayoutEditText);
+        telemetryChartView = findViewById(R.id.telemetryChartView);
+        telemetryChartView.setWindowSamples(TELEMETRY_WINDOW);
+        disconnectButton = findViewById(R.id.disconnectButton);
         atCommandEditText = findViewById(R.id.atCommandEditText);
         sendAtCommandButton = findViewById(R.id.sendAtCommandButton);
+        autoConnectCheckBox = findViewById(R.id.autoConnectCheckBox);
+        reliableModeCheckBox = findViewById(R.id.reliableModeCheckBox);
+        recordSessionCheckBox = findViewById(R.id.recordSessionCheckBox);
+        exportSessionCheckBox = findViewById(R.id.exportSessionCheckBox);
+        exportFormatSpinner = findViewById(R.id.exportFormatSpinner);
+        linkProfileSpinner = findViewById(R.id.linkProfileSpinner);
+        targetDeviceSpinner = findViewById(R.id.targetDeviceSpinner);
+        pinnedDeviceSpinner = findViewById(R.id.pinnedDeviceSpinner);
 
         if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
             Toast.makeText(this, "设备不支持BLE", Toast.LENGTH_SHORT).show();
@@ -98,49 +198,110 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        scanEngine = new BleScanEngine(bluetoothAdapter, handler, TARGET_DEVICE_NAME, SERVICE_UUID);
+        deviceCache = new DeviceCache(this);
+        deviceManager = new BleDeviceManager(this, handler, SERVICE_UUID, CHARACTERISTIC_APP_WRITES_TO_MODULE,
+                CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY, connectionListener);
+        setupLinkProfileSpinner();
+        setupTargetDeviceSpinner();
+        setupPinnedDeviceSpinner();
+        ArrayAdapter<LoopbackBenchmark.Pattern> patternAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, LoopbackBenchmark.Pattern.values());
+        patternAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        loopbackPatternSpinner.setAdapter(patternAdapter);
+        ArrayAdapter<SessionExporter.Format> exportFormatAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, SessionExporter.Format.values());
+        exportFormatAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        exportFormatSpinner.setAdapter(exportFormatAdapter);
         requestBlePermissions();
 
         scanButton.setOnClickListener(v -> {
-            if (!isScanning) {
+            if (!isScanning()) {
+                connectStartNanos = SystemClock.elapsedRealtimeNanos();
                 startBleScan();
             } else {
                 stopBleScan();
             }
         });
         connectButton.setOnClickListener(v -> {
-            if (!isScanning) {
-                startBleScan();
+            if (!isScanning()) {
+                connectToTarget();
             } else {
                 Toast.makeText(MainActivity.this, "请先停止扫描", Toast.LENGTH_SHORT).show();
             }
         });
+        disconnectButton.setOnClickListener(v -> {
+            String target = getSelectedTargetAddress();
+            if (target == null) deviceManager.disconnectAll();
+            else deviceManager.disconnect(target);
+        });
 
         sendButton.setOnClickListener(v -> {
-            if (isSafeToSend) {
-                Log.d(TAG, "发送 '0' 命令...");
-                sendDataToModule("0"); // 直接发送 '0' 字符串，不加 \r\n
+            Log.d(TAG, "发送 '0' 命令...");
+            sendDataToModule("0"); // 直接发送 '0' 字符串，不加 \r\n
+        });
+
+        streamButton.setOnClickListener(v -> {
+            BleConnection connection = getSelectedConnection();
+            if (connection == null || !connection.isReady()) {
+                Toast.makeText(MainActivity.this, "请选择一个已就绪的设备", Toast.LENGTH_SHORT).show();
+            } else if (connection.isStreaming()) {
+                connection.cancelStream();
             } else {
-                Toast.makeText(MainActivity.this, "设备尚未准备好", Toast.LENGTH_SHORT).show();
+                byte[] pattern = new byte[STREAM_TEST_SIZE];
+                for (int i = 0; i < pattern.length; i++) pattern[i] = (byte) ('0' + i % 10);
+                ReliableLink link = ReliableLink.get(connection);
+                if (link != null) sendReliable(link, pattern);
+                else startStreamingToModule(connection, new ByteArrayInputStream(pattern));
+            }
+        });
+
+        reliableModeCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            for (BleConnection connection : deviceManager.getConnections()) {
+                if (connection.isReady()) setReliableMode(connection, isChecked);
             }
         });
 
+        // 点击按原速回放最近的录制，长按尽快回放 (压测解码和显示)；回放中点击结束
+        replayButton.setOnClickListener(v -> toggleReplay(1.0));
+        replayButton.setOnLongClickListener(v -> {
+            toggleReplay(SessionReplayer.AS_FAST_AS_POSSIBLE);
+            return true;
+        });
+
+        loopbackButton.setOnClickListener(v -> toggleLoopbackBenchmark());
+        telemetryButton.setOnClickListener(v -> toggleTelemetry());
+
+        showMetricsCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            metricsTextView.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            handler.removeCallbacks(metricsRefreshRunnable);
+            if (isChecked) metricsRefreshRunnable.run();
+        });
+        findViewById(R.id.exportMetricsButton).setOnClickListener(v -> exportMetrics());
+
+        recordSessionCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) startSessionRecording();
+            else stopSessionRecording();
+        });
+        exportSessionCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) startSessionExport();
+            else stopSessionExport();
+        });
 
+        // 输入框的每一行是一条指令，多行作为脚本背靠背执行
         sendAtCommandButton.setOnClickListener(v -> {
-            if (isSafeToSend) {
-                String atCommand = atCommandEditText.getText().toString();
-                if (atCommand.isEmpty()) {
-                    Toast.makeText(MainActivity.this, "请输入AT指令", Toast.LENGTH_SHORT).show();
-                    return;
-                }
-                if (!atCommand.endsWith("\r\n")) {
-                    atCommand += "\r\n";
-                }
-                Log.d(TAG, "尝试发送自定义AT指令: " + atCommand.replace("\r\n", "\\r\\n"));
-                sendDataToModule(atCommand);
-            } else {
-                Toast.makeText(MainActivity.this, "设备尚未准备好发送数据 (isSafeToSend=false)", Toast.LENGTH_SHORT).show();
-                Log.w(TAG, "Attempted to send AT command but not safe to send yet.");
+            String script = atCommandEditText.getText().toString();
+            if (AtCommandEngine.parseScript(script).isEmpty()) {
+                Toast.makeText(MainActivity.this, "请输入AT指令", Toast.LENGTH_SHORT).show();
+                return;
             }
+            BleLog.text(TAG, "尝试发送自定义AT指令: ", script);
+            String target = getSelectedTargetAddress();
+            int started = 0;
+            for (BleConnection connection : deviceManager.getConnections()) {
+                if (!connection.isReady() || (target != null && !target.equals(connection.getAddress()))) continue;
+                runAtScript(connection, script, "AT指令");
+                started++;
+            }
+            if (started == 0) Toast.makeText(MainActivity.this, "设备尚未准备好", Toast.LENGTH_SHORT).show();
         });
 
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
@@ -199,80 +360,133 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    @SuppressLint("MissingPermission")
+    /**
+     * 每次扫描只连接一个模块：指定了模块时发现它就连接；否则先收集 DISCOVERY_WINDOW_MS 的广播，
+     * 再连接平滑 RSSI 最强的 (窗口内没有发现任何模块时连接之后第一个发现的)。
+     */
     private void startBleScan() {
         if (!hasRequiredPermissions()) { Toast.makeText(this, "缺少必要的蓝牙权限", Toast.LENGTH_SHORT).show(); requestBlePermissions(); return; }
         if (!bluetoothAdapter.isEnabled()) { Toast.makeText(this, "请先开启蓝牙", Toast.LENGTH_SHORT).show(); return; }
-        if (isScanning) { Log.d(TAG, "已经在扫描了"); return; }
+        if (isScanning()) { Log.d(TAG, "已经在扫描了"); return; }
+        if (deviceManager.size() >= BleDeviceManager.MAX_CONNECTIONS) { Toast.makeText(this, "已达到连接数上限", Toast.LENGTH_SHORT).show(); return; }
 
-        isSafeToSend = false;
         mHasAttemptedInitialCommand = false;
 
-        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
-        if (bluetoothLeScanner == null) { Toast.makeText(this, "无法获取BLE扫描器", Toast.LENGTH_SHORT).show(); return; }
-
-        leScanCallback = new ScanCallback() {
+        boolean started = scanEngine.start(SCAN_PROFILE, SCAN_PERIOD, new BleScanEngine.Listener() {
             @Override
-            public void onScanResult(int callbackType, ScanResult result) {
-                super.onScanResult(callbackType, result);
-                BluetoothDevice device = result.getDevice();
-                @SuppressLint("MissingPermission") String deviceName = device.getName();
-                if (deviceName != null && deviceName.equalsIgnoreCase(TARGET_DEVICE_NAME)) {
-                    statusTextView.setText("发现设备: " + deviceName + " (" + device.getAddress() + ")");
-                    Log.d(TAG, "发现目标设备: " + deviceName + " (" + device.getAddress() + ")");
-                    stopBleScan();
-                    connectToDevice(device);
-                }
+            public void onDeviceFound(BluetoothDevice device, ScanResult result, long timeToDiscoveryMs) {
+                if (deviceManager.get(device.getAddress()) != null) return;
+                statusTextView.setText("发现设备: " + device.getAddress() + " (" + timeToDiscoveryMs + "ms, RSSI " + result.getRssi() + ")");
+                Log.d(TAG, "发现目标设备: " + device.getAddress() + ", 发现用时: " + timeToDiscoveryMs + "ms");
+                String pinned = deviceCache.getPinnedAddress();
+                if (device.getAddress().equals(pinned) || (pinned == null && !discoveryWindowOpen)) connectDiscovered(device);
             }
+
             @Override
             public void onScanFailed(int errorCode) {
-                super.onScanFailed(errorCode);
                 statusTextView.setText("扫描失败: " + errorCode);
-                Log.e(TAG, "扫描失败，错误码: " + errorCode);
-                isScanning = false;
                 scanButton.setText("扫描/停止扫描");
             }
-        };
-        ScanSettings settings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
-        Log.d(TAG, "BLE扫描开始 (API Level " + Build.VERSION.SDK_INT + ")");
-        bluetoothLeScanner.startScan(null, settings, leScanCallback);
-        isScanning = true;
-        scanButton.setText("停止扫描");
-        statusTextView.setText("扫描中...");
-        handler.postDelayed(() -> {
-            if(isScanning) {
-                Log.d(TAG, "扫描超时，停止扫描");
+
+            @Override
+            public void onScanTimeout() {
                 stopBleScan();
+                refreshPinnedDevices();
+                String pinned = deviceCache.getPinnedAddress();
+                if (pinned != null && scanEngine.getDiscoveryTable().get(pinned) == null) statusTextView.setText("未发现指定的设备: " + pinned);
+                else if (scanEngine.getDiscoveryTable().size() == 0) statusTextView.setText("未发现设备");
             }
-        }, SCAN_PERIOD);
+        });
+        if (!started) { Toast.makeText(this, "无法获取BLE扫描器", Toast.LENGTH_SHORT).show(); return; }
+        discoveryWindowOpen = true;
+        handler.postDelayed(discoveryWindowRunnable, DISCOVERY_WINDOW_MS);
+        scanButton.setText("停止扫描");
+        statusTextView.setText("扫描中...");
+    }
+
+    // 发现窗口结束：记录候选排名，连接信号最强且尚未连接的模块
+    private final Runnable discoveryWindowRunnable = () -> {
+        discoveryWindowOpen = false;
+        if (!isScanning()) return;
+        DiscoveryTable table = scanEngine.getDiscoveryTable();
+        List<DiscoveryTable.Candidate> ranked = table.ranked();
+        for (int i = 0; i < ranked.size(); i++) receivedLog.append("候选 " + (i + 1) + ": " + ranked.get(i));
+        refreshPinnedDevices();
+
+        Set<String> connected = new HashSet<>();
+        for (BleConnection connection : deviceManager.getConnections()) connected.add(connection.getAddress());
+        String pinned = deviceCache.getPinnedAddress();
+        DiscoveryTable.Candidate selected = table.select(pinned, connected);
+        if (selected != null) {
+            connectDiscovered(bluetoothAdapter.getRemoteDevice(selected.getAddress()));
+        } else if (pinned != null) {
+            statusTextView.setText("等待指定的设备: " + pinned);
+        } else {
+            statusTextView.setText(ranked.isEmpty() ? "扫描中... 尚未发现设备" : "发现的设备都已连接，继续扫描");
+        }
+    };
+
+    private void connectDiscovered(BluetoothDevice device) {
+        DiscoveryTable.Candidate candidate = scanEngine.getDiscoveryTable().get(device.getAddress());
+        Log.d(TAG, "选择连接: " + candidate);
+        stopBleScan();
+        connectToDevice(device, false);
+    }
+
+    private boolean isScanning() {
+        return scanEngine != null && scanEngine.isScanning();
     }
 
-    @SuppressLint("MissingPermission")
     private void stopBleScan() {
         if (!hasRequiredPermissionsForScanStop()) { Log.w(TAG, "停止扫描权限不足(stopBleScan)"); return; }
+        if (scanEngine != null) scanEngine.stop();
+        discoveryWindowOpen = false;
+        handler.removeCallbacks(discoveryWindowRunnable);
+        scanButton.setText("扫描/停止扫描");
+    }
 
-        if (isScanning && bluetoothLeScanner != null && leScanCallback != null) {
-            try {
-                bluetoothLeScanner.stopScan(leScanCallback);
-                Log.d(TAG, "BLE扫描已请求停止");
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "停止扫描时出错: " + e.getMessage());
-            }
+    /** 有缓存地址时跳过扫描直接连接，失败或超时再回退到扫描 */
+    private void connectToTarget() {
+        if (!hasRequiredPermissions()) { Toast.makeText(this, "缺少必要的蓝牙权限", Toast.LENGTH_SHORT).show(); requestBlePermissions(); return; }
+        if (!bluetoothAdapter.isEnabled()) { Toast.makeText(this, "请先开启蓝牙", Toast.LENGTH_SHORT).show(); return; }
+        connectStartNanos = SystemClock.elapsedRealtimeNanos();
+
+        // 指定了模块时直接连接它，否则连接上次连接的模块
+        String cachedAddress = deviceCache.getPinnedAddress();
+        if (cachedAddress == null) cachedAddress = deviceCache.getLastAddress();
+        if (cachedAddress == null) {
+            Log.d(TAG, "没有缓存的设备地址，开始扫描");
+            startBleScan();
+            return;
+        }
+        if (deviceManager.get(cachedAddress) != null) { Toast.makeText(this, "上次的设备已在连接中", Toast.LENGTH_SHORT).show(); return; }
+        boolean autoConnect = autoConnectCheckBox.isChecked();
+        Log.d(TAG, "使用缓存地址直接连接: " + cachedAddress + " (上次绑定状态: " + bondStateToString(deviceCache.getLastBondState()) + ", autoConnect: " + autoConnect + ")");
+        directConnectAddress = cachedAddress;
+        if (connectToDevice(bluetoothAdapter.getRemoteDevice(cachedAddress), autoConnect) == null) {
+            fallbackToScan("connectGatt 返回 null");
+        } else if (!autoConnect) {
+            // autoConnect 模式由系统在后台等待设备出现，不设超时
+            handler.postDelayed(directConnectTimeoutRunnable, DIRECT_CONNECT_TIMEOUT_MS);
         }
-        leScanCallback = null;
-        isScanning = false;
-        scanButton.setText("扫描/停止扫描");
-        handler.removeCallbacksAndMessages(null);
     }
 
-    @SuppressLint("MissingPermission")
-    private void connectToDevice(BluetoothDevice device) {
-        if (!hasRequiredPermissionForConnect()) { Toast.makeText(this, "缺少蓝牙连接权限", Toast.LENGTH_SHORT).show(); requestBlePermissions(); return; }
-        if (device == null) { Log.e(TAG, "设备为空，无法连接"); return; }
+    private final Runnable directConnectTimeoutRunnable = () -> fallbackToScan("直接连接超时");
 
-        isSafeToSend = false;
-        mHasAttemptedInitialCommand = false;
-        connectedDevice = device;
+    private void fallbackToScan(String reason) {
+        String address = directConnectAddress;
+        if (address == null) return;
+        directConnectAddress = null;
+        handler.removeCallbacks(directConnectTimeoutRunnable);
+        Log.w(TAG, "直接连接失败 (" + reason + ")，回退到扫描");
+        deviceManager.disconnect(address);
+        startBleScan();
+    }
+
+    @SuppressLint("MissingPermission")
+    private BleConnection connectToDevice(BluetoothDevice device, boolean autoConnect) {
+        if (!hasRequiredPermissionForConnect()) { Toast.makeText(this, "缺少蓝牙连接权限", Toast.LENGTH_SHORT).show(); requestBlePermissions(); return null; }
+        if (device == null) { Log.e(TAG, "设备为空，无法连接"); return null; }
 
         if (device.getBondState() == BluetoothDevice.BOND_NONE) {
             Log.d(TAG, "设备未绑定，尝试创建绑定: " + device.getAddress());
@@ -281,295 +495,550 @@ public class MainActivity extends AppCompatActivity {
             Log.d(TAG, "设备已绑定或正在绑定中，状态: " + bondStateToString(device.getBondState()));
         }
 
-        if (bluetoothGatt != null) {
-            Log.d(TAG, "关闭之前的GATT连接 (connectToDevice)...");
-            bluetoothGatt.close();
-            bluetoothGatt = null;
-        }
         statusTextView.setText("连接中... " + device.getAddress());
-        Log.d(TAG, "尝试连接GATT到: " + device.getAddress());
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            bluetoothGatt = device.connectGatt(this, false, gattCallback, BluetoothDevice.TRANSPORT_LE);
-        } else {
-            bluetoothGatt = device.connectGatt(this, false, gattCallback);
-        }
-        if (bluetoothGatt == null) {
-            Log.e(TAG, "device.connectGatt 返回 null!");
-            statusTextView.setText("连接尝试失败 (GATT为null)");
+        boolean existing = deviceManager.get(device.getAddress()) != null;
+        BleConnection connection = deviceManager.connect(device, autoConnect);
+        if (connection == null) {
+            statusTextView.setText("连接尝试失败: " + device.getAddress());
+            return null;
         }
+        // 连接可能已在工作线程上失败并关闭了帧发布者，这时订阅直接结束，不会抛异常
+        if (!existing) subscribeReceivedLog(connection);
+        handler.removeCallbacks(deviceListRefreshRunnable);
+        handler.post(deviceListRefreshRunnable);
+        return connection;
     }
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @SuppressLint("MissingPermission")
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String deviceAddress;
-            if (gatt != null && gatt.getDevice() != null) {
-                deviceAddress = gatt.getDevice().getAddress();
-            } else {
-                deviceAddress = "";
+    private void setupLinkProfileSpinner() {
+        ArrayAdapter<LinkProfile> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, LinkProfile.values());
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        linkProfileSpinner.setAdapter(adapter);
+        linkProfileSpinner.setSelection(deviceManager.getLinkProfile().ordinal());
+        linkProfileSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                setLinkProfile(LinkProfile.values()[position]);
             }
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    Log.d(TAG, "已连接到GATT服务器: " + deviceAddress + ". 绑定状态: " + bondStateToString(gatt.getDevice().getBondState()));
-                    runOnUiThread(() -> statusTextView.setText("已连接: " + deviceAddress));
-                    Log.d(TAG, "尝试请求MTU (23)...");
-                    if (!gatt.requestMtu(23)) {
-                        Log.e(TAG, "requestMtu(23) 调用失败，直接发现服务");
-                        discoverServicesAfterMtu(gatt);
-                    }
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    Log.d(TAG, "已从GATT服务器断开: " + deviceAddress + " (newState: DISCONNECTED)");
-                    runOnUiThread(() -> statusTextView.setText("已断开连接"));
-                    closeGatt();
-                }
-            } else {
-                Log.e(TAG, "GATT连接状态改变错误，Status: " + status + " (Device: " + deviceAddress + ", newState: " +newState + ")");
-                runOnUiThread(() -> statusTextView.setText("连接失败，错误: " + status));
-                closeGatt();
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+    }
+
+    /** 运行时切换链路档位，已连接的设备立即重新请求连接优先级和PHY */
+    private void setLinkProfile(LinkProfile profile) {
+        if (profile == deviceManager.getLinkProfile()) return;
+        Log.d(TAG, "链路档位切换为: " + profile);
+        if (hasRequiredPermissionForConnect()) deviceManager.setLinkProfile(profile);
+    }
+
+    private void setupTargetDeviceSpinner() {
+        targetDeviceItems.add(TARGET_ALL_DEVICES);
+        targetDeviceAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, targetDeviceItems);
+        targetDeviceAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        targetDeviceSpinner.setAdapter(targetDeviceAdapter);
+    }
+
+    private void setupPinnedDeviceSpinner() {
+        pinnedDeviceAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, pinnedDeviceItems);
+        pinnedDeviceAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        pinnedDeviceSpinner.setAdapter(pinnedDeviceAdapter);
+        refreshPinnedDevices();
+        pinnedDeviceSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                String address = position < pinnedDeviceAddresses.size() ? pinnedDeviceAddresses.get(position) : null;
+                if (address == null ? deviceCache.getPinnedAddress() == null : address.equals(deviceCache.getPinnedAddress())) return;
+                Log.d(TAG, "指定连接的模块: " + (address != null ? address : PINNED_AUTO));
+                deviceCache.setPinnedAddress(address);
             }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+    }
+
+    /** 用最近一次扫描的候选 (按信号排序) 重建指定模块列表，已指定的地址即使本次没发现也保留 */
+    private void refreshPinnedDevices() {
+        String pinned = deviceCache.getPinnedAddress();
+        pinnedDeviceItems.clear();
+        pinnedDeviceAddresses.clear();
+        pinnedDeviceItems.add(PINNED_AUTO);
+        pinnedDeviceAddresses.add(null);
+        DiscoveryTable table = scanEngine.getDiscoveryTable();
+        if (pinned != null && table.get(pinned) == null) {
+            pinnedDeviceItems.add(pinned + " (未发现)");
+            pinnedDeviceAddresses.add(pinned);
         }
+        for (DiscoveryTable.Candidate candidate : table.ranked()) {
+            pinnedDeviceItems.add(String.format(Locale.US, "%s %.0f dBm", candidate.getAddress(), candidate.getSmoothedRssi()));
+            pinnedDeviceAddresses.add(candidate.getAddress());
+        }
+        pinnedDeviceAdapter.notifyDataSetChanged();
+        pinnedDeviceSpinner.setSelection(Math.max(pinnedDeviceAddresses.indexOf(pinned), 0));
+    }
 
-        @SuppressLint("MissingPermission")
-        private void discoverServicesAfterMtu(BluetoothGatt gatt){
-            if (gatt == null) { Log.e(TAG, "discoverServicesAfterMtu: GATT is null"); return; }
-            Log.d(TAG, "开始发现服务...");
-            if (!gatt.discoverServices()) {
-                Log.e(TAG, "启动服务发现调用失败 (gatt.discoverServices() returned false)");
-                runOnUiThread(() -> statusTextView.setText("服务发现启动失败"));
-                closeGatt();
-            }
+    /** 连接就绪或关闭后重建发送目标列表，尽量保持原来的选择 */
+    private void refreshTargetDevices() {
+        String selected = getSelectedTargetAddress();
+        targetDeviceItems.clear();
+        targetDeviceItems.add(TARGET_ALL_DEVICES);
+        for (BleConnection connection : deviceManager.getConnections()) {
+            if (connection.isReady()) targetDeviceItems.add(connection.getAddress());
         }
+        targetDeviceAdapter.notifyDataSetChanged();
+        int index = selected != null ? targetDeviceItems.indexOf(selected) : 0;
+        targetDeviceSpinner.setSelection(Math.max(index, 0));
+    }
 
-        @SuppressLint("MissingPermission")
+    /** 选中的设备地址，选择"全部设备"时返回null */
+    private String getSelectedTargetAddress() {
+        int position = targetDeviceSpinner.getSelectedItemPosition();
+        return position > 0 && position < targetDeviceItems.size() ? targetDeviceItems.get(position) : null;
+    }
+
+    /** 单设备操作 (流式发送) 的目标：选中的设备；选择"全部设备"且只连接了一个设备时为该设备 */
+    private BleConnection getSelectedConnection() {
+        String address = getSelectedTargetAddress();
+        if (address != null) return deviceManager.get(address);
+        List<BleConnection> connections = deviceManager.getConnections();
+        return connections.size() == 1 ? connections.get(0) : null;
+    }
+
+    private final Runnable deviceListRefreshRunnable = new Runnable() {
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) Log.d(TAG, "MTU成功更改为: " + mtu);
-            else Log.e(TAG, "MTU更改失败，状态: " + status + ", Actual MTU: " + mtu);
-            discoverServicesAfterMtu(gatt);
+        public void run() {
+            refreshDeviceList();
+            if (deviceManager.size() > 0) handler.postDelayed(this, DEVICE_LIST_REFRESH_MS);
         }
+    };
 
-        @SuppressLint("MissingPermission")
+    private final Runnable metricsRefreshRunnable = new Runnable() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (gatt == null) { Log.e(TAG, "onServicesDiscovered: GATT is null"); return; }
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "服务发现成功!");
-                BluetoothGattService service = gatt.getService(SERVICE_UUID);
-                if (service == null) { Log.e(TAG, "目标服务 " + SERVICE_UUID + " 未找到!"); runOnUiThread(() -> statusTextView.setText("目标服务未找到")); setSafeToSendAfterDelay("目标服务未找到"); return; }
-
-                BluetoothGattCharacteristic charToNotify = service.getCharacteristic(CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY);
-                if (charToNotify != null) {
-                    Log.i(TAG, "用于通知的特征 (" + CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY + ") Properties: " + charToNotify.getProperties());
-                    if ((charToNotify.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-                        Log.d(TAG, "为特征 " + CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY + " 启用通知");
-                        enableNotifications(gatt, charToNotify);
-                    } else {
-                        Log.e(TAG, "特征 " + CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY + " 不支持通知。");
-                        setSafeToSendAfterDelay("目标通知特征不支持Notify");
-                    }
-                } else {
-                    Log.e(TAG, "用于通知的特征 " + CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY + " 未找到!");
-                    setSafeToSendAfterDelay("目标通知特征未找到");
-                }
-                runOnUiThread(() -> statusTextView.append("\n服务准备就绪"));
-            } else {
-                Log.e(TAG, "服务发现失败，状态: " + status);
-                runOnUiThread(() -> statusTextView.setText("服务发现失败: " + status));
-                setSafeToSendAfterDelay("服务发现失败 (status: " + status + ")");
-            }
+        public void run() {
+            metricsTextView.setText(deviceManager.getMetrics().dump());
+            handler.postDelayed(this, METRICS_REFRESH_MS);
         }
+    };
 
-        @SuppressLint("MissingPermission")
-        private void enableNotifications(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            if (gatt == null) { Log.e(TAG, "enableNotifications: GATT is null"); setSafeToSendAfterDelay("GATT null (enableNotifications)"); return;}
-            if (!hasRequiredPermissionForConnect()) { setSafeToSendAfterDelay("权限不足启用通知"); return; }
+    /** 所有连接的延迟分布写成CSV (files/metrics/)，同时把表格打到日志，便于从不同手机收集 p50/p99 */
+    private void exportMetrics() {
+        LinkMetrics metrics = deviceManager.getMetrics();
+        Log.i(TAG, "链路指标:\n" + metrics.dump());
+        File root = getExternalFilesDir("metrics");
+        if (root == null) root = new File(getFilesDir(), "metrics");
+        File file = new File(root, "metrics-" + Build.MODEL.replace(' ', '_') + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".csv");
+        if (!root.isDirectory() && !root.mkdirs()) { Toast.makeText(this, "无法创建目录: " + root, Toast.LENGTH_SHORT).show(); return; }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            metrics.exportCsv(out);
+        } catch (IOException e) {
+            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        receivedLog.append("指标已导出: " + file.getAbsolutePath());
+    }
 
-            if (!gatt.setCharacteristicNotification(characteristic, true)) {
-                Log.e(TAG, "为特征 " + characteristic.getUuid() + " setCharacteristicNotification失败");
-                setSafeToSendAfterDelay("setCharacteristicNotification失败");
-                return;
-            }
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCCD_UUID);
-            if (descriptor == null) {
-                Log.e(TAG, "CCCD for " + characteristic.getUuid() + " 未找到!");
-                setSafeToSendAfterDelay("CCCD未找到 (enableNotifications)");
-                return;
-            }
-            Log.d(TAG, "准备写入CCCD for " + characteristic.getUuid());
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                int result = gatt.writeDescriptor(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                Log.d(TAG, "gatt.writeDescriptor(value) API 33+ returned code: " + result);
-            } else {
-                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                if (!gatt.writeDescriptor(descriptor)) {
-                    Log.e(TAG, "写入CCCD描述符失败 for " + characteristic.getUuid() + " (排队失败)");
-                    setSafeToSendAfterDelay("writeDescriptor排队失败 (enableNotifications)");
-                    return;
-                }
-            }
-            Log.d(TAG, "CCCD写入已排队 for " + characteristic.getUuid());
+    /** 每个设备一行：状态、MTU、最近一秒的发送/接收速率 */
+    private void refreshDeviceList() {
+        List<BleConnection> connections = deviceManager.getConnections();
+        if (connections.isEmpty()) { deviceListTextView.setText("无已连接设备"); return; }
+        StringBuilder sb = new StringBuilder();
+        for (BleConnection connection : connections) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(connection.getAddress()).append("  ").append(connection.getState())
+                    .append("  MTU ").append(connection.getMtu())
+                    .append("  ↑ ").append(String.format("%.1f", connection.getTxMeter().getBytesPerSecond() / 1024)).append(" KB/s")
+                    .append("  ↓ ").append(String.format("%.1f", connection.getRxMeter().getBytesPerSecond() / 1024)).append(" KB/s");
         }
+        if (sessionExport != null) sb.append('\n').append(sessionExport.describeProgress());
+        deviceListTextView.setText(sb);
+    }
 
+    private final BleConnection.Listener connectionListener = new BleConnection.Listener() {
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            if (CCCD_UUID.equals(descriptor.getUuid())) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    Log.d(TAG, "CCCD写入成功 for " + descriptor.getCharacteristic().getUuid() + ". 通知已启用.");
-                    runOnUiThread(() -> receivedDataTextView.append("\n通知已为 " + descriptor.getCharacteristic().getUuid().toString().substring(4,8) + " 开启"));
-                } else {
-                    Log.e(TAG, "CCCD写入失败 for " + descriptor.getCharacteristic().getUuid() + ". 状态: " + status);
-                }
-                setSafeToSendAfterDelay("CCCD写入回调 (状态 "+status+")");
-            }
+        public void onStateChanged(BleConnection connection, ConnectionStateMachine.State from, ConnectionStateMachine.State to, long phaseMillis) {
+            Log.d(TAG, connection.getAddress() + " 连接状态: " + from + " -> " + to + " (" + from + " 用时 " + phaseMillis + "ms)");
+            if (to == ConnectionStateMachine.State.MTU) handler.post(() -> onLinkConnected(connection));
         }
 
-        private void setSafeToSendAfterDelay(String reason) {
-            handler.postDelayed(() -> {
-                Log.i(TAG, reason + ", 延迟后设置 isSafeToSend = true");
-                isSafeToSend = true;
-            }, 300);
+        @Override
+        public void onReady(BleConnection connection) {
+            BluetoothDevice device = connection.getDevice();
+            deviceCache.remember(device.getAddress(), device.getBondState());
+            long elapsedMs = (SystemClock.elapsedRealtimeNanos() - connectStartNanos) / 1_000_000L;
+            Log.i(TAG, "连接就绪: " + device.getAddress() + ", 从发起连接到就绪用时 " + elapsedMs + "ms (GATT建立 "
+                    + connection.getLastConnectMillis() + "ms: " + connection.describePhases() + ")");
+            statusTextView.setText("已就绪: " + device.getAddress() + " (" + elapsedMs + "ms), 共 " + deviceManager.getReadyCount() + " 个设备");
+            receivedLog.append("通知已为 " + device.getAddress() + " 开启");
+            refreshTargetDevices();
+            if (reliableModeCheckBox.isChecked()) setReliableMode(connection, true);
+            if (sessionRecording != null) sessionRecording.attach(connection);
+            if (sessionExport != null) sessionExport.attach(connection);
+            if (!mHasAttemptedInitialCommand && !INITIAL_AT_SCRIPT.isEmpty()) {
+                mHasAttemptedInitialCommand = true;
+                runAtScript(connection, INITIAL_AT_SCRIPT, "初始化指令");
+            }
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            String writtenValue = "";
-            if (characteristic.getValue() != null) {
-                writtenValue = new String(characteristic.getValue(), StandardCharsets.UTF_8);
-            }
+        public void onSetupFailed(BleConnection connection, String reason) {
+            statusTextView.setText("连接建立失败: " + connection.getAddress() + " " + reason);
+        }
 
-            if (CHARACTERISTIC_APP_WRITES_TO_MODULE.equals(characteristic.getUuid())) {
-                if (characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        Log.d(TAG, "数据(无应答)写入已成功排队/发送: " + writtenValue.replace("\r\n", "\\r\\n"));
-                        // UI updated in sendDataToModule for WRITE_NO_RESPONSE upon successful queueing.
-                    } else {
-                        Log.e(TAG, "数据(无应答)写入失败(回调), 错误码: " + status + ", Value: " + writtenValue.replace("\r\n", "\\r\\n"));
-                        runOnUiThread(() -> statusTextView.setText("发送(无应答)失败: " + status));
-                    }
-                } else {
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        Log.d(TAG, "数据(带应答)写入成功: " + writtenValue.replace("\r\n", "\\r\\n"));
-                        if (!writtenValue.startsWith("AT+")) {
-                            runOnUiThread(() -> statusTextView.setText("数据发送成功"));
-                        } else {
-                            Log.i(TAG, "AT命令 '" + writtenValue.trim() + "' 发送成功 (GATT_SUCCESS)");
-                        }
-                    } else {
-                        Log.e(TAG, "数据(带应答)写入失败，错误码: " + status + ", Value was: " + writtenValue.replace("\r\n", "\\r\\n"));
-                        if (!writtenValue.startsWith("AT+")) {
-                            runOnUiThread(() -> statusTextView.setText("数据发送失败，错误码: " + status));
-                        } else {
-                            Log.e(TAG, "AT命令 '" + writtenValue.trim() + "' 发送失败，错误码: " + status);
-                        }
-                    }
-                }
-            }
+        @Override
+        public void onPhyReported(BleConnection connection, int txPhy, int rxPhy) {
+            statusTextView.setText(connection.getAddress() + " PHY: TX " + LinkProfile.phyToString(txPhy)
+                    + " / RX " + LinkProfile.phyToString(rxPhy) + ", 档位: " + connection.getLinkProfile());
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            byte[] data = characteristic.getValue();
-            if (data == null) {
-                Log.w(TAG, "onCharacteristicChanged: null data received for " + characteristic.getUuid());
+        public void onClosed(BleConnection connection, int status) {
+            if (connection.getAddress().equals(directConnectAddress)) {
+                fallbackToScan("连接错误 " + status);
                 return;
             }
-            String receivedString = new String(data, StandardCharsets.UTF_8);
-            UUID charUuid = characteristic.getUuid();
-            Log.d(TAG, "特征 " + charUuid + " 数据改变: " + receivedString);
-
-            if (CHARACTERISTIC_APP_RECEIVES_FROM_MODULE_NOTIFY.equals(charUuid)) {
-                runOnUiThread(() -> receivedDataTextView.setText("接收到 (" + charUuid.toString().substring(4,8) +"): " + receivedString));
-            }
+            statusTextView.setText(status == BluetoothGatt.GATT_SUCCESS ? "已断开连接: " + connection.getAddress()
+                    : "连接失败: " + connection.getAddress() + ", 错误: " + status);
+            streamButton.setText("流式发送测试");
+            if (telemetryFeed != null && connection == telemetryFeed.getConnection()) stopTelemetry();
+            refreshTargetDevices();
+            refreshDeviceList();
         }
     };
 
-    @SuppressLint("MissingPermission")
+    /**
+     * 接收区显示是帧的一个订阅者：在自己的投递线程上构造字符串和打日志，不占用BLE工作线程；
+     * 显示跟不上时丢弃最旧的帧 (接收区本来也只保留最近的行)。buffer只在本次调用期间有效
+     */
+    private void subscribeReceivedLog(BleConnection connection) {
+        connection.getFramePublisher().subscribe((timestampNanos, buffer, offset, length) -> {
+            String frame = new String(buffer, offset, length, StandardCharsets.UTF_8);
+            BleLog.data(TAG, "收到帧: ", buffer, offset, length);
+            // 多个设备时在每行前面标出来源设备；按显示帧合并渲染，不再每帧post一个Runnable
+            receivedLog.append(deviceManager.size() > 1 ? "[" + connection.getAddress() + "] " + frame : frame);
+        }, FramePublisher.Overflow.DROP_OLDEST);
+    }
+
+    private void onLinkConnected(BleConnection connection) {
+        if (!connection.getAddress().equals(directConnectAddress)) return;
+        directConnectAddress = null;
+        handler.removeCallbacks(directConnectTimeoutRunnable);
+    }
+
+    /** 发送到选中的设备，选择"全部设备"时广播到所有已就绪的设备 */
     private void sendDataToModule(String data) {
-        if (bluetoothGatt == null) { Log.e(TAG, "GATT未连接"); Toast.makeText(this, "设备未连接", Toast.LENGTH_SHORT).show(); return; }
         if (!hasRequiredPermissionForConnect()) { Toast.makeText(this, "缺少连接权限", Toast.LENGTH_SHORT).show(); return; }
+        byte[] value = data.getBytes(StandardCharsets.UTF_8);
+        if (BleLog.isDebugEnabled()) BleLog.data(TAG, "发送内容: ", value, 0, value.length);
 
-        BluetoothGattService service = bluetoothGatt.getService(SERVICE_UUID);
-        if (service == null) { Log.e(TAG, "服务未找到"); Toast.makeText(this, "服务未找到", Toast.LENGTH_SHORT).show(); return; }
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(CHARACTERISTIC_APP_WRITES_TO_MODULE);
-        if (characteristic == null) { Log.e(TAG, "写入特征 ("+CHARACTERISTIC_APP_WRITES_TO_MODULE+") 未找到"); Toast.makeText(this, "写入特征未找到", Toast.LENGTH_SHORT).show(); return; }
+        String target = getSelectedTargetAddress();
+        if (target == null) {
+            int sent = deviceManager.broadcast(value, (connection, operation, status) -> onDataWriteComplete(connection, data, operation, status));
+            if (sent == 0) Toast.makeText(this, "设备尚未准备好", Toast.LENGTH_SHORT).show();
+            else BleLog.d(TAG, "已广播到 {} 个设备", sent);
+            return;
+        }
+        BleConnection connection = deviceManager.get(target);
+        if (connection == null || !connection.send(value, (operation, status) -> onDataWriteComplete(connection, data, operation, status))) {
+            Toast.makeText(this, "设备尚未准备好发送数据 (" + (connection != null ? connection.getState() : "未连接") + ")", Toast.LENGTH_SHORT).show();
+        }
+    }
 
-        int properties = characteristic.getProperties();
-        Log.d(TAG, "发送数据: 写入特征 (" + CHARACTERISTIC_APP_WRITES_TO_MODULE + ") Properties: " + properties);
+    /** 把脚本排队到一个设备的AT引擎，遇到ERROR停止，完成后在状态栏显示条数和总用时 */
+    private void runAtScript(BleConnection connection, String script, String label) {
+        long startMs = SystemClock.elapsedRealtime();
+        connection.getAtEngine().runScript(script, true).whenComplete((responses, error) -> runOnUiThread(() -> {
+            long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                Log.e(TAG, connection.getAddress() + " " + label + "失败: " + cause.getMessage());
+                statusTextView.setText(label + "失败: " + cause.getMessage());
+                return;
+            }
+            for (AtResponse response : responses) BleLog.i(TAG, "AT: {}", response);
+            AtResponse last = responses.isEmpty() ? null : responses.get(responses.size() - 1);
+            if (last != null && !last.isOk()) {
+                statusTextView.setText(label + "出错: " + last);
+            } else {
+                statusTextView.setText(label + "完成: " + responses.size() + " 条, 用时 " + elapsedMs + "ms");
+            }
+        }));
+    }
 
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
-            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-            Log.d(TAG, "尝试使用 WRITE_TYPE_NO_RESPONSE for " + CHARACTERISTIC_APP_WRITES_TO_MODULE);
-        } else if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0) {
-            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            Log.d(TAG, "特征不支持NO_RESPONSE, 尝试使用 WRITE_TYPE_DEFAULT for " + CHARACTERISTIC_APP_WRITES_TO_MODULE);
-        } else {
-            Log.e(TAG, "特征既不支持WRITE也不支持WRITE_NO_RESPONSE. Props: " + properties); Toast.makeText(this, "特征写入类型不支持", Toast.LENGTH_SHORT).show(); return;
+    /** 开启时模块的通知按分帧协议解析，收到的每条完整消息显示长度和开头的字节 */
+    private void setReliableMode(BleConnection connection, boolean enabled) {
+        if (!enabled) {
+            ReliableLink link = ReliableLink.get(connection);
+            if (link != null) link.stop();
+            return;
+        }
+        String prefix = "[" + connection.getAddress() + "] ";
+        ReliableLink.start(connection, message -> receivedLog.append(prefix + "[二进制] " + message.length + " 字节: "
+                + HexEncoder.toHex(message, 0, Math.min(message.length, 16), true) + (message.length > 16 ? " ..." : "")));
+    }
+
+    /** 录制所有连接收到的通知到 files/sessions/<时间> 目录，之后连上的设备也会加入录制 */
+    private void startSessionRecording() {
+        if (sessionRecording != null) return;
+        try {
+            sessionRecording = SessionRecording.start(this);
+        } catch (IOException e) {
+            Log.e(TAG, "无法开始录制: " + e.getMessage());
+            Toast.makeText(this, "无法开始录制: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            recordSessionCheckBox.setChecked(false);
+            return;
         }
+        for (BleConnection connection : deviceManager.getConnections()) {
+            if (connection.isReady()) sessionRecording.attach(connection);
+        }
+        receivedLog.append("开始录制会话: " + sessionRecording.getDirectory().getAbsolutePath());
+    }
 
-        byte[] value = data.getBytes(StandardCharsets.UTF_8);
+    // 先从连接上摘下，再在后台线程收尾 (写完环中剩余的记录、刷盘、写索引)
+    private void stopSessionRecording() {
+        if (sessionRecording == null) return;
+        sessionRecording.stop(handler, receivedLog::append);
+        sessionRecording = null;
+    }
 
-        boolean queuedSuccessfully = false;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            int result = bluetoothGatt.writeCharacteristic(characteristic, value, characteristic.getWriteType());
-            Log.d(TAG, "准备发送数据(API33+): " + data.replace("\r\n", "\\r\\n") + ", WriteType: "+characteristic.getWriteType()+", Result code: " + result);
-            if (result == BluetoothGatt.GATT_SUCCESS) {
-                queuedSuccessfully = true;
-            } else {
-                Log.e(TAG, "writeCharacteristic (API33+) 调用失败, 返回码: " + result); Toast.makeText(this, "发送排队失败 (API33+)", Toast.LENGTH_SHORT).show();
+    /**
+     * 把之后收到的通知边收边导出成 files/exports/ 下的 gzip 文件：CSV 包含所有设备 (之后连上的也加入)，
+     * RAW 只导出选中的设备。
+     */
+    private void startSessionExport() {
+        if (sessionExport != null) return;
+        SessionExporter.Format format = (SessionExporter.Format) exportFormatSpinner.getSelectedItem();
+        BleConnection rawConnection = format == SessionExporter.Format.RAW ? getSelectedConnection() : null;
+        if (format == SessionExporter.Format.RAW && rawConnection == null) {
+            Toast.makeText(this, "RAW 格式请选择一个设备", Toast.LENGTH_SHORT).show();
+            exportSessionCheckBox.setChecked(false);
+            return;
+        }
+        try {
+            sessionExport = SessionExport.start(this, format, rawConnection);
+        } catch (IOException e) {
+            Log.e(TAG, "无法开始导出: " + e.getMessage());
+            Toast.makeText(this, "无法开始导出: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            exportSessionCheckBox.setChecked(false);
+            return;
+        }
+        for (BleConnection connection : deviceManager.getConnections()) {
+            if (connection.isReady()) sessionExport.attach(connection);
+        }
+        exportFormatSpinner.setEnabled(false);
+        receivedLog.append("开始导出接收数据: " + sessionExport.getFile().getAbsolutePath());
+    }
+
+    // 先从连接上摘下，再在后台线程写完剩余数据并结束 gzip 流，最后报告文件大小和导出速度
+    private void stopSessionExport() {
+        if (sessionExport == null) return;
+        sessionExport.stop(handler, receivedLog::append);
+        sessionExport = null;
+        exportFormatSpinner.setEnabled(true);
+    }
+
+    /**
+     * 把 sessions 目录下最新的录制回放进选中连接的接收路径，只有一个连接时不用选择。
+     * 连接不需要就绪，回放的数据和真实通知走同样的解码和显示。
+     */
+    private void toggleReplay(double speed) {
+        BleConnection connection = getSelectedConnection();
+        if (connection == null) { Toast.makeText(this, "请选择一个设备 (回放注入它的接收路径)", Toast.LENGTH_SHORT).show(); return; }
+        SessionReplayRunner running = SessionReplayRunner.get(connection);
+        if (running != null) { running.cancel(); return; }
+        File latest = SessionReplayRunner.findLatest(SessionRecording.getSessionsRoot(this));
+        if (latest == null) { Toast.makeText(this, "没有可回放的录制", Toast.LENGTH_SHORT).show(); return; }
+        SessionReplayRunner runner;
+        try {
+            runner = SessionReplayRunner.start(connection, handler, latest, speed, (r, replayer) -> {
+                replayButton.setText("回放录制");
+                String result = "回放结束 " + r.getName() + ": " + replayer.getRecords() + " 条通知, " + replayer.getBytes() + " 字节, 用时 "
+                        + replayer.getElapsedNanos() / 1_000_000L + "ms, 最大延迟 " + replayer.getMaxLatenessNanos() / 1_000L + "us";
+                Log.i(TAG, r.getConnection().getAddress() + " " + result);
+                receivedLog.append(result);
+            });
+        } catch (IOException e) {
+            Toast.makeText(this, "无法打开录制: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (runner == null) return;
+        replayButton.setText("停止回放");
+        receivedLog.append("开始回放 " + runner.getName() + (speed == SessionReplayer.AS_FAST_AS_POSSIBLE ? " (尽快)" : " (原速)"));
+    }
+
+    /**
+     * 在选中的设备上跑 档位 × 写类型 × MTU 的回环测试 (模块需处于透传模式、串口TX/RX短接)，
+     * 每个组合写出输入框里的KB数，结果逐条显示，全部跑完导出到 files/benchmark/。测试中点击结束。
+     */
+    private void toggleLoopbackBenchmark() {
+        if (loopbackRunner != null) { loopbackRunner.cancel(); return; }
+        BleConnection connection = getSelectedConnection();
+        if (connection == null || !connection.isReady()) { Toast.makeText(this, "请选择一个已就绪的设备", Toast.LENGTH_SHORT).show(); return; }
+        if (connection.isStreaming() || ReliableLink.get(connection) != null) {
+            Toast.makeText(this, "请先停止流式发送并关闭可靠模式", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        long kilobytes;
+        try {
+            kilobytes = Long.parseLong(loopbackSizeEditText.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            kilobytes = 0;
+        }
+        if (kilobytes <= 0) { Toast.makeText(this, "请输入每个组合的数据量 (KB)", Toast.LENGTH_SHORT).show(); return; }
+        LoopbackBenchmarkRunner runner = new LoopbackBenchmarkRunner(connection, handler);
+        runner.setTotalBytes(kilobytes * 1024);
+        runner.setPattern((LoopbackBenchmark.Pattern) loopbackPatternSpinner.getSelectedItem());
+        boolean started = runner.start(new LoopbackBenchmarkRunner.Listener() {
+            @Override
+            public void onRunStarted(String label, int index, int count) {
+                statusTextView.setText("回环测试 " + (index + 1) + "/" + count + ": " + label);
             }
-        } else {
-            characteristic.setValue(value);
-            Log.d(TAG, "准备发送数据(OldAPI): " + data.replace("\r\n", "\\r\\n") + " (Bytes: " + bytesToHex(value) + ")");
-            if (bluetoothGatt.writeCharacteristic(characteristic)) {
-                queuedSuccessfully = true;
-            } else {
-                Log.e(TAG, "writeCharacteristic (OldAPI) 调用失败 for: " + data.replace("\r\n", "\\r\\n")); Toast.makeText(this, "发送排队失败", Toast.LENGTH_SHORT).show();
+
+            @Override
+            public void onRunFinished(LoopbackBenchmark.Result result) {
+                receivedLog.append(result.toString());
             }
-        }
 
-        if (queuedSuccessfully) {
-            Log.d(TAG, "数据写入已排队... for: " + data.replace("\r\n", "\\r\\n"));
-            if (characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
-                if (!data.startsWith("AT+")) { // Only update UI for user data, not AT commands for NO_RESPONSE
-                    runOnUiThread(() -> statusTextView.setText("数据(无应答)已发送"));
-                } else {
-                    Log.i(TAG, "AT命令 '" + data.trim() + "' (无应答) 已发送");
-                }
+            @Override
+            public void onAllFinished(List<LoopbackBenchmark.Result> results, boolean cancelled) {
+                loopbackRunner = null;
+                loopbackButton.setText("回环吞吐测试");
+                statusTextView.setText("回环测试" + (cancelled ? "中止" : "完成") + ": " + results.size() + " 个组合");
+                if (!results.isEmpty()) exportLoopbackResults(connection, results);
             }
+        });
+        if (!started) { Toast.makeText(this, "没有可测的组合", Toast.LENGTH_SHORT).show(); return; }
+        loopbackRunner = runner;
+        loopbackButton.setText("停止回环测试");
+        receivedLog.append("开始回环测试 " + connection.getAddress() + ": " + runner.getCombinationCount() + " 个组合, 每个 " + kilobytes + " KB");
+    }
+
+    /**
+     * 按输入框里的格式 (见 TelemetryLayout) 把选中设备的通知解析成遥测样本并画成曲线，再次点击结束。
+     * 解析在BLE工作线程上进行，曲线每个显示帧按屏幕宽度抽取后重绘。
+     */
+    private void toggleTelemetry() {
+        if (telemetryFeed != null) { stopTelemetry(); return; }
+        BleConnection connection = getSelectedConnection();
+        if (connection == null || !connection.isReady()) { Toast.makeText(this, "请选择一个已就绪的设备", Toast.LENGTH_SHORT).show(); return; }
+        TelemetryLayout layout;
+        try {
+            layout = TelemetryLayout.parse(telemetryLayoutEditText.getText().toString());
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "遥测格式错误: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
         }
+        telemetryFeed = TelemetryFeed.start(connection, layout, TelemetryFeed.DEFAULT_CAPACITY);
+        telemetryChartView.setBuffer(telemetryFeed.getParser().getBuffer());
+        telemetryChartView.setVisibility(View.VISIBLE);
+        telemetryButton.setText("停止遥测");
+        receivedLog.append("开始遥测 " + connection.getAddress() + ": " + layout + " (" + layout.getChannelCount() + " 个通道"
+                + (layout.getFormat() == TelemetryLayout.Format.BINARY ? ", 每条 " + layout.getRecordSize() + " 字节)" : ")"));
     }
 
+    private void stopTelemetry() {
+        receivedLog.append(telemetryFeed.stop());
+        telemetryFeed = null;
+        telemetryChartView.setBuffer(null);
+        telemetryChartView.setVisibility(View.GONE);
+        telemetryButton.setText("遥测曲线");
+    }
 
+    /** 文件开头注明手机型号、系统版本和模块，便于汇总不同手机和固件的结果 */
     @SuppressLint("MissingPermission")
-    private void closeGatt() {
-        if (bluetoothGatt != null) {
-            isSafeToSend = false;
-            mHasAttemptedInitialCommand = false;
-            Log.d(TAG, "正在关闭GATT连接...");
-            String deviceAddress = "";
-            if (bluetoothGatt.getDevice() != null) deviceAddress = bluetoothGatt.getDevice().getAddress();
-
-            if (hasRequiredPermissionForConnect()) {
-                bluetoothGatt.disconnect();
-                Log.d(TAG, "GATT disconnect() called for " + deviceAddress);
+    private void exportLoopbackResults(BleConnection connection, List<LoopbackBenchmark.Result> results) {
+        File root = getExternalFilesDir("benchmark");
+        if (root == null) root = new File(getFilesDir(), "benchmark");
+        File file = new File(root, "loopback-" + Build.MODEL.replace(' ', '_') + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".csv");
+        if (!root.isDirectory() && !root.mkdirs()) { Toast.makeText(this, "无法创建目录: " + root, Toast.LENGTH_SHORT).show(); return; }
+        String moduleName = hasRequiredPermissionForConnect() ? connection.getDevice().getName() : null;
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.append("# phone: ").append(Build.MANUFACTURER).append(' ').append(Build.MODEL)
+                    .append(", Android ").append(Build.VERSION.RELEASE).append(" (API ").append(String.valueOf(Build.VERSION.SDK_INT)).append(")\n");
+            out.append("# module: ").append(String.valueOf(moduleName)).append(' ').append(connection.getAddress())
+                    .append(", MTU ").append(String.valueOf(connection.getMtu())).append('\n');
+            out.append(LoopbackBenchmark.Result.CSV_HEADER).append('\n');
+            for (LoopbackBenchmark.Result result : results) result.appendCsv(out);
+        } catch (IOException e) {
+            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        receivedLog.append("回环测试结果已导出: " + file.getAbsolutePath());
+    }
+
+    /** 通过可靠通道发送，全部分片被模块确认后显示有效吞吐和重传数 */
+    private void sendReliable(ReliableLink link, byte[] data) {
+        statusTextView.setText("可靠发送中: " + data.length / 1024 + " KB");
+        link.send(data, handler, (status, summary) -> statusTextView.setText(summary));
+    }
+
+    /** 以流方式把输入数据尽可能快地写入一个模块，写完成回调作为credit控制在途分片数 */
+    public void startStreamingToModule(BleConnection connection, InputStream input) {
+        if (connection.isStreaming()) { Toast.makeText(this, "流式发送进行中", Toast.LENGTH_SHORT).show(); return; }
+        boolean started = connection.startStream(input, new StreamSender.Listener() {
+            @Override
+            public void onProgress(long bytesSent, double bytesPerSecond) {
+                statusTextView.setText("流式发送: " + bytesSent / 1024 + " KB, " + String.format("%.1f", bytesPerSecond / 1024) + " KB/s");
             }
-            handler.postDelayed(() -> {
-                if (bluetoothGatt != null) {
-                    Log.d(TAG, "执行GATT close() for " + (bluetoothGatt.getDevice()!=null? bluetoothGatt.getDevice().getAddress() : "null device"));
-                    bluetoothGatt.close();
-                    bluetoothGatt = null;
-                    Log.d(TAG, "GATT已关闭 (closeGatt delayed)");
-                }
-            }, 200); // Increased delay for disconnect to propagate
 
-            connectedDevice = null;
-            runOnUiThread(()-> {
-                if(!isScanning) statusTextView.setText("状态: 未连接");
-            });
+            @Override
+            public void onComplete(long bytesSent, double bytesPerSecond) {
+                streamButton.setText("流式发送测试");
+                statusTextView.setText("流式发送完成: " + bytesSent + " 字节, 平均 " + String.format("%.1f", bytesPerSecond / 1024) + " KB/s");
+            }
+
+            @Override
+            public void onError(String reason) {
+                streamButton.setText("流式发送测试");
+                statusTextView.setText("流式发送中止: " + reason);
+            }
+        });
+        if (!started) { Toast.makeText(this, "设备尚未准备好", Toast.LENGTH_SHORT).show(); return; }
+        streamButton.setText("停止流式发送");
+    }
+
+    // BLE工作线程上回调
+    private void onDataWriteComplete(BleConnection connection, String data, GattOperation operation, int status) {
+        if (status == GattOperationQueue.STATUS_CANCELLED) {
+            BleLog.w(TAG, "数据写入已取消 (连接关闭): {}", connection);
+            return;
+        }
+        if (status == GattOperationQueue.STATUS_START_FAILED) {
+            BleLog.e(TAG, "writeCharacteristic 调用失败 for: {}", data);
+            runOnUiThread(() -> Toast.makeText(this, "发送排队失败", Toast.LENGTH_SHORT).show());
+            return;
+        }
+        int writeType = ((GattOperation.WriteCharacteristic) operation).getWriteType();
+        if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                BleLog.text(TAG, "数据(无应答)写入已成功排队/发送: ", data);
+                if (!data.startsWith("AT+")) { // Only update UI for user data, not AT commands for NO_RESPONSE
+                    runOnUiThread(() -> statusTextView.setText("数据(无应答)已发送"));
+                } else {
+                    BleLog.i(TAG, "AT命令 '{}' (无应答) 已发送", data);
+                }
+            } else {
+                BleLog.e(TAG, "数据(无应答)写入失败(回调), 错误码: {}, Value: {}", status, data);
+                runOnUiThread(() -> statusTextView.setText("发送(无应答)失败: " + status));
+            }
         } else {
-            Log.d(TAG, "closeGatt: gatt is already null");
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                BleLog.text(TAG, "数据(带应答)写入成功: ", data);
+                if (!data.startsWith("AT+")) {
+                    runOnUiThread(() -> statusTextView.setText("数据发送成功"));
+                } else {
+                    BleLog.i(TAG, "AT命令 '{}' 发送成功 (GATT_SUCCESS)", data);
+                }
+            } else {
+                BleLog.e(TAG, "数据(带应答)写入失败，错误码: {}, Value was: {}", status, data);
+                if (!data.startsWith("AT+")) {
+                    runOnUiThread(() -> statusTextView.setText("数据发送失败，错误码: " + status));
+                } else {
+                    BleLog.e(TAG, "AT命令 '{}' 发送失败，错误码: {}", data, status);
+                }
+            }
         }
     }
 
@@ -584,10 +1053,11 @@ public class MainActivity extends AppCompatActivity {
                 final int previousBondState = intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, BluetoothDevice.ERROR);
 
                 if (device == null) return;
+                deviceCache.updateBondState(device.getAddress(), bondState);
                 Log.d(TAG, "绑定状态改变 for " + device.getAddress() +
                         ": " + bondStateToString(previousBondState) +
                         " -> " + bondStateToString(bondState));
-                if (connectedDevice != null && device.getAddress().equals(connectedDevice.getAddress())) {
+                if (deviceManager.get(device.getAddress()) != null) {
                     if (bondState == BluetoothDevice.BOND_BONDED) {
                         Log.i(TAG, "目标设备已成功绑定。");
                     } else if (bondState == BluetoothDevice.BOND_NONE && previousBondState == BluetoothDevice.BOND_BONDING) {
@@ -629,13 +1099,6 @@ public class MainActivity extends AppCompatActivity {
         }
         return true;
     }
-    public static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X ", b));
-        }
-        return sb.toString().trim();
-    }
 
     @Override
     protected void onDestroy() {
@@ -646,7 +1109,12 @@ public class MainActivity extends AppCompatActivity {
             Log.w(TAG, "Receiver not registered or already unregistered: " + e.getMessage());
         }
         stopBleScan();
-        closeGatt();
+        if (loopbackRunner != null) loopbackRunner.cancel();
+        if (deviceManager != null) {
+            stopSessionRecording();
+            stopSessionExport();
+            deviceManager.release(); // Activity销毁后不再等待断开回调
+        }
         if (handler != null) {
             handler.removeCallbacksAndMessages(null);
         }
@@ -0,0 +1,643 @@
+package com.example.atk_ble02.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.atk_ble02.protocol.AtCommandEngine;
+import com.example.atk_ble02.protocol.BleTransport;
+import com.example.atk_ble02.protocol.ByteArrayPool;
+import com.example.atk_ble02.protocol.ConnectionStateMachine;
+import com.example.atk_ble02.protocol.FrameDecoder;
+import com.example.atk_ble02.protocol.FramePublisher;
+import com.example.atk_ble02.protocol.LinkMetrics;
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+import com.example.atk_ble02.protocol.PayloadFragmenter;
+import com.example.atk_ble02.protocol.ThroughputMeter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个模块的GATT连接：自己的操作队列、通知解码器、连接状态机和收发吞吐统计，
+ * 多个连接之间互不阻塞。GATT回调、排队、解析和超时都在BLE工作线程 (worker) 上处理，
+ * 公开方法可在主线程调用，会转到工作线程执行。
+ * Listener 的 onStateChanged 在工作线程上回调，其余回调在主线程上；解码出的帧通过 getFramePublisher() 订阅。
+ * 同时实现 protocol 模块的 BleTransport，协议层代码可以直接跑在真实连接上。
+ * 挂在这个连接上的功能通过 addNotificationListener 接进接收路径，按 NotificationDispatcher 的阶段依次看到通知。
+ */
+public class BleConnection implements BleTransport {
+
+    private static final String TAG = "BleConnection";
+    private static final UUID CCCD_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private static final int MAX_FRAME_LENGTH = 1024;
+    private static final long FRAME_IDLE_FLUSH_MS = 50; // 透传数据没有行尾时，空闲后按已收到的内容显示
+    private static final long DISCONNECT_TIMEOUT_MS = 1000; // 只在收不到断开回调时兜底
+    private static final long CHUNK_POOL_BYTES = 64 * 1024; // 发送分片池的上限，足够覆盖队列里的在途分片
+
+    public interface Listener {
+        /** 工作线程 */
+        void onStateChanged(BleConnection connection, ConnectionStateMachine.State from, ConnectionStateMachine.State to, long phaseMillis);
+        void onReady(BleConnection connection);
+        void onSetupFailed(BleConnection connection, String reason);
+        void onPhyReported(BleConnection connection, int txPhy, int rxPhy);
+        /** GATT已关闭或连接失败，status 为断开原因 (主动断开时为 GATT_SUCCESS) */
+        void onClosed(BleConnection connection, int status);
+    }
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final String address;
+    private final Handler worker;
+    private final Handler main;
+    private final UUID serviceUuid;
+    private final UUID writeUuid;
+    private final UUID notifyUuid;
+    private final Listener listener;
+
+    private final GattOperationQueue queue;
+    private final ConnectionStateMachine state = new ConnectionStateMachine();
+    private final FrameDecoder frameDecoder = FrameDecoder.lines(MAX_FRAME_LENGTH, this::onFrameDecoded);
+    private final FramePublisher frames;
+    private final ThroughputMeter rxMeter = new ThroughputMeter();
+    private final ByteArrayPool chunkPool = new ByteArrayPool(PayloadFragmenter.MAX_ATTRIBUTE_LENGTH, CHUNK_POOL_BYTES);
+    private final Object sendLock = new Object(); // 所有写入 (分片发送、单包写、流式发送) 都在这个锁下排队，一条消息的分片在队列里连续
+    private final AtCommandEngine atEngine;
+    private final ScheduledExecutorService protocolTimer;
+    private final LinkMetrics metrics;
+    private final NotificationDispatcher notificationListeners = new NotificationDispatcher();
+    private long lastNotificationNanos; // 只在工作线程访问，0 表示本次连接还没收到通知
+
+    private volatile BluetoothGatt gatt;
+    private volatile int mtu = PayloadFragmenter.DEFAULT_MTU;
+    private volatile LinkProfile linkProfile;
+    private boolean disconnecting; // 只在工作线程访问
+    private volatile StreamSender streamSender;
+    private NotificationListener receiver; // setReceiver 的适配，在 this 锁下访问
+    private volatile int preferredWriteType = -1; // -1 表示按特征属性自动选择
+    private volatile BluetoothGattCharacteristic writeCharacteristic; // 服务发现后缓存，断开时清空
+    private volatile int writeType;
+
+    /**
+     * worker 为BLE工作线程的Handler，main 为主线程Handler，protocolTimer 用于AT指令超时和可靠模式计时，
+     * metrics 收集写、通知、AT往返和连接阶段的延迟 (可由多个连接共享)
+     */
+    BleConnection(Context context, BluetoothDevice device, Handler worker, Handler main, UUID serviceUuid, UUID writeUuid,
+                  UUID notifyUuid, LinkProfile linkProfile, ScheduledExecutorService protocolTimer, LinkMetrics metrics,
+                  Listener listener) {
+        this.context = context.getApplicationContext();
+        this.device = device;
+        this.address = device.getAddress();
+        this.worker = worker;
+        this.main = main;
+        this.serviceUuid = serviceUuid;
+        this.writeUuid = writeUuid;
+        this.notifyUuid = notifyUuid;
+        this.linkProfile = linkProfile;
+        this.listener = listener;
+        this.queue = new GattOperationQueue(worker);
+        this.protocolTimer = protocolTimer;
+        this.metrics = metrics;
+        this.atEngine = new AtCommandEngine(this, protocolTimer);
+        this.frames = new FramePublisher("Frames-" + address, MAX_FRAME_LENGTH, false); // 发布线程是共用的工作线程，不允许 BLOCK 订阅
+        queue.setMetrics(metrics);
+        atEngine.setMetrics(metrics);
+        state.setMetrics(metrics);
+        state.setListener((from, to, phaseMillis) -> listener.onStateChanged(this, from, to, phaseMillis));
+    }
+
+    public BluetoothDevice getDevice() { return device; }
+    public String getAddress() { return address; }
+    public ConnectionStateMachine.State getState() { return state.getState(); }
+    public boolean isReady() { return state.isReady(); }
+    @Override
+    public int getMtu() { return mtu; }
+    public LinkProfile getLinkProfile() { return linkProfile; }
+    public GattOperationQueue getQueue() { return queue; }
+    /** 这个连接的AT指令引擎，回复从通知解码出的行中匹配 */
+    public AtCommandEngine getAtEngine() { return atEngine; }
+    /**
+     * 解码出的帧 (包括AT回复，不包括解析成遥测的行)。订阅者在各自的线程上按顺序收到帧，缓冲大小和溢出策略各自选择，
+     * 慢的订阅者不会拖住工作线程上的通知接收。GATT关闭后不再发布，订阅者投递完剩余的帧后收到 onComplete。
+     */
+    public FramePublisher getFramePublisher() { return frames; }
+    public ThroughputMeter getTxMeter() { return queue.getWriteMeter(); }
+    public ThroughputMeter getRxMeter() { return rxMeter; }
+    public LinkMetrics getMetrics() { return metrics; }
+    public long getLastConnectMillis() { return state.getLastConnectMillis(); }
+    public String describePhases() { return state.describePhases(); }
+    public UUID getNotifyUuid() { return notifyUuid; }
+    /** 协议层计时 (AT超时、可靠模式重传、回环测试) 用的定时器，挂在这个连接上的功能共用 */
+    public ScheduledExecutorService getProtocolTimer() { return protocolTimer; }
+    Handler getWorker() { return worker; }
+
+    /** connectGatt 失败时通过 onClosed(GATT_FAILURE) 报告 */
+    void connect(boolean autoConnect) {
+        worker.post(() -> connectOnWorker(autoConnect));
+    }
+
+    @SuppressLint("MissingPermission")
+    private void connectOnWorker(boolean autoConnect) {
+        if (!state.moveTo(ConnectionStateMachine.State.CONNECTING)) return;
+        Log.d(TAG, "尝试连接GATT到: " + address + " (autoConnect: " + autoConnect + ")");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // API 33+ 特征值以 byte[] 传给回调，可以让系统直接在工作线程上回调
+            gatt = device.connectGatt(context, autoConnect, gattCallback, BluetoothDevice.TRANSPORT_LE,
+                    BluetoothDevice.PHY_LE_1M_MASK, worker);
+        } else {
+            gatt = device.connectGatt(context, autoConnect, new HandlerGattCallback(worker, gattCallback), BluetoothDevice.TRANSPORT_LE);
+        }
+        if (gatt == null) {
+            Log.e(TAG, "device.connectGatt 返回 null! " + address);
+            state.moveTo(ConnectionStateMachine.State.IDLE);
+            frames.close();
+            main.post(() -> listener.onClosed(this, BluetoothGatt.GATT_FAILURE));
+        }
+    }
+
+    /**
+     * 链路已建立时先 disconnect()，收到 STATE_DISCONNECTED 回调后立即 close()；
+     * 还在连接中时没有断开回调，直接 close()。
+     */
+    public void disconnect() {
+        worker.post(this::disconnectOnWorker);
+    }
+
+    @SuppressLint("MissingPermission")
+    private void disconnectOnWorker() {
+        BluetoothGatt g = gatt;
+        if (g == null || disconnecting) return;
+        Log.d(TAG, "正在关闭GATT连接... " + address);
+        resetLinkState();
+        if (!state.isLinkUp()) {
+            release(BluetoothGatt.GATT_SUCCESS);
+            return;
+        }
+        state.moveTo(ConnectionStateMachine.State.DISCONNECTING);
+        disconnecting = true;
+        g.disconnect();
+        worker.postDelayed(disconnectTimeoutRunnable, DISCONNECT_TIMEOUT_MS);
+    }
+
+    /** 立即关闭，不等待断开回调 (Activity销毁时) */
+    void close() {
+        worker.post(() -> {
+            if (gatt == null) return;
+            resetLinkState();
+            release(BluetoothGatt.GATT_SUCCESS);
+        });
+    }
+
+    /** 运行时切换链路档位，已连接时立即重新请求连接优先级和PHY */
+    void setLinkProfile(LinkProfile profile) {
+        linkProfile = profile;
+        worker.post(() -> {
+            BluetoothGatt g = gatt;
+            if (g != null && state.isLinkUp()) profile.apply(g);
+        });
+    }
+
+    /**
+     * 按当前MTU分片后排队写入，callback 在工作线程上、最后一个分片完成或任一分片失败时调用；
+     * 未就绪时返回false。
+     */
+    public boolean send(byte[] value, GattOperation.Callback callback) {
+        return send(value, 0, value.length, callback);
+    }
+
+    /**
+     * 发送 data 的 [offset, offset+length)：在调用线程上复制进池化的分片后直接排队，返回后 data 可以立即复用。
+     * 写入特征和写类型在服务发现时已缓存，不再逐次查找；回调里 operation.getValue() 只在回调期间有效。
+     */
+    public boolean send(byte[] data, int offset, int length, GattOperation.Callback callback) {
+        return enqueueChunks(data, offset, null, length, callback);
+    }
+
+    /** 发送 data 的剩余部分，发送后 position 移到 limit；direct buffer 也不经过中间数组 */
+    public boolean send(ByteBuffer data, GattOperation.Callback callback) {
+        int length = data.remaining();
+        boolean queued = data.hasArray() ? enqueueChunks(data.array(), data.arrayOffset() + data.position(), null, length, callback)
+                : enqueueChunks(null, 0, data, length, callback);
+        if (queued && data.hasArray()) data.position(data.limit());
+        return queued;
+    }
+
+    // source 为 null 时从 buffer 读取；单个分片直接用调用方的回调，多个分片共用一个计数回调；
+    // 长度为0时不写入，直接在工作线程上以成功回调 (operation 的值为空数组)
+    private boolean enqueueChunks(byte[] source, int offset, ByteBuffer buffer, int length, GattOperation.Callback callback) {
+        BluetoothGattCharacteristic characteristic = writeCharacteristic;
+        if (characteristic == null || !state.isReady()) return false;
+        int type = writeType;
+        if (length == 0) {
+            GattOperation empty = new GattOperation.WriteCharacteristic(characteristic, new byte[0], type, callback);
+            worker.post(() -> empty.dispatchComplete(BluetoothGatt.GATT_SUCCESS));
+            return true;
+        }
+        int chunkSize = PayloadFragmenter.maxChunkSize(mtu);
+        int count = (length + chunkSize - 1) / chunkSize;
+        ChunkedCallback chunked = count > 1 ? new ChunkedCallback(count, callback) : null;
+        if (BleLog.isDebugEnabled()) BleLog.d(TAG, "{} 发送: WriteType: {}, 分片数: {}", address, type, count);
+        synchronized (sendLock) {
+            for (int position = 0; position < length; position += chunkSize) {
+                byte[] chunk = chunkPool.acquire(Math.min(chunkSize, length - position));
+                if (source != null) System.arraycopy(source, offset + position, chunk, 0, chunk.length);
+                else buffer.get(chunk);
+                GattOperation operation = new GattOperation.WriteCharacteristic(characteristic, chunk, type, chunkPool, chunked != null ? chunked : callback);
+                if (chunked != null) chunked.add(operation);
+                queue.enqueue(operation);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只有最后一个分片成功才算整条数据发送成功；队列按顺序完成，最后完成的就是最后一个分片。
+     * 第一个失败的分片立即报告，并取消还在排队的分片 (后半条数据发出去也没有意义)，调用方的回调只调用一次。
+     */
+    private static final class ChunkedCallback implements GattOperation.Callback {
+        private final GattOperation.Callback callback;
+        private final GattOperation[] chunks;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private int added; // 在 this 锁下访问
+        private int remaining; // 只在工作线程访问
+
+        ChunkedCallback(int count, GattOperation.Callback callback) {
+            this.chunks = new GattOperation[count];
+            this.remaining = count;
+            this.callback = callback;
+        }
+
+        // 排队线程调用，可能晚于前面分片的失败
+        synchronized void add(GattOperation operation) {
+            chunks[added++] = operation;
+            if (done.get()) operation.cancel();
+        }
+
+        private synchronized void cancelRemaining() {
+            for (int i = 0; i < added; i++) chunks[i].cancel();
+        }
+
+        @Override
+        public void onComplete(GattOperation operation, int status) {
+            boolean last = --remaining == 0;
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                if (!done.compareAndSet(false, true)) return;
+                cancelRemaining();
+                callback.onComplete(operation, status);
+            } else if (last && done.compareAndSet(false, true)) {
+                callback.onComplete(operation, status);
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return state.isReady();
+    }
+
+    /** BleTransport: 写入单个包，callback 在工作线程上回调，状态码与 GattOperationQueue 一致 */
+    @Override
+    public boolean write(byte[] packet, WriteCallback callback) {
+        BluetoothGattCharacteristic characteristic = writeCharacteristic;
+        if (characteristic == null || !state.isReady() || packet.length > PayloadFragmenter.maxChunkSize(mtu)) return false;
+        GattOperation operation = new GattOperation.WriteCharacteristic(characteristic, packet, writeType, (op, status) -> callback.onWriteComplete(status));
+        synchronized (sendLock) {
+            queue.enqueue(operation);
+        }
+        return true;
+    }
+
+    /** BleTransport: receiver 在工作线程上收到原始通知数据 (解码前)，挂在 STAGE_CAPTURE，不影响后面的解码 */
+    @Override
+    public synchronized void setReceiver(Receiver receiver) {
+        if (this.receiver != null) notificationListeners.remove(this.receiver);
+        this.receiver = receiver == null ? null : (buffer, offset, length, timestampNanos, replayed) -> {
+            receiver.onReceive(buffer, offset, length);
+            return false;
+        };
+        if (this.receiver != null) notificationListeners.add(NotificationDispatcher.STAGE_CAPTURE, this.receiver);
+    }
+
+    /** 把 listener 接进这个连接的接收路径，stage 见 NotificationDispatcher；可在任意线程调用，下一条通知开始生效 */
+    public void addNotificationListener(int stage, NotificationListener listener) {
+        notificationListeners.add(stage, listener);
+    }
+
+    public void removeNotificationListener(NotificationListener listener) {
+        notificationListeners.remove(listener);
+    }
+
+    /** 挂在这个连接上的第一个属于 type 的监听者，没有时返回null */
+    public <T extends NotificationListener> T getNotificationListener(Class<T> type) {
+        return notificationListeners.find(type);
+    }
+
+    /** 以流方式把输入数据尽可能快地写入模块，listener 回调在主线程上；未就绪或已在发送时返回false */
+    public boolean startStream(InputStream input, StreamSender.Listener streamListener) {
+        if (isStreaming()) return false;
+        BluetoothGattCharacteristic characteristic = writeCharacteristic;
+        if (characteristic == null || !state.isReady()) return false;
+        int chunkSize = PayloadFragmenter.maxChunkSize(mtu);
+        LinkProfile profile = linkProfile;
+        streamSender = new StreamSender(queue, sendLock, characteristic, writeType, chunkSize, profile.streamCredits, chunkPool, main);
+        Log.d(TAG, address + " 开始流式发送, 分片大小: " + chunkSize + ", credits: " + profile.streamCredits + ", 档位: " + profile);
+        streamSender.start(input, streamListener);
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return streamSender != null && streamSender.isRunning();
+    }
+
+    public void cancelStream() {
+        if (streamSender != null) streamSender.cancel();
+    }
+
+    /**
+     * 指定写类型 (WRITE_TYPE_DEFAULT 或 WRITE_TYPE_NO_RESPONSE)，特征不支持时仍按属性自动选择；-1 恢复自动选择。
+     * 之后排队的写入生效。
+     */
+    public void setPreferredWriteType(int writeType) {
+        preferredWriteType = writeType;
+        BluetoothGattCharacteristic characteristic = writeCharacteristic;
+        if (characteristic != null) this.writeType = chooseWriteType(characteristic.getProperties());
+    }
+
+    /** 写入特征是否支持这个写类型，未就绪时返回false */
+    public boolean supportsWriteType(int writeType) {
+        BluetoothGattCharacteristic characteristic = writeCharacteristic;
+        if (characteristic == null) return false;
+        int required = writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                ? BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE : BluetoothGattCharacteristic.PROPERTY_WRITE;
+        return (characteristic.getProperties() & required) != 0;
+    }
+
+    /** 服务发现后查找一次写入特征并按其属性 (或 setPreferredWriteType) 选定写类型，之后的发送都用缓存；找不到或不可写时建链失败 */
+    private boolean cacheWriteCharacteristic(BluetoothGattService service) {
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(writeUuid);
+        if (characteristic == null) { failSetup("写入特征 (" + writeUuid + ") 未找到"); return false; }
+        int properties = characteristic.getProperties();
+        int type = chooseWriteType(properties);
+        if (type < 0) { failSetup("写入特征既不支持WRITE也不支持WRITE_NO_RESPONSE (属性: " + properties + ")"); return false; }
+        if (type == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) BleLog.d(TAG, "使用 WRITE_TYPE_DEFAULT for {}", writeUuid);
+        writeType = type;
+        writeCharacteristic = characteristic;
+        return true;
+    }
+
+    // 优先 NO_RESPONSE；指定了 DEFAULT 且支持时用 DEFAULT；都不支持返回-1
+    private int chooseWriteType(int properties) {
+        boolean withResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0;
+        boolean noResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+        if (withResponse && (preferredWriteType == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT || !noResponse)) {
+            return BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        }
+        return noResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE : -1;
+    }
+
+    private void resetLinkState() {
+        if (streamSender != null) streamSender.cancel();
+        atEngine.failAll(new IOException("连接已断开: " + address));
+        notificationListeners.dispatchLinkReset();
+        queue.clear();
+        writeCharacteristic = null;
+        worker.removeCallbacks(frameFlushRunnable);
+        frameDecoder.reset();
+        lastNotificationNanos = 0;
+        mtu = PayloadFragmenter.DEFAULT_MTU;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void release(int status) {
+        worker.removeCallbacks(disconnectTimeoutRunnable);
+        BluetoothGatt g = gatt;
+        if (g == null) return;
+        gatt = null;
+        disconnecting = false;
+        g.close();
+        Log.d(TAG, "GATT已关闭: " + address);
+        state.moveTo(ConnectionStateMachine.State.IDLE);
+        frames.close();
+        main.post(() -> listener.onClosed(this, status));
+    }
+
+    private final Runnable disconnectTimeoutRunnable = this::onDisconnectTimeout;
+
+    private void onDisconnectTimeout() {
+        Log.w(TAG, "未收到断开回调，直接close(): " + address);
+        release(BluetoothGatt.GATT_SUCCESS);
+    }
+
+    /** 收到断开回调 (主动断开完成、对端断开或连接错误) */
+    private void onGattDisconnected(BluetoothGatt g, int status) {
+        if (g != gatt) {
+            g.close(); // 旧连接的迟到回调
+            return;
+        }
+        if (!disconnecting) resetLinkState();
+        release(status);
+    }
+
+    /** 建链过程中任何一步失败都断开 */
+    private void failSetup(String reason) {
+        Log.e(TAG, "连接建立失败: " + address + " " + reason + " (状态: " + state.getState() + ")");
+        main.post(() -> listener.onSetupFailed(this, reason));
+        disconnectOnWorker();
+    }
+
+    @SuppressLint("MissingPermission")
+    private void onLinkReady(BluetoothGatt g) {
+        if (!state.moveTo(ConnectionStateMachine.State.READY)) return;
+        Log.i(TAG, "连接就绪: " + address + ", GATT建立 " + state.getLastConnectMillis() + "ms (" + state.describePhases() + ")");
+        rxMeter.reset();
+        main.post(() -> listener.onReady(this));
+        // PHY没有变化时不会有onPhyUpdate，主动读一次当前PHY
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) g.readPhy();
+    }
+
+    // 工作线程上的热路径：交给监听者或追加进解码器，不做任何分配；解码器只在工作线程访问，不需要加锁
+    private void onNotification(UUID charUuid, byte[] data) {
+        if (!notifyUuid.equals(charUuid)) return;
+        long start = System.nanoTime();
+        receiveNotification(data, 0, data.length, false);
+        long previous = lastNotificationNanos;
+        lastNotificationNanos = start;
+        metrics.onNotification(previous == 0 ? -1 : start - previous, System.nanoTime() - start, data.length);
+    }
+
+    /** 把回放的数据注入和真实通知相同的接收路径 (监听者看到 replayed 为 true)，只在工作线程调用 */
+    void injectNotification(byte[] data, int offset, int length) {
+        receiveNotification(data, offset, length, true);
+    }
+
+    // 真实通知和回放共用的接收路径，只在工作线程调用：先交给监听者，没有被消费的按行解码
+    private void receiveNotification(byte[] data, int offset, int length, boolean replayed) {
+        rxMeter.add(length);
+        if (!notificationListeners.isEmpty()
+                && notificationListeners.dispatchNotification(data, offset, length, SystemClock.elapsedRealtimeNanos(), replayed)) return;
+        frameDecoder.feed(data, offset, length);
+        worker.removeCallbacks(frameFlushRunnable);
+        if (frameDecoder.getPendingBytes() > 0) worker.postDelayed(frameFlushRunnable, FRAME_IDLE_FLUSH_MS);
+    }
+
+    private final Runnable frameFlushRunnable = () -> frameDecoder.flush();
+
+    // AT引擎和监听者 (如CSV遥测) 都很轻，且要按到达顺序同步处理，留在工作线程上；其他消费者 (界面显示等) 通过 frames 订阅
+    private void onFrameDecoded(byte[] buffer, int offset, int length) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (notificationListeners.dispatchFrame(buffer, offset, length, now)) return;
+        atEngine.onLine(buffer, offset, length);
+        frames.publish(now, buffer, offset, length);
+    }
+
+    private final GattCallback gattCallback = new GattCallback();
+
+    /** 具名的类而不是匿名类：API 33 以下 HandlerGattCallback 要通过这个类型调用 byte[] 重载，平台的 BluetoothGattCallback 上没有 */
+    final class GattCallback extends BluetoothGattCallback {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    if (!state.moveTo(ConnectionStateMachine.State.MTU)) {
+                        Log.w(TAG, "忽略非预期的连接事件: " + address + " (状态: " + state.getState() + ")");
+                        return;
+                    }
+                    Log.d(TAG, "已连接到GATT服务器: " + address);
+                    mtu = PayloadFragmenter.DEFAULT_MTU;
+                    // 先请求连接间隔和PHY，后面的MTU交换和服务发现也能用上更短的连接间隔
+                    linkProfile.apply(g);
+                    queue.attach(g);
+                    queue.enqueue(new GattOperation.RequestMtu(PayloadFragmenter.MAX_MTU, (operation, mtuStatus) -> {
+                        if (mtuStatus < 0) Log.e(TAG, "requestMtu(" + PayloadFragmenter.MAX_MTU + ") 调用失败，使用默认MTU " + mtu + " 直接发现服务");
+                        // MTU成功与否都继续发现服务
+                        state.moveTo(ConnectionStateMachine.State.DISCOVERING);
+                    }));
+                    queue.enqueue(new GattOperation.DiscoverServices((operation, discoverStatus) -> {
+                        if (discoverStatus < 0 && discoverStatus != GattOperationQueue.STATUS_CANCELLED) failSetup("服务发现启动失败 (status: " + discoverStatus + ")");
+                    }));
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    Log.d(TAG, "已从GATT服务器断开: " + address);
+                    onGattDisconnected(g, status);
+                }
+            } else {
+                Log.e(TAG, "GATT连接状态改变错误，Status: " + status + " (Device: " + address + ", newState: " + newState + ")");
+                onGattDisconnected(g, status);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt g, int newMtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mtu = newMtu;
+                Log.d(TAG, address + " MTU成功更改为: " + newMtu + ", 单包负载: " + PayloadFragmenter.maxChunkSize(newMtu) + " 字节");
+            } else {
+                Log.e(TAG, "MTU更改失败，状态: " + status + ", Actual MTU: " + newMtu);
+            }
+            queue.onMtuChanged(newMtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt g, int txPhy, int rxPhy, int status) {
+            onPhy("PHY更新", txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onPhyRead(BluetoothGatt g, int txPhy, int rxPhy, int status) {
+            onPhy("PHY读取", txPhy, rxPhy, status);
+        }
+
+        private void onPhy(String event, int txPhy, int rxPhy, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) { Log.w(TAG, event + "失败，状态: " + status); return; }
+            Log.i(TAG, address + " " + event + ": TX " + LinkProfile.phyToString(txPhy) + " / RX " + LinkProfile.phyToString(rxPhy) + " (档位: " + linkProfile + ")");
+            main.post(() -> listener.onPhyReported(BleConnection.this, txPhy, rxPhy));
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt g, int status) {
+            queue.onServicesDiscovered(status);
+            if (status != BluetoothGatt.GATT_SUCCESS) { failSetup("服务发现失败 (status: " + status + ")"); return; }
+            if (!state.moveTo(ConnectionStateMachine.State.SUBSCRIBING)) return;
+            BluetoothGattService service = g.getService(serviceUuid);
+            if (service == null) { failSetup("目标服务未找到"); return; }
+            if (!cacheWriteCharacteristic(service)) return;
+            BluetoothGattCharacteristic charToNotify = service.getCharacteristic(notifyUuid);
+            if (charToNotify == null) { failSetup("目标通知特征未找到"); return; }
+            if ((charToNotify.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0) { failSetup("目标通知特征不支持Notify"); return; }
+            enableNotifications(g, charToNotify);
+        }
+
+        @SuppressLint("MissingPermission")
+        private void enableNotifications(BluetoothGatt g, BluetoothGattCharacteristic characteristic) {
+            if (!g.setCharacteristicNotification(characteristic, true)) { failSetup("setCharacteristicNotification失败"); return; }
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCCD_UUID);
+            if (descriptor == null) { failSetup("CCCD未找到 (enableNotifications)"); return; }
+            queue.enqueue(new GattOperation.WriteDescriptor(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, (operation, status) -> {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    Log.d(TAG, "CCCD写入成功 for " + characteristic.getUuid() + ". 通知已启用.");
+                    onLinkReady(g);
+                } else if (status == GattOperationQueue.STATUS_START_FAILED) {
+                    failSetup("CCCD写入排队失败");
+                } else if (status != GattOperationQueue.STATUS_CANCELLED) {
+                    failSetup("CCCD写入失败 (状态 " + status + ")");
+                }
+            }));
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt g, BluetoothGattDescriptor descriptor, int status) {
+            queue.onDescriptorWrite(descriptor.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            queue.onCharacteristicWrite(characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            queue.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(), status);
+        }
+
+        @Override
+        public void onCharacteristicRead(@NonNull BluetoothGatt g, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value, int status) {
+            queue.onCharacteristicRead(characteristic.getUuid(), value, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic) {
+            byte[] data = characteristic.getValue();
+            if (data == null) {
+                Log.w(TAG, "onCharacteristicChanged: null data received for " + characteristic.getUuid());
+                return;
+            }
+            onNotification(characteristic.getUuid(), data);
+        }
+
+        @Override
+        public void onCharacteristicChanged(@NonNull BluetoothGatt g, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+            onNotification(characteristic.getUuid(), value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+}
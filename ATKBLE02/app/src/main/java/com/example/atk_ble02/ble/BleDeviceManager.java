@@ -0,0 +1,194 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.ConnectionStateMachine;
+import com.example.atk_ble02.protocol.LinkMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 同时管理多个模块的连接 (地址 -> BleConnection)。每个连接有独立的操作队列，
+ * 广播发送只是分别排进各自的队列，各设备并行传输，单个设备的发送延迟不随设备数增加。
+ * 所有连接的GATT回调、排队、解析和超时都在一个专用的BLE工作线程上处理，不受UI卡顿影响，
+ * 也不会因为数据量大而拖慢UI。除 size() 外所有方法都在主线程调用。
+ */
+public class BleDeviceManager {
+
+    private static final String TAG = "BleDeviceManager";
+
+    /** 大多数手机的控制器同时支持的LE连接数上限 */
+    public static final int MAX_CONNECTIONS = 7;
+
+    private final Context context;
+    private final Handler mainHandler;
+    private final HandlerThread workerThread;
+    private final Handler workerHandler;
+    private final ScheduledExecutorService protocolTimer; // 所有连接的AT指令超时和可靠模式的重传/确认计时
+    private final LinkMetrics metrics = new LinkMetrics(); // 所有连接共享，统计的是整台手机的延迟分布
+    private final UUID serviceUuid;
+    private final UUID writeUuid;
+    private final UUID notifyUuid;
+    private final BleConnection.Listener listener;
+    private final LinkedHashMap<String, BleConnection> connections = new LinkedHashMap<>();
+    private volatile int connectionCount;
+    private LinkProfile linkProfile = LinkProfile.BALANCED;
+    private volatile boolean released;
+
+    /**
+     * listener 收到所有连接的事件 (线程见 BleConnection.Listener)；连接关闭后自动从管理器中移除 (在 onClosed 回调之前)。
+     * mainHandler 为主线程Handler。
+     */
+    public BleDeviceManager(Context context, Handler mainHandler, UUID serviceUuid, UUID writeUuid, UUID notifyUuid,
+                            BleConnection.Listener listener) {
+        this.context = context.getApplicationContext();
+        this.mainHandler = mainHandler;
+        workerThread = new HandlerThread("BleWorker", Process.THREAD_PRIORITY_FOREGROUND);
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+        protocolTimer = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "BleProtocolTimer"));
+        this.serviceUuid = serviceUuid;
+        this.writeUuid = writeUuid;
+        this.notifyUuid = notifyUuid;
+        this.listener = listener;
+    }
+
+    /** 可在任意线程调用 */
+    public int size() {
+        return connectionCount;
+    }
+
+    public BleConnection get(String address) {
+        return connections.get(address);
+    }
+
+    public List<BleConnection> getConnections() {
+        return new ArrayList<>(connections.values());
+    }
+
+    public int getReadyCount() {
+        int ready = 0;
+        for (BleConnection connection : connections.values()) {
+            if (connection.isReady()) ready++;
+        }
+        return ready;
+    }
+
+    /**
+     * 已在管理中的地址直接返回已有连接；超过连接数上限时返回null。
+     * 连接在工作线程上发起，connectGatt 失败时通过 onClosed 报告。
+     */
+    public BleConnection connect(BluetoothDevice device, boolean autoConnect) {
+        if (released) return null;
+        BleConnection existing = connections.get(device.getAddress());
+        if (existing != null) return existing;
+        if (connections.size() >= MAX_CONNECTIONS) {
+            Log.w(TAG, "已达到连接数上限 " + MAX_CONNECTIONS + "，忽略 " + device.getAddress());
+            return null;
+        }
+        BleConnection connection = new BleConnection(context, device, workerHandler, mainHandler, serviceUuid, writeUuid,
+                notifyUuid, linkProfile, protocolTimer, metrics, connectionListener);
+        connections.put(device.getAddress(), connection);
+        connectionCount = connections.size();
+        connection.connect(autoConnect);
+        return connection;
+    }
+
+    public void disconnect(String address) {
+        BleConnection connection = connections.get(address);
+        if (connection != null) connection.disconnect();
+    }
+
+    public void disconnectAll() {
+        for (BleConnection connection : getConnections()) connection.disconnect();
+    }
+
+    /** 立即关闭所有连接，不等待断开回调，然后结束工作线程 (Activity销毁时)；之后不再回调 listener */
+    public void release() {
+        if (released) return;
+        released = true;
+        for (BleConnection connection : getConnections()) connection.close();
+        connections.clear();
+        connectionCount = 0;
+        workerThread.quitSafely(); // 先执行完已排队的关闭操作
+        protocolTimer.shutdownNow();
+    }
+
+    /** 所有连接的延迟直方图和吞吐计数，可在任意线程读取 */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LinkProfile getLinkProfile() {
+        return linkProfile;
+    }
+
+    /** 切换所有连接 (包括之后新建的连接) 的链路档位 */
+    public void setLinkProfile(LinkProfile profile) {
+        linkProfile = profile;
+        for (BleConnection connection : connections.values()) connection.setLinkProfile(profile);
+    }
+
+    /** 发送到所有已就绪的设备，返回实际排队的设备数；callback 对每个设备分别调用 */
+    public int broadcast(byte[] value, BroadcastCallback callback) {
+        return broadcast(value, 0, value.length, callback);
+    }
+
+    /** 发送 value 的一段，每个连接各自复制进自己的分片池，返回后 value 可以复用 */
+    public int broadcast(byte[] value, int offset, int length, BroadcastCallback callback) {
+        int sent = 0;
+        for (BleConnection connection : connections.values()) {
+            if (!connection.isReady()) continue;
+            if (connection.send(value, offset, length, (operation, status) -> callback.onComplete(connection, operation, status))) sent++;
+        }
+        return sent;
+    }
+
+    public interface BroadcastCallback {
+        void onComplete(BleConnection connection, GattOperation operation, int status);
+    }
+
+    private void remove(BleConnection connection) {
+        if (connections.get(connection.getAddress()) == connection) connections.remove(connection.getAddress());
+        connectionCount = connections.size();
+    }
+
+    private final BleConnection.Listener connectionListener = new BleConnection.Listener() {
+        @Override
+        public void onStateChanged(BleConnection connection, ConnectionStateMachine.State from, ConnectionStateMachine.State to, long phaseMillis) {
+            if (!released) listener.onStateChanged(connection, from, to, phaseMillis);
+        }
+
+        @Override
+        public void onReady(BleConnection connection) {
+            if (!released) listener.onReady(connection);
+        }
+
+        @Override
+        public void onSetupFailed(BleConnection connection, String reason) {
+            if (!released) listener.onSetupFailed(connection, reason);
+        }
+
+        @Override
+        public void onPhyReported(BleConnection connection, int txPhy, int rxPhy) {
+            if (!released) listener.onPhyReported(connection, txPhy, rxPhy);
+        }
+
+        @Override
+        public void onClosed(BleConnection connection, int status) {
+            if (released) return;
+            remove(connection);
+            listener.onClosed(connection, status);
+        }
+    };
+}
@@ -0,0 +1,117 @@
+package com.example.atk_ble02.ble;
+
+import android.util.Log;
+
+import com.example.atk_ble02.BuildConfig;
+import com.example.atk_ble02.protocol.HexEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BLE热路径用的日志：级别关闭时不拼接字符串、不格式化。
+ * 消息模板用 {} 作占位符，只有在级别开启时才替换 (文本参数中的CR/LF会被转义)；基本类型参数在调用处会装箱，
+ * 每包都会执行的路径应先用 isDebugEnabled() 判断。
+ * 数据内容可以按文本 (转义CR/LF) 或十六进制输出，十六进制用查表编码写入线程复用的缓冲区。
+ */
+public final class BleLog {
+
+    private static volatile int level = BuildConfig.DEBUG ? Log.DEBUG : Log.INFO;
+    private static volatile boolean hexDump = false;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private BleLog() {}
+
+    public static void setLevel(int priority) { level = priority; }
+    public static int getLevel() { return level; }
+    public static void setHexDump(boolean enabled) { hexDump = enabled; }
+    public static boolean isHexDump() { return hexDump; }
+
+    public static boolean isLoggable(int priority) { return priority >= level; }
+    public static boolean isDebugEnabled() { return Log.DEBUG >= level; }
+
+    public static void d(String tag, String message) {
+        if (Log.DEBUG >= level) Log.d(tag, message);
+    }
+
+    public static void d(String tag, String template, Object arg1) {
+        if (Log.DEBUG >= level) Log.d(tag, format(template, arg1, null, null, 1));
+    }
+
+    public static void d(String tag, String template, Object arg1, Object arg2) {
+        if (Log.DEBUG >= level) Log.d(tag, format(template, arg1, arg2, null, 2));
+    }
+
+    public static void d(String tag, String template, Object arg1, Object arg2, Object arg3) {
+        if (Log.DEBUG >= level) Log.d(tag, format(template, arg1, arg2, arg3, 3));
+    }
+
+    public static void i(String tag, String template, Object arg1) {
+        if (Log.INFO >= level) Log.i(tag, format(template, arg1, null, null, 1));
+    }
+
+    public static void w(String tag, String template, Object arg1) {
+        if (Log.WARN >= level) Log.w(tag, format(template, arg1, null, null, 1));
+    }
+
+    public static void e(String tag, String template, Object arg1) {
+        if (Log.ERROR >= level) Log.e(tag, format(template, arg1, null, null, 1));
+    }
+
+    public static void e(String tag, String template, Object arg1, Object arg2) {
+        if (Log.ERROR >= level) Log.e(tag, format(template, arg1, arg2, null, 2));
+    }
+
+    /**
+     * 输出 "prefix + 数据"：十六进制模式下为 "01 AB FF"，否则为UTF-8文本并把CR/LF转义为 \r \n。
+     */
+    public static void data(String tag, String prefix, byte[] data, int offset, int length) {
+        if (Log.DEBUG >= level) Log.d(tag, appendData(builder().append(prefix), data, offset, length).toString());
+    }
+
+    /** 文本数据的调试输出，CR/LF转义后显示 */
+    public static void text(String tag, String prefix, String text) {
+        if (Log.DEBUG >= level) Log.d(tag, appendEscaped(builder().append(prefix), text).toString());
+    }
+
+    public static StringBuilder appendData(StringBuilder sb, byte[] data, int offset, int length) {
+        if (hexDump) return HexEncoder.append(sb, data, offset, length, true);
+        return appendEscaped(sb, new String(data, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private static StringBuilder appendEscaped(StringBuilder sb, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r') sb.append("\\r");
+            else if (c == '\n') sb.append("\\n");
+            else sb.append(c);
+        }
+        return sb;
+    }
+
+    private static StringBuilder builder() {
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static String format(String template, Object arg1, Object arg2, Object arg3, int argCount) {
+        StringBuilder sb = builder();
+        int from = 0;
+        for (int i = 0; i < argCount; i++) {
+            int at = template.indexOf("{}", from);
+            if (at < 0) break;
+            Object arg = i == 0 ? arg1 : i == 1 ? arg2 : arg3;
+            sb.append(template, from, at);
+            if (arg instanceof CharSequence) appendEscaped(sb, (CharSequence) arg);
+            else sb.append(arg);
+            from = at + 2;
+        }
+        return sb.append(template, from, template.length()).toString();
+    }
+}
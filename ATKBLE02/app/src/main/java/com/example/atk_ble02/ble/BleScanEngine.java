@@ -0,0 +1,201 @@
+package com.example.atk_ble02.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.DiscoveryTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * BLE扫描引擎：把设备名和服务UUID过滤条件下发给控制器 (支持硬件过滤时不会为无关广播唤醒应用)，
+ * 按扫描档位设置占空比和批量上报延迟，同一目标在一次扫描中只上报一次，并记录发现目标所用的时间。
+ * 回调里再按设备名 (不区分大小写) 或服务UUID确认一次：软件过滤的设备上由系统过滤，结果不一定可靠。
+ * ScanFilter 的设备名只能精确匹配，名字大小写不同的模块只能靠服务UUID过滤条件找到。
+ * 目标设备之后的每条广播都计入 DiscoveryTable (平滑 RSSI 和广播频率)，供多个模块同时广播时选出信号最好的一个。
+ */
+public class BleScanEngine {
+
+    private static final String TAG = "BleScanEngine";
+
+    public enum Profile {
+        /** 前台连接：最高占空比，立即上报 */
+        LOW_LATENCY(ScanSettings.SCAN_MODE_LOW_LATENCY, 0),
+        BALANCED(ScanSettings.SCAN_MODE_BALANCED, 0),
+        /** 后台发现：低占空比，控制器批量缓存结果后每秒上报一次 */
+        LOW_POWER_BATCHED(ScanSettings.SCAN_MODE_LOW_POWER, 1000);
+
+        final int scanMode;
+        final long reportDelayMs;
+
+        Profile(int scanMode, long reportDelayMs) {
+            this.scanMode = scanMode;
+            this.reportDelayMs = reportDelayMs;
+        }
+    }
+
+    public interface Listener {
+        /** 每个地址在一次扫描中只回调一次 */
+        void onDeviceFound(BluetoothDevice device, ScanResult result, long timeToDiscoveryMs);
+        void onScanFailed(int errorCode);
+        void onScanTimeout();
+    }
+
+    private final BluetoothAdapter adapter;
+    private final Handler handler;
+    private final String targetName;
+    private final UUID serviceUuid;
+    private final DiscoveryTable discoveryTable = new DiscoveryTable();
+
+    private BluetoothLeScanner scanner;
+    private Listener listener;
+    private boolean scanning;
+    private long scanStartNanos;
+    private long lastTimeToDiscoveryMs = -1;
+
+    private final Runnable timeoutRunnable = () -> {
+        if (!scanning) return;
+        Log.d(TAG, "扫描超时，停止扫描");
+        stop();
+        listener.onScanTimeout();
+    };
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            handleResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) handleResult(results.get(i));
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "扫描失败，错误码: " + errorCode);
+            scanning = false;
+            handler.removeCallbacks(timeoutRunnable);
+            listener.onScanFailed(errorCode);
+        }
+    };
+
+    /** handler 为扫描回调所在线程的Handler (主线程)，用于扫描超时 */
+    public BleScanEngine(BluetoothAdapter adapter, Handler handler, String targetName, UUID serviceUuid) {
+        this.adapter = adapter;
+        this.handler = handler;
+        this.targetName = targetName;
+        this.serviceUuid = serviceUuid;
+    }
+
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    /** 最近一次扫描从开始到发现第一个目标的毫秒数，未发现为-1 */
+    public long getLastTimeToDiscoveryMs() {
+        return lastTimeToDiscoveryMs;
+    }
+
+    /** 本次扫描中目标设备的广播统计，下次 start() 时清空；只在主线程访问 */
+    public DiscoveryTable getDiscoveryTable() {
+        return discoveryTable;
+    }
+
+    @SuppressLint("MissingPermission")
+    public boolean start(Profile profile, long timeoutMs, Listener listener) {
+        if (scanning) { Log.d(TAG, "已经在扫描了"); return true; }
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) { Log.e(TAG, "无法获取BLE扫描器"); return false; }
+
+        this.listener = listener;
+        discoveryTable.clear();
+        lastTimeToDiscoveryMs = -1;
+
+        // 多个ScanFilter之间是"或"关系：名字精确匹配或广播中带有目标服务UUID
+        List<ScanFilter> filters = new ArrayList<>();
+        filters.add(new ScanFilter.Builder().setDeviceName(targetName).build());
+        filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build());
+
+        ScanSettings.Builder settings = new ScanSettings.Builder().setScanMode(profile.scanMode);
+        long reportDelay = profile.reportDelayMs;
+        if (reportDelay > 0 && !adapter.isOffloadedScanBatchingSupported()) {
+            Log.w(TAG, "控制器不支持批量扫描，改为立即上报");
+            reportDelay = 0;
+        }
+        settings.setReportDelay(reportDelay);
+
+        Log.d(TAG, "BLE扫描开始: " + profile + ", reportDelay=" + reportDelay + "ms, 硬件过滤="
+                + adapter.isOffloadedFilteringSupported());
+        scanStartNanos = SystemClock.elapsedRealtimeNanos();
+        scanner.startScan(filters, settings.build(), scanCallback);
+        scanning = true;
+        handler.postDelayed(timeoutRunnable, timeoutMs);
+        return true;
+    }
+
+    @SuppressLint("MissingPermission")
+    public void stop() {
+        handler.removeCallbacks(timeoutRunnable);
+        if (scanning && scanner != null) {
+            try {
+                scanner.stopScan(scanCallback);
+                Log.d(TAG, "BLE扫描已请求停止");
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "停止扫描时出错: " + e.getMessage());
+            }
+        }
+        scanning = false;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void handleResult(ScanResult result) {
+        if (!scanning) return;
+        BluetoothDevice device = result.getDevice();
+        String address = device.getAddress();
+        if (discoveryTable.get(address) != null) {
+            // 已确认过的目标只更新信号统计
+            discoveryTable.update(address, null, result.getRssi(), result.getTimestampNanos());
+            return;
+        }
+        // 没有确认的地址每条广播都重新判断：第一条广播可能还没带名字 (名字在扫描响应里)
+        if (!isTarget(device, result.getScanRecord())) return;
+        discoveryTable.update(address, deviceName(device, result.getScanRecord()), result.getRssi(), result.getTimestampNanos());
+
+        long elapsedMs = (SystemClock.elapsedRealtimeNanos() - scanStartNanos) / 1_000_000L;
+        if (lastTimeToDiscoveryMs < 0) lastTimeToDiscoveryMs = elapsedMs;
+        Log.d(TAG, "发现目标设备: " + device.getAddress() + ", RSSI " + result.getRssi() + ", 用时 " + elapsedMs + "ms");
+        listener.onDeviceFound(device, result, elapsedMs);
+    }
+
+    // 控制器过滤之后的第二道过滤：名字不区分大小写，不支持硬件过滤时系统的软件过滤也在这里再确认一次
+    @SuppressLint("MissingPermission")
+    private boolean isTarget(BluetoothDevice device, ScanRecord record) {
+        String name = deviceName(device, record);
+        if (name != null && name.equalsIgnoreCase(targetName)) return true;
+        List<ParcelUuid> uuids = record != null ? record.getServiceUuids() : null;
+        if (uuids == null) return false;
+        for (int i = 0; i < uuids.size(); i++) {
+            if (serviceUuid.equals(uuids.get(i).getUuid())) return true;
+        }
+        return false;
+    }
+
+    @SuppressLint("MissingPermission")
+    private static String deviceName(BluetoothDevice device, ScanRecord record) {
+        return record != null && record.getDeviceName() != null ? record.getDeviceName() : device.getName();
+    }
+}
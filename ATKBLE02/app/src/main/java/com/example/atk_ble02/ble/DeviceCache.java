@@ -0,0 +1,71 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 记住上一次成功连接的模块地址和绑定状态，下次连接时可以跳过扫描直接 connectGatt；
+ * 另外保存用户指定的模块地址 (多个模块同时广播时扫描只连接它)。
+ */
+public class DeviceCache {
+
+    private static final String PREFS_NAME = "ble_device_cache";
+    private static final String KEY_ADDRESS = "last_address";
+    private static final String KEY_BOND_STATE = "last_bond_state";
+    private static final String KEY_CONNECTED_AT = "last_connected_at";
+    private static final String KEY_PINNED_ADDRESS = "pinned_address";
+
+    private final SharedPreferences prefs;
+
+    public DeviceCache(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** 上次成功连接的地址，没有或格式不合法时返回null */
+    public String getLastAddress() {
+        String address = prefs.getString(KEY_ADDRESS, null);
+        return address != null && BluetoothAdapter.checkBluetoothAddress(address) ? address : null;
+    }
+
+    public int getLastBondState() {
+        return prefs.getInt(KEY_BOND_STATE, BluetoothDevice.BOND_NONE);
+    }
+
+    public long getLastConnectedAt() {
+        return prefs.getLong(KEY_CONNECTED_AT, 0);
+    }
+
+    public void remember(String address, int bondState) {
+        prefs.edit()
+                .putString(KEY_ADDRESS, address)
+                .putInt(KEY_BOND_STATE, bondState)
+                .putLong(KEY_CONNECTED_AT, System.currentTimeMillis())
+                .apply();
+    }
+
+    /** 只更新已缓存设备的绑定状态 */
+    public void updateBondState(String address, int bondState) {
+        if (address != null && address.equals(prefs.getString(KEY_ADDRESS, null))) {
+            prefs.edit().putInt(KEY_BOND_STATE, bondState).apply();
+        }
+    }
+
+    /** 用户指定的模块地址，未指定 (自动选择信号最强的) 时返回null */
+    public String getPinnedAddress() {
+        String address = prefs.getString(KEY_PINNED_ADDRESS, null);
+        return address != null && BluetoothAdapter.checkBluetoothAddress(address) ? address : null;
+    }
+
+    /** address 为null时取消指定 */
+    public void setPinnedAddress(String address) {
+        if (address == null) prefs.edit().remove(KEY_PINNED_ADDRESS).apply();
+        else prefs.edit().putString(KEY_PINNED_ADDRESS, address).apply();
+    }
+
+    /** 忘记上次连接的设备，保留用户指定的地址 */
+    public void forget() {
+        prefs.edit().remove(KEY_ADDRESS).remove(KEY_BOND_STATE).remove(KEY_CONNECTED_AT).apply();
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.atk_ble02.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.Build;
+
+import com.example.atk_ble02.protocol.ByteArrayPool;
+
+import java.util.UUID;
+
+/**
+ * 一次GATT操作。Android协议栈同一时刻只允许一个未完成的操作，
+ * 所以所有写、读、描述符写、MTU请求和服务发现都通过 {@link GattOperationQueue} 串行执行，
+ * 并由对应的 BluetoothGattCallback 事件完成。
+ */
+public abstract class GattOperation {
+
+    public enum Type { WRITE_CHARACTERISTIC, WRITE_DESCRIPTOR, READ_CHARACTERISTIC, REQUEST_MTU, DISCOVER_SERVICES }
+
+    /** execute() 的返回值 */
+    static final int EXECUTE_STARTED = 0;
+    static final int EXECUTE_BUSY = 1;
+    static final int EXECUTE_FAILED = 2;
+
+    public interface Callback {
+        /** status 为 GATT 状态码，或 GattOperationQueue.STATUS_* 之一 */
+        void onComplete(GattOperation operation, int status);
+    }
+
+    private final Type type;
+    private final UUID target;
+    private final long timeoutMs;
+    private final int maxRetries;
+    private final Callback callback;
+    int attempts;
+    long enqueuedNanos; // 由 GattOperationQueue 记录，用于延迟统计
+    long startedNanos;
+    private volatile boolean cancelled;
+
+    protected GattOperation(Type type, UUID target, long timeoutMs, int maxRetries, Callback callback) {
+        this.type = type;
+        this.target = target;
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = maxRetries;
+        this.callback = callback;
+    }
+
+    public Type getType() { return type; }
+    public UUID getTarget() { return target; }
+    public long getTimeoutMs() { return timeoutMs; }
+    public int getMaxRetries() { return maxRetries; }
+
+    abstract int execute(BluetoothGatt gatt);
+
+    /** 重复执行不会改变结果 (读、描述符写、MTU请求、服务发现)；超时时原来的请求可能仍在途中，只有这类操作会被重发 */
+    boolean isIdempotent() {
+        return true;
+    }
+
+    /** 还在队列里等待的操作不再执行，轮到它时以 STATUS_CANCELLED 完成；已经发起的操作不受影响 */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    boolean matches(Type eventType, UUID eventTarget) {
+        return type == eventType && (target == null || target.equals(eventTarget));
+    }
+
+    void dispatchComplete(int status) {
+        if (callback != null) callback.onComplete(this, status);
+    }
+
+    /** 回调之后由队列调用，归还池化的缓冲区 */
+    void recycle() {
+    }
+
+    @Override
+    public String toString() {
+        return type + (target != null ? "(" + target + ")" : "");
+    }
+
+    public static class WriteCharacteristic extends GattOperation {
+        private final BluetoothGattCharacteristic characteristic;
+        private final byte[] value;
+        private final int writeType;
+        private final ByteArrayPool pool;
+
+        public WriteCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, Callback callback) {
+            this(characteristic, value, writeType, null, callback);
+        }
+
+        /** value 取自 pool 时，完成回调之后归还 (重试期间仍然持有)，回调里 getValue() 只在回调期间有效 */
+        public WriteCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, ByteArrayPool pool, Callback callback) {
+            super(Type.WRITE_CHARACTERISTIC, characteristic.getUuid(), 5000, 2, callback);
+            this.characteristic = characteristic;
+            this.value = value;
+            this.writeType = writeType;
+            this.pool = pool;
+        }
+
+        public byte[] getValue() { return value; }
+        public int getWriteType() { return writeType; }
+
+        @Override
+        void recycle() {
+            if (pool != null) pool.release(value);
+        }
+
+        // 模块把写入的数据转发到串口，重发会让对端收到两份
+        @Override
+        boolean isIdempotent() {
+            return false;
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        int execute(BluetoothGatt gatt) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                int result = gatt.writeCharacteristic(characteristic, value, writeType);
+                if (result == BluetoothStatusCodes.SUCCESS) return EXECUTE_STARTED;
+                return result == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY ? EXECUTE_BUSY : EXECUTE_FAILED;
+            }
+            // 旧API的值和写类型保存在共享的characteristic对象上，必须在真正执行时才设置
+            characteristic.setWriteType(writeType);
+            characteristic.setValue(value);
+            return gatt.writeCharacteristic(characteristic) ? EXECUTE_STARTED : EXECUTE_FAILED;
+        }
+    }
+
+    public static class WriteDescriptor extends GattOperation {
+        private final BluetoothGattDescriptor descriptor;
+        private final byte[] value;
+
+        public WriteDescriptor(BluetoothGattDescriptor descriptor, byte[] value, Callback callback) {
+            super(Type.WRITE_DESCRIPTOR, descriptor.getUuid(), 5000, 2, callback);
+            this.descriptor = descriptor;
+            this.value = value;
+        }
+
+        public BluetoothGattDescriptor getDescriptor() { return descriptor; }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        int execute(BluetoothGatt gatt) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                int result = gatt.writeDescriptor(descriptor, value);
+                if (result == BluetoothStatusCodes.SUCCESS) return EXECUTE_STARTED;
+                return result == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY ? EXECUTE_BUSY : EXECUTE_FAILED;
+            }
+            descriptor.setValue(value);
+            return gatt.writeDescriptor(descriptor) ? EXECUTE_STARTED : EXECUTE_FAILED;
+        }
+    }
+
+    public static class ReadCharacteristic extends GattOperation {
+        private final BluetoothGattCharacteristic characteristic;
+        private volatile byte[] value;
+
+        public ReadCharacteristic(BluetoothGattCharacteristic characteristic, Callback callback) {
+            super(Type.READ_CHARACTERISTIC, characteristic.getUuid(), 5000, 2, callback);
+            this.characteristic = characteristic;
+        }
+
+        /** 读取成功后的值，在回调中有效 */
+        public byte[] getValue() { return value; }
+
+        void setValue(byte[] value) { this.value = value; }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        int execute(BluetoothGatt gatt) {
+            return gatt.readCharacteristic(characteristic) ? EXECUTE_STARTED : EXECUTE_FAILED;
+        }
+    }
+
+    public static class RequestMtu extends GattOperation {
+        private final int mtu;
+        private volatile int negotiatedMtu;
+
+        public RequestMtu(int mtu, Callback callback) {
+            super(Type.REQUEST_MTU, null, 3000, 0, callback);
+            this.mtu = mtu;
+        }
+
+        public int getNegotiatedMtu() { return negotiatedMtu; }
+
+        void setNegotiatedMtu(int negotiatedMtu) { this.negotiatedMtu = negotiatedMtu; }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        int execute(BluetoothGatt gatt) {
+            return gatt.requestMtu(mtu) ? EXECUTE_STARTED : EXECUTE_FAILED;
+        }
+    }
+
+    public static class DiscoverServices extends GattOperation {
+        public DiscoverServices(Callback callback) {
+            super(Type.DISCOVER_SERVICES, null, 10000, 1, callback);
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        int execute(BluetoothGatt gatt) {
+            return gatt.discoverServices() ? EXECUTE_STARTED : EXECUTE_FAILED;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.LinkMetrics;
+import com.example.atk_ble02.protocol.ThroughputMeter;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * GATT操作队列：同一时刻只执行一个操作，由匹配的回调事件完成后立即执行下一个，
+ * 保证链路不空闲。每个操作有各自的超时和重试次数；API 33+ 返回 BUSY 时短暂退避后重试。
+ * 启动失败的操作没有发出，总是可以重试；超时的操作可能仍在协议栈里，只重发幂等的操作，特征写直接以超时失败。
+ * 特征写超时后队列暂停，等它迟到的回调 (丢弃，不能算作下一个写的完成) 或再等一个超时时间后才执行下一个操作。
+ * enqueue() 可在任意线程调用，GATT操作总是在 handler 所在线程上发起。
+ */
+public class GattOperationQueue {
+
+    private static final String TAG = "GattOperationQueue";
+
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_START_FAILED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    private static final long BUSY_RETRY_DELAY_MS = 5;
+
+    private final Handler handler;
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private final ThroughputMeter writeMeter = new ThroughputMeter();
+    private GattOperation current;
+    // 超时放弃的非幂等操作：迟到的回调到达 (或再等一个超时) 之前不执行下一个操作
+    private GattOperation.Type staleType;
+    private UUID staleTarget;
+    private BluetoothGatt gatt;
+    private volatile LinkMetrics metrics;
+
+    private final Runnable timeoutRunnable = this::onTimeout;
+    private final Runnable retryRunnable = this::executeCurrent;
+    private final Runnable driveRunnable = this::drive;
+    private final Runnable staleExpiredRunnable = this::onStaleExpired;
+
+    public GattOperationQueue(Handler handler) {
+        this.handler = handler;
+    }
+
+    /** 连接建立后绑定GATT，开始执行已排队的操作 */
+    public void attach(BluetoothGatt gatt) {
+        synchronized (this) {
+            this.gatt = gatt;
+        }
+        writeMeter.reset();
+        drive();
+    }
+
+    /** 特征写的排队、执行和总耗时记入 metrics 的 write.* 直方图 */
+    public void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void enqueue(GattOperation operation) {
+        operation.enqueuedNanos = System.nanoTime();
+        synchronized (this) {
+            pending.addLast(operation);
+        }
+        if (Looper.myLooper() == handler.getLooper()) drive();
+        else handler.post(driveRunnable);
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    public synchronized boolean isIdle() {
+        return current == null && pending.isEmpty();
+    }
+
+    /** 成功写入特征的字节数和速率 (包括流式发送)，attach() 时清零 */
+    public ThroughputMeter getWriteMeter() {
+        return writeMeter;
+    }
+
+    /** 断开连接时调用：取消所有未完成操作并解绑GATT */
+    public void clear() {
+        GattOperation inFlight;
+        GattOperation[] cancelled;
+        synchronized (this) {
+            handler.removeCallbacks(timeoutRunnable);
+            handler.removeCallbacks(retryRunnable);
+            handler.removeCallbacks(staleExpiredRunnable);
+            staleType = null;
+            staleTarget = null;
+            inFlight = current;
+            current = null;
+            cancelled = pending.toArray(new GattOperation[0]);
+            pending.clear();
+            gatt = null;
+        }
+        if (inFlight != null) finish(inFlight, STATUS_CANCELLED);
+        for (GattOperation operation : cancelled) finish(operation, STATUS_CANCELLED);
+    }
+
+    public void onCharacteristicWrite(UUID characteristicUuid, int status) {
+        complete(GattOperation.Type.WRITE_CHARACTERISTIC, characteristicUuid, status, null, 0);
+    }
+
+    public void onDescriptorWrite(UUID descriptorUuid, int status) {
+        complete(GattOperation.Type.WRITE_DESCRIPTOR, descriptorUuid, status, null, 0);
+    }
+
+    public void onCharacteristicRead(UUID characteristicUuid, byte[] value, int status) {
+        complete(GattOperation.Type.READ_CHARACTERISTIC, characteristicUuid, status, value, 0);
+    }
+
+    public void onMtuChanged(int mtu, int status) {
+        complete(GattOperation.Type.REQUEST_MTU, null, status, null, mtu);
+    }
+
+    public void onServicesDiscovered(int status) {
+        complete(GattOperation.Type.DISCOVER_SERVICES, null, status, null, 0);
+    }
+
+    private void complete(GattOperation.Type type, UUID target, int status, byte[] value, int mtu) {
+        GattOperation operation;
+        synchronized (this) {
+            if (current == null && staleType == type && (staleTarget == null || staleTarget.equals(target))) {
+                Log.w(TAG, "丢弃已超时操作的迟到回调: " + type + ", 状态: " + status);
+                staleType = null;
+                staleTarget = null;
+                handler.removeCallbacks(staleExpiredRunnable);
+                operation = null;
+            } else if (current == null || !current.matches(type, target)) {
+                Log.w(TAG, "收到不匹配的回调: " + type + " (当前操作: " + current + ")");
+                return;
+            } else {
+                operation = current;
+                current = null;
+                handler.removeCallbacks(timeoutRunnable);
+                handler.removeCallbacks(retryRunnable); // 超时后排队的重试不能落到下一个操作上
+            }
+        }
+        if (operation == null) { drive(); return; }
+        if (operation instanceof GattOperation.ReadCharacteristic) {
+            ((GattOperation.ReadCharacteristic) operation).setValue(value);
+        } else if (operation instanceof GattOperation.RequestMtu) {
+            ((GattOperation.RequestMtu) operation).setNegotiatedMtu(mtu);
+        } else if (operation instanceof GattOperation.WriteCharacteristic && status == BluetoothGatt.GATT_SUCCESS) {
+            writeMeter.add(((GattOperation.WriteCharacteristic) operation).getValue().length);
+        }
+        finish(operation, status);
+        drive();
+    }
+
+    // 统计后回调，回调后归还池化的缓冲区；写操作的三个时间点在这里汇总，不额外分配。断开时取消的操作不计入
+    private void finish(GattOperation operation, int status) {
+        LinkMetrics m = metrics;
+        if (m != null && status != STATUS_CANCELLED && operation instanceof GattOperation.WriteCharacteristic) {
+            long started = operation.startedNanos != 0 ? operation.startedNanos : System.nanoTime();
+            m.onWriteComplete(operation.enqueuedNanos, started, System.nanoTime(),
+                    ((GattOperation.WriteCharacteristic) operation).getValue().length, status == BluetoothGatt.GATT_SUCCESS);
+        }
+        operation.dispatchComplete(status);
+        operation.recycle();
+    }
+
+    private void drive() {
+        while (true) {
+            GattOperation next; // 跳过已取消的操作
+            synchronized (this) {
+                if (current != null || staleType != null || gatt == null) return;
+                next = pending.pollFirst();
+                if (next == null) return;
+                if (!next.isCancelled()) {
+                    current = next;
+                    break;
+                }
+            }
+            finish(next, STATUS_CANCELLED);
+        }
+        executeCurrent();
+    }
+
+    private void executeCurrent() {
+        GattOperation operation;
+        BluetoothGatt target;
+        synchronized (this) {
+            operation = current;
+            target = gatt;
+            if (operation == null || target == null) return;
+            operation.attempts++;
+        }
+        long startNanos = System.nanoTime();
+        int result = operation.execute(target);
+        synchronized (this) {
+            if (current != operation) return; // 执行期间已完成或已取消
+            if (result == GattOperation.EXECUTE_STARTED) {
+                operation.startedNanos = startNanos;
+                handler.postDelayed(timeoutRunnable, operation.getTimeoutMs());
+                return;
+            }
+            if (result == GattOperation.EXECUTE_BUSY) {
+                // 协议栈缓冲区满，不计入重试次数
+                operation.attempts--;
+                handler.postDelayed(retryRunnable, BUSY_RETRY_DELAY_MS);
+                return;
+            }
+            if (operation.attempts <= operation.getMaxRetries()) {
+                Log.w(TAG, operation + " 启动失败，重试 (" + operation.attempts + "/" + operation.getMaxRetries() + ")");
+                handler.post(retryRunnable);
+                return;
+            }
+            current = null;
+            handler.removeCallbacks(retryRunnable);
+        }
+        Log.e(TAG, operation + " 启动失败，放弃");
+        finish(operation, STATUS_START_FAILED);
+        drive();
+    }
+
+    private void onTimeout() {
+        GattOperation operation;
+        synchronized (this) {
+            operation = current;
+            if (operation == null) return;
+            if (operation.isIdempotent() && operation.attempts <= operation.getMaxRetries()) {
+                Log.w(TAG, operation + " 超时，重试 (" + operation.attempts + "/" + operation.getMaxRetries() + ")");
+                handler.post(retryRunnable);
+                return;
+            }
+            current = null;
+            if (!operation.isIdempotent()) {
+                staleType = operation.getType();
+                staleTarget = operation.getTarget();
+                handler.postDelayed(staleExpiredRunnable, operation.getTimeoutMs());
+            }
+        }
+        Log.e(TAG, operation + " 超时，放弃");
+        finish(operation, STATUS_TIMEOUT);
+        drive();
+    }
+
+    // 迟到的回调一直没来，当作已丢失，继续执行后面的操作
+    private void onStaleExpired() {
+        synchronized (this) {
+            if (staleType == null) return;
+            Log.w(TAG, "已超时的 " + staleType + " 没有迟到的回调，继续执行队列");
+            staleType = null;
+            staleTarget = null;
+        }
+        drive();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 把Binder线程上的GATT回调按原顺序转发到 handler 线程。
+ * API 33 以下特征值通过共享的 characteristic 对象传递，下一次通知会覆盖它，
+ * 所以在Binder线程上先复制一份，再以 byte[] 重载的形式交给目标回调。
+ * 这些平台上 BluetoothGattCallback 还没有 byte[] 重载，目标必须声明为 BleConnection.GattCallback 才能调用到它们。
+ */
+class HandlerGattCallback extends BluetoothGattCallback {
+
+    private final Handler handler;
+    private final BleConnection.GattCallback target;
+
+    HandlerGattCallback(Handler handler, BleConnection.GattCallback target) {
+        this.handler = handler;
+        this.target = target;
+    }
+
+    @Override
+    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        handler.post(() -> target.onConnectionStateChange(gatt, status, newState));
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        handler.post(() -> target.onMtuChanged(gatt, mtu, status));
+    }
+
+    @Override
+    public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        handler.post(() -> target.onPhyUpdate(gatt, txPhy, rxPhy, status));
+    }
+
+    @Override
+    public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        handler.post(() -> target.onPhyRead(gatt, txPhy, rxPhy, status));
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        handler.post(() -> target.onServicesDiscovered(gatt, status));
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        handler.post(() -> target.onDescriptorWrite(gatt, descriptor, status));
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        handler.post(() -> target.onCharacteristicWrite(gatt, characteristic, status));
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        byte[] value = copy(characteristic.getValue());
+        handler.post(() -> target.onCharacteristicRead(gatt, characteristic, value, status));
+    }
+
+    @Override
+    public void onCharacteristicRead(@NonNull BluetoothGatt gatt, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value, int status) {
+        handler.post(() -> target.onCharacteristicRead(gatt, characteristic, value, status));
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        if (value == null) return;
+        byte[] copy = value.clone();
+        handler.post(() -> target.onCharacteristicChanged(gatt, characteristic, copy));
+    }
+
+    @Override
+    public void onCharacteristicChanged(@NonNull BluetoothGatt gatt, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        handler.post(() -> target.onCharacteristicChanged(gatt, characteristic, value));
+    }
+
+    private static byte[] copy(byte[] value) {
+        return value != null ? value.clone() : new byte[0];
+    }
+}
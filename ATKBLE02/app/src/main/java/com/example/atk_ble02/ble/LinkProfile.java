@@ -0,0 +1,65 @@
+package com.example.atk_ble02.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * 链路档位：连接后请求对应的连接优先级 (连接间隔) 和首选PHY，可在连接期间随时切换。
+ * 协商出的PHY由 BluetoothGattCallback.onPhyUpdate 回报；对端或手机不支持2M时控制器会保持1M。
+ */
+public enum LinkProfile {
+    /** 长连接间隔、1M PHY，适合长时间挂机少量收发 */
+    LOW_POWER("低功耗", BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER, BluetoothDevice.PHY_LE_1M_MASK, 2),
+    /** 系统默认连接间隔，1M/2M 由控制器选择 */
+    BALANCED("均衡", BluetoothGatt.CONNECTION_PRIORITY_BALANCED,
+            BluetoothDevice.PHY_LE_1M_MASK | BluetoothDevice.PHY_LE_2M_MASK, 4),
+    /** 最短连接间隔 + 2M PHY，批量传输用 */
+    MAX_THROUGHPUT("最大吞吐", BluetoothGatt.CONNECTION_PRIORITY_HIGH, BluetoothDevice.PHY_LE_2M_MASK, 8);
+
+    private static final String TAG = "LinkProfile";
+
+    public final String label;
+    public final int connectionPriority;
+    public final int phyMask;
+    /** 流式发送时允许同时在途的分片数，连接间隔越短每个间隔能送出的包越多 */
+    public final int streamCredits;
+
+    LinkProfile(String label, int connectionPriority, int phyMask, int streamCredits) {
+        this.label = label;
+        this.connectionPriority = connectionPriority;
+        this.phyMask = phyMask;
+        this.streamCredits = streamCredits;
+    }
+
+    /**
+     * 请求连接优先级和首选PHY。这两个请求不是ATT操作，不经过 GattOperationQueue；
+     * 返回连接优先级请求是否被接受。
+     */
+    @SuppressLint("MissingPermission")
+    public boolean apply(BluetoothGatt gatt) {
+        boolean accepted = gatt.requestConnectionPriority(connectionPriority);
+        if (!accepted) Log.w(TAG, "requestConnectionPriority(" + connectionPriority + ") 被拒绝");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            gatt.setPreferredPhy(phyMask, phyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+        Log.d(TAG, "应用链路档位: " + this + " (priority=" + connectionPriority + ", phyMask=" + phyMask + ")");
+        return accepted;
+    }
+
+    public static String phyToString(int phy) {
+        switch (phy) {
+            case 1: return "1M";
+            case 2: return "2M";
+            case 3: return "Coded";
+            default: return "未知(" + phy + ")";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
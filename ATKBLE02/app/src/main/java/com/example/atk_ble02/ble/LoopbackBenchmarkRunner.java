@@ -0,0 +1,182 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.LoopbackBenchmark;
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 在一个连接上依次跑 链路档位 (连接优先级) × 写类型 × MTU 的所有组合的回环测试，用于在上线前评估手机型号和模块固件。
+ * <p>
+ * Android 不允许把已协商的MTU改小，所以"MTU"是切包时用的上限 (见 LoopbackBenchmark.setMaxMtu)，
+ * 超过链路MTU的档位跳过；写入特征不支持的写类型也跳过。切换档位后等 PROFILE_SETTLE_MS 让连接参数更新生效。
+ * 跑完 (或取消) 后恢复原来的档位和写类型。测试期间在连接上挂一个 STAGE_EXCLUSIVE 监听者，通知只交给测试校验，
+ * 不经过行解码和可靠通道，回显的测试数据不会刷到界面上；断开连接时结束当前组合。
+ * 所有方法和 Listener 回调都在主线程上。
+ */
+public class LoopbackBenchmarkRunner {
+
+    private static final String TAG = "LoopbackBenchmark";
+    private static final long PROFILE_SETTLE_MS = 500;
+
+    public static final int[] DEFAULT_MTUS = {23, 64, 128, 185, 247};
+    public static final int[] WRITE_TYPES = {BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT};
+
+    public interface Listener {
+        void onRunStarted(String label, int index, int count);
+        void onRunFinished(LoopbackBenchmark.Result result);
+        /** results 按运行顺序；cancelled 为 true 时只包含已完成的组合 */
+        void onAllFinished(List<LoopbackBenchmark.Result> results, boolean cancelled);
+    }
+
+    private final BleConnection connection;
+    private final Handler main;
+    private final List<Combination> combinations = new ArrayList<>();
+    private final List<LoopbackBenchmark.Result> results = new ArrayList<>();
+    private final LinkProfile originalProfile;
+
+    private LoopbackBenchmark.Pattern pattern = LoopbackBenchmark.Pattern.INCREMENT;
+    private long totalBytes = 32 * 1024;
+    private boolean expectEcho = true;
+    private Listener listener;
+    private volatile LoopbackBenchmark current; // 工作线程上的 exclusiveListener 也读
+    private int index;
+    private boolean running;
+    private boolean cancelled;
+
+    public LoopbackBenchmarkRunner(BleConnection connection, Handler main) {
+        this(connection, main, LinkProfile.values(), WRITE_TYPES, DEFAULT_MTUS);
+    }
+
+    public LoopbackBenchmarkRunner(BleConnection connection, Handler main, LinkProfile[] profiles, int[] writeTypes, int[] mtus) {
+        this.connection = connection;
+        this.main = main;
+        this.originalProfile = connection.getLinkProfile();
+        for (LinkProfile profile : profiles) {
+            for (int writeType : writeTypes) {
+                if (!connection.supportsWriteType(writeType)) continue;
+                for (int mtu : mtus) {
+                    if (mtu <= connection.getMtu()) combinations.add(new Combination(profile, writeType, mtu));
+                }
+            }
+        }
+    }
+
+    public void setPattern(LoopbackBenchmark.Pattern pattern) { this.pattern = pattern; }
+    /** 每个组合写出的字节数 */
+    public void setTotalBytes(long totalBytes) { this.totalBytes = totalBytes; }
+    public void setExpectEcho(boolean expectEcho) { this.expectEcho = expectEcho; }
+
+    public int getCombinationCount() {
+        return combinations.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private final NotificationListener exclusiveListener = new NotificationListener() {
+        @Override
+        public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+            LoopbackBenchmark benchmark = current;
+            return benchmark != null && benchmark.isRunning();
+        }
+
+        @Override
+        public void onLinkReset() {
+            LoopbackBenchmark benchmark = current;
+            if (benchmark != null) benchmark.cancel();
+        }
+    };
+
+    /** 没有可测的组合或连接未就绪时返回false */
+    public boolean start(Listener listener) {
+        if (running || combinations.isEmpty() || !connection.isReady()) return false;
+        this.listener = listener;
+        running = true;
+        connection.addNotificationListener(NotificationDispatcher.STAGE_EXCLUSIVE, exclusiveListener);
+        Log.i(TAG, connection.getAddress() + " 开始回环测试: " + combinations.size() + " 个组合, 每个 " + totalBytes + " 字节, 图案 " + pattern);
+        runNext();
+        return true;
+    }
+
+    /** 结束当前组合，不再跑剩下的 */
+    public void cancel() {
+        if (!running) return;
+        cancelled = true;
+        main.removeCallbacks(startCurrentRunnable);
+        if (current != null) current.cancel();
+        else finishAll();
+    }
+
+    private void runNext() {
+        if (cancelled || index >= combinations.size() || !connection.isReady()) { finishAll(); return; }
+        Combination combination = combinations.get(index);
+        boolean profileChanged = connection.getLinkProfile() != combination.profile;
+        if (profileChanged) connection.setLinkProfile(combination.profile);
+        connection.setPreferredWriteType(combination.writeType);
+        main.postDelayed(startCurrentRunnable, profileChanged ? PROFILE_SETTLE_MS : 0);
+    }
+
+    private final Runnable startCurrentRunnable = this::startCurrent;
+
+    private void startCurrent() {
+        Combination combination = combinations.get(index);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(connection, connection.getProtocolTimer());
+        benchmark.setLabel(combination.toString());
+        benchmark.setPattern(pattern);
+        benchmark.setTotalBytes(totalBytes);
+        benchmark.setMaxMtu(combination.mtu);
+        benchmark.setMaxInFlight(combination.profile.streamCredits);
+        benchmark.setExpectEcho(expectEcho);
+        current = benchmark;
+        listener.onRunStarted(combination.toString(), index, combinations.size());
+        boolean started = benchmark.start((b, result) -> main.post(() -> onRunFinished(result)));
+        if (!started) {
+            current = null;
+            finishAll();
+        }
+    }
+
+    private void onRunFinished(LoopbackBenchmark.Result result) {
+        current = null;
+        results.add(result);
+        Log.i(TAG, connection.getAddress() + " " + result);
+        listener.onRunFinished(result);
+        index++;
+        runNext();
+    }
+
+    private void finishAll() {
+        if (!running) return;
+        running = false;
+        connection.removeNotificationListener(exclusiveListener);
+        connection.setPreferredWriteType(-1);
+        if (connection.getLinkProfile() != originalProfile) connection.setLinkProfile(originalProfile);
+        listener.onAllFinished(Collections.unmodifiableList(results), cancelled || index < combinations.size());
+    }
+
+    private static final class Combination {
+        final LinkProfile profile;
+        final int writeType;
+        final int mtu;
+
+        Combination(LinkProfile profile, int writeType, int mtu) {
+            this.profile = profile;
+            this.writeType = writeType;
+            this.mtu = mtu;
+        }
+
+        @Override
+        public String toString() {
+            return profile.name() + "/" + (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ? "NO_RESPONSE" : "DEFAULT") + "/MTU" + mtu;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.atk_ble02.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.BackgroundRecordWriter;
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 把多个连接收到的真实通知 (不含回放) 交给同一个 BackgroundRecordWriter：挂在 STAGE_CAPTURE，只旁听不消费。
+ * 每个设备地址一个流编号，断开重连后不变。所有连接共用一个工作线程，满足写入器单生产者的要求。
+ * 连接断开或关闭时自动摘下 (不再引用已关闭的连接)，重连就绪后再 attach 即可，流编号不变。
+ * attach/stop 在主线程调用；stop() 先从连接上摘下，再在后台线程上 close() (写完环中剩余的记录并收尾文件)。
+ */
+public abstract class NotificationCapture<W extends BackgroundRecordWriter> {
+
+    public interface StopListener {
+        /** summary 为收尾结果 (或失败原因)，在主线程上回调 */
+        void onStopped(String summary);
+    }
+
+    private final String tag;
+    final W writer;
+    private final Map<String, Integer> streamIds = new HashMap<>();
+    private final Map<BleConnection, Tap> attached = new HashMap<>(); // 在 this 锁下访问，断开时在工作线程上移除
+    private boolean stopped;
+
+    NotificationCapture(String tag, W writer) {
+        this.tag = tag;
+        this.writer = writer;
+    }
+
+    public W getWriter() {
+        return writer;
+    }
+
+    /** 之后这个连接收到的通知都写进写入器；已挂上或已停止时什么都不做 */
+    public synchronized void attach(BleConnection connection) {
+        if (stopped || attached.containsKey(connection)) return;
+        Integer id = streamIds.get(connection.getAddress());
+        if (id == null) {
+            id = streamIds.size();
+            streamIds.put(connection.getAddress(), id);
+        }
+        defineStream(id, connection);
+        Tap tap = new Tap(connection, id);
+        attached.put(connection, tap);
+        connection.addNotificationListener(NotificationDispatcher.STAGE_CAPTURE, tap);
+    }
+
+    private synchronized void detach(Tap tap) {
+        tap.connection.removeNotificationListener(tap);
+        attached.remove(tap.connection, tap);
+    }
+
+    /** 从所有连接上摘下，在后台线程上收尾，完成后在 main 上回调 */
+    public void stop(Handler main, StopListener listener) {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            for (Tap tap : attached.values()) tap.connection.removeNotificationListener(tap);
+            attached.clear();
+        }
+        new Thread(() -> {
+            String result;
+            try {
+                writer.close();
+                result = describeResult();
+            } catch (IOException e) {
+                result = describeFailure(e);
+            }
+            Log.i(tag, result);
+            String summary = result;
+            main.post(() -> listener.onStopped(summary));
+        }, tag + "Close").start();
+    }
+
+    private final class Tap implements NotificationListener {
+        final BleConnection connection;
+        final int streamId;
+
+        Tap(BleConnection connection, int streamId) {
+            this.connection = connection;
+            this.streamId = streamId;
+        }
+
+        @Override
+        public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+            if (!replayed) writer.record(streamId, timestampNanos, buffer, offset, length);
+            return false;
+        }
+
+        @Override
+        public void onLinkReset() {
+            detach(this);
+        }
+    }
+
+    /** 给新的流编号起名 */
+    abstract void defineStream(int streamId, BleConnection connection);
+
+    /** close() 成功后的统计 */
+    abstract String describeResult();
+
+    abstract String describeFailure(IOException e);
+}
@@ -0,0 +1,83 @@
+package com.example.atk_ble02.ble;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.BleTransport;
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+import com.example.atk_ble02.protocol.ReliableChannel;
+
+import java.util.Locale;
+
+/**
+ * 连接上的分帧可靠模式 (模块固件需运行同样的协议)：挂在 STAGE_PROTOCOL，之后的通知交给 ReliableChannel 解帧，
+ * 不再按行解码，完整的消息在工作线程上交给 messageListener。断开连接时自动关闭并从连接上摘下。
+ */
+public class ReliableLink implements NotificationListener {
+
+    private static final String TAG = "ReliableLink";
+
+    public interface SendListener {
+        /** summary 为发送结果 (成功时含有效吞吐和重传数)，在 callbackHandler 上回调 */
+        void onSendFinished(int status, String summary);
+    }
+
+    private final BleConnection connection;
+    private final ReliableChannel channel;
+
+    private ReliableLink(BleConnection connection, ReliableChannel.MessageListener messageListener) {
+        this.connection = connection;
+        this.channel = new ReliableChannel(connection, connection.getProtocolTimer());
+        channel.setMessageListener(messageListener);
+    }
+
+    /** 开启可靠模式，已开启时返回已有的 */
+    public static ReliableLink start(BleConnection connection, ReliableChannel.MessageListener messageListener) {
+        ReliableLink link = get(connection);
+        if (link != null) return link;
+        link = new ReliableLink(connection, messageListener);
+        connection.addNotificationListener(NotificationDispatcher.STAGE_PROTOCOL, link);
+        Log.d(TAG, connection.getAddress() + " 开启分帧可靠模式");
+        return link;
+    }
+
+    /** 未开启可靠模式时返回null */
+    public static ReliableLink get(BleConnection connection) {
+        return connection.getNotificationListener(ReliableLink.class);
+    }
+
+    public ReliableChannel getChannel() {
+        return channel;
+    }
+
+    /** 关闭可靠模式，未确认的消息以 STATUS_CANCELLED 结束 */
+    public void stop() {
+        connection.removeNotificationListener(this);
+        channel.close();
+    }
+
+    /** 发送一条消息，全部分片被模块确认后报告有效吞吐和这条消息期间的重传数 */
+    public void send(byte[] data, Handler callbackHandler, SendListener listener) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        long retransmissionsBefore = channel.getRetransmissions();
+        channel.send(data, status -> callbackHandler.post(() -> {
+            if (status != BleTransport.STATUS_SUCCESS) { listener.onSendFinished(status, "可靠发送失败: " + status); return; }
+            double seconds = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1e9;
+            listener.onSendFinished(status, "可靠发送完成: " + data.length + " 字节, " + String.format(Locale.US, "%.1f", data.length / 1024.0 / seconds)
+                    + " KB/s, 重传 " + (channel.getRetransmissions() - retransmissionsBefore) + " 帧, CRC错误 " + channel.getCrcErrors());
+        }));
+    }
+
+    @Override
+    public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+        channel.onReceive(buffer, offset, length);
+        return true;
+    }
+
+    @Override
+    public void onLinkReset() {
+        stop();
+    }
+}
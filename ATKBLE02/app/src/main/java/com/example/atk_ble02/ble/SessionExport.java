@@ -0,0 +1,72 @@
+package com.example.atk_ble02.ble;
+
+import android.content.Context;
+
+import com.example.atk_ble02.protocol.SessionExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 把各连接收到的通知边收边导出成 exports/ 下的 gzip 文件，device 列为设备地址。
+ * CSV 包含所有挂上的设备；RAW 没有来源列，只导出创建时指定的那一个设备，attach 其它连接被忽略。
+ * 压缩和写盘在导出器自己的线程上，不占用BLE工作线程和主线程。
+ */
+public class SessionExport extends NotificationCapture<SessionExporter> {
+
+    private final String rawAddress; // RAW 导出的设备，按地址比较，重连后的新连接也能挂上
+
+    private SessionExport(SessionExporter exporter, String rawAddress) {
+        super("SessionExporter", exporter);
+        this.rawAddress = rawAddress;
+    }
+
+    /** format 为 RAW 时 rawConnection 是唯一导出的设备，不能为null */
+    public static SessionExport start(Context context, SessionExporter.Format format, BleConnection rawConnection) throws IOException {
+        if (format == SessionExporter.Format.RAW && rawConnection == null) throw new IllegalArgumentException("RAW 格式需要指定设备");
+        File root = context.getExternalFilesDir("exports");
+        if (root == null) root = new File(context.getFilesDir(), "exports");
+        File file = new File(root, "received-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + (format == SessionExporter.Format.CSV ? ".csv.gz" : ".bin.gz"));
+        SessionExport export = new SessionExport(new SessionExporter(file, format),
+                format == SessionExporter.Format.RAW ? rawConnection.getAddress() : null);
+        if (export.rawAddress != null) export.attach(rawConnection);
+        return export;
+    }
+
+    public File getFile() {
+        return writer.getFile();
+    }
+
+    @Override
+    public void attach(BleConnection connection) {
+        if (rawAddress == null || rawAddress.equals(connection.getAddress())) super.attach(connection);
+    }
+
+    /** 导出进度，用于设备列表下方的状态行 */
+    public String describeProgress() {
+        return "导出 " + writer.getRecords() + " 条, 文件 " + String.format(Locale.US, "%.1f", writer.getFileBytes() / 1024.0) + " KB, 待写 "
+                + writer.getBacklogBytes() + " 字节, 丢弃 " + writer.getDropped();
+    }
+
+    @Override
+    void defineStream(int streamId, BleConnection connection) {
+        writer.defineStream(streamId, connection.getAddress());
+    }
+
+    @Override
+    String describeResult() {
+        return String.format(Locale.US, "导出完成: %d 条通知, 数据 %.1f KB, 文件 %.1f KB (压缩到 %.0f%%), 导出速度 %.1f MB/s, 用时 %.1f s, 丢弃 %d 条",
+                writer.getRecords(), writer.getPayloadBytes() / 1024.0, writer.getFileBytes() / 1024.0,
+                writer.getCompressionRatio() * 100, writer.getExportBytesPerSecond() / (1024 * 1024),
+                writer.getElapsedNanos() / 1e9, writer.getDropped()) + "\n" + writer.getFile().getAbsolutePath();
+    }
+
+    @Override
+    String describeFailure(IOException e) {
+        return "导出收尾失败: " + e.getMessage() + "\n" + writer.getFile().getAbsolutePath();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.atk_ble02.ble;
+
+import android.content.Context;
+
+import com.example.atk_ble02.protocol.SessionRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/** 把各连接收到的通知原样录制到 sessions/<时间> 目录 (SessionRecorder 格式)，流名称为 地址/通知特征 */
+public class SessionRecording extends NotificationCapture<SessionRecorder> {
+
+    private SessionRecording(SessionRecorder recorder) {
+        super("SessionRecorder", recorder);
+    }
+
+    /** 录制和回放共用的目录，外部存储不可用时放在内部存储 */
+    public static File getSessionsRoot(Context context) {
+        File root = context.getExternalFilesDir("sessions");
+        return root != null ? root : new File(context.getFilesDir(), "sessions");
+    }
+
+    public static SessionRecording start(Context context) throws IOException {
+        File dir = new File(getSessionsRoot(context), new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()));
+        return new SessionRecording(new SessionRecorder(dir));
+    }
+
+    public File getDirectory() {
+        return writer.getDirectory();
+    }
+
+    @Override
+    void defineStream(int streamId, BleConnection connection) {
+        writer.defineStream(streamId, connection.getAddress() + "/" + connection.getNotifyUuid());
+    }
+
+    @Override
+    String describeResult() {
+        return "录制结束: " + writer.getRecorded() + " 条通知, " + writer.getBytesWritten() + " 字节, "
+                + writer.getSegmentCount() + " 个分段, 丢弃 " + writer.getDropped() + " 条 (" + writer.getDirectory() + ")";
+    }
+
+    @Override
+    String describeFailure(IOException e) {
+        return "录制收尾失败: " + e.getMessage() + " (" + writer.getDirectory() + ")";
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.atk_ble02.ble;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.HexLineSource;
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+import com.example.atk_ble02.protocol.SessionReader;
+import com.example.atk_ble02.protocol.SessionReplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 在一个连接的工作线程上回放录制的通知，注入和 onCharacteristicChanged 相同的接收路径 (监听者和行解码)，
+ * 录制和导出不会再记下回放的数据。原速回放用 postDelayed 等到点；尽快回放每批 REPLAY_BATCH 条后让出工作线程，
+ * 真实连接的回调照常处理。连接不需要就绪；断开或关闭连接时结束回放。
+ * start/cancel 在主线程调用，Listener 在主线程上回调。
+ */
+public class SessionReplayRunner implements NotificationListener {
+
+    private static final String TAG = "SessionReplay";
+    private static final int REPLAY_BATCH = 64; // 尽快回放时每次占用工作线程处理的记录数
+
+    public interface Listener {
+        /** 回放完、被取消或读取失败后调用，replayer 里有回放的记录数、字节数和最大延迟 */
+        void onReplayFinished(SessionReplayRunner runner, SessionReplayer replayer);
+    }
+
+    private final BleConnection connection;
+    private final Handler worker;
+    private final Handler main;
+    private final String name;
+    private final SessionReplayer replayer;
+    private Listener listener;
+    private volatile boolean finished;
+
+    private SessionReplayRunner(BleConnection connection, Handler main, SessionReplayer.Source source, String name) {
+        this.connection = connection;
+        this.worker = connection.getWorker();
+        this.main = main;
+        this.name = name;
+        this.replayer = new SessionReplayer(source, (streamId, timestampNanos, buffer, offset, length) ->
+                connection.injectNotification(buffer, offset, length));
+    }
+
+    /** 这个连接上正在进行的回放，没有时返回null */
+    public static SessionReplayRunner get(BleConnection connection) {
+        return connection.getNotificationListener(SessionReplayRunner.class);
+    }
+
+    /** 目录下最新的录制：SessionRecorder 的会话目录，或 .txt/.hex 的十六进制文本会话；没有时返回null */
+    public static File findLatest(File root) {
+        File latest = null;
+        File[] candidates = root.listFiles(file -> file.isDirectory() || file.getName().endsWith(".txt") || file.getName().endsWith(".hex"));
+        if (candidates == null) return null;
+        for (File candidate : candidates) {
+            if (latest == null || candidate.lastModified() > latest.lastModified()) latest = candidate;
+        }
+        return latest;
+    }
+
+    /**
+     * 打开 session (会话目录或十六进制文本) 开始回放，speed 见 SessionReplayer.setSpeed。
+     * 这个连接已在回放时返回null。
+     */
+    public static SessionReplayRunner start(BleConnection connection, Handler main, File session, double speed, Listener listener) throws IOException {
+        if (get(connection) != null) return null;
+        SessionReplayer.Source source = session.isDirectory() ? new SessionReader(session)
+                : new HexLineSource(new InputStreamReader(new FileInputStream(session), StandardCharsets.UTF_8));
+        SessionReplayRunner runner = new SessionReplayRunner(connection, main, source, session.getName());
+        runner.replayer.setSpeed(speed);
+        runner.listener = listener;
+        connection.addNotificationListener(NotificationDispatcher.STAGE_CAPTURE, runner);
+        Log.d(TAG, connection.getAddress() + " 开始回放会话 " + runner.name + ", 速度: " + (speed == SessionReplayer.AS_FAST_AS_POSSIBLE ? "尽快" : speed + "x"));
+        runner.worker.post(runner.stepRunnable);
+        return runner;
+    }
+
+    public BleConnection getConnection() { return connection; }
+    public String getName() { return name; }
+    /** 回放计数和延迟可在任意线程读取 */
+    public SessionReplayer getReplayer() { return replayer; }
+
+    /** 结束回放：撤掉等待中的下一步，立即在工作线程上关闭 Source 并回调 onReplayFinished */
+    public void cancel() {
+        replayer.cancel();
+        worker.removeCallbacks(stepRunnable);
+        worker.post(stepRunnable);
+    }
+
+    private final Runnable stepRunnable = this::step;
+
+    private void step() {
+        if (finished) return; // cancel 重新投递的多余一步
+        long waitNanos;
+        try {
+            waitNanos = replayer.step(System.nanoTime(), REPLAY_BATCH);
+        } catch (IOException e) {
+            // step() 出错时已经结束回放并关闭了 Source
+            Log.e(TAG, connection.getAddress() + " 回放失败: " + e.getMessage());
+            waitNanos = -1;
+        }
+        if (waitNanos == 0) { worker.post(stepRunnable); return; }
+        if (waitNanos > 0) { worker.postDelayed(stepRunnable, (waitNanos + 999_999L) / 1_000_000L); return; }
+        finished = true;
+        connection.removeNotificationListener(this);
+        main.post(() -> listener.onReplayFinished(this, replayer));
+    }
+
+    // 只用来在连接上登记和随连接一起结束，回放的数据不需要再看一遍
+    @Override
+    public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+        return false;
+    }
+
+    @Override
+    public void onLinkReset() {
+        cancel();
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.atk_ble02.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.atk_ble02.protocol.ByteArrayPool;
+import com.example.atk_ble02.protocol.ThroughputMeter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式发送：从 InputStream 读取数据，按 (MTU-3) 分片写入特征。
+ * 每个已排队但未完成的写操作占用一个credit，onCharacteristicWrite 回调归还credit，
+ * 因此最多只有 maxCredits 个分片在队列里，既能让链路保持忙碌又不会压垮协议栈缓冲区。
+ * 分片取自 pool，写完成后由队列归还，稳定发送时不再分配。
+ * 分片在 sendLock 下排队 (和连接上的其它发送共用)，不会插进别的消息的分片之间。
+ * 失败或取消时还在队列里的分片一并取消，不会在报告失败之后继续写出。
+ */
+public class StreamSender {
+
+    private static final String TAG = "StreamSender";
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+
+    public interface Listener {
+        void onProgress(long bytesSent, double bytesPerSecond);
+        void onComplete(long bytesSent, double bytesPerSecond);
+        void onError(String reason);
+    }
+
+    private final GattOperationQueue queue;
+    private final Object sendLock;
+    private final BluetoothGattCharacteristic characteristic;
+    private final int writeType;
+    private final int chunkSize;
+    private final int maxCredits;
+    private final ByteArrayPool pool;
+    private final Handler callbackHandler;
+    private final Semaphore credits;
+    private final ThroughputMeter meter = new ThroughputMeter();
+    private final ArrayDeque<GattOperation> queued = new ArrayDeque<>(); // 已排队未完成的分片，在 this 锁下访问
+
+    private volatile boolean running;
+    private volatile String failure;
+    private Thread readerThread;
+    private Listener listener;
+
+    private final Runnable progressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            listener.onProgress(meter.getTotalBytes(), meter.getBytesPerSecond());
+            callbackHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    };
+
+    public StreamSender(GattOperationQueue queue, Object sendLock, BluetoothGattCharacteristic characteristic, int writeType,
+                        int chunkSize, int maxCredits, ByteArrayPool pool, Handler callbackHandler) {
+        this.queue = queue;
+        this.sendLock = sendLock;
+        this.characteristic = characteristic;
+        this.writeType = writeType;
+        this.chunkSize = chunkSize;
+        this.maxCredits = maxCredits;
+        this.pool = pool;
+        this.callbackHandler = callbackHandler;
+        this.credits = new Semaphore(maxCredits);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** 每个实例只能启动一次；listener 的回调都在 callbackHandler 线程上执行 */
+    public synchronized void start(InputStream input, Listener listener) {
+        if (readerThread != null) throw new IllegalStateException("StreamSender already started");
+        this.listener = listener;
+        running = true;
+        meter.reset();
+        readerThread = new Thread(() -> pump(input), "BleStreamSender");
+        readerThread.start();
+        callbackHandler.postDelayed(progressRunnable, PROGRESS_INTERVAL_MS);
+    }
+
+    public synchronized void cancel() {
+        if (!running) return;
+        fail("已取消");
+        if (readerThread != null) readerThread.interrupt();
+    }
+
+    private void pump(InputStream input) {
+        long sent = 0;
+        try {
+            while (running) {
+                credits.acquire();
+                if (!running) break;
+                byte[] chunk = readChunk(input);
+                if (chunk == null) {
+                    credits.release();
+                    break;
+                }
+                sent += chunk.length;
+                GattOperation operation = new GattOperation.WriteCharacteristic(characteristic, chunk, writeType, pool, onChunkWritten);
+                synchronized (this) {
+                    queued.addLast(operation);
+                    // fail() 可能刚好发生在 acquire 之后
+                    if (!running) operation.cancel();
+                }
+                synchronized (sendLock) {
+                    queue.enqueue(operation);
+                }
+            }
+            // 等待所有在途分片完成
+            if (running && credits.tryAcquire(maxCredits, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                credits.release(maxCredits);
+            } else if (running) {
+                fail("等待写入完成超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            fail("读取输入流失败: " + e.getMessage());
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
+        finish(sent);
+    }
+
+    /** 尽量读满一个分片，减少小包；流结束返回null */
+    private byte[] readChunk(InputStream input) throws IOException {
+        byte[] buffer = pool.acquire(chunkSize);
+        int filled = 0;
+        try {
+            while (filled < chunkSize) {
+                int read = input.read(buffer, filled, chunkSize - filled);
+                if (read < 0) break;
+                filled += read;
+            }
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        if (filled == chunkSize) return buffer;
+        byte[] tail = filled > 0 ? pool.acquire(filled) : null;
+        if (tail != null) System.arraycopy(buffer, 0, tail, 0, filled);
+        pool.release(buffer);
+        return tail;
+    }
+
+    private final GattOperation.Callback onChunkWritten = this::onChunkWritten;
+
+    private void onChunkWritten(GattOperation operation, int status) {
+        synchronized (this) {
+            queued.remove(operation);
+        }
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            meter.add(((GattOperation.WriteCharacteristic) operation).getValue().length);
+        } else if (status != GattOperationQueue.STATUS_CANCELLED) {
+            fail("分片写入失败，状态: " + status);
+        } else {
+            fail("连接已关闭");
+        }
+        credits.release();
+    }
+
+    private synchronized void fail(String reason) {
+        if (!running) return;
+        failure = reason;
+        running = false;
+        for (GattOperation operation : queued) operation.cancel();
+        // 唤醒可能阻塞在acquire上的读线程
+        credits.release(maxCredits);
+    }
+
+    private void finish(long queuedBytes) {
+        boolean ok = running;
+        running = false;
+        long total = meter.getTotalBytes();
+        double rate = meter.getAverageBytesPerSecond();
+        Log.d(TAG, "流式发送结束: 已排队 " + queuedBytes + " 字节, 已确认 " + total + " 字节, " + (long) rate + " B/s");
+        String reason = failure;
+        callbackHandler.post(() -> {
+            callbackHandler.removeCallbacks(progressRunnable);
+            if (ok) listener.onComplete(total, rate);
+            else listener.onError(reason != null ? reason : "已停止");
+        });
+    }
+}
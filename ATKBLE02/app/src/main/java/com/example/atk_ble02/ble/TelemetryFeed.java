@@ -0,0 +1,58 @@
+package com.example.atk_ble02.ble;
+
+import com.example.atk_ble02.protocol.NotificationDispatcher;
+import com.example.atk_ble02.protocol.NotificationListener;
+import com.example.atk_ble02.protocol.TelemetryLayout;
+import com.example.atk_ble02.protocol.TelemetryParser;
+
+/**
+ * 把一个连接收到的通知解析成遥测样本写进 TelemetryBuffer：二进制格式挂在 STAGE_PROTOCOL 直接解析原始通知，不再按行解码；
+ * CSV 格式解析行解码出的帧，解析成功的行不再交给AT引擎和帧订阅者，高频数据不会刷到日志里。
+ * 解析在工作线程上进行。断开连接时丢弃半条二进制记录，重连后重新对齐。
+ */
+public class TelemetryFeed implements NotificationListener {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16; // 每个通道保留的样本数
+
+    private final BleConnection connection;
+    private final TelemetryParser parser;
+    private final boolean binary;
+
+    private TelemetryFeed(BleConnection connection, TelemetryLayout layout, int capacity) {
+        this.connection = connection;
+        this.parser = new TelemetryParser(layout, capacity);
+        this.binary = layout.getFormat() == TelemetryLayout.Format.BINARY;
+    }
+
+    public static TelemetryFeed start(BleConnection connection, TelemetryLayout layout, int capacity) {
+        TelemetryFeed feed = new TelemetryFeed(connection, layout, capacity);
+        connection.addNotificationListener(NotificationDispatcher.STAGE_PROTOCOL, feed);
+        return feed;
+    }
+
+    public BleConnection getConnection() { return connection; }
+    public TelemetryParser getParser() { return parser; }
+
+    /** 从连接上摘下，返回解析统计 */
+    public String stop() {
+        connection.removeNotificationListener(this);
+        return "遥测结束: " + parser.getRecords() + " 条记录, 无法解析 " + parser.getMalformed() + " 行";
+    }
+
+    @Override
+    public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+        if (!binary) return false;
+        parser.parseRecords(buffer, offset, length, timestampNanos);
+        return true;
+    }
+
+    @Override
+    public boolean onFrame(byte[] buffer, int offset, int length, long timestampNanos) {
+        return !binary && parser.parseLine(buffer, offset, length, timestampNanos);
+    }
+
+    @Override
+    public void onLinkReset() {
+        parser.reset();
+    }
+}
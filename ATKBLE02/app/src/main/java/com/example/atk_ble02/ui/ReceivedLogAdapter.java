@@ -0,0 +1,141 @@
+package com.example.atk_ble02.ui;
+
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.atk_ble02.R;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 接收数据的有界回滚记录。append() 可在任意线程调用，新行先进入待渲染列表，
+ * 每个显示帧最多合并渲染一次；超过容量时丢弃最旧的行，长时间会话内存保持有界。
+ */
+public class ReceivedLogAdapter extends RecyclerView.Adapter<ReceivedLogAdapter.LineViewHolder> {
+
+    private final RecyclerView recyclerView;
+    private final String[] lines;
+    private int start;
+    private int count;
+
+    private final Object pendingLock = new Object();
+    private ArrayList<String> pending = new ArrayList<>();
+    private ArrayList<String> rendering = new ArrayList<>();
+    private boolean frameScheduled;
+    private long droppedLines;
+
+    private final Choreographer choreographer;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> render();
+
+    /** 必须在主线程构造 */
+    public ReceivedLogAdapter(RecyclerView recyclerView, int capacity) {
+        this.recyclerView = recyclerView;
+        this.lines = new String[capacity];
+        this.choreographer = Choreographer.getInstance();
+        LinearLayoutManager layoutManager = new LinearLayoutManager(recyclerView.getContext());
+        layoutManager.setStackFromEnd(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setItemAnimator(null); // 高频追加时不做动画
+        recyclerView.setAdapter(this);
+    }
+
+    public void append(String line) {
+        synchronized (pendingLock) {
+            pending.add(line);
+            if (pending.size() >= 2 * lines.length) {
+                // 后台时没有显示帧，待渲染的行超过容量后旧行反正会被挤掉，成批丢弃
+                int excess = pending.size() - lines.length;
+                pending.subList(0, excess).clear();
+                droppedLines += excess;
+            }
+            if (frameScheduled) return;
+            frameScheduled = true;
+        }
+        choreographer.postFrameCallback(frameCallback);
+    }
+
+    public long getDroppedLines() {
+        synchronized (pendingLock) {
+            return droppedLines;
+        }
+    }
+
+    /** 主线程调用 */
+    public void clear() {
+        synchronized (pendingLock) {
+            pending.clear();
+        }
+        int removed = count;
+        start = 0;
+        count = 0;
+        Arrays.fill(lines, null);
+        notifyItemRangeRemoved(0, removed);
+    }
+
+    private void render() {
+        ArrayList<String> batch;
+        synchronized (pendingLock) {
+            frameScheduled = false;
+            batch = pending;
+            pending = rendering;
+            rendering = batch;
+        }
+        int skipped = Math.max(0, batch.size() - lines.length);
+        int added = batch.size() - skipped;
+        if (added == 0) return;
+
+        boolean atBottom = !recyclerView.canScrollVertically(1);
+        int removed = 0;
+        for (int i = skipped; i < batch.size(); i++) {
+            if (count == lines.length) {
+                lines[start] = null;
+                start = (start + 1) % lines.length;
+                count--;
+                removed++;
+            }
+            lines[(start + count) % lines.length] = batch.get(i);
+            count++;
+        }
+        batch.clear();
+        synchronized (pendingLock) {
+            droppedLines += removed + skipped;
+        }
+
+        if (removed > 0) notifyItemRangeRemoved(0, removed);
+        notifyItemRangeInserted(count - added, added);
+        if (atBottom) recyclerView.scrollToPosition(count - 1);
+    }
+
+    @NonNull
+    @Override
+    public LineViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView view = (TextView) LayoutInflater.from(parent.getContext()).inflate(R.layout.item_received_line, parent, false);
+        return new LineViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineViewHolder holder, int position) {
+        holder.textView.setText(lines[(start + position) % lines.length]);
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    static class LineViewHolder extends RecyclerView.ViewHolder {
+        final TextView textView;
+
+        LineViewHolder(TextView itemView) {
+            super(itemView);
+            textView = itemView;
+        }
+    }
+}
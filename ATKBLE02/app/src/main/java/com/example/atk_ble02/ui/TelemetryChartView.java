@@ -0,0 +1,182 @@
+package com.example.atk_ble02.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.atk_ble02.protocol.TelemetryBuffer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 实时遥测曲线：显示 TelemetryBuffer 里最近 windowSamples 个样本，每个通道一种颜色。
+ * 每个像素列只画一条从该列最小值到最大值的竖线 (min/max 抽取)，工作量和屏幕宽度成正比，与采样率无关，尖峰也不会丢。
+ * 缓冲有新样本时才请求重绘 (对齐到下一个显示帧，两帧之间的多次提交合并成一次)，没有数据时不占用任何帧；
+ * 纵轴自动缩放，范围只在数据超出或缩到一半以下时调整，刻度不会跳个不停。
+ * 绘制时不分配对象 (只在尺寸或通道数变化时重建数组)。必须在主线程使用。
+ */
+public class TelemetryChartView extends View {
+
+    private static final int[] COLORS = {
+            0xFF1E88E5, 0xFFE53935, 0xFF43A047, 0xFFFB8C00, 0xFF8E24AA, 0xFF00ACC1, 0xFF6D4C41, 0xFF546E7A
+    };
+    private static final float LABEL_WIDTH_DP = 48;
+
+    private final Paint tracePaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint();
+    private final float density;
+    private final AtomicBoolean redrawPending = new AtomicBoolean();
+    // 在写线程 (BLE工作线程) 上调用：已经请求过重绘就什么都不做
+    private final TelemetryBuffer.UpdateListener updateListener = b -> {
+        if (!redrawPending.get() && redrawPending.compareAndSet(false, true)) postInvalidateOnAnimation();
+    };
+
+    private TelemetryBuffer buffer;
+    private int windowSamples = 2000;
+
+    // 按通道的抽取结果和画线的坐标，每列4个float (一条竖线)
+    private float[][] mins = new float[0][];
+    private float[][] maxs = new float[0][];
+    private float[] points = new float[0];
+    private int[] bucketCounts = new int[0];
+
+    private float rangeMin = Float.NaN;
+    private float rangeMax = Float.NaN;
+    private String maxLabel = "";
+    private String minLabel = "";
+
+    public TelemetryChartView(Context context) {
+        this(context, null);
+    }
+
+    public TelemetryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        density = context.getResources().getDisplayMetrics().density;
+        tracePaint.setStrokeWidth(1);
+        axisPaint.setColor(Color.LTGRAY);
+        textPaint.setColor(Color.DKGRAY);
+        textPaint.setTextSize(11 * density);
+    }
+
+    /** 显示这个缓冲的数据，null 清空 */
+    public void setBuffer(TelemetryBuffer buffer) {
+        if (this.buffer != null) this.buffer.setUpdateListener(null);
+        this.buffer = buffer;
+        if (buffer != null) buffer.setUpdateListener(updateListener);
+        rangeMin = rangeMax = Float.NaN;
+        allocate();
+        invalidate();
+    }
+
+    public TelemetryBuffer getBuffer() {
+        return buffer;
+    }
+
+    /** 横轴显示的样本数 */
+    public void setWindowSamples(int windowSamples) {
+        this.windowSamples = Math.max(2, windowSamples);
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        allocate();
+    }
+
+    private int plotWidth() {
+        return Math.max(0, getWidth() - getPaddingLeft() - getPaddingRight() - (int) (LABEL_WIDTH_DP * density));
+    }
+
+    private void allocate() {
+        int channels = buffer != null ? buffer.getChannelCount() : 0;
+        int columns = plotWidth();
+        if (mins.length != channels || points.length != columns * 4) {
+            mins = new float[channels][columns];
+            maxs = new float[channels][columns];
+            bucketCounts = new int[channels];
+            points = new float[columns * 4];
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        redrawPending.set(false); // 先清标志再读 count，读完之后提交的样本会再请求一次重绘
+        TelemetryBuffer b = buffer;
+        int columns = plotWidth();
+        if (b == null || columns == 0) return;
+        if (mins.length != b.getChannelCount() || points.length != columns * 4) allocate();
+        long count = b.getCount();
+        long from = count - windowSamples;
+
+        // 先抽取所有通道，得到这一窗的整体范围
+        float low = Float.POSITIVE_INFINITY;
+        float high = Float.NEGATIVE_INFINITY;
+        for (int channel = 0; channel < mins.length; channel++) {
+            int n = b.decimate(channel, from, count, columns, mins[channel], maxs[channel]);
+            bucketCounts[channel] = n;
+            for (int i = 0; i < n; i++) {
+                if (mins[channel][i] < low) low = mins[channel][i];
+                if (maxs[channel][i] > high) high = maxs[channel][i];
+            }
+        }
+        if (low > high) return;
+        updateRange(low, high);
+
+        float left = getPaddingLeft() + LABEL_WIDTH_DP * density;
+        float top = getPaddingTop();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float scale = height / (rangeMax - rangeMin);
+        canvas.drawLine(left, top, left, top + height, axisPaint);
+        float textHeight = textPaint.getTextSize();
+        canvas.drawText(maxLabel, getPaddingLeft(), top + textHeight, textPaint);
+        canvas.drawText(minLabel, getPaddingLeft(), top + height, textPaint);
+
+        long samples = Math.min(count, windowSamples);
+        float legendX = left + 4 * density;
+        for (int channel = 0; channel < mins.length; channel++) {
+            int n = bucketCounts[channel];
+            if (n == 0) continue;
+            float[] min = mins[channel];
+            float[] max = maxs[channel];
+            // 桶少于列数时 (样本不够一屏) 按样本位置展开，曲线从左边开始增长
+            float step = (float) columns * samples / ((float) n * windowSamples);
+            int p = 0;
+            for (int i = 0; i < n; i++) {
+                // 竖线和前一列的范围相接，曲线连续
+                float lo = i > 0 ? Math.min(min[i], max[i - 1]) : min[i];
+                float hi = i > 0 ? Math.max(max[i], min[i - 1]) : max[i];
+                float x = left + i * step;
+                points[p++] = x;
+                points[p++] = top + (rangeMax - hi) * scale;
+                points[p++] = x;
+                points[p++] = top + (rangeMax - lo) * scale + 1; // 平坦的数据也至少画一个像素
+            }
+            tracePaint.setColor(COLORS[channel % COLORS.length]);
+            canvas.drawLines(points, 0, p, tracePaint);
+            textPaint.setColor(COLORS[channel % COLORS.length]);
+            canvas.drawText(b.getName(channel), legendX, top + textHeight, textPaint);
+            legendX += textPaint.measureText(b.getName(channel)) + 8 * density;
+        }
+        textPaint.setColor(Color.DKGRAY);
+    }
+
+    // 超出当前范围时立即扩大，数据缩到范围的一半以下时才收缩
+    private void updateRange(float low, float high) {
+        float span = rangeMax - rangeMin;
+        boolean expand = Float.isNaN(span) || low < rangeMin || high > rangeMax;
+        boolean shrink = !expand && (high - low) < span / 2;
+        if (!expand && !shrink) return;
+        float margin = Math.max((high - low) * 0.1f, Math.max(Math.abs(high), 1f) * 1e-3f);
+        rangeMin = low - margin;
+        rangeMax = high + margin;
+        maxLabel = String.format(Locale.US, "%.4g", rangeMax);
+        minLabel = String.format(Locale.US, "%.4g", rangeMin);
+    }
+}
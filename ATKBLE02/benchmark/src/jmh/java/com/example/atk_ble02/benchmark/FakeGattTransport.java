@@ -0,0 +1,88 @@
+package com.example.atk_ble02.benchmark;
+
+import com.example.atk_ble02.protocol.BleTransport;
+import com.example.atk_ble02.protocol.PayloadFragmenter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 基准用的假GATT传输：写入在调用线程上同步完成，不引入线程切换和延迟，测到的只是协议层本身的开销。
+ * 同时用嵌套的 HashMap 模拟GATT数据库，用于衡量每次发送都按UUID查找服务和特征的代价。
+ */
+final class FakeGattTransport implements BleTransport {
+
+    static final UUID SERVICE_UUID = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50100406E");
+    static final UUID WRITE_UUID = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50200406E");
+    static final UUID NOTIFY_UUID = UUID.fromString("9ECADC24-0EE5-A9E0-93F3-A3B50300406E");
+
+    static final int PROPERTY_WRITE = 0x08;
+    static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+
+    /** 模拟的特征，只保留查找和写类型判断用到的字段 */
+    static final class Characteristic {
+        final UUID uuid;
+        final int properties;
+        int writeType;
+
+        Characteristic(UUID uuid, int properties) {
+            this.uuid = uuid;
+            this.properties = properties;
+        }
+    }
+
+    private final Map<UUID, Map<UUID, Characteristic>> services = new HashMap<>();
+    private final int mtu;
+    private Receiver receiver;
+    private long packets;
+    private long bytes;
+
+    FakeGattTransport(int mtu) {
+        this.mtu = mtu;
+        Map<UUID, Characteristic> characteristics = new HashMap<>();
+        characteristics.put(WRITE_UUID, new Characteristic(WRITE_UUID, PROPERTY_WRITE | PROPERTY_WRITE_NO_RESPONSE));
+        characteristics.put(NOTIFY_UUID, new Characteristic(NOTIFY_UUID, 0x10));
+        services.put(SERVICE_UUID, characteristics);
+        // 真实设备上还有通用访问和设备信息等服务
+        services.put(UUID.fromString("00001800-0000-1000-8000-00805f9b34fb"), new HashMap<>());
+        services.put(UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb"), new HashMap<>());
+    }
+
+    Characteristic getCharacteristic(UUID service, UUID characteristic) {
+        Map<UUID, Characteristic> characteristics = services.get(service);
+        return characteristics != null ? characteristics.get(characteristic) : null;
+    }
+
+    /** 模拟一次通知到达 */
+    void deliver(byte[] data) {
+        if (receiver != null) receiver.onReceive(data, 0, data.length);
+    }
+
+    long getPackets() { return packets; }
+    long getBytes() { return bytes; }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean write(byte[] packet, WriteCallback callback) {
+        if (packet.length > PayloadFragmenter.maxChunkSize(mtu)) return false;
+        packets++;
+        bytes += packet.length;
+        callback.onWriteComplete(STATUS_SUCCESS);
+        return true;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.atk_ble02.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * 最初版本 MainActivity 中发送和接收路径的JVM等价实现，作为基准的对照组。
+ * Log.d 的参数无论日志级别都会先拼好，这里把拼好的字符串交给调用方消费来模拟。
+ */
+final class LegacyPaths {
+
+    private LegacyPaths() {}
+
+    /** 原 bytesToHex：每个字节一次 String.format */
+    static String bytesToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02X ", b));
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * 原 sendDataToModule：每次调用都查找服务和特征、判断写类型、UTF-8编码，
+     * 并为多条日志拼接字符串 (旧API路径还带一次完整的十六进制转储)。返回拼好的日志用于防止被优化掉。
+     */
+    static String sendDataToModule(FakeGattTransport transport, String data) {
+        FakeGattTransport.Characteristic characteristic =
+                transport.getCharacteristic(FakeGattTransport.SERVICE_UUID, FakeGattTransport.WRITE_UUID);
+        if (characteristic == null) return null;
+        UUID uuid = characteristic.uuid;
+        int properties = characteristic.properties;
+        String log = "发送数据: 写入特征 (" + uuid + ") Properties: " + properties;
+        if ((properties & FakeGattTransport.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            characteristic.writeType = 1;
+            log = "尝试使用 WRITE_TYPE_NO_RESPONSE for " + uuid;
+        } else {
+            characteristic.writeType = 2;
+        }
+        byte[] value = data.getBytes(StandardCharsets.UTF_8);
+        log = "准备发送数据(OldAPI): " + data.replace("\r\n", "\\r\\n") + " (Bytes: " + bytesToHex(value) + ")";
+        boolean queued = transport.write(value, status -> { });
+        if (queued) log = "数据写入已排队... for: " + data.replace("\r\n", "\\r\\n");
+        return log;
+    }
+
+    /** 原 onCharacteristicChanged：整包转成字符串，再为日志拼接十六进制转储 */
+    static String onCharacteristicChanged(byte[] data) {
+        String receivedString = new String(data, StandardCharsets.UTF_8);
+        String log = "收到数据 (String): " + receivedString + " (Hex): " + bytesToHex(data);
+        return receivedString + log.length();
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.atk_ble02.benchmark;
+
+import com.example.atk_ble02.protocol.FrameDecoder;
+import com.example.atk_ble02.protocol.FramePublisher;
+import com.example.atk_ble02.protocol.HexEncoder;
+import com.example.atk_ble02.protocol.PayloadFragmenter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收路径：每个通知是一行以CRLF结尾的文本 (payloadSize 字节，含行尾)。
+ * 对比原来的整包转字符串 + String.format 十六进制日志，和现在的增量帧解码 + 查表十六进制编码；
+ * 以及帧发布给多个订阅者时回调线程上的开销 (订阅者的处理在各自的线程上，不计入)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceivePathBenchmark {
+
+    @Param({"1", "20", "64", "128", "244", "512"})
+    public int payloadSize;
+
+    private byte[] notification;
+    private FrameDecoder decoder;
+    private FakeGattTransport transport;
+    private char[] hexBuffer;
+    private long decodedBytes;
+    private FramePublisher publisher;
+    private FrameDecoder publishingDecoder;
+    private static final int SUBSCRIBERS = 3;
+
+    @Setup
+    public void setUp() {
+        notification = new byte[payloadSize];
+        for (int i = 0; i < notification.length; i++) notification[i] = (byte) ('0' + i % 10);
+        if (payloadSize >= 2) notification[payloadSize - 2] = '\r';
+        notification[payloadSize - 1] = '\n';
+        decoder = FrameDecoder.lines(PayloadFragmenter.MAX_ATTRIBUTE_LENGTH, (buffer, offset, length) -> decodedBytes += length);
+        transport = new FakeGattTransport(PayloadFragmenter.MAX_MTU);
+        transport.setReceiver((data, offset, length) -> decoder.feed(data, offset, length));
+        hexBuffer = new char[HexEncoder.encodedLength(payloadSize, true)];
+        publisher = new FramePublisher("bench", PayloadFragmenter.MAX_ATTRIBUTE_LENGTH);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            publisher.subscribe((timestampNanos, buffer, offset, length) -> new String(buffer, offset, length, StandardCharsets.UTF_8),
+                    FramePublisher.Overflow.DROP_OLDEST);
+        }
+        publishingDecoder = FrameDecoder.lines(PayloadFragmenter.MAX_ATTRIBUTE_LENGTH,
+                (buffer, offset, length) -> publisher.publish(0, buffer, offset, length));
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+    }
+
+    @Benchmark
+    public String legacyOnCharacteristicChanged() {
+        return LegacyPaths.onCharacteristicChanged(notification);
+    }
+
+    @Benchmark
+    public long frameDecoderFeed() {
+        decoder.feed(notification, 0, notification.length);
+        return decodedBytes;
+    }
+
+    /** 经过传输接口的完整通知路径：接收回调 -> 解码器 -> 帧回调 */
+    @Benchmark
+    public long transportToFrames() {
+        transport.deliver(notification);
+        return decodedBytes;
+    }
+
+    /** 解码后发布给 SUBSCRIBERS 个订阅者，只计回调线程上的解码和复制 */
+    @Benchmark
+    public int frameDecoderToSubscribers() {
+        publishingDecoder.feed(notification, 0, notification.length);
+        return publisher.getSubscriberCount();
+    }
+
+    @Benchmark
+    public String legacyBytesToHex() {
+        return LegacyPaths.bytesToHex(notification);
+    }
+
+    @Benchmark
+    public String hexEncoderToHex() {
+        return HexEncoder.toHex(notification, true);
+    }
+
+    /** 编码到复用的字符数组，不分配 */
+    @Benchmark
+    public int hexEncoderIntoBuffer() {
+        return HexEncoder.encode(notification, 0, notification.length, hexBuffer, 0, true);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.atk_ble02.benchmark;
+
+import com.example.atk_ble02.protocol.BleTransport;
+import com.example.atk_ble02.protocol.ByteArrayPool;
+import com.example.atk_ble02.protocol.PayloadFragmenter;
+import com.example.atk_ble02.protocol.TransportSender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送路径：原来每次调用都查找特征、编码、拼日志的实现，对比协议层缓存传输后的发送。
+ * 假传输同步完成写入，分数即每秒能处理的发送调用数；配合 gc profiler 看每次调用的分配字节数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SendPathBenchmark {
+
+    @Param({"1", "20", "64", "128", "244", "512"})
+    public int payloadSize;
+
+    private FakeGattTransport transport;
+    private TransportSender sender;
+    private String text;
+    private byte[] payload;
+    private final BleTransport.WriteCallback ignore = status -> { };
+    private final ByteArrayPool pool = new ByteArrayPool(PayloadFragmenter.MAX_ATTRIBUTE_LENGTH, 64 * 1024);
+
+    @Setup
+    public void setUp() {
+        transport = new FakeGattTransport(PayloadFragmenter.MAX_MTU);
+        sender = new TransportSender(transport, 8);
+        char[] chars = new char[payloadSize];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char) ('A' + i % 26);
+        text = new String(chars);
+        payload = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String legacySendDataToModule() {
+        return LegacyPaths.sendDataToModule(transport, text);
+    }
+
+    /** 字符串输入：只有UTF-8编码和分片 */
+    @Benchmark
+    public long senderEncodeAndSend() {
+        sender.send(text.getBytes(StandardCharsets.UTF_8), ignore);
+        return transport.getPackets();
+    }
+
+    /** 已编码好的字节，payload 不超过单包负载时不复制 */
+    @Benchmark
+    public long senderSendBytes() {
+        sender.send(payload, ignore);
+        return transport.getPackets();
+    }
+
+    /**
+     * 和 BleConnection.send(byte[], int, int, ...) 一样把切片复制进池化的分片，写完成后归还。
+     * 假传输同步完成写入，所以 write 返回后即可归还。
+     */
+    @Benchmark
+    public long pooledSendSlice() {
+        int chunkSize = PayloadFragmenter.maxChunkSize(PayloadFragmenter.DEFAULT_MTU);
+        for (int position = 0; position < payload.length; position += chunkSize) {
+            byte[] chunk = pool.acquire(Math.min(chunkSize, payload.length - position));
+            System.arraycopy(payload, position, chunk, 0, chunk.length);
+            transport.write(chunk, ignore);
+            pool.release(chunk);
+        }
+        return transport.getPackets();
+    }
+
+    /** 跨越多个分片的切片发送 (MTU 23，每包20字节) */
+    @Benchmark
+    public int fragmentDefaultMtu() {
+        return PayloadFragmenter.split(payload, 0, payload.length, PayloadFragmenter.DEFAULT_MTU).size();
+    }
+
+    @Benchmark
+    public byte[] encodeUtf8() {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
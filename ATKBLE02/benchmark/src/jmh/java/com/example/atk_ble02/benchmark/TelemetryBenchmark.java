@@ -0,0 +1,84 @@
+package com.example.atk_ble02.benchmark;
+
+import com.example.atk_ble02.protocol.TelemetryBuffer;
+import com.example.atk_ble02.protocol.TelemetryLayout;
+import com.example.atk_ble02.protocol.TelemetryParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 遥测解析和绘图抽取：CSV 行直接在字节上解析对比 String.split + Float.parseFloat 存进装箱列表，
+ * 以及把 64K 个样本抽取到一屏宽 (1080 列) 的 min/max。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TelemetryBenchmark {
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int SCREEN_COLUMNS = 1080;
+
+    private byte[] csvLine;
+    private byte[] binaryNotification;
+    private TelemetryParser csvParser;
+    private TelemetryParser binaryParser;
+    private final List<Float>[] boxedColumns = newBoxedColumns();
+    private final float[] min = new float[SCREEN_COLUMNS];
+    private final float[] max = new float[SCREEN_COLUMNS];
+
+    @SuppressWarnings("unchecked")
+    private static List<Float>[] newBoxedColumns() {
+        List<Float>[] columns = new List[3];
+        for (int i = 0; i < columns.length; i++) columns[i] = new ArrayList<>();
+        return columns;
+    }
+
+    @Setup
+    public void setUp() {
+        csvLine = "-0.0123,9.8061,0.4417".getBytes(StandardCharsets.US_ASCII);
+        csvParser = new TelemetryParser(TelemetryLayout.parse("csv:ax,ay,az"), CAPACITY);
+        // 一个 244 字节的通知装 40 条 6 字节记录
+        binaryParser = new TelemetryParser(TelemetryLayout.parse("bin<:h:ax*0.001,h:ay*0.001,h:az*0.001"), CAPACITY);
+        binaryNotification = new byte[240];
+        for (int i = 0; i < binaryNotification.length; i++) binaryNotification[i] = (byte) (i * 31);
+        for (int i = 0; i < CAPACITY; i++) csvParser.parseLine(csvLine, 0, csvLine.length, i);
+    }
+
+    @Benchmark
+    public Object legacySplitAndBox() {
+        String[] fields = new String(csvLine, StandardCharsets.US_ASCII).split(",");
+        for (int i = 0; i < boxedColumns.length; i++) {
+            List<Float> column = boxedColumns[i];
+            if (column.size() >= CAPACITY) column.remove(0);
+            column.add(Float.parseFloat(fields[i].trim()));
+        }
+        return boxedColumns;
+    }
+
+    @Benchmark
+    public boolean parseCsvLine() {
+        return csvParser.parseLine(csvLine, 0, csvLine.length, 0);
+    }
+
+    @Benchmark
+    public int parseBinaryNotification() {
+        return binaryParser.parseRecords(binaryNotification, 0, binaryNotification.length, 0);
+    }
+
+    @Benchmark
+    public int decimateFullBuffer() {
+        TelemetryBuffer buffer = csvParser.getBuffer();
+        return buffer.decimate(1, 0, buffer.getCount(), SCREEN_COLUMNS, min, max);
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步AT指令引擎：每条指令返回一个 CompletableFuture，按发送顺序 (FIFO) 把收到的行对应到在途指令上。
+ * 模块串行处理指令，所以最早发出、还没收到终止行的指令就是当前回复的主人：
+ * OK/ERROR 结束这条指令，其它行作为它的数值行，和指令相同的行视为回显忽略。
+ * <p>
+ * 最多 pipelineDepth 条指令同时在途，不必等上一条回复就发出下一条，整份配置脚本可以背靠背地执行。
+ * 每条指令从发出开始计时，超时以 TimeoutException 结束；写入失败或连接断开以 IOException 结束。
+ * 超时的指令之后可能还会回复，这条迟到的回复会被算到下一条指令上，所以超时后重新同步：
+ * 其余在途的指令以 IOException 结束 (已经发出，模块可能执行过)，之后暂停发送并丢弃收到的行，
+ * 安静 RESYNC_QUIET_MS 后再继续发送排队的指令。
+ * <p>
+ * 收到的行通过 onLine() 喂进来 (通常来自行模式的 FrameDecoder)。没有在途指令时收到的行交给 UnsolicitedListener。
+ * 所有方法可在任意线程调用；future 在传输线程、超时线程或调用线程上完成，回调里不要做耗时操作。
+ */
+public class AtCommandEngine {
+
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+    public static final int DEFAULT_PIPELINE_DEPTH = 4;
+    /** 超时后没有再收到任何行多久才认为迟到的回复都已到达 */
+    public static final long RESYNC_QUIET_MS = 200;
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    public interface UnsolicitedListener {
+        void onUnsolicitedLine(String line);
+    }
+
+    private final TransportSender sender;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<Command> queued = new ArrayDeque<>();
+    private final ArrayDeque<Command> outstanding = new ArrayDeque<>();
+    private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    private long defaultTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private boolean emitting; // 有线程正在 pump() 里发送
+    private boolean resyncing; // 超时后丢弃迟到的回复，暂停发送
+    private int resyncEpoch; // 每次安排安静计时加一，只有最后安排的那次计时结束重新同步
+    private volatile UnsolicitedListener unsolicitedListener;
+    private volatile LinkMetrics metrics;
+
+    /** scheduler 只用于超时计时，由调用方负责关闭 */
+    public AtCommandEngine(BleTransport transport, ScheduledExecutorService scheduler) {
+        this.sender = new TransportSender(transport, DEFAULT_PIPELINE_DEPTH);
+        this.scheduler = scheduler;
+    }
+
+    /** 同时在途的最大指令数；模块串口缓冲区较小时设为1，退化为一问一答 */
+    public synchronized void setPipelineDepth(int depth) {
+        if (depth < 1) throw new IllegalArgumentException("depth must be >= 1");
+        pipelineDepth = depth;
+    }
+
+    public synchronized void setDefaultTimeout(long timeoutMs) {
+        defaultTimeoutMs = timeoutMs;
+    }
+
+    public void setUnsolicitedListener(UnsolicitedListener listener) {
+        unsolicitedListener = listener;
+    }
+
+    /** 往返时间记入 metrics 的 at.rtt，超时计入 AT超时数 */
+    public void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized int getOutstanding() {
+        return outstanding.size();
+    }
+
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+
+    private synchronized boolean expectsLines() {
+        return resyncing || !outstanding.isEmpty();
+    }
+
+    public CompletableFuture<AtResponse> send(String command) {
+        long timeoutMs;
+        synchronized (this) {
+            timeoutMs = defaultTimeoutMs;
+        }
+        return send(command, timeoutMs);
+    }
+
+    /** command 不需要带行尾；取消返回的 future 只会跳过还没发出的指令 */
+    public CompletableFuture<AtResponse> send(String command, long timeoutMs) {
+        Command cmd = new Command(command.trim(), timeoutMs);
+        synchronized (this) {
+            queued.addLast(cmd);
+        }
+        pump();
+        return cmd.future;
+    }
+
+    /**
+     * 把脚本中的每条指令依次排队 (见 parseScript)，全部完成后以按顺序排列的回复结束。
+     * stopOnError 时遇到 ERROR 回复就取消后面的指令，结果只包含到出错那条为止的回复。
+     * 流水线里已经发出的指令 (最多 pipelineDepth-1 条) 无法撤回，模块仍会执行它们，它们的回复照常按顺序消费后丢弃；
+     * 需要出错后严格不再执行后面的指令时把 pipelineDepth 设为1。
+     * 任何指令超时或写入失败时整个脚本以该异常结束。
+     */
+    public CompletableFuture<List<AtResponse>> runScript(String script, boolean stopOnError) {
+        List<String> commands = parseScript(script);
+        List<CompletableFuture<AtResponse>> futures = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) futures.add(send(commands.get(i)));
+        for (int i = 0; i < futures.size(); i++) {
+            int index = i;
+            futures.get(i).whenComplete((response, error) -> {
+                if (error != null || (stopOnError && !response.isOk())) {
+                    for (int j = index + 1; j < futures.size(); j++) futures.get(j).cancel(false);
+                }
+            });
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            List<AtResponse> responses = new ArrayList<>(futures.size());
+            for (CompletableFuture<AtResponse> future : futures) {
+                if (future.isCancelled()) break;
+                AtResponse response = future.join(); // 超时或写入失败时抛出，脚本以该异常结束
+                responses.add(response);
+                if (stopOnError && !response.isOk()) break;
+            }
+            return responses;
+        });
+    }
+
+    /** 按行拆分脚本，跳过空行和以 # 或 // 开头的注释行 */
+    public static List<String> parseScript(String script) {
+        List<String> commands = new ArrayList<>();
+        for (String line : script.split("\\r?\\n|\\r")) {
+            String command = line.trim();
+            if (command.isEmpty() || command.startsWith("#") || command.startsWith("//")) continue;
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    /** 没有在途指令、不在重新同步也没有监听者时直接返回，不为透传数据创建字符串 */
+    public void onLine(byte[] buffer, int offset, int length) {
+        if (unsolicitedListener == null && !expectsLines()) return;
+        onLine(new String(buffer, offset, length, StandardCharsets.UTF_8));
+    }
+
+    public void onLine(String line) {
+        String text = line.trim();
+        if (text.isEmpty()) return;
+        Command done = null;
+        boolean unsolicited = false;
+        synchronized (this) {
+            if (resyncing) {
+                scheduleResyncEnd();
+                return; // 超时指令迟到的回复
+            }
+            Command head = outstanding.peekFirst();
+            if (head == null) {
+                unsolicited = true;
+            } else if (text.equals(head.command)) {
+                return; // 模块回显
+            } else if (isTerminator(text)) {
+                outstanding.pollFirst();
+                done = head;
+            } else {
+                head.lines.add(text);
+            }
+        }
+        if (unsolicited) {
+            UnsolicitedListener listener = unsolicitedListener;
+            if (listener != null) listener.onUnsolicitedLine(text);
+            return;
+        }
+        if (done == null) return;
+        done.cancelTimeout();
+        long roundTripNanos = System.nanoTime() - done.sentNanos;
+        LinkMetrics m = metrics;
+        if (m != null) m.getAtRoundTrip().recordNanos(roundTripNanos);
+        done.future.complete(new AtResponse(done.command, done.lines, text, isOk(text), roundTripNanos));
+        pump();
+    }
+
+    /** 连接断开时调用：所有在途和排队的指令以 cause 结束 */
+    public void failAll(Throwable cause) {
+        List<Command> failed = new ArrayList<>();
+        synchronized (this) {
+            failed.addAll(outstanding);
+            failed.addAll(queued);
+            outstanding.clear();
+            queued.clear();
+            resyncing = false;
+            resyncEpoch++;
+        }
+        sender.cancel();
+        for (Command cmd : failed) {
+            cmd.cancelTimeout();
+            cmd.future.completeExceptionally(cause);
+        }
+    }
+
+    static boolean isOk(String line) {
+        return line.equals("OK") || line.equals("+OK");
+    }
+
+    static boolean isTerminator(String line) {
+        return isOk(line) || line.startsWith("ERROR") || line.startsWith("+ERROR");
+    }
+
+    /**
+     * send (调用线程)、onLine (传输线程) 和超时 (计时线程) 都会进来。同一时刻只有一个线程登记和写出指令 (emitting)，
+     * 写出的顺序和 outstanding 的顺序一致，否则后登记的指令可能先到模块，FIFO 对应就错开了。
+     */
+    private void pump() {
+        synchronized (this) {
+            if (emitting) return;
+            emitting = true;
+        }
+        while (true) {
+            Command cmd;
+            synchronized (this) {
+                cmd = resyncing || outstanding.size() >= pipelineDepth ? null : queued.pollFirst();
+                if (cmd == null) {
+                    emitting = false;
+                    return;
+                }
+                if (cmd.future.isDone()) continue; // 已取消
+                // 先登记为在途再写入，回复不会早于登记到达
+                outstanding.addLast(cmd);
+                cmd.sentNanos = System.nanoTime();
+                cmd.timeout = scheduler.schedule(() -> onTimeout(cmd), cmd.timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            byte[] commandBytes = cmd.command.getBytes(StandardCharsets.UTF_8);
+            byte[] packet = new byte[commandBytes.length + LINE_END.length];
+            System.arraycopy(commandBytes, 0, packet, 0, commandBytes.length);
+            System.arraycopy(LINE_END, 0, packet, commandBytes.length, LINE_END.length);
+            sender.send(packet, status -> {
+                if (status != BleTransport.STATUS_SUCCESS) fail(cmd, new IOException(cmd.command + " 写入失败: " + status));
+            });
+        }
+    }
+
+    // 超时的指令和它后面已经发出的指令都结束，等迟到的回复过去再继续发送
+    private void onTimeout(Command cmd) {
+        List<Command> flushed;
+        synchronized (this) {
+            if (!outstanding.contains(cmd)) return;
+            flushed = new ArrayList<>(outstanding);
+            outstanding.clear();
+            resyncing = true;
+            scheduleResyncEnd();
+        }
+        for (Command c : flushed) {
+            c.cancelTimeout();
+            c.future.completeExceptionally(c == cmd ? new TimeoutException(cmd.command + " 超时 (" + cmd.timeoutMs + "ms)")
+                    : new IOException(c.command + " 已发出，但 " + cmd.command + " 超时，回复无法对应"));
+        }
+        LinkMetrics m = metrics;
+        if (m != null) m.onAtTimeout();
+    }
+
+    // 在 this 锁下调用；之前安排的计时作废
+    private void scheduleResyncEnd() {
+        int epoch = ++resyncEpoch;
+        scheduler.schedule(() -> endResync(epoch), RESYNC_QUIET_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void endResync(int epoch) {
+        synchronized (this) {
+            if (!resyncing || epoch != resyncEpoch) return;
+            resyncing = false;
+        }
+        pump();
+    }
+
+    // 指令已经结束时返回false
+    private boolean fail(Command cmd, Throwable cause) {
+        synchronized (this) {
+            if (!outstanding.remove(cmd)) return false;
+        }
+        cmd.cancelTimeout();
+        cmd.future.completeExceptionally(cause);
+        pump();
+        return true;
+    }
+
+    private static final class Command {
+        final String command;
+        final long timeoutMs;
+        final List<String> lines = new ArrayList<>(2);
+        final CompletableFuture<AtResponse> future = new CompletableFuture<>();
+        long sentNanos;
+        volatile ScheduledFuture<?> timeout;
+
+        Command(String command, long timeoutMs) {
+            this.command = command;
+            this.timeoutMs = timeoutMs;
+        }
+
+        void cancelTimeout() {
+            ScheduledFuture<?> t = timeout;
+            if (t != null) t.cancel(false);
+        }
+    }
+}
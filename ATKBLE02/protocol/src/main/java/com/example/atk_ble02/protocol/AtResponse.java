@@ -0,0 +1,42 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.Collections;
+import java.util.List;
+
+/** 一条AT指令的回复：终止行 (OK/ERROR) 之前的数值行和往返时间 */
+public final class AtResponse {
+
+    private final String command;
+    private final List<String> lines;
+    private final String terminator;
+    private final boolean ok;
+    private final long roundTripNanos;
+
+    AtResponse(String command, List<String> lines, String terminator, boolean ok, long roundTripNanos) {
+        this.command = command;
+        this.lines = Collections.unmodifiableList(lines);
+        this.terminator = terminator;
+        this.ok = ok;
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    public String getCommand() { return command; }
+    /** 终止行之前的所有行 (例如 "+NAME:ATK-BLE02")，不含指令回显 */
+    public List<String> getLines() { return lines; }
+    /** 收到的终止行原文，例如 "OK" 或 "ERROR:2" */
+    public String getTerminator() { return terminator; }
+    public boolean isOk() { return ok; }
+    public long getRoundTripNanos() { return roundTripNanos; }
+
+    /** 第一行数值，没有时返回null */
+    public String getValue() {
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(command).append(" -> ");
+        for (String line : lines) sb.append(line).append(" | ");
+        return sb.append(terminator).append(" (").append(roundTripNanos / 1_000_000L).append("ms)").toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SessionRecorder 和 SessionExporter 共用的后台写入：record() 只把数据复制进固定大小的 RecordRing 就返回
+ * (不加锁、不分配、不做IO)，专用的写线程取出记录交给子类的 write() 编码和写盘；环满时丢弃新记录并计数，绝不阻塞调用线程。
+ * record() 只能由一个线程调用 (单生产者)。子类在构造函数的最后调用 start()。
+ */
+public abstract class BackgroundRecordWriter implements Closeable {
+
+    public static final int MAX_RECORD_LENGTH = PayloadFragmenter.MAX_ATTRIBUTE_LENGTH;
+
+    private final RecordRing ring;
+    private final Thread writerThread;
+    private volatile boolean writerWaiting;
+    private volatile boolean closing;
+    private volatile boolean recording; // record() 正在进行，close() 等它结束
+    private volatile IOException writeError;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final byte[] record = new byte[MAX_RECORD_LENGTH]; // 只在写线程访问
+
+    /** bufferBytes 为环的大小，向上取整为2的幂，至少要放得下一条最长的记录 */
+    BackgroundRecordWriter(String threadName, int bufferBytes) {
+        if (bufferBytes < RecordRing.HEADER_SIZE + MAX_RECORD_LENGTH) throw new IllegalArgumentException("bufferBytes too small: " + bufferBytes);
+        ring = new RecordRing(bufferBytes);
+        writerThread = new Thread(this::writeLoop, threadName);
+        writerThread.setPriority(Thread.NORM_PRIORITY - 1);
+        writerThread.setDaemon(true);
+    }
+
+    /** 启动写线程；子类的字段都初始化之后才能调用 */
+    final void start() {
+        writerThread.start();
+    }
+
+    /** 在写线程上按记录进环的顺序调用，data 只在本次调用期间有效 */
+    abstract void write(int streamId, long timestampNanos, byte[] data, int length) throws IOException;
+
+    /** close() 写完环中剩余的记录后调用一次，收尾输出 */
+    abstract void finish() throws IOException;
+
+    /** 因环满、超长、已关闭或写入出错没有写出的记录数 */
+    public long getDropped() { return dropped.get(); }
+    /** 环中等待写出的字节数 (含记录头) */
+    public int getBacklogBytes() { return ring.size(); }
+
+    /** 写线程花在 write() 上的时间 */
+    long getBusyNanos() { return busyNanos.get(); }
+
+    /**
+     * 复制一条记录进环后立即返回；环满、已关闭或超长时返回false (计入丢弃数)。
+     * 超过 MAX_RECORD_LENGTH 的数据不截断，整条丢弃，保证记录内容完整。
+     */
+    public boolean record(int streamId, long timestampNanos, byte[] data, int offset, int length) {
+        recording = true;
+        try {
+            if (closing || length > MAX_RECORD_LENGTH || !ring.offer(streamId, timestampNanos, data, offset, length)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } finally {
+            recording = false;
+        }
+        if (writerWaiting) LockSupport.unpark(writerThread);
+        return true;
+    }
+
+    /** 写完环中剩余的记录并收尾；之后的 record() 都返回false */
+    @Override
+    public void close() throws IOException {
+        if (closing) return;
+        closing = true;
+        // recording 和 closing 都是 volatile：已经通过 closing 检查的 record() 一定在这里被看到，等它把记录放进环
+        while (recording) Thread.yield();
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写线程可能在最后那次 record() 放进环之前就已退出
+        drain();
+        finish();
+        if (writeError != null) throw writeError;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            if (drain()) continue;
+            if (closing) return;
+            writerWaiting = true;
+            if (ring.isEmpty() && !closing) LockSupport.parkNanos(50_000_000L);
+            writerWaiting = false;
+        }
+    }
+
+    // 把环中已发布的记录全部写出，返回是否写了记录
+    private boolean drain() {
+        if (ring.isEmpty()) return false;
+        long start = System.nanoTime();
+        int length;
+        while ((length = ring.poll(record)) >= 0) {
+            try {
+                write(ring.getStreamId(), ring.getTimestampNanos(), record, length);
+            } catch (IOException e) {
+                writeError = e;
+                dropped.incrementAndGet();
+            }
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 分帧二进制模式的帧格式 (多字节字段为大端)：
+ * <pre>
+ *   magic(1)=0xA5 | type(1) | seq(2) | len(2) | payload(len) | crc16(2)
+ * </pre>
+ * CRC 为 CRC-16/CCITT-FALSE (多项式 0x1021，初值 0xFFFF)，覆盖 type 到 payload 末尾。
+ * 一帧总是放进一个BLE包，所以单帧负载最多为 单包负载 - OVERHEAD。
+ */
+public final class BinaryFrameCodec {
+
+    public static final int MAGIC = 0xA5;
+    public static final int HEADER_SIZE = 6;
+    public static final int CRC_SIZE = 2;
+    public static final int OVERHEAD = HEADER_SIZE + CRC_SIZE;
+
+    /** 数据帧，消息的中间分片 */
+    public static final int TYPE_DATA = 0x01;
+    /** 数据帧，消息的最后一个分片 */
+    public static final int TYPE_DATA_END = 0x02;
+    /** 确认帧：负载为 累计确认序号(2) + 之后64个序号的接收位图(8) */
+    public static final int TYPE_ACK = 0x03;
+
+    private static final char[] CRC_TABLE = new char[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            CRC_TABLE[i] = (char) crc;
+        }
+    }
+
+    private BinaryFrameCodec() {}
+
+    public static boolean isValidType(int type) {
+        return type == TYPE_DATA || type == TYPE_DATA_END || type == TYPE_ACK;
+    }
+
+    /** 在给定MTU下单帧的最大负载 */
+    public static int maxPayload(int mtu) {
+        return PayloadFragmenter.maxChunkSize(mtu) - OVERHEAD;
+    }
+
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 8) ^ data[i]) & 0xFF];
+        }
+        return crc & 0xFFFF;
+    }
+
+    public static byte[] encode(int type, int seq, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[OVERHEAD + length];
+        frame[0] = (byte) MAGIC;
+        frame[1] = (byte) type;
+        frame[2] = (byte) (seq >>> 8);
+        frame[3] = (byte) seq;
+        frame[4] = (byte) (length >>> 8);
+        frame[5] = (byte) length;
+        System.arraycopy(payload, offset, frame, HEADER_SIZE, length);
+        int crc = crc16(frame, 1, HEADER_SIZE - 1 + length);
+        frame[HEADER_SIZE + length] = (byte) (crc >>> 8);
+        frame[HEADER_SIZE + length + 1] = (byte) crc;
+        return frame;
+    }
+
+    public static int readU16(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    /**
+     * 增量解帧：按 magic 同步，长度不合理或CRC错误时丢弃一个字节重新同步，
+     * 所以包被拆分、合并或损坏都能恢复。回调的 buffer 是内部复用的数组，只在回调期间有效。
+     * 非线程安全，由调用方同步。
+     */
+    public static final class Decoder {
+
+        public interface FrameHandler {
+            void onFrame(int type, int seq, byte[] buffer, int offset, int length);
+        }
+
+        private final int maxPayload;
+        private final ByteRingBuffer ring;
+        private final byte[] frame;
+        private final FrameHandler handler;
+        private long frameCount;
+        private long crcErrors;
+        private long droppedBytes;
+
+        public Decoder(int maxPayload, FrameHandler handler) {
+            this.maxPayload = maxPayload;
+            this.handler = handler;
+            this.frame = new byte[OVERHEAD + maxPayload];
+            this.ring = new ByteRingBuffer(2 * frame.length);
+        }
+
+        public long getFrameCount() { return frameCount; }
+        public long getCrcErrors() { return crcErrors; }
+        public long getDroppedBytes() { return droppedBytes; }
+
+        public void feed(byte[] data, int offset, int length) {
+            while (length > 0) {
+                int written = ring.write(data, offset, length);
+                offset += written;
+                length -= written;
+                decode();
+            }
+        }
+
+        public void reset() {
+            ring.clear();
+        }
+
+        private void decode() {
+            while (true) {
+                while (!ring.isEmpty() && (ring.get(0) & 0xFF) != MAGIC) {
+                    ring.skip(1);
+                    droppedBytes++;
+                }
+                if (ring.size() < HEADER_SIZE) return;
+                int type = ring.get(1) & 0xFF;
+                int length = ((ring.get(4) & 0xFF) << 8) | (ring.get(5) & 0xFF);
+                if (!isValidType(type) || length > maxPayload) {
+                    ring.skip(1);
+                    droppedBytes++;
+                    continue;
+                }
+                int total = OVERHEAD + length;
+                if (ring.size() < total) return;
+                ring.peek(frame, 0, total);
+                if (crc16(frame, 1, HEADER_SIZE - 1 + length) != readU16(frame, HEADER_SIZE + length)) {
+                    crcErrors++;
+                    ring.skip(1);
+                    droppedBytes++;
+                    continue;
+                }
+                ring.skip(total);
+                frameCount++;
+                handler.onFrame(type, readU16(frame, 2), frame, HEADER_SIZE, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 协议层看到的BLE链路：按包写入 (每包不超过 getMtu()-3 字节)，按包收到通知。
+ * 应用中由真实的GATT连接实现，测试和基准中由 SimulatedAtkBle02Transport 实现；
+ * 分帧、流控、AT指令等逻辑只依赖这个接口，不依赖Android。
+ */
+public interface BleTransport {
+
+    // 与 GattOperationQueue 的状态码一致，真实连接可以直接透传
+    int STATUS_SUCCESS = 0;
+    int STATUS_TIMEOUT = -1;
+    int STATUS_START_FAILED = -2;
+    int STATUS_CANCELLED = -3;
+    int STATUS_NOT_CONNECTED = -4;
+
+    interface WriteCallback {
+        /** 在传输实现的线程上回调，status 为 STATUS_SUCCESS 或传输相关的错误码 */
+        void onWriteComplete(int status);
+    }
+
+    interface Receiver {
+        /** 在传输实现的线程上按到达顺序回调，data只在本次调用期间有效 */
+        void onReceive(byte[] data, int offset, int length);
+    }
+
+    /** 当前协商的ATT MTU */
+    int getMtu();
+
+    boolean isConnected();
+
+    /** 写入一个包，未连接或包超过单包负载时返回false且不回调 */
+    boolean write(byte[] packet, WriteCallback callback);
+
+    /** 设置接收通知的回调，null 取消 */
+    void setReceiver(Receiver receiver);
+}
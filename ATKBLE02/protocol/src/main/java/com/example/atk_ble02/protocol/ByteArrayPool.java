@@ -0,0 +1,64 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayDeque;
+
+/**
+ * 按长度分桶的 byte[] 池，用于发送分片：分片长度只有单包负载和各消息的尾包长度几种，
+ * 稳定运行后 acquire() 总能拿到回收的数组，发送路径不再分配。
+ * 池中数组的总字节数不超过 maxPooledBytes，超过时 release() 直接丢弃，长度超过 maxLength 的不入池。
+ * 可在任意线程调用；数组归还后调用方不能再使用。
+ */
+public class ByteArrayPool {
+
+    private final int maxLength;
+    private final long maxPooledBytes;
+    private final Bucket[] buckets;
+    private long pooledBytes;
+    private long allocated;
+    private long reused;
+
+    public ByteArrayPool(int maxLength, long maxPooledBytes) {
+        this.maxLength = maxLength;
+        this.maxPooledBytes = maxPooledBytes;
+        this.buckets = new Bucket[maxLength + 1];
+    }
+
+    /** 返回长度正好为 length 的数组，内容未清零 */
+    public byte[] acquire(int length) {
+        if (length <= maxLength) {
+            synchronized (this) {
+                Bucket bucket = buckets[length];
+                byte[] array = bucket != null ? bucket.pollFirst() : null;
+                if (array != null) {
+                    pooledBytes -= length;
+                    reused++;
+                    return array;
+                }
+                allocated++;
+            }
+        }
+        return new byte[length];
+    }
+
+    public void release(byte[] array) {
+        int length = array.length;
+        if (length > maxLength) return;
+        synchronized (this) {
+            if (pooledBytes + length > maxPooledBytes) return;
+            Bucket bucket = buckets[length];
+            if (bucket == null) bucket = buckets[length] = new Bucket();
+            bucket.addFirst(array); // 后进先出，最近用过的数组还在缓存里
+            pooledBytes += length;
+        }
+    }
+
+    /** 池中没有可用数组而新分配的次数 (只统计可入池的长度) */
+    public synchronized long getAllocated() { return allocated; }
+    public synchronized long getReused() { return reused; }
+    public synchronized long getPooledBytes() { return pooledBytes; }
+
+    // 泛型数组不能直接创建，用具体子类做桶
+    private static final class Bucket extends ArrayDeque<byte[]> {
+        private static final long serialVersionUID = 1L;
+    }
+}
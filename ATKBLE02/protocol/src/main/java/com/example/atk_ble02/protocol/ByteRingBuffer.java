@@ -0,0 +1,81 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 固定容量的字节环形缓冲区，容量向上取整为2的幂以便用位运算取模。
+ * 非线程安全，由调用方同步。
+ */
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    private long head; // 下一个读位置
+    private long tail; // 下一个写位置
+
+    public ByteRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int remaining() {
+        return buffer.length - size();
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public void clear() {
+        head = tail = 0;
+    }
+
+    /** 写入尽可能多的字节，返回实际写入数 */
+    public int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, remaining());
+        int start = (int) (tail & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        tail += count;
+        return count;
+    }
+
+    /** 读取缓冲区中第 index 个字节 (相对于读位置)，不移动读位置 */
+    public byte get(int index) {
+        return buffer[(int) ((head + index) & mask)];
+    }
+
+    /** 从 fromIndex 开始查找字节，找不到返回-1 */
+    public int indexOf(byte value, int fromIndex) {
+        int size = size();
+        for (int i = fromIndex; i < size; i++) {
+            if (buffer[(int) ((head + i) & mask)] == value) return i;
+        }
+        return -1;
+    }
+
+    /** 复制前 length 个字节到 dst，不移动读位置 */
+    public void peek(byte[] dst, int offset, int length) {
+        int start = (int) (head & mask);
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(buffer, start, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, length - first);
+    }
+
+    public void read(byte[] dst, int offset, int length) {
+        peek(dst, offset, length);
+        head += length;
+    }
+
+    public void skip(int length) {
+        head += Math.min(length, size());
+    }
+}
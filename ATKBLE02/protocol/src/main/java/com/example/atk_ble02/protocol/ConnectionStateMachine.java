@@ -0,0 +1,109 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 连接就绪状态机。状态只由真实的回调事件推进，不依赖固定延时；
+ * 每离开一个状态记录该阶段的耗时。任何状态都可以转到 DISCONNECTING 或 IDLE (断开/出错)。
+ */
+public class ConnectionStateMachine {
+
+    public enum State { IDLE, SCANNING, CONNECTING, MTU, DISCOVERING, SUBSCRIBING, READY, DISCONNECTING }
+
+    public interface Listener {
+        /** 在调用 moveTo() 的线程上回调，phaseMillis 为离开的状态持续的时间 */
+        void onStateChanged(State from, State to, long phaseMillis);
+    }
+
+    private final long[] phaseNanos = new long[State.values().length];
+    private State state = State.IDLE;
+    private long enteredAtNanos = System.nanoTime();
+    private long connectStartNanos;
+    private long lastConnectMillis = -1;
+    private Listener listener;
+    private volatile LinkMetrics metrics;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** 每个正常前进的阶段耗时和连接总耗时记入 metrics 的直方图 */
+    public void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isReady() {
+        return state == State.READY;
+    }
+
+    /** 已经建立了链路 (从收到连接成功到断开之前) */
+    public synchronized boolean isLinkUp() {
+        return state.ordinal() >= State.MTU.ordinal() && state != State.DISCONNECTING;
+    }
+
+    /**
+     * 转换到 next 状态；不合法的转换 (例如跳过阶段或从旧连接来的迟到事件) 返回false且不改变状态。
+     */
+    public boolean moveTo(State next) {
+        State from;
+        long phase;
+        long connectNanos = -1;
+        synchronized (this) {
+            if (!canMove(state, next)) return false;
+            long now = System.nanoTime();
+            from = state;
+            phase = now - enteredAtNanos;
+            phaseNanos[from.ordinal()] = phase;
+            if (next == State.CONNECTING) connectStartNanos = now;
+            if (next == State.READY) {
+                connectNanos = now - connectStartNanos;
+                lastConnectMillis = connectNanos / 1_000_000L;
+            }
+            state = next;
+            enteredAtNanos = now;
+        }
+        LinkMetrics m = metrics;
+        if (m != null && next != State.IDLE && next != State.DISCONNECTING && from != State.IDLE) {
+            m.getPhase(from).recordNanos(phase);
+            if (connectNanos >= 0) m.getConnectTotal().recordNanos(connectNanos);
+        }
+        Listener l = listener;
+        if (l != null) l.onStateChanged(from, next, phase / 1_000_000L);
+        return true;
+    }
+
+    /** 某阶段最近一次的耗时 (毫秒)，从未经历过为0 */
+    public synchronized long getPhaseMillis(State phase) {
+        return phaseNanos[phase.ordinal()] / 1_000_000L;
+    }
+
+    /** 最近一次从 CONNECTING 到 READY 的总耗时，没有成功连接过为-1 */
+    public synchronized long getLastConnectMillis() {
+        return lastConnectMillis;
+    }
+
+    public synchronized String describePhases() {
+        StringBuilder sb = new StringBuilder();
+        for (State phase : new State[]{State.CONNECTING, State.MTU, State.DISCOVERING, State.SUBSCRIBING}) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(phase).append('=').append(phaseNanos[phase.ordinal()] / 1_000_000L).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private static boolean canMove(State from, State to) {
+        if (from == to) return false;
+        if (to == State.IDLE || to == State.DISCONNECTING) return from != State.IDLE;
+        switch (from) {
+            case IDLE: return to == State.SCANNING || to == State.CONNECTING;
+            case SCANNING: return to == State.CONNECTING;
+            case CONNECTING: return to == State.MTU;
+            case MTU: return to == State.DISCOVERING;
+            case DISCOVERING: return to == State.SUBSCRIBING;
+            case SUBSCRIBING: return to == State.READY;
+            default: return false;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 发现窗口内每个地址的广播统计：RSSI 的指数滑动平均 (EWMA) 和广播频率，用于在多个模块中选出链路最好的一个。
+ * 排序只看平滑后的 RSSI，广播频率只作为并列时的次序和参考信息，广播得快的模块不会因此被优先选中。
+ * 非线程安全，只在扫描回调所在的线程上使用。
+ */
+public class DiscoveryTable {
+
+    /** 每条新广播的权重；约等于对最近 1/alpha 条广播取平均 */
+    public static final double DEFAULT_RSSI_ALPHA = 0.25;
+
+    public static final class Candidate {
+        private final String address;
+        private String name;
+        private double smoothedRssi;
+        private int lastRssi;
+        private int advertisements;
+        private long firstSeenNanos;
+        private long lastSeenNanos;
+
+        Candidate(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() { return address; }
+        public String getName() { return name; }
+        public double getSmoothedRssi() { return smoothedRssi; }
+        public int getLastRssi() { return lastRssi; }
+        public int getAdvertisements() { return advertisements; }
+        public long getFirstSeenNanos() { return firstSeenNanos; }
+        public long getLastSeenNanos() { return lastSeenNanos; }
+
+        /** 每秒收到的广播数，少于两条时为0 */
+        public double getAdvertisementRate() {
+            long span = lastSeenNanos - firstSeenNanos;
+            return advertisements < 2 || span <= 0 ? 0 : (advertisements - 1) * 1e9 / span;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %.0f dBm (%d 条, %.1f 次/s)", address, smoothedRssi, advertisements, getAdvertisementRate());
+        }
+    }
+
+    private static final Comparator<Candidate> BY_SIGNAL = (a, b) -> {
+        int bySignal = Double.compare(b.smoothedRssi, a.smoothedRssi);
+        return bySignal != 0 ? bySignal : Integer.compare(b.advertisements, a.advertisements);
+    };
+
+    private final double alpha;
+    private final Map<String, Candidate> candidates = new LinkedHashMap<>();
+
+    public DiscoveryTable() {
+        this(DEFAULT_RSSI_ALPHA);
+    }
+
+    public DiscoveryTable(double alpha) {
+        if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        this.alpha = alpha;
+    }
+
+    /** 记录一条广播，返回该地址的统计；第一条广播的 RSSI 直接作为初值 */
+    public Candidate update(String address, String name, int rssi, long timestampNanos) {
+        Candidate candidate = candidates.get(address);
+        if (candidate == null) {
+            candidate = new Candidate(address);
+            candidate.smoothedRssi = rssi;
+            candidate.firstSeenNanos = timestampNanos;
+            candidates.put(address, candidate);
+        } else {
+            candidate.smoothedRssi += alpha * (rssi - candidate.smoothedRssi);
+        }
+        if (name != null) candidate.name = name;
+        candidate.lastRssi = rssi;
+        candidate.lastSeenNanos = Math.max(candidate.lastSeenNanos, timestampNanos);
+        candidate.advertisements++;
+        return candidate;
+    }
+
+    /** 没有收到过这个地址的广播时返回null */
+    public Candidate get(String address) {
+        return candidates.get(address);
+    }
+
+    public int size() {
+        return candidates.size();
+    }
+
+    public void clear() {
+        candidates.clear();
+    }
+
+    /** 按平滑 RSSI 从强到弱排序；相同时广播多的在前 */
+    public List<Candidate> ranked() {
+        List<Candidate> list = new ArrayList<>(candidates.values());
+        Collections.sort(list, BY_SIGNAL);
+        return list;
+    }
+
+    /**
+     * 选择要连接的设备：指定了 pinnedAddress 时只返回它 (还没收到它的广播则返回null)，
+     * 否则返回不在 excluded (例如已连接的地址) 中信号最强的设备。
+     */
+    public Candidate select(String pinnedAddress, Collection<String> excluded) {
+        if (pinnedAddress != null) {
+            Candidate pinned = candidates.get(pinnedAddress);
+            return pinned != null && !excluded.contains(pinnedAddress) ? pinned : null;
+        }
+        Candidate best = null;
+        for (Candidate candidate : candidates.values()) {
+            if (excluded.contains(candidate.address)) continue;
+            if (best == null || BY_SIGNAL.compare(candidate, best) < 0) best = candidate;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 增量帧解码器：通知数据先追加到可复用的环形缓冲区，再按帧边界切出完整帧。
+ * 支持两种帧格式：
+ * <ul>
+ *     <li>LINE: 以 LF 或 CRLF 结尾的文本行 (AT响应)，回调的帧不含行尾，空行被跳过</li>
+ *     <li>LENGTH_PREFIXED: 1/2/4 字节长度头 + 负载，回调的帧只含负载</li>
+ * </ul>
+ * feed() 不分配任何对象；回调里的 buffer 是解码器内部复用的数组，只在回调期间有效。
+ * 非线程安全，由调用方同步。
+ */
+public class FrameDecoder {
+
+    public enum Mode { LINE, LENGTH_PREFIXED }
+
+    public interface FrameListener {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final Mode mode;
+    private final int headerLength;
+    private final boolean bigEndian;
+    private final int maxFrameLength;
+    private final ByteRingBuffer ring;
+    private final byte[] frame;
+    private final FrameListener listener;
+
+    private int scanFrom;
+    private long frameCount;
+    private long oversizedFrames;
+    private long droppedBytes;
+
+    public static FrameDecoder lines(int maxFrameLength, FrameListener listener) {
+        return new FrameDecoder(Mode.LINE, 0, true, maxFrameLength, listener);
+    }
+
+    public static FrameDecoder lengthPrefixed(int headerLength, boolean bigEndian, int maxFrameLength, FrameListener listener) {
+        if (headerLength != 1 && headerLength != 2 && headerLength != 4) {
+            throw new IllegalArgumentException("headerLength must be 1, 2 or 4: " + headerLength);
+        }
+        return new FrameDecoder(Mode.LENGTH_PREFIXED, headerLength, bigEndian, maxFrameLength, listener);
+    }
+
+    private FrameDecoder(Mode mode, int headerLength, boolean bigEndian, int maxFrameLength, FrameListener listener) {
+        this.mode = mode;
+        this.headerLength = headerLength;
+        this.bigEndian = bigEndian;
+        this.maxFrameLength = maxFrameLength;
+        this.listener = listener;
+        this.frame = new byte[maxFrameLength];
+        // 解码后缓冲区中剩余数据总小于一帧，留出一倍余量保证每次feed都能推进
+        this.ring = new ByteRingBuffer(2 * (maxFrameLength + headerLength + 2));
+    }
+
+    public Mode getMode() { return mode; }
+    public long getFrameCount() { return frameCount; }
+    public long getOversizedFrames() { return oversizedFrames; }
+    public long getDroppedBytes() { return droppedBytes; }
+    public int getPendingBytes() { return ring.size(); }
+
+    public void feed(byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int written = ring.write(data, offset, length);
+            offset += written;
+            length -= written;
+            if (mode == Mode.LINE) decodeLines();
+            else decodeLengthPrefixed();
+        }
+    }
+
+    /**
+     * 行模式下把尚未遇到行尾的数据作为一帧输出 (用于没有行尾的透传数据的空闲超时)。
+     * 保留末尾不完整的UTF-8序列和可能属于CRLF的CR，避免多字节字符被截断。
+     */
+    public void flush() {
+        if (mode != Mode.LINE) return;
+        int size = ring.size();
+        if (size > 0 && ring.get(size - 1) == CR) size--;
+        int length = utf8CompleteLength(size);
+        if (length > 0) emit(length, 0);
+        scanFrom = 0;
+    }
+
+    public void reset() {
+        ring.clear();
+        scanFrom = 0;
+    }
+
+    private void decodeLines() {
+        while (true) {
+            int lf = ring.indexOf(LF, scanFrom);
+            if (lf < 0 || lf > maxFrameLength) {
+                if (ring.size() < maxFrameLength) {
+                    scanFrom = ring.size();
+                    return;
+                }
+                // 超长行：按最大帧长截断输出，保证缓冲区不会被塞满
+                oversizedFrames++;
+                emit(maxFrameLength, 0);
+                scanFrom = 0;
+                continue;
+            }
+            int length = lf;
+            if (length > 0 && ring.get(length - 1) == CR) length--;
+            emit(length, lf + 1 - length);
+            scanFrom = 0;
+        }
+    }
+
+    private void decodeLengthPrefixed() {
+        while (ring.size() >= headerLength) {
+            long length = readHeader();
+            if (length > maxFrameLength) {
+                // 长度头不可信，丢弃一个字节重新同步
+                ring.skip(1);
+                droppedBytes++;
+                continue;
+            }
+            if (ring.size() < headerLength + length) return;
+            ring.skip(headerLength);
+            emit((int) length, 0);
+        }
+    }
+
+    private long readHeader() {
+        long value = 0;
+        for (int i = 0; i < headerLength; i++) {
+            int b = ring.get(bigEndian ? i : headerLength - 1 - i) & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private void emit(int length, int skipAfter) {
+        ring.read(frame, 0, length);
+        ring.skip(skipAfter);
+        if (length == 0) return;
+        frameCount++;
+        listener.onFrame(frame, 0, length);
+    }
+
+    private int utf8CompleteLength(int size) {
+        for (int back = 1; back <= 3 && back <= size; back++) {
+            int b = ring.get(size - back) & 0xFF;
+            if ((b & 0xC0) == 0x80) continue;
+            int needed = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return needed > back ? size - back : size;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * 解码出的帧的发布/订阅：publish() 只把帧复制进每个订阅者自己的有界字节环 (RecordRing) 就返回，
+ * 每个订阅者在自己的投递线程上按顺序收到帧，慢的订阅者既拖不住发布线程 (GATT回调所在的工作线程)，也不影响其他订阅者。
+ * 环满时按订阅时选择的策略处理：
+ * <ul>
+ *     <li>DROP_OLDEST: 丢弃环里最旧的帧腾出空间，适合只关心最新数据的订阅者 (界面显示)</li>
+ *     <li>DROP_NEWEST: 丢弃新帧，和 SessionRecorder 环满时的处理相同</li>
+ *     <li>BLOCK: 发布线程等待空间，最多 BLOCK_TIMEOUT_MS，超时后丢弃新帧。只用于测试和离线处理 (例如回放文件)：
+ *     发布线程是所有连接共用的BLE工作线程时，一个慢订阅者每帧都能把它卡住一秒，所以默认不允许，
+ *     只有用 allowBlock 为 true 构造的发布者才接受 BLOCK 订阅</li>
+ * </ul>
+ * publish() 只能由一个线程调用；subscribe、cancel 和 close 可在任意线程调用。
+ */
+public class FramePublisher implements Closeable {
+
+    public enum Overflow { DROP_OLDEST, DROP_NEWEST, BLOCK }
+
+    public interface Subscriber {
+        /** 在这个订阅者的投递线程上调用，buffer 只在本次调用期间有效 */
+        void onFrame(long timestampNanos, byte[] buffer, int offset, int length);
+
+        /** 取消订阅，或发布者关闭且剩余的帧都投递完后调用一次 */
+        default void onComplete() {}
+    }
+
+    public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+    public static final long BLOCK_TIMEOUT_MS = 1000;
+    static final int RECORD_HEADER_SIZE = RecordRing.HEADER_SIZE;
+
+    private final String name;
+    private final int maxFrameLength;
+    private final boolean allowBlock;
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private int nextId;
+    private boolean closed;
+
+    /** 不接受 BLOCK 订阅的发布者 */
+    public FramePublisher(String name, int maxFrameLength) {
+        this(name, maxFrameLength, false);
+    }
+
+    /** name 用于投递线程的名字；maxFrameLength 以上的帧不会发布 (最大65535)；allowBlock 为 false 时 BLOCK 订阅抛出 IllegalArgumentException */
+    public FramePublisher(String name, int maxFrameLength, boolean allowBlock) {
+        if (maxFrameLength <= 0 || maxFrameLength > 0xFFFF) throw new IllegalArgumentException("maxFrameLength out of range: " + maxFrameLength);
+        this.name = name;
+        this.maxFrameLength = maxFrameLength;
+        this.allowBlock = allowBlock;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    public Subscription subscribe(Subscriber subscriber, Overflow overflow) {
+        return subscribe(subscriber, overflow, DEFAULT_BUFFER_BYTES);
+    }
+
+    /**
+     * bufferBytes 为这个订阅者的环的大小，向上取整为2的幂，至少要放得下一个最长的帧。
+     * 发布者已关闭时 (例如连接在订阅之前就已失败) 返回一个已结束的订阅，订阅者随即收到 onComplete。
+     */
+    public synchronized Subscription subscribe(Subscriber subscriber, Overflow overflow, int bufferBytes) {
+        if (overflow == Overflow.BLOCK && !allowBlock) throw new IllegalArgumentException("BLOCK 会阻塞发布线程: " + name);
+        if (bufferBytes < RECORD_HEADER_SIZE + maxFrameLength) throw new IllegalArgumentException("bufferBytes too small: " + bufferBytes);
+        Subscription subscription = new Subscription(subscriber, overflow, bufferBytes, name + "-" + nextId++);
+        if (closed) {
+            subscription.complete(false);
+            subscription.thread.start();
+            return subscription;
+        }
+        Subscription[] current = subscriptions;
+        Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /** 把帧复制给每个订阅者，返回收下这一帧的订阅者数；没有订阅者时只有一次 volatile 读 */
+    public int publish(long timestampNanos, byte[] data, int offset, int length) {
+        Subscription[] current = subscriptions;
+        int accepted = 0;
+        for (Subscription subscription : current) {
+            if (subscription.offer(timestampNanos, data, offset, length)) accepted++;
+        }
+        return accepted;
+    }
+
+    /** 不再接受新帧；每个订阅者投递完环里剩余的帧后收到 onComplete。不等待投递线程结束 */
+    @Override
+    public void close() {
+        Subscription[] current;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            current = subscriptions;
+            subscriptions = new Subscription[0];
+        }
+        for (Subscription subscription : current) subscription.complete(false);
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != subscription) continue;
+            Subscription[] updated = new Subscription[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, updated.length - i);
+            subscriptions = updated;
+            return;
+        }
+    }
+
+    /**
+     * 一个订阅者的字节环和投递线程。环的读写都在自己的锁下 (DROP_OLDEST 要从发布线程丢弃最旧的帧，BLOCK 要等待)，
+     * 发布线程和投递线程只在复制进出时竞争
+     */
+    public final class Subscription {
+        private final Subscriber subscriber;
+        private final Overflow overflow;
+        private final RecordRing ring; // 在 this 锁下访问
+        private final Thread thread;
+        private final byte[] frame = new byte[maxFrameLength]; // 只在投递线程访问
+
+        // 以下在 this 锁下访问
+        private boolean done;
+        private boolean cancelled;
+
+        private volatile long published;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile long errors;
+        private volatile long blockedNanos;
+
+        Subscription(Subscriber subscriber, Overflow overflow, int bufferBytes, String threadName) {
+            this.subscriber = subscriber;
+            this.overflow = overflow;
+            ring = new RecordRing(bufferBytes);
+            thread = new Thread(this::deliverLoop, threadName);
+            thread.setDaemon(true);
+        }
+
+        public Overflow getOverflow() { return overflow; }
+        /** 进入环的帧数 (DROP_OLDEST 时包括之后被挤掉的) */
+        public long getPublished() { return published; }
+        public long getDelivered() { return delivered; }
+        /** 因环满、超长或超时没有投递的帧数 */
+        public long getDropped() { return dropped; }
+        /** onFrame 抛出异常的次数；异常不会结束投递 */
+        public long getErrors() { return errors; }
+        /** BLOCK 策略下发布线程累计等待的时间 */
+        public long getBlockedNanos() { return blockedNanos; }
+
+        public synchronized int getBacklogBytes() {
+            return ring.size();
+        }
+
+        /** 停止投递并丢弃环里剩余的帧，订阅者随后收到 onComplete */
+        public void cancel() {
+            remove(this);
+            complete(true);
+        }
+
+        synchronized void complete(boolean discard) {
+            if (discard && !cancelled) {
+                cancelled = true;
+                ring.clear();
+            }
+            done = true;
+            notifyAll();
+        }
+
+        boolean offer(long timestampNanos, byte[] data, int offset, int length) {
+            int size = RECORD_HEADER_SIZE + length;
+            synchronized (this) {
+                if (done) return false;
+                if (length > maxFrameLength) { dropped++; return false; }
+                if (ring.capacity() - ring.size() < size && !makeRoom(size)) { dropped++; return false; }
+                boolean wasEmpty = ring.isEmpty();
+                ring.offer(0, timestampNanos, data, offset, length);
+                published++;
+                if (wasEmpty) notifyAll();
+            }
+            return true;
+        }
+
+        // 在 this 锁下调用，返回是否腾出了 size 字节
+        private boolean makeRoom(int size) {
+            switch (overflow) {
+                case DROP_OLDEST:
+                    while (ring.capacity() - ring.size() < size) {
+                        ring.skip();
+                        dropped++;
+                    }
+                    return true;
+                case BLOCK:
+                    long start = System.nanoTime();
+                    long deadline = start + BLOCK_TIMEOUT_MS * 1_000_000L;
+                    try {
+                        while (!done && ring.capacity() - ring.size() < size) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) return false;
+                            wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    } finally {
+                        blockedNanos += System.nanoTime() - start;
+                    }
+                    return !done;
+                default:
+                    return false;
+            }
+        }
+
+        private void deliverLoop() {
+            while (true) {
+                int length;
+                long timestampNanos;
+                synchronized (this) {
+                    while (ring.isEmpty() && !done) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            cancelled = true;
+                            ring.clear();
+                            done = true;
+                        }
+                    }
+                    length = ring.poll(frame);
+                    if (length < 0) break;
+                    timestampNanos = ring.getTimestampNanos();
+                    if (overflow == Overflow.BLOCK) notifyAll(); // 唤醒等空间的发布线程
+                }
+                delivered++;
+                try {
+                    subscriber.onFrame(timestampNanos, frame, 0, length);
+                } catch (RuntimeException e) {
+                    errors++;
+                }
+            }
+            subscriber.onComplete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 查表法十六进制编码：每个字节查一次预先生成的两字符表，不做格式化也不产生中间对象。
+ * decode 是反方向，用于读取十六进制文本 (例如回放用的 hex-line 会话文件)。
+ */
+public final class HexEncoder {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] PAIRS = new char[512];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            PAIRS[i << 1] = DIGITS[i >>> 4];
+            PAIRS[(i << 1) + 1] = DIGITS[i & 0x0F];
+        }
+    }
+
+    private HexEncoder() {}
+
+    /** 编码后的字符数；spaced 时字节之间用空格分隔 ("01 AB FF") */
+    public static int encodedLength(int byteCount, boolean spaced) {
+        if (byteCount <= 0) return 0;
+        return spaced ? byteCount * 3 - 1 : byteCount * 2;
+    }
+
+    /** 编码到 dst，调用方保证 dst 足够大，返回写入的字符数 */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset, boolean spaced) {
+        int out = dstOffset;
+        for (int i = 0; i < length; i++) {
+            if (spaced && i > 0) dst[out++] = ' ';
+            int index = (src[offset + i] & 0xFF) << 1;
+            dst[out++] = PAIRS[index];
+            dst[out++] = PAIRS[index + 1];
+        }
+        return out - dstOffset;
+    }
+
+    /** 编码成 ASCII 字节写入 dst (用于直接写文件的场景)，调用方保证 dst 足够大，返回写入的字节数 */
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset, boolean spaced) {
+        int out = dstOffset;
+        for (int i = 0; i < length; i++) {
+            if (spaced && i > 0) dst[out++] = ' ';
+            int index = (src[offset + i] & 0xFF) << 1;
+            dst[out++] = (byte) PAIRS[index];
+            dst[out++] = (byte) PAIRS[index + 1];
+        }
+        return out - dstOffset;
+    }
+
+    public static StringBuilder append(StringBuilder sb, byte[] src, int offset, int length, boolean spaced) {
+        sb.ensureCapacity(sb.length() + encodedLength(length, spaced));
+        for (int i = 0; i < length; i++) {
+            if (spaced && i > 0) sb.append(' ');
+            int index = (src[offset + i] & 0xFF) << 1;
+            sb.append(PAIRS[index]).append(PAIRS[index + 1]);
+        }
+        return sb;
+    }
+
+    public static String toHex(byte[] src, boolean spaced) {
+        return toHex(src, 0, src.length, spaced);
+    }
+
+    public static String toHex(byte[] src, int offset, int length, boolean spaced) {
+        char[] chars = new char[encodedLength(length, spaced)];
+        encode(src, offset, length, chars, 0, spaced);
+        return new String(chars);
+    }
+
+    /**
+     * 解码 [start, end) 中的十六进制字符到 dst，忽略空白，大小写均可，返回写入的字节数。
+     * 出现非十六进制字符、字符数为奇数或 dst 放不下时抛 IllegalArgumentException。
+     */
+    public static int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset) {
+        int out = dstOffset;
+        int high = -1;
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c == ' ' || c == '\t') continue;
+            int digit = Character.digit(c, 16);
+            if (digit < 0) throw new IllegalArgumentException("非十六进制字符 '" + c + "' 位置 " + i);
+            if (high < 0) { high = digit; continue; }
+            if (out >= dst.length) throw new IllegalArgumentException("数据超过 " + (dst.length - dstOffset) + " 字节");
+            dst[out++] = (byte) (high << 4 | digit);
+            high = -1;
+        }
+        if (high >= 0) throw new IllegalArgumentException("十六进制字符数为奇数");
+        return out - dstOffset;
+    }
+}
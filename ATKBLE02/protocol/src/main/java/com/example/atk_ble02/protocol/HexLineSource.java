@@ -0,0 +1,119 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 十六进制文本格式的会话，便于手写用例、贴在问题报告里或从别的抓包工具转换：
+ * <pre>
+ * # 以 # 开头的行和空行被忽略
+ * # 时间(毫秒, 最多6位小数)  流编号  数据(十六进制, 空格可有可无)
+ * 0.000      0  41 54 2B 4F 4B 0D 0A
+ * 12.5       0  4F4B0D0A
+ * 12.500250  1
+ * </pre>
+ * 时间只用来计算记录之间的间隔，起点任意，必须不递减；数据可以为空 (空通知)，最长 SessionRecorder.MAX_RECORD_LENGTH 字节。
+ * 格式错误时 next() 抛出带行号的 IOException。
+ */
+public class HexLineSource implements SessionReplayer.Source {
+
+    private final BufferedReader reader;
+    private final byte[] buffer = new byte[SessionRecorder.MAX_RECORD_LENGTH];
+    private int lineNumber;
+    private boolean hasRecord;
+    private long timestampNanos;
+    private int streamId;
+    private int length;
+
+    public HexLineSource(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int start = skipSpaces(line, 0);
+            if (start == line.length() || line.charAt(start) == '#') continue;
+            try {
+                int end = nextSpace(line, start);
+                long timestamp = parseMillis(line, start, end);
+                if (hasRecord && timestamp < timestampNanos) throw new IllegalArgumentException("时间倒退");
+                start = skipSpaces(line, end);
+                end = nextSpace(line, start);
+                if (start == end) throw new IllegalArgumentException("缺少流编号");
+                int stream = Integer.parseInt(line.substring(start, end));
+                if (stream < 0 || stream > 0xFFFF) throw new IllegalArgumentException("流编号超出范围: " + stream);
+                length = HexEncoder.decode(line, end, line.length(), buffer, 0);
+                timestampNanos = timestamp;
+                streamId = stream;
+                hasRecord = true;
+                return true;
+            } catch (IllegalArgumentException e) {
+                throw new IOException("第 " + lineNumber + " 行: " + e.getMessage(), e);
+            }
+        }
+        return false;
+    }
+
+    @Override public long getTimestampNanos() { return timestampNanos; }
+    @Override public int getStreamId() { return streamId; }
+    @Override public int getLength() { return length; }
+    @Override public byte[] getBuffer() { return buffer; }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /** 把任意来源 (例如 SessionReader 读出的二进制会话) 转成这个格式，时间从第一条记录开始计 */
+    public static long export(SessionReplayer.Source source, Appendable out) throws IOException {
+        out.append("# 时间(ms) 流编号 数据\n");
+        StringBuilder line = new StringBuilder(32 + SessionRecorder.MAX_RECORD_LENGTH * 3);
+        long first = 0;
+        long count = 0;
+        while (source.next()) {
+            if (count == 0) first = source.getTimestampNanos();
+            long relative = source.getTimestampNanos() - first;
+            String fraction = Long.toString(relative % 1_000_000L);
+            line.setLength(0);
+            line.append(relative / 1_000_000L).append('.');
+            for (int i = fraction.length(); i < 6; i++) line.append('0');
+            line.append(fraction).append(' ').append(source.getStreamId()).append(' ');
+            HexEncoder.append(line, source.getBuffer(), 0, source.getLength(), true).append('\n');
+            out.append(line);
+            count++;
+        }
+        return count;
+    }
+
+    // "12.5" -> 12_500_000 纳秒，不经过 double，避免大时间戳丢精度
+    private static long parseMillis(String line, int start, int end) {
+        int dot = line.indexOf('.', start);
+        if (dot < 0 || dot >= end) dot = end;
+        if (dot == start) throw new IllegalArgumentException("缺少时间");
+        long millis = Long.parseLong(line.substring(start, dot));
+        if (millis < 0) throw new IllegalArgumentException("时间为负: " + millis);
+        long nanos = 0;
+        int digits = end - dot - 1;
+        if (digits > 6) throw new IllegalArgumentException("时间最多6位小数");
+        if (digits > 0) {
+            nanos = Long.parseLong(line.substring(dot + 1, end));
+            if (nanos < 0) throw new IllegalArgumentException("时间格式错误");
+            for (int i = digits; i < 6; i++) nanos *= 10;
+        }
+        return millis * 1_000_000L + nanos;
+    }
+
+    private static int skipSpaces(String line, int index) {
+        while (index < line.length() && Character.isWhitespace(line.charAt(index))) index++;
+        return index;
+    }
+
+    private static int nextSpace(String line, int index) {
+        while (index < line.length() && !Character.isWhitespace(line.charAt(index))) index++;
+        return index;
+    }
+}
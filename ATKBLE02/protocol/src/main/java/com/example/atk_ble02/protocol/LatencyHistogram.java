@@ -0,0 +1,108 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的对数-线性延迟直方图 (纳秒)：每个2的幂区间再均分成16个桶，相对误差不超过 1/16，
+ * 覆盖 0 到约 2^41 纳秒 (约36分钟)，更大的值记在最后一个桶里 (最大值仍精确)。共608个桶，约5KB。
+ * <p>
+ * record() 无锁、不分配，可以在GATT回调线程上每个包调用一次；多个线程可以同时记录。
+ * 百分位数取所在桶的上界 (偏保守)，不会超过记录到的最大值。读取时不停止记录，结果是近似快照。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 负值按0记录 */
+    public void recordNanos(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+        while (nanos < (m = min.get()) && !min.compareAndSet(m, nanos)) { }
+    }
+
+    public long getCount() { return count.get(); }
+    public long getMaxNanos() { return max.get(); }
+    /** 没有记录时为0 */
+    public long getMinNanos() { return count.get() == 0 ? 0 : min.get(); }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /** percentile 在 0 到 100 之间，例如 99.9；没有记录时为0 */
+    public long getPercentileNanos(double percentile) {
+        return getPercentilesNanos(new double[]{percentile})[0];
+    }
+
+    /** 一次遍历算出多个百分位数 (percentiles 需递增)，互相一致 */
+    public long[] getPercentilesNanos(double[] percentiles) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long[] result = new long[percentiles.length];
+        if (total == 0) return result;
+        long maxValue = max.get();
+        long cumulative = 0;
+        int bucket = 0;
+        for (int p = 0; p < percentiles.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * total));
+            while (bucket < BUCKET_COUNT - 1 && cumulative + counts[bucket] < rank) cumulative += counts[bucket++];
+            result[p] = Math.min(upperBound(bucket), maxValue);
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        int block = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (block == 0) return sub;
+        return (long) (SUB_BUCKETS + sub) << (block - 1);
+    }
+
+    static long upperBound(int index) {
+        return index >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 链路的延迟直方图和吞吐计数，一个实例可以被多个连接共享 (统计整台手机的分布)。
+ * <ul>
+ *     <li>write.queue：写操作入队到调用 writeCharacteristic 的等待</li>
+ *     <li>write.gatt：writeCharacteristic 到 onCharacteristicWrite</li>
+ *     <li>write.total：入队到写完成</li>
+ *     <li>notify.interval：相邻两个通知的到达间隔</li>
+ *     <li>notify.process：一个通知在接收路径 (解码、分发) 上花的时间</li>
+ *     <li>at.rtt：AT指令从写出到收到 OK/ERROR</li>
+ *     <li>phase.*：每个连接阶段的耗时 (只统计正常前进的阶段)，connect.total 为发起连接到就绪</li>
+ * </ul>
+ * 记录方法都无锁、不分配。dump() 输出给人看的表格，exportCsv() 输出便于汇总多台手机的CSV，单位都是微秒。
+ */
+public class LinkMetrics {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final LatencyHistogram writeQueue = new LatencyHistogram("write.queue");
+    private final LatencyHistogram writeGatt = new LatencyHistogram("write.gatt");
+    private final LatencyHistogram writeTotal = new LatencyHistogram("write.total");
+    private final LatencyHistogram notifyInterval = new LatencyHistogram("notify.interval");
+    private final LatencyHistogram notifyProcess = new LatencyHistogram("notify.process");
+    private final LatencyHistogram atRoundTrip = new LatencyHistogram("at.rtt");
+    private final LatencyHistogram connectTotal = new LatencyHistogram("connect.total");
+    private final LatencyHistogram[] phases = new LatencyHistogram[ConnectionStateMachine.State.values().length];
+    private final List<LatencyHistogram> all = new ArrayList<>();
+
+    private final ThroughputMeter txMeter = new ThroughputMeter();
+    private final ThroughputMeter rxMeter = new ThroughputMeter();
+    private final AtomicLong writesFailed = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong atTimeouts = new AtomicLong();
+
+    public LinkMetrics() {
+        for (ConnectionStateMachine.State state : ConnectionStateMachine.State.values()) {
+            phases[state.ordinal()] = new LatencyHistogram("phase." + state.name().toLowerCase(Locale.US));
+        }
+        Collections.addAll(all, writeQueue, writeGatt, writeTotal, notifyInterval, notifyProcess, atRoundTrip, connectTotal);
+        for (ConnectionStateMachine.State state : new ConnectionStateMachine.State[]{ConnectionStateMachine.State.CONNECTING,
+                ConnectionStateMachine.State.MTU, ConnectionStateMachine.State.DISCOVERING, ConnectionStateMachine.State.SUBSCRIBING}) {
+            all.add(phases[state.ordinal()]);
+        }
+    }
+
+    public LatencyHistogram getWriteQueue() { return writeQueue; }
+    public LatencyHistogram getWriteGatt() { return writeGatt; }
+    public LatencyHistogram getWriteTotal() { return writeTotal; }
+    public LatencyHistogram getNotifyInterval() { return notifyInterval; }
+    public LatencyHistogram getNotifyProcess() { return notifyProcess; }
+    public LatencyHistogram getAtRoundTrip() { return atRoundTrip; }
+    public LatencyHistogram getConnectTotal() { return connectTotal; }
+    public LatencyHistogram getPhase(ConnectionStateMachine.State phase) { return phases[phase.ordinal()]; }
+    /** 所有输出到 dump/export 的直方图 */
+    public List<LatencyHistogram> getHistograms() { return Collections.unmodifiableList(all); }
+
+    /** 所有连接写出的字节 */
+    public ThroughputMeter getTxMeter() { return txMeter; }
+    /** 所有连接收到的通知字节 */
+    public ThroughputMeter getRxMeter() { return rxMeter; }
+    public long getWritesFailed() { return writesFailed.get(); }
+    public long getNotifications() { return notifications.get(); }
+    public long getAtTimeouts() { return atTimeouts.get(); }
+
+    /** 一次写操作结束；status 非0时只计失败数。三个时间点都来自 System.nanoTime() */
+    public void onWriteComplete(long enqueuedNanos, long startedNanos, long completedNanos, int bytes, boolean success) {
+        if (!success) { writesFailed.incrementAndGet(); return; }
+        writeQueue.recordNanos(startedNanos - enqueuedNanos);
+        writeGatt.recordNanos(completedNanos - startedNanos);
+        writeTotal.recordNanos(completedNanos - enqueuedNanos);
+        txMeter.add(bytes);
+    }
+
+    /** 一个通知处理完；intervalNanos 为和上一个通知的间隔，第一个通知传负数 */
+    public void onNotification(long intervalNanos, long processNanos, int bytes) {
+        notifications.incrementAndGet();
+        if (intervalNanos >= 0) notifyInterval.recordNanos(intervalNanos);
+        notifyProcess.recordNanos(processNanos);
+        rxMeter.add(bytes);
+    }
+
+    public void onAtTimeout() {
+        atTimeouts.incrementAndGet();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : phases) histogram.reset();
+        for (LatencyHistogram histogram : all) histogram.reset();
+        txMeter.reset();
+        rxMeter.reset();
+        writesFailed.set(0);
+        notifications.set(0);
+        atTimeouts.set(0);
+    }
+
+    /** 给人看的表格：每个直方图一行 (次数、最小、p50、p90、p99、p99.9、最大，微秒)，最后是吞吐和计数 */
+    public void dump(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-16s %8s %9s %9s %9s %9s %9s %9s%n", "us", "n", "min", "p50", "p90", "p99", "p99.9", "max"));
+        for (LatencyHistogram histogram : all) {
+            if (histogram.getCount() == 0) continue;
+            long[] p = histogram.getPercentilesNanos(PERCENTILES);
+            out.append(String.format(Locale.US, "%-16s %8d %9d %9d %9d %9d %9d %9d%n", histogram.getName(), histogram.getCount(),
+                    histogram.getMinNanos() / 1000, p[0] / 1000, p[1] / 1000, p[2] / 1000, p[3] / 1000, histogram.getMaxNanos() / 1000));
+        }
+        out.append(String.format(Locale.US, "TX %d B (%.1f KB/s, 写失败 %d)  RX %d B (%.1f KB/s, 通知 %d)  AT超时 %d%n",
+                txMeter.getTotalBytes(), txMeter.getBytesPerSecond() / 1024.0, writesFailed.get(),
+                rxMeter.getTotalBytes(), rxMeter.getBytesPerSecond() / 1024.0, notifications.get(), atTimeouts.get()));
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringBuilder 不会抛
+        }
+        return sb.toString();
+    }
+
+    /** CSV：metric,count,min_us,mean_us,p50_us,p90_us,p99_us,p999_us,max_us，计数类指标只填 count 列 */
+    public void exportCsv(Appendable out) throws IOException {
+        out.append("metric,count,min_us,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+        for (LatencyHistogram histogram : all) {
+            long[] p = histogram.getPercentilesNanos(PERCENTILES);
+            out.append(histogram.getName()).append(',').append(Long.toString(histogram.getCount()));
+            out.append(',').append(Long.toString(histogram.getMinNanos() / 1000));
+            out.append(',').append(Long.toString(histogram.getMeanNanos() / 1000));
+            for (long value : p) out.append(',').append(Long.toString(value / 1000));
+            out.append(',').append(Long.toString(histogram.getMaxNanos() / 1000)).append('\n');
+        }
+        out.append("tx.bytes,").append(Long.toString(txMeter.getTotalBytes())).append(",,,,,,,\n");
+        out.append("rx.bytes,").append(Long.toString(rxMeter.getTotalBytes())).append(",,,,,,,\n");
+        out.append("write.failed,").append(Long.toString(writesFailed.get())).append(",,,,,,,\n");
+        out.append("notify.count,").append(Long.toString(notifications.get())).append(",,,,,,,\n");
+        out.append("at.timeouts,").append(Long.toString(atTimeouts.get())).append(",,,,,,,\n");
+    }
+}
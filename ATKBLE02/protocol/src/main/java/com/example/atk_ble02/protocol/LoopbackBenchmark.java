@@ -0,0 +1,376 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端回环测试：按包写入 totalBytes 字节的测试图案，模块处于透传模式且串口TX/RX短接 (或固件回显) 时，
+ * 从通知收回同样的字节并逐字节校验，统计上行/下行速率、丢包、损坏和每个包的往返时间 (RTT)。
+ * <p>
+ * 每个包以4字节序号 (大端) 开头，后面是图案；回显可以被模块按任意边界重新切包，
+ * 接收端按字节流重组：序号跳过的包记为丢失，序号非法或内容不符的包记为损坏。
+ * RTT 从调用 write 到这个包的最后一个字节回到手机。
+ * <p>
+ * 最多 maxInFlight 个包同时在途，和 TransportSender 一样由写完成回调补发。全部写完后，
+ * 回显在 echoTimeout 内没有新数据 (或最后一个包已回来) 即结束。每个实例只能运行一次。
+ * 回调线程同 BleTransport；Listener 在写完成、接收或计时线程上调用一次。
+ */
+public class LoopbackBenchmark {
+
+    public static final int HEADER_SIZE = 4;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final long DEFAULT_ECHO_TIMEOUT_MS = 2000;
+
+    public enum Pattern {
+        /** 按流偏移递增 (0x00..0xFF 循环)，错位一眼可见 */
+        INCREMENT,
+        /** 伪随机，不可压缩，容易暴露比特错误 */
+        RANDOM,
+        ZEROS,
+        ONES
+    }
+
+    public interface Listener {
+        void onFinished(LoopbackBenchmark benchmark, Result result);
+    }
+
+    private final BleTransport transport;
+    private final ScheduledExecutorService scheduler;
+    private final Object writeLock = new Object(); // 取序号和写出要一起完成，否则两个线程同时 pump 时包会乱序上行
+
+    private String label = "";
+    private Pattern pattern = Pattern.INCREMENT;
+    private byte[] customPattern;
+    private long totalBytes = 16 * 1024;
+    private int maxMtu = PayloadFragmenter.MAX_MTU;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long echoTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_ECHO_TIMEOUT_MS);
+    private boolean expectEcho = true;
+
+    private Listener listener;
+    private boolean started;
+    private boolean finished;
+    private int failStatus = BleTransport.STATUS_SUCCESS;
+    private int mtu;
+    private int packetSize;
+    private int packetCount;
+    private long[] sentNanos;
+    private int nextSeq;
+    private int inFlight;
+    private int packetsWritten;
+    private long bytesWritten;
+    private long startNanos;
+    private long lastWriteNanos;
+    private long lastActivityNanos;
+    private ScheduledFuture<?> idleTimer;
+    private final LatencyHistogram rtt = new LatencyHistogram("loopback.rtt");
+
+    // 接收方：按字节流重组包
+    private int headerValue;
+    private int headerFill;
+    private int rxSeq;
+    private int rxSize;
+    private int rxPosition;
+    private boolean rxValid;
+    private int nextExpected;
+    private int packetsEchoed;
+    private int packetsCorrupt;
+    private long bytesEchoed;
+    private long lastEchoNanos;
+
+    public LoopbackBenchmark(BleTransport transport, ScheduledExecutorService scheduler) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+    }
+
+    /** 结果里的标签，例如 "均衡/NO_RESPONSE/MTU247" */
+    public synchronized void setLabel(String label) { this.label = label; }
+    public synchronized void setPattern(Pattern pattern) { this.pattern = pattern; }
+    /** 循环使用的自定义图案 (例如现场抓到的出错数据)，null 恢复 setPattern 的图案 */
+    public synchronized void setCustomPattern(byte[] customPattern) {
+        this.customPattern = customPattern == null || customPattern.length == 0 ? null : customPattern.clone();
+    }
+    /** 写出的总字节数 (包括每包的序号头) */
+    public synchronized void setTotalBytes(long totalBytes) { this.totalBytes = Math.max(HEADER_SIZE, totalBytes); }
+    /** 按不超过这个MTU的单包负载切包，用来在已协商的大MTU上比较小MTU的表现；实际取和链路MTU的较小值 */
+    public synchronized void setMaxMtu(int maxMtu) { this.maxMtu = maxMtu; }
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be >= 1");
+        this.maxInFlight = maxInFlight;
+    }
+    public synchronized void setEchoTimeout(long timeout, TimeUnit unit) { echoTimeoutNanos = unit.toNanos(timeout); }
+    /** false 时只测上行 (模块不回显)，写完即结束 */
+    public synchronized void setExpectEcho(boolean expectEcho) { this.expectEcho = expectEcho; }
+
+    public synchronized boolean isRunning() {
+        return started && !finished;
+    }
+
+    /** 开始测试，未连接或已启动过时返回false */
+    public boolean start(Listener listener) {
+        synchronized (this) {
+            if (started || !transport.isConnected()) return false;
+            started = true;
+            this.listener = listener;
+            mtu = Math.max(PayloadFragmenter.DEFAULT_MTU, Math.min(maxMtu, transport.getMtu()));
+            packetSize = PayloadFragmenter.maxChunkSize(mtu);
+            packetCount = (int) ((totalBytes + packetSize - 1) / packetSize);
+            sentNanos = new long[packetCount];
+            startNanos = System.nanoTime();
+            lastActivityNanos = startNanos;
+        }
+        if (expectEcho) transport.setReceiver(this::onReceive);
+        pump();
+        return true;
+    }
+
+    /** 结束测试，以 STATUS_CANCELLED 报告已有的统计 */
+    public void cancel() {
+        synchronized (this) {
+            if (!started || finished) return;
+            failStatus = BleTransport.STATUS_CANCELLED;
+        }
+        finish();
+    }
+
+    // 开始时在调用线程上、之后在写完成回调上调用
+    private void pump() {
+        while (true) {
+            byte[] packet;
+            synchronized (writeLock) {
+                synchronized (this) {
+                    if (finished || failStatus != BleTransport.STATUS_SUCCESS || nextSeq >= packetCount || inFlight >= maxInFlight) return;
+                    int seq = nextSeq++;
+                    inFlight++;
+                    packet = buildPacket(seq);
+                    sentNanos[seq] = System.nanoTime();
+                }
+                if (transport.write(packet, status -> onWritten(packet.length, status))) continue;
+            }
+            onWritten(packet.length, BleTransport.STATUS_NOT_CONNECTED);
+        }
+    }
+
+    private void onWritten(int length, int status) {
+        boolean done;
+        synchronized (this) {
+            inFlight--;
+            if (finished) return;
+            long now = System.nanoTime();
+            if (status == BleTransport.STATUS_SUCCESS) {
+                packetsWritten++;
+                bytesWritten += length;
+                lastWriteNanos = now;
+                lastActivityNanos = now;
+            } else if (failStatus == BleTransport.STATUS_SUCCESS) {
+                failStatus = status;
+            }
+            boolean allWritten = packetsWritten == packetCount;
+            done = failStatus != BleTransport.STATUS_SUCCESS || (allWritten && (!expectEcho || nextExpected == packetCount));
+            if (!done && allWritten) scheduleIdleCheck(echoTimeoutNanos);
+        }
+        if (done) finish();
+        else pump();
+    }
+
+    // 接收线程上按顺序调用
+    private void onReceive(byte[] data, int offset, int length) {
+        boolean done;
+        synchronized (this) {
+            if (finished) return;
+            long now = System.nanoTime();
+            lastActivityNanos = now;
+            for (int i = offset; i < offset + length; i++) {
+                if (headerFill < HEADER_SIZE) {
+                    headerValue = (headerValue << 8) | (data[i] & 0xFF);
+                    if (++headerFill == HEADER_SIZE) beginPacket(headerValue);
+                    else continue;
+                } else {
+                    if (rxValid && data[i] != patternByte(rxSeq, rxPosition)) rxValid = false;
+                    rxPosition++;
+                }
+                if (rxPosition == rxSize) endPacket(now);
+            }
+            done = packetsWritten == packetCount && nextExpected == packetCount;
+        }
+        if (done) finish();
+    }
+
+    private void beginPacket(int seq) {
+        rxValid = seq >= nextExpected && seq < nextSeq; // 还没发出的序号不可能回来
+        rxSeq = rxValid ? seq : -1;
+        rxSize = rxValid ? sizeOf(seq) : packetSize; // 序号坏了只能假定是整包
+        rxPosition = HEADER_SIZE;
+    }
+
+    private void endPacket(long now) {
+        if (rxValid) {
+            packetsEchoed++;
+            bytesEchoed += rxSize;
+            lastEchoNanos = now;
+            rtt.recordNanos(now - sentNanos[rxSeq]);
+            nextExpected = rxSeq + 1;
+        } else {
+            packetsCorrupt++;
+        }
+        headerFill = 0;
+        headerValue = 0;
+    }
+
+    private void scheduleIdleCheck(long delayNanos) {
+        if (idleTimer != null) idleTimer.cancel(false);
+        idleTimer = scheduler.schedule(this::onIdleCheck, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void onIdleCheck() {
+        synchronized (this) {
+            if (finished) return;
+            long idle = System.nanoTime() - lastActivityNanos;
+            if (idle < echoTimeoutNanos) { scheduleIdleCheck(echoTimeoutNanos - idle); return; }
+        }
+        finish();
+    }
+
+    private void finish() {
+        Result result;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            if (idleTimer != null) idleTimer.cancel(false);
+            result = new Result(this);
+        }
+        if (expectEcho) transport.setReceiver(null);
+        listener.onFinished(this, result);
+    }
+
+    private int sizeOf(int seq) {
+        return seq < packetCount - 1 ? packetSize : (int) Math.max(HEADER_SIZE, totalBytes - (long) seq * packetSize);
+    }
+
+    private byte[] buildPacket(int seq) {
+        byte[] packet = new byte[sizeOf(seq)];
+        packet[0] = (byte) (seq >>> 24);
+        packet[1] = (byte) (seq >>> 16);
+        packet[2] = (byte) (seq >>> 8);
+        packet[3] = (byte) seq;
+        for (int i = HEADER_SIZE; i < packet.length; i++) packet[i] = patternByte(seq, i);
+        return packet;
+    }
+
+    // 图案按去掉序号头后的流偏移生成，和切包方式无关
+    private byte patternByte(int seq, int position) {
+        long offset = (long) seq * (packetSize - HEADER_SIZE) + position - HEADER_SIZE;
+        if (customPattern != null) return customPattern[(int) (offset % customPattern.length)];
+        switch (pattern) {
+            case RANDOM: return (byte) mix(offset);
+            case ZEROS: return 0;
+            case ONES: return (byte) 0xFF;
+            default: return (byte) offset;
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** 一次测试的结果，创建后不再变化 */
+    public static final class Result {
+
+        public static final String CSV_HEADER = "label,mtu,packet_size,status,packets,written,echoed,lost,corrupt,"
+                + "bytes_written,bytes_echoed,up_Bps,down_Bps,loss_pct,rtt_min_us,rtt_p50_us,rtt_p90_us,rtt_p99_us,rtt_max_us,elapsed_ms";
+
+        private final String label;
+        private final int mtu;
+        private final int packetSize;
+        private final int status;
+        private final int packets;
+        private final int packetsWritten;
+        private final int packetsEchoed;
+        private final int packetsLost;
+        private final int packetsCorrupt;
+        private final long bytesWritten;
+        private final long bytesEchoed;
+        private final double uplinkBytesPerSecond;
+        private final double downlinkBytesPerSecond;
+        private final long elapsedNanos;
+        private final boolean echoMeasured;
+        private final LatencyHistogram rtt;
+
+        // 在 benchmark 的锁内调用
+        private Result(LoopbackBenchmark b) {
+            label = b.label;
+            mtu = b.mtu;
+            packetSize = b.packetSize;
+            status = b.failStatus;
+            packets = b.packetCount;
+            packetsWritten = b.packetsWritten;
+            packetsEchoed = b.packetsEchoed;
+            packetsCorrupt = b.packetsCorrupt;
+            packetsLost = b.expectEcho ? Math.max(0, b.packetsWritten - b.packetsEchoed - b.packetsCorrupt) : 0;
+            bytesWritten = b.bytesWritten;
+            bytesEchoed = b.bytesEchoed;
+            uplinkBytesPerSecond = rate(b.bytesWritten, b.lastWriteNanos - b.startNanos);
+            downlinkBytesPerSecond = rate(b.bytesEchoed, b.lastEchoNanos - b.startNanos);
+            elapsedNanos = System.nanoTime() - b.startNanos;
+            echoMeasured = b.expectEcho;
+            rtt = b.rtt;
+        }
+
+        private static double rate(long bytes, long nanos) {
+            return bytes > 0 && nanos > 0 ? bytes * 1e9 / nanos : 0;
+        }
+
+        public String getLabel() { return label; }
+        /** 切包用的MTU (不超过链路MTU) */
+        public int getMtu() { return mtu; }
+        public int getPacketSize() { return packetSize; }
+        /** STATUS_SUCCESS，或第一个失败的写的状态码，取消时为 STATUS_CANCELLED */
+        public int getStatus() { return status; }
+        public int getPackets() { return packets; }
+        public int getPacketsWritten() { return packetsWritten; }
+        public int getPacketsEchoed() { return packetsEchoed; }
+        /** 已写出但没有回来的包 (不算损坏的包)；不测回显时为0 */
+        public int getPacketsLost() { return packetsLost; }
+        public int getPacketsCorrupt() { return packetsCorrupt; }
+        public long getBytesWritten() { return bytesWritten; }
+        public long getBytesEchoed() { return bytesEchoed; }
+        /** 从开始到最后一个写完成 */
+        public double getUplinkBytesPerSecond() { return uplinkBytesPerSecond; }
+        /** 从开始到最后一个回显包，回显受串口波特率限制 */
+        public double getDownlinkBytesPerSecond() { return downlinkBytesPerSecond; }
+        public long getElapsedNanos() { return elapsedNanos; }
+        public LatencyHistogram getRtt() { return rtt; }
+
+        /** 丢失和损坏的包占已写出的比例，0 到 1 */
+        public double getLossRate() {
+            return packetsWritten == 0 ? 0 : (packetsLost + packetsCorrupt) / (double) packetsWritten;
+        }
+
+        public void appendCsv(Appendable out) throws IOException {
+            long[] p = rtt.getPercentilesNanos(new double[]{50, 90, 99});
+            out.append(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.0f,%.0f,%.3f,%d,%d,%d,%d,%d,%d%n",
+                    label, mtu, packetSize, status, packets, packetsWritten, packetsEchoed, packetsLost, packetsCorrupt,
+                    bytesWritten, bytesEchoed, uplinkBytesPerSecond, downlinkBytesPerSecond, getLossRate() * 100,
+                    rtt.getMinNanos() / 1000, p[0] / 1000, p[1] / 1000, p[2] / 1000, rtt.getMaxNanos() / 1000, elapsedNanos / 1_000_000L));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(label).append(String.format(Locale.US, " 包长%d: ↑ %.1f KB/s", packetSize, uplinkBytesPerSecond / 1024));
+            if (echoMeasured) {
+                sb.append(String.format(Locale.US, ", ↓ %.1f KB/s, 丢包 %d/%d (%.2f%%), 损坏 %d, RTT p50 %.1fms p99 %.1fms",
+                        downlinkBytesPerSecond / 1024, packetsLost, packetsWritten, getLossRate() * 100, packetsCorrupt,
+                        rtt.getPercentileNanos(50) / 1e6, rtt.getPercentileNanos(99) / 1e6));
+            }
+            if (status != BleTransport.STATUS_SUCCESS) sb.append(", 状态 ").append(status);
+            return sb.toString();
+        }
+    }
+}
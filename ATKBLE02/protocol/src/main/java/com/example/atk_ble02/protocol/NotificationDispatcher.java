@@ -0,0 +1,90 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.Arrays;
+
+/**
+ * 按阶段依次把通知交给监听者，同一阶段按加入顺序；某个监听者消费后，后面的都不再看到这条数据。
+ * 录制、可靠模式、遥测等功能各自挂一个监听者，连接本身只负责调用 dispatch*()。
+ * <p>
+ * 监听者列表写时复制：add/remove 可在任意线程调用，dispatch*() 在接收线程上无锁遍历、不分配。
+ * 移除立即生效，正在进行的分发也不会再调用已移除的监听者 (包括监听者在回调里移除自己或别人)。
+ */
+public class NotificationDispatcher {
+
+    /** 只旁听、不消费 (录制、导出、BleTransport 的接收者)，最先看到通知 */
+    public static final int STAGE_CAPTURE = 0;
+    /** 独占链路的测试 (回环测试)，运行期间消费所有通知 */
+    public static final int STAGE_EXCLUSIVE = 1;
+    /** 替换行解码的协议 (可靠通道、二进制遥测) */
+    public static final int STAGE_PROTOCOL = 2;
+
+    private static final class Registration {
+        final int stage;
+        final NotificationListener listener;
+        volatile boolean removed;
+
+        Registration(int stage, NotificationListener listener) {
+            this.stage = stage;
+            this.listener = listener;
+        }
+    }
+
+    private volatile Registration[] registrations = new Registration[0];
+
+    public synchronized void add(int stage, NotificationListener listener) {
+        Registration[] current = registrations;
+        int index = current.length;
+        while (index > 0 && current[index - 1].stage > stage) index--;
+        Registration[] updated = new Registration[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        updated[index] = new Registration(stage, listener);
+        System.arraycopy(current, index, updated, index + 1, current.length - index);
+        registrations = updated;
+    }
+
+    /** 没有挂上时什么都不做 */
+    public synchronized void remove(NotificationListener listener) {
+        Registration[] current = registrations;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].listener != listener) continue;
+            current[i].removed = true;
+            Registration[] updated = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+            registrations = updated;
+            return;
+        }
+    }
+
+    /** 第一个属于 type 的监听者，没有时返回null；用于找到挂在连接上的某个功能 */
+    public <T extends NotificationListener> T find(Class<T> type) {
+        for (Registration registration : registrations) {
+            if (type.isInstance(registration.listener)) return type.cast(registration.listener);
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return registrations.length == 0;
+    }
+
+    /** 返回true表示被某个监听者消费 */
+    public boolean dispatchNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+        for (Registration registration : registrations) {
+            if (!registration.removed && registration.listener.onNotification(buffer, offset, length, timestampNanos, replayed)) return true;
+        }
+        return false;
+    }
+
+    public boolean dispatchFrame(byte[] buffer, int offset, int length, long timestampNanos) {
+        for (Registration registration : registrations) {
+            if (!registration.removed && registration.listener.onFrame(buffer, offset, length, timestampNanos)) return true;
+        }
+        return false;
+    }
+
+    public void dispatchLinkReset() {
+        for (Registration registration : registrations) {
+            if (!registration.removed) registration.listener.onLinkReset();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 接收路径上的一环，挂在 NotificationDispatcher 上 (见它的阶段说明)。回调都在接收线程上按到达顺序调用，
+ * buffer 只在本次调用期间有效；返回true表示已消费，后面的监听者和行解码不再看到这条数据。
+ */
+public interface NotificationListener {
+
+    /** 原始通知 (解码前)；replayed 为 true 时来自会话回放 */
+    boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed);
+
+    /** 行解码出的帧，在AT引擎和帧订阅者之前 */
+    default boolean onFrame(byte[] buffer, int offset, int length, long timestampNanos) {
+        return false;
+    }
+
+    /** 连接断开或关闭，半条数据和在途的请求都要丢弃 */
+    default void onLinkReset() {
+    }
+}
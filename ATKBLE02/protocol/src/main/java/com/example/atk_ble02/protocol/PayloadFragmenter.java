@@ -0,0 +1,49 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按协商后的MTU把负载切成 (MTU-3) 字节的分片。
+ * ATT写请求头占3字节；单个属性值最长512字节，所以MTU为517时分片上限仍是512。
+ */
+public final class PayloadFragmenter {
+
+    public static final int ATT_HEADER_SIZE = 3;
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+    public static final int MAX_ATTRIBUTE_LENGTH = 512;
+
+    private PayloadFragmenter() {}
+
+    /** 单个分片的最大字节数 */
+    public static int maxChunkSize(int mtu) {
+        int clamped = Math.max(DEFAULT_MTU, Math.min(mtu, MAX_MTU));
+        return Math.min(clamped - ATT_HEADER_SIZE, MAX_ATTRIBUTE_LENGTH);
+    }
+
+    public static int chunkCount(int length, int mtu) {
+        if (length <= 0) return 0;
+        int chunkSize = maxChunkSize(mtu);
+        return (length + chunkSize - 1) / chunkSize;
+    }
+
+    public static List<byte[]> split(byte[] data, int mtu) {
+        return split(data, 0, data.length, mtu);
+    }
+
+    public static List<byte[]> split(byte[] data, int offset, int length, int mtu) {
+        int chunkSize = maxChunkSize(mtu);
+        List<byte[]> chunks = new ArrayList<>(chunkCount(length, mtu));
+        if (offset == 0 && length == data.length && length <= chunkSize) {
+            if (length > 0) chunks.add(data);
+            return chunks;
+        }
+        int end = offset + length;
+        for (int position = offset; position < end; position += chunkSize) {
+            chunks.add(Arrays.copyOfRange(data, position, Math.min(position + chunkSize, end)));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者单消费者的变长记录字节环，每条记录为 streamId u16 | length u16 | timestampNanos i64 | 字节[length]，
+ * 小记录不会占用整条最大长度的空间。tail 只由 offer() 推进，head 只由 poll()/skip() 推进，两边都不加锁；
+ * 容量向上取整为2的幂以便用位运算取模。
+ */
+final class RecordRing {
+
+    static final int HEADER_SIZE = 12;
+
+    private final byte[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // 最近一次 poll() 取出的记录头，只在消费者一侧访问
+    private int streamId;
+    private long timestampNanos;
+
+    RecordRing(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        ring = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    /** 等待读出的字节数 (含记录头) */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /** 生产者调用：复制一条记录进环，剩余空间放不下时返回false；length 最大65535 */
+    boolean offer(int streamId, long timestampNanos, byte[] data, int offset, int length) {
+        long t = tail.get();
+        int size = HEADER_SIZE + length;
+        if (t + size - head.get() > ring.length) return false;
+        putShort(t, streamId);
+        putShort(t + 2, length);
+        for (int i = 0; i < 8; i++) ring[(int) ((t + 4 + i) & mask)] = (byte) (timestampNanos >>> (56 - 8 * i));
+        int start = (int) ((t + HEADER_SIZE) & mask);
+        int first = Math.min(length, ring.length - start);
+        System.arraycopy(data, offset, ring, start, first);
+        System.arraycopy(data, offset + first, ring, 0, length - first);
+        tail.lazySet(t + size);
+        return true;
+    }
+
+    /** 消费者调用：把最旧的一条记录复制到 dst 并让出它的空间，返回长度；环为空时返回-1 */
+    int poll(byte[] dst) {
+        long h = head.get();
+        if (h == tail.get()) return -1;
+        streamId = getShort(h);
+        int length = getShort(h + 2);
+        long timestamp = 0;
+        for (int i = 0; i < 8; i++) timestamp = (timestamp << 8) | (ring[(int) ((h + 4 + i) & mask)] & 0xFF);
+        timestampNanos = timestamp;
+        int from = (int) ((h + HEADER_SIZE) & mask);
+        int first = Math.min(length, ring.length - from);
+        System.arraycopy(ring, from, dst, 0, first);
+        System.arraycopy(ring, 0, dst, first, length - first);
+        head.lazySet(h + HEADER_SIZE + length);
+        return length;
+    }
+
+    /** 最近一次 poll() 取出的记录的流编号 */
+    int getStreamId() {
+        return streamId;
+    }
+
+    /** 最近一次 poll() 取出的记录的时间戳 */
+    long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * 丢弃最旧的一条记录，环为空时返回false。会推进 head，只能在消费者一侧调用，
+     * 或者由生产者在和消费者共用的锁下调用 (FramePublisher 的 DROP_OLDEST)。
+     */
+    boolean skip() {
+        long h = head.get();
+        if (h == tail.get()) return false;
+        head.lazySet(h + HEADER_SIZE + getShort(h + 2));
+        return true;
+    }
+
+    /** 丢弃全部记录，调用限制同 skip() */
+    void clear() {
+        head.lazySet(tail.get());
+    }
+
+    private void putShort(long position, int value) {
+        ring[(int) (position & mask)] = (byte) (value >>> 8);
+        ring[(int) ((position + 1) & mask)] = (byte) value;
+    }
+
+    private int getShort(long position) {
+        return ((ring[(int) (position & mask)] & 0xFF) << 8) | (ring[(int) ((position + 1) & mask)] & 0xFF);
+    }
+}
@@ -0,0 +1,480 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分帧可靠传输 (两端对等，模块固件实现同样的协议)：消息按单帧负载切成带序号和CRC的数据帧，
+ * 用不等待应答的写类型连续发出，最多 WINDOW 帧未确认。接收方按序号重组，
+ * 定期回复 累计确认 + 之后64帧的接收位图；发送方只重传位图中的空洞：
+ * 比某个已确认帧更早发出却仍未确认的帧视为丢失，立即重传，不必等超时。
+ * 整个尾部 (包括确认帧) 都丢失时由重传超时 (RTO，按RTT估计) 兜底。
+ * <p>
+ * 丢包只损失单个帧的重传时间，而带应答写每个包都要等一个往返，所以在干扰下有效吞吐仍明显更高。
+ * <p>
+ * 收到的包通过 onReceive() 喂进来，必须在同一个线程上按顺序调用；其余方法可在任意线程调用。
+ * MessageListener 和发送完成回调在接收线程、传输线程或计时线程上执行。
+ */
+public class ReliableChannel {
+
+    public static final int WINDOW = 64;
+    public static final int DEFAULT_WRITE_CREDITS = 4;
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+    private static final int ACK_EVERY = 8;
+    private static final long ACK_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+    private static final long MAX_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+    private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    public interface MessageListener {
+        void onMessage(byte[] message);
+    }
+
+    private final BleTransport transport;
+    private final ScheduledExecutorService scheduler;
+    private final BinaryFrameCodec.Decoder decoder;
+    private final int writeCredits;
+    private volatile MessageListener listener;
+    private int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+
+    // 发送方
+    private final TxFrame[] txWindow = new TxFrame[WINDOW];
+    private final ArrayDeque<TxFrame> txBacklog = new ArrayDeque<>(); // 等待窗口空位的分片
+    private final ArrayDeque<TxFrame> sendQueue = new ArrayDeque<>(); // 待写入 (新帧和重传)
+    private byte[] pendingAck;
+    private int txBase;
+    private int txNext;
+    private int creditsInUse;
+    private long srttNanos;
+    private long rttVarNanos;
+    private long rtoNanos = INITIAL_RTO_NANOS;
+    private ScheduledFuture<?> rtoTimer;
+    private boolean emitting;
+    private boolean closed;
+
+    // 接收方
+    private final byte[][] rxSlots = new byte[WINDOW][];
+    private final boolean[] rxEnd = new boolean[WINDOW];
+    private int rxExpected;
+    private byte[] rxMessage = new byte[256];
+    private int rxMessageLength;
+    private boolean rxDiscarding; // 当前消息超长，丢弃到结束帧为止
+    private int framesSinceAck;
+    private ScheduledFuture<?> ackTimer;
+
+    private long framesSent;
+    private long retransmissions;
+    private long acksSent;
+    private long duplicates;
+    private long deliveredBytes;
+    private long oversizedMessages;
+
+    public ReliableChannel(BleTransport transport, ScheduledExecutorService scheduler) {
+        this(transport, scheduler, DEFAULT_WRITE_CREDITS);
+    }
+
+    /** writeCredits 为同时交给传输层的最大包数 (不影响确认窗口) */
+    public ReliableChannel(BleTransport transport, ScheduledExecutorService scheduler, int writeCredits) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.writeCredits = writeCredits;
+        this.decoder = new BinaryFrameCodec.Decoder(PayloadFragmenter.MAX_ATTRIBUTE_LENGTH - BinaryFrameCodec.OVERHEAD, this::onFrame);
+    }
+
+    public void setMessageListener(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    /** 对端一直不发结束帧时重组缓冲区不会超过这个长度，超长的消息整条丢弃并计数 */
+    public synchronized void setMaxMessageLength(int maxMessageLength) {
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    public void send(byte[] message, BleTransport.WriteCallback done) {
+        send(message, 0, message.length, done);
+    }
+
+    /** 排队一条消息，done 在所有分片都被对端确认后以 STATUS_SUCCESS 回调，关闭或断开时以错误码回调 */
+    public void send(byte[] message, int offset, int length, BleTransport.WriteCallback done) {
+        if (!transport.isConnected()) { done.onWriteComplete(BleTransport.STATUS_NOT_CONNECTED); return; }
+        int maxPayload = BinaryFrameCodec.maxPayload(transport.getMtu());
+        int count = Math.max(1, (length + maxPayload - 1) / maxPayload);
+        Message msg = new Message(count, done);
+        synchronized (this) {
+            if (closed) { done.onWriteComplete(BleTransport.STATUS_CANCELLED); return; }
+            for (int i = 0; i < count; i++) {
+                int start = offset + i * maxPayload;
+                int end = Math.min(start + maxPayload, offset + length);
+                txBacklog.addLast(new TxFrame(Arrays.copyOfRange(message, start, end), i == count - 1, msg));
+            }
+            fillWindow();
+        }
+        pump();
+    }
+
+    /** 把收到的包 (通知) 交给解帧器 */
+    public void onReceive(byte[] data, int offset, int length) {
+        decoder.feed(data, offset, length);
+    }
+
+    /** 停止计时并以 STATUS_CANCELLED 结束所有未确认的消息 */
+    public void close() {
+        List<Message> cancelled = new ArrayList<>();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (rtoTimer != null) rtoTimer.cancel(false);
+            if (ackTimer != null) ackTimer.cancel(false);
+            for (TxFrame frame : txWindow) if (frame != null && frame.message.done()) cancelled.add(frame.message);
+            for (TxFrame frame : txBacklog) if (frame.message.done()) cancelled.add(frame.message);
+            Arrays.fill(txWindow, null);
+            txBacklog.clear();
+            sendQueue.clear();
+        }
+        for (Message msg : cancelled) msg.callback.onWriteComplete(BleTransport.STATUS_CANCELLED);
+    }
+
+    public synchronized long getFramesSent() { return framesSent; }
+    public synchronized long getRetransmissions() { return retransmissions; }
+    public synchronized long getAcksSent() { return acksSent; }
+    public synchronized long getDuplicates() { return duplicates; }
+    public synchronized long getDeliveredBytes() { return deliveredBytes; }
+    public synchronized long getOversizedMessages() { return oversizedMessages; }
+    public synchronized long getRtoMillis() { return TimeUnit.NANOSECONDS.toMillis(rtoNanos); }
+    public synchronized int getUnacknowledged() { return seqDiff(txNext, txBase) + txBacklog.size(); }
+    public long getCrcErrors() { return decoder.getCrcErrors(); }
+
+    // 序号按16位回绕比较
+    private static int seqDiff(int a, int b) {
+        return (short) (a - b);
+    }
+
+    private void onFrame(int type, int seq, byte[] buffer, int offset, int length) {
+        if (type == BinaryFrameCodec.TYPE_ACK) {
+            if (length < 10) return;
+            long bitmap = 0;
+            for (int i = 0; i < 8; i++) bitmap = (bitmap << 8) | (buffer[offset + 2 + i] & 0xFF);
+            onAck(BinaryFrameCodec.readU16(buffer, offset), bitmap);
+        } else {
+            onData(seq, type == BinaryFrameCodec.TYPE_DATA_END, buffer, offset, length);
+        }
+    }
+
+    // ---- 发送方 ----
+
+    private void fillWindow() {
+        while (!txBacklog.isEmpty() && seqDiff(txNext, txBase) < WINDOW) {
+            TxFrame frame = txBacklog.pollFirst();
+            frame.seq = txNext;
+            frame.packet = BinaryFrameCodec.encode(frame.end ? BinaryFrameCodec.TYPE_DATA_END : BinaryFrameCodec.TYPE_DATA,
+                    frame.seq, frame.payload, 0, frame.payload.length);
+            txWindow[frame.seq % WINDOW] = frame;
+            txNext = (txNext + 1) & 0xFFFF;
+            frame.queued = true;
+            sendQueue.addLast(frame);
+        }
+    }
+
+    // 同一时刻只有一个线程在发 (emitting)：在锁外调用 transport.write，顺序仍与出队顺序一致，
+    // 否则两个线程各取一帧后可能颠倒写入，接收方看到乱序会触发多余的重传
+    private void pump() {
+        synchronized (this) {
+            if (emitting) return;
+            emitting = true;
+        }
+        while (true) {
+            byte[] packet;
+            synchronized (this) {
+                packet = nextPacket();
+                if (packet == null) {
+                    emitting = false;
+                    return;
+                }
+                creditsInUse++;
+            }
+            if (!transport.write(packet, status -> onWritten())) {
+                synchronized (this) {
+                    creditsInUse--;
+                    emitting = false;
+                }
+                if (!transport.isConnected()) { close(); return; }
+                // 包过大 (MTU变小)：不重试，等RTO
+                return;
+            }
+        }
+    }
+
+    // 持锁调用，没有可发的包或没有写配额时返回null
+    private byte[] nextPacket() {
+        while (!closed && creditsInUse < writeCredits) {
+            if (pendingAck != null) {
+                byte[] packet = pendingAck;
+                pendingAck = null;
+                acksSent++;
+                return packet;
+            }
+            TxFrame frame = sendQueue.pollFirst();
+            if (frame == null) return null;
+            frame.queued = false;
+            if (frame.acked) continue;
+            if (frame.transmissions++ > 0) retransmissions++;
+            frame.lastSentNanos = System.nanoTime();
+            framesSent++;
+            if (rtoTimer == null) scheduleRto();
+            return frame.packet;
+        }
+        return null;
+    }
+
+    private void onWritten() {
+        synchronized (this) {
+            creditsInUse--;
+        }
+        pump();
+    }
+
+    private void onAck(int cumulative, long bitmap) {
+        List<Message> completed = null;
+        synchronized (this) {
+            if (closed) return;
+            if (seqDiff(cumulative, txBase) < 0 || seqDiff(txNext, cumulative) < 0) return; // 过期或无效的确认
+            long now = System.nanoTime();
+            long newestAckedSent = 0;
+            while (seqDiff(cumulative, txBase) > 0) {
+                TxFrame frame = txWindow[txBase % WINDOW];
+                txWindow[txBase % WINDOW] = null;
+                txBase = (txBase + 1) & 0xFFFF;
+                if (frame == null || frame.acked) continue;
+                newestAckedSent = Math.max(newestAckedSent, frame.lastSentNanos);
+                completed = acknowledge(frame, now, completed);
+            }
+            for (int i = 0; i < 64 && bitmap != 0; i++) {
+                if ((bitmap & (1L << (63 - i))) == 0) continue;
+                int seq = (cumulative + 1 + i) & 0xFFFF;
+                if (seqDiff(txNext, seq) <= 0) break;
+                TxFrame frame = txWindow[seq % WINDOW];
+                if (frame == null || frame.seq != seq || frame.acked) continue;
+                newestAckedSent = Math.max(newestAckedSent, frame.lastSentNanos);
+                completed = acknowledge(frame, now, completed);
+            }
+            // 比刚确认的帧更早发出却仍未确认：已丢失，立即重传
+            if (newestAckedSent > 0) {
+                List<TxFrame> lost = null;
+                for (int seq = txBase; seqDiff(txNext, seq) > 0; seq = (seq + 1) & 0xFFFF) {
+                    TxFrame frame = txWindow[seq % WINDOW];
+                    if (frame == null || frame.acked || frame.queued || frame.transmissions == 0) continue;
+                    if (frame.lastSentNanos >= newestAckedSent) continue;
+                    if (lost == null) lost = new ArrayList<>();
+                    lost.add(frame);
+                }
+                if (lost != null) {
+                    for (int i = lost.size() - 1; i >= 0; i--) {
+                        lost.get(i).queued = true;
+                        sendQueue.addFirst(lost.get(i));
+                    }
+                }
+            }
+            fillWindow();
+            if (seqDiff(txNext, txBase) == 0 && rtoTimer != null) {
+                rtoTimer.cancel(false);
+                rtoTimer = null;
+            }
+        }
+        if (completed != null) {
+            for (Message msg : completed) msg.callback.onWriteComplete(BleTransport.STATUS_SUCCESS);
+        }
+        pump();
+    }
+
+    private List<Message> acknowledge(TxFrame frame, long now, List<Message> completed) {
+        frame.acked = true;
+        if (frame.transmissions == 1) updateRtt(now - frame.lastSentNanos); // 只用未重传的帧估计RTT
+        if (frame.message.frameAcked()) {
+            if (completed == null) completed = new ArrayList<>();
+            completed.add(frame.message);
+        }
+        return completed;
+    }
+
+    private void updateRtt(long sampleNanos) {
+        if (srttNanos == 0) {
+            srttNanos = sampleNanos;
+            rttVarNanos = sampleNanos / 2;
+        } else {
+            rttVarNanos = (3 * rttVarNanos + Math.abs(srttNanos - sampleNanos)) / 4;
+            srttNanos = (7 * srttNanos + sampleNanos) / 8;
+        }
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, srttNanos + 4 * rttVarNanos + ACK_DELAY_NANOS));
+    }
+
+    private void scheduleRto() {
+        rtoTimer = scheduler.schedule(this::onRtoTimer, rtoNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void onRtoTimer() {
+        synchronized (this) {
+            rtoTimer = null;
+            if (closed || seqDiff(txNext, txBase) == 0) return;
+            long now = System.nanoTime();
+            boolean expired = false;
+            for (int seq = txBase; seqDiff(txNext, seq) > 0; seq = (seq + 1) & 0xFFFF) {
+                TxFrame frame = txWindow[seq % WINDOW];
+                if (frame == null || frame.acked || frame.queued || frame.transmissions == 0) continue;
+                if (now - frame.lastSentNanos < rtoNanos) continue;
+                frame.queued = true;
+                sendQueue.addLast(frame);
+                expired = true;
+            }
+            if (expired) rtoNanos = Math.min(MAX_RTO_NANOS, rtoNanos * 2); // 退避
+            scheduleRto();
+        }
+        pump();
+    }
+
+    // ---- 接收方 ----
+
+    private void onData(int seq, boolean end, byte[] buffer, int offset, int length) {
+        List<byte[]> messages = null;
+        synchronized (this) {
+            if (closed) return;
+            int distance = seqDiff(seq, rxExpected);
+            boolean ackNow;
+            if (distance < 0 || distance >= WINDOW) {
+                duplicates++;
+                ackNow = true; // 对端可能没收到之前的确认
+            } else {
+                int slot = seq % WINDOW;
+                if (rxSlots[slot] == null) {
+                    rxSlots[slot] = Arrays.copyOfRange(buffer, offset, offset + length);
+                    rxEnd[slot] = end;
+                } else {
+                    duplicates++;
+                }
+                while (rxSlots[rxExpected % WINDOW] != null) {
+                    int next = rxExpected % WINDOW;
+                    byte[] message = appendToMessage(rxSlots[next], rxEnd[next]);
+                    if (message != null) {
+                        if (messages == null) messages = new ArrayList<>();
+                        messages.add(message);
+                    }
+                    rxSlots[next] = null;
+                    rxExpected = (rxExpected + 1) & 0xFFFF;
+                }
+                // 乱序或刚补上空洞时立即确认，发送方能尽快重传或推进窗口
+                ackNow = distance > 0 || hasGap() || ++framesSinceAck >= ACK_EVERY;
+            }
+            if (ackNow) queueAck();
+            else if (ackTimer == null) ackTimer = scheduler.schedule(this::onAckTimer, ACK_DELAY_NANOS, TimeUnit.NANOSECONDS);
+        }
+        MessageListener l = listener;
+        if (messages != null && l != null) {
+            for (byte[] message : messages) l.onMessage(message);
+        }
+        pump();
+    }
+
+    private byte[] appendToMessage(byte[] payload, boolean end) {
+        deliveredBytes += payload.length;
+        if (!rxDiscarding && rxMessageLength + payload.length > maxMessageLength) {
+            oversizedMessages++;
+            rxDiscarding = true;
+            rxMessageLength = 0;
+            if (rxMessage.length > 256) rxMessage = new byte[256];
+        }
+        if (rxDiscarding) {
+            if (end) rxDiscarding = false;
+            return null;
+        }
+        if (rxMessageLength + payload.length > rxMessage.length) {
+            rxMessage = Arrays.copyOf(rxMessage, Math.max(rxMessage.length * 2, rxMessageLength + payload.length));
+        }
+        System.arraycopy(payload, 0, rxMessage, rxMessageLength, payload.length);
+        rxMessageLength += payload.length;
+        if (!end) return null;
+        byte[] message = Arrays.copyOf(rxMessage, rxMessageLength);
+        rxMessageLength = 0;
+        return message;
+    }
+
+    private boolean hasGap() {
+        for (int i = 1; i < WINDOW; i++) {
+            if (rxSlots[(rxExpected + i) % WINDOW] != null) return true;
+        }
+        return false;
+    }
+
+    private void onAckTimer() {
+        synchronized (this) {
+            ackTimer = null;
+            if (closed || framesSinceAck == 0) return;
+            queueAck();
+        }
+        pump();
+    }
+
+    // 只保留最新的确认，旧的未发出就被替换
+    private void queueAck() {
+        long bitmap = 0;
+        for (int i = 0; i < 64 && i + 1 < WINDOW; i++) {
+            if (rxSlots[(rxExpected + 1 + i) % WINDOW] != null) bitmap |= 1L << (63 - i);
+        }
+        byte[] payload = new byte[10];
+        payload[0] = (byte) (rxExpected >>> 8);
+        payload[1] = (byte) rxExpected;
+        for (int i = 0; i < 8; i++) payload[2 + i] = (byte) (bitmap >>> (56 - 8 * i));
+        pendingAck = BinaryFrameCodec.encode(BinaryFrameCodec.TYPE_ACK, 0, payload, 0, payload.length);
+        framesSinceAck = 0;
+        if (ackTimer != null) {
+            ackTimer.cancel(false);
+            ackTimer = null;
+        }
+    }
+
+    private static final class TxFrame {
+        final byte[] payload;
+        final boolean end;
+        final Message message;
+        int seq;
+        byte[] packet;
+        boolean acked;
+        boolean queued;
+        int transmissions;
+        long lastSentNanos;
+
+        TxFrame(byte[] payload, boolean end, Message message) {
+            this.payload = payload;
+            this.end = end;
+            this.message = message;
+        }
+    }
+
+    private static final class Message {
+        final BleTransport.WriteCallback callback;
+        int remaining;
+        boolean finished;
+
+        Message(int frames, BleTransport.WriteCallback callback) {
+            this.remaining = frames;
+            this.callback = callback;
+        }
+
+        /** 返回true表示这是最后一个被确认的分片 */
+        boolean frameAcked() {
+            if (finished || --remaining > 0) return false;
+            finished = true;
+            return true;
+        }
+
+        /** 关闭时调用，每条消息只结束一次 */
+        boolean done() {
+            if (finished) return false;
+            finished = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 把收到的通知边收边导出成 gzip 压缩文件，长时间会话也不需要把数据留在内存里：
+ * <ul>
+ *     <li>CSV: 表头 time_ms,device,length,data_hex，每条通知一行，时间相对第一条记录 (毫秒，6位小数)</li>
+ *     <li>RAW: 通知负载原样首尾相接 (即模块串口发出的字节流)，没有时间戳，适合只导出一个设备</li>
+ * </ul>
+ * 和 SessionRecorder 一样，record() 只把数据复制进固定大小的字节环就返回 (见 BackgroundRecordWriter)，
+ * 格式化、压缩和写盘都在专用的写线程上。
+ */
+public class SessionExporter extends BackgroundRecordWriter {
+
+    public enum Format { CSV, RAW }
+
+    public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+    public static final String CSV_HEADER = "time_ms,device,length,data_hex";
+    private static final int OUTPUT_BUFFER_BYTES = 64 * 1024;
+
+    private final File file;
+    private final Format format;
+
+    private volatile byte[][] streamNames = new byte[0][];
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final CountingOutputStream fileOut;
+    private final OutputStream out;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    // 只在写线程访问
+    private byte[] line = new byte[128 + 2 * MAX_RECORD_LENGTH];
+    private long firstTimestamp = -1;
+
+    public SessionExporter(File file, Format format) throws IOException {
+        this(file, format, DEFAULT_BUFFER_BYTES);
+    }
+
+    /** bufferBytes 为环的大小，向上取整为2的幂 */
+    public SessionExporter(File file, Format format, int bufferBytes) throws IOException {
+        super("SessionExporter", bufferBytes);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("无法创建目录: " + parent);
+        this.file = file;
+        this.format = format;
+        fileOut = new CountingOutputStream(new FileOutputStream(file));
+        out = new GZIPOutputStream(new BufferedOutputStream(fileOut, OUTPUT_BUFFER_BYTES), OUTPUT_BUFFER_BYTES);
+        if (format == Format.CSV) {
+            byte[] header = (CSV_HEADER + "\n").getBytes(StandardCharsets.US_ASCII);
+            out.write(header);
+            uncompressedBytes.addAndGet(header.length);
+        }
+        start();
+    }
+
+    public File getFile() { return file; }
+    public Format getFormat() { return format; }
+    public long getRecords() { return records.get(); }
+    /** 已导出的通知负载字节数 */
+    public long getPayloadBytes() { return payloadBytes.get(); }
+    /** 压缩前写出的字节数 (CSV 为文本长度) */
+    public long getUncompressedBytes() { return uncompressedBytes.get(); }
+    /** 已写进文件的压缩后字节数；关闭后即文件大小 */
+    public long getFileBytes() { return fileOut.count; }
+
+    /** 开始到关闭 (或现在) 的时间 */
+    public long getElapsedNanos() {
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+
+    /** 写线程格式化和压缩的速度 (压缩前字节/秒)，即导出本身的处理能力，和链路速率无关 */
+    public double getExportBytesPerSecond() {
+        long busy = getBusyNanos();
+        return busy == 0 ? 0 : uncompressedBytes.get() * 1e9 / busy;
+    }
+
+    /** 压缩后文件大小 / 压缩前大小 */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 0 : (double) getFileBytes() / uncompressed;
+    }
+
+    /** CSV 中 device 列的内容；没有定义的流编号输出为数字 */
+    public synchronized void defineStream(int streamId, String name) {
+        byte[][] names = streamNames;
+        if (streamId >= names.length) names = Arrays.copyOf(names, streamId + 1);
+        else names = names.clone();
+        // CSV 字段里不能有逗号和换行
+        names[streamId] = name.replace(',', ' ').replace('\n', ' ').getBytes(StandardCharsets.UTF_8);
+        streamNames = names;
+    }
+
+    /** 结束 gzip 流并关闭文件 */
+    @Override
+    void finish() throws IOException {
+        try {
+            out.close();
+        } finally {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    void write(int streamId, long timestampNanos, byte[] data, int length) throws IOException {
+        if (format == Format.RAW) {
+            out.write(data, 0, length);
+            uncompressedBytes.addAndGet(length);
+        } else {
+            int n = formatCsvLine(streamId, timestampNanos, data, length);
+            out.write(line, 0, n);
+            uncompressedBytes.addAndGet(n);
+        }
+        records.incrementAndGet();
+        payloadBytes.addAndGet(length);
+    }
+
+    // 直接格式化成 ASCII 字节，不经过 String
+    private int formatCsvLine(int streamId, long timestampNanos, byte[] data, int length) {
+        if (firstTimestamp < 0) firstTimestamp = timestampNanos;
+        byte[][] names = streamNames;
+        byte[] name = streamId < names.length ? names[streamId] : null;
+        int needed = 64 + (name != null ? name.length : 0) + 2 * length;
+        if (line.length < needed) line = new byte[needed];
+        long relative = timestampNanos - firstTimestamp;
+        int p = appendLong(line, 0, relative / 1_000_000L);
+        line[p++] = '.';
+        long fraction = relative % 1_000_000L;
+        for (long scale = 100_000L; scale > 0; scale /= 10) line[p++] = (byte) ('0' + fraction / scale % 10);
+        line[p++] = ',';
+        if (name != null) {
+            System.arraycopy(name, 0, line, p, name.length);
+            p += name.length;
+        } else {
+            p = appendLong(line, p, streamId);
+        }
+        line[p++] = ',';
+        p = appendLong(line, p, length);
+        line[p++] = ',';
+        p += HexEncoder.encode(data, 0, length, line, p, false);
+        line[p++] = '\n';
+        return p;
+    }
+
+    private static int appendLong(byte[] dst, int p, long value) {
+        if (value < 0) { dst[p++] = '-'; value = -value; }
+        long scale = 1;
+        while (scale <= value / 10) scale *= 10;
+        for (; scale > 0; scale /= 10) dst[p++] = (byte) ('0' + value / scale % 10);
+        return p;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        volatile long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
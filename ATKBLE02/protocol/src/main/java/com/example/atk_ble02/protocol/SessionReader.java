@@ -0,0 +1,180 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 顺序读取 SessionRecorder 写出的会话目录，支持按时间戳定位 (先按分段头选分段，再用 .idx 索引二分，最后顺序跳过)。
+ * <p>
+ * 游标式接口：next() 之后用 getTimestampNanos()/getStreamId()/getLength()/getBuffer() 读当前记录，
+ * getBuffer() 是复用的内部数组，下一次 next() 会覆盖，读取过程不分配。
+ * 没有正常关闭的分段 (数据长度为0) 按 marker 扫描到第一条不完整的记录为止。
+ * 可以直接作为 SessionReplayer 的来源回放。
+ */
+public class SessionReader implements SessionReplayer.Source {
+
+    private final File directory;
+    private final File[] segments;
+    private final long[] firstTimestamps;
+    private final Map<Integer, String> streamNames;
+    private final byte[] buffer = new byte[SessionRecorder.MAX_RECORD_LENGTH];
+
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int limit;
+    private boolean peeked;
+
+    private long timestampNanos;
+    private int streamId;
+    private int length;
+
+    public SessionReader(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".seg"));
+        if (files == null) throw new IOException("不是会话目录: " + directory);
+        Arrays.sort(files);
+        this.directory = directory;
+        segments = files;
+        firstTimestamps = new long[files.length];
+        for (int i = 0; i < files.length; i++) firstTimestamps[i] = readFirstTimestamp(files[i]);
+        streamNames = readStreamNames(new File(directory, "streams.txt"));
+    }
+
+    public File getDirectory() { return directory; }
+    public int getSegmentCount() { return segments.length; }
+    /** 录制时 defineStream() 登记的流名称，没有时为空 */
+    public Map<Integer, String> getStreamNames() { return streamNames; }
+
+    @Override public long getTimestampNanos() { return timestampNanos; }
+    @Override public int getStreamId() { return streamId; }
+    @Override public int getLength() { return length; }
+    /** 当前记录的数据在 [0, getLength()) */
+    @Override
+    public byte[] getBuffer() { return buffer; }
+
+    /** 第一条记录的时间戳，会话为空时返回 Long.MIN_VALUE */
+    public long getStartNanos() {
+        for (long first : firstTimestamps) if (first != Long.MIN_VALUE) return first;
+        return Long.MIN_VALUE;
+    }
+
+    /** 读下一条记录，没有了返回false */
+    @Override
+    public boolean next() throws IOException {
+        if (peeked) { peeked = false; return true; }
+        while (true) {
+            if (segment != null && readRecord()) return true;
+            if (segmentIndex + 1 >= segments.length) { segment = null; return false; }
+            openSegment(segmentIndex + 1);
+        }
+    }
+
+    /** 定位到第一条时间戳 >= timestampNanos 的记录，之后的 next() 从它开始；都更早时定位到末尾 */
+    public void seek(long timestampNanos) throws IOException {
+        peeked = false;
+        if (segments.length == 0) return;
+        int target = 0;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (firstTimestamps[i] != Long.MIN_VALUE && firstTimestamps[i] <= timestampNanos) { target = i; break; }
+        }
+        openSegment(target);
+        segment.position(indexedOffset(target, timestampNanos));
+        while (next()) {
+            if (this.timestampNanos >= timestampNanos) { peeked = true; return; }
+        }
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        segmentIndex = segments.length;
+    }
+
+    private boolean readRecord() {
+        int position = segment.position();
+        if (limit - position < SessionRecorder.RECORD_HEADER_SIZE) return false;
+        if ((segment.getShort(position) & 0xFFFF) != SessionRecorder.RECORD_MARKER) return false;
+        int recordLength = segment.getShort(position + 4) & 0xFFFF;
+        if (recordLength > SessionRecorder.MAX_RECORD_LENGTH
+                || limit - position - SessionRecorder.RECORD_HEADER_SIZE < recordLength) return false;
+        streamId = segment.getShort(position + 2) & 0xFFFF;
+        timestampNanos = segment.getLong(position + 6);
+        length = recordLength;
+        segment.position(position + SessionRecorder.RECORD_HEADER_SIZE);
+        segment.get(buffer, 0, recordLength);
+        return true;
+    }
+
+    private void openSegment(int index) throws IOException {
+        segmentIndex = index;
+        try (RandomAccessFile file = new RandomAccessFile(segments[index], "r")) {
+            segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (segment.capacity() < SessionRecorder.HEADER_SIZE || segment.getInt(0) != SessionRecorder.MAGIC) {
+            throw new IOException("分段格式错误: " + segments[index]);
+        }
+        int dataLength = segment.getInt(SessionRecorder.HEADER_DATA_LENGTH);
+        limit = dataLength > 0 ? Math.min(segment.capacity(), SessionRecorder.HEADER_SIZE + dataLength) : segment.capacity();
+        segment.position(SessionRecorder.HEADER_SIZE);
+    }
+
+    // 索引中最后一个时间戳 <= target 的偏移，没有索引时从分段开头扫描
+    private int indexedOffset(int index, long target) throws IOException {
+        File idx = new File(directory, SessionRecorder.segmentName(index, "idx"));
+        if (!idx.isFile()) return SessionRecorder.HEADER_SIZE;
+        int entries = (int) (idx.length() / 12);
+        long[] timestamps = new long[entries];
+        int[] offsets = new int[entries];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            for (int i = 0; i < entries; i++) {
+                timestamps[i] = in.readLong();
+                offsets[i] = in.readInt();
+            }
+        }
+        int found = Arrays.binarySearch(timestamps, target);
+        if (found < 0) found = -found - 2;
+        else while (found > 0 && timestamps[found - 1] == target) found--;
+        return found < 0 ? SessionRecorder.HEADER_SIZE : offsets[found];
+    }
+
+    // 分段头里的第一条时间戳；没有记录时返回 Long.MIN_VALUE
+    private static long readFirstTimestamp(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < SessionRecorder.HEADER_SIZE + SessionRecorder.RECORD_HEADER_SIZE) return Long.MIN_VALUE;
+            if (in.readInt() != SessionRecorder.MAGIC) throw new IOException("分段格式错误: " + file);
+            in.seek(SessionRecorder.HEADER_FIRST_TIMESTAMP);
+            long first = in.readLong();
+            in.seek(SessionRecorder.HEADER_SIZE);
+            return in.readUnsignedShort() == SessionRecorder.RECORD_MARKER ? first : Long.MIN_VALUE;
+        }
+    }
+
+    private static Map<Integer, String> readStreamNames(File file) throws IOException {
+        if (!file.isFile()) return Collections.emptyMap();
+        Map<Integer, String> names = new TreeMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) continue;
+                try {
+                    names.put(Integer.parseInt(line.substring(0, eq).trim()), line.substring(eq + 1));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return Collections.unmodifiableMap(names);
+    }
+}
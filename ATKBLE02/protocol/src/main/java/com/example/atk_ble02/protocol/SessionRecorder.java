@@ -0,0 +1,186 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只追加的会话录制：把每个通知的原始字节连同时间戳和流编号写进内存映射的分段文件，不构造任何字符串。
+ * <p>
+ * 调用线程 (GATT回调/BLE工作线程) 只把数据复制进预分配的字节环就返回 (见 BackgroundRecordWriter)，
+ * 专用的写线程把记录顺序追加到当前分段的 MappedByteBuffer。record() 只能由一个线程调用 (单生产者)。
+ * <p>
+ * 目录结构和格式 (多字节字段均为大端)：
+ * <pre>
+ * segment-00000.seg  分段头(32字节)：magic "ATKS" | version u16 | headerSize u16 | 创建时间 epochMillis i64
+ *                    | 第一条记录时间戳 i64 | 数据长度 u32 (正常关闭时写入，0表示需要扫描) | 记录数 u32
+ *                    记录：marker u16 (0x5AA5) | streamId u16 | length u16 | timestampNanos i64 | 字节[length]
+ * segment-00000.idx  时间索引：每隔 INDEX_INTERVAL_NANOS 一条 (timestampNanos i64 | 记录在分段内的偏移 u32)
+ * streams.txt        流编号和名称的对应 (id=名称)，关闭时写入
+ * </pre>
+ * 分段写满后轮转到下一个文件。异常退出时最后一个分段没有数据长度和索引，SessionReader 会按 marker 扫描恢复。
+ */
+public class SessionRecorder extends BackgroundRecordWriter {
+
+    public static final int MAGIC = 0x41544B53; // "ATKS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_MARKER = 0x5AA5;
+    public static final int RECORD_HEADER_SIZE = 14;
+    public static final long INDEX_INTERVAL_NANOS = 100_000_000L;
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_BYTES = 2 * 1024 * 1024;
+
+    static final int HEADER_FIRST_TIMESTAMP = 16;
+    static final int HEADER_DATA_LENGTH = 24;
+    static final int HEADER_RECORD_COUNT = 28;
+
+    private final File directory;
+    private final int segmentSize;
+    private final Map<Integer, String> streamNames = new TreeMap<>();
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile int segmentCount;
+
+    // 只在写线程访问
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+    private int segmentRecords;
+    private long[] indexTimestamps = new long[64];
+    private int[] indexOffsets = new int[64];
+    private int indexSize;
+    private long nextIndexNanos;
+
+    public SessionRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_BUFFER_BYTES);
+    }
+
+    /** bufferBytes 为记录环的大小，向上取整为2的幂 */
+    public SessionRecorder(File directory, int segmentSize, int bufferBytes) throws IOException {
+        super("SessionRecorder", bufferBytes);
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + MAX_RECORD_LENGTH) throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("无法创建目录: " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        openSegment();
+        start();
+    }
+
+    public File getDirectory() { return directory; }
+    public long getRecorded() { return recorded.get(); }
+    /** 已写入分段文件的字节数 (含记录头，不含分段头) */
+    public long getBytesWritten() { return bytesWritten.get(); }
+    public int getSegmentCount() { return segmentCount; }
+
+    /** 给流编号起名 (例如设备地址)，关闭时写入 streams.txt */
+    public synchronized void defineStream(int streamId, String name) {
+        streamNames.put(streamId, name);
+    }
+
+    /** 收尾当前分段并写入索引和流名称 */
+    @Override
+    void finish() throws IOException {
+        finishSegment();
+        writeStreamNames();
+    }
+
+    @Override
+    void write(int streamId, long timestampNanos, byte[] data, int length) throws IOException {
+        if (segment == null) openSegment();
+        if (segment.remaining() < RECORD_HEADER_SIZE + length) {
+            finishSegment();
+            openSegment();
+        }
+        int position = segment.position();
+        if (segmentRecords == 0) {
+            segment.putLong(HEADER_FIRST_TIMESTAMP, timestampNanos);
+            nextIndexNanos = timestampNanos;
+        }
+        if (timestampNanos >= nextIndexNanos) {
+            addIndexEntry(timestampNanos, position);
+            nextIndexNanos = timestampNanos + INDEX_INTERVAL_NANOS;
+        }
+        segment.putShort((short) RECORD_MARKER);
+        segment.putShort((short) streamId);
+        segment.putShort((short) length);
+        segment.putLong(timestampNanos);
+        segment.put(data, 0, length);
+        segmentRecords++;
+        recorded.incrementAndGet();
+        bytesWritten.addAndGet(RECORD_HEADER_SIZE + length);
+    }
+
+    private void addIndexEntry(long timestampNanos, int offset) {
+        if (indexSize == indexTimestamps.length) {
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        indexTimestamps[indexSize] = timestampNanos;
+        indexOffsets[indexSize] = offset;
+        indexSize++;
+    }
+
+    static String segmentName(int index, String extension) {
+        return String.format("segment-%05d.%s", index, extension);
+    }
+
+    private void openSegment() throws IOException {
+        segmentIndex++;
+        segmentFile = new RandomAccessFile(new File(directory, segmentName(segmentIndex, "seg")), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC);
+        segment.putShort((short) VERSION);
+        segment.putShort((short) HEADER_SIZE);
+        segment.putLong(System.currentTimeMillis());
+        segment.position(HEADER_SIZE);
+        segmentRecords = 0;
+        indexSize = 0;
+        segmentCount = segmentIndex + 1;
+    }
+
+    // 写入数据长度和记录数，刷盘，截掉预分配的空白，再写索引文件
+    private void finishSegment() throws IOException {
+        if (segment == null) return;
+        int dataLength = segment.position() - HEADER_SIZE;
+        segment.putInt(HEADER_DATA_LENGTH, dataLength);
+        segment.putInt(HEADER_RECORD_COUNT, segmentRecords);
+        segment.force();
+        segment = null;
+        try {
+            segmentFile.setLength(HEADER_SIZE + dataLength);
+        } catch (IOException e) {
+            // 有的平台不允许截短仍被映射的文件，保留空白不影响读取
+        }
+        segmentFile.close();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, segmentName(segmentIndex, "idx")))))) {
+            for (int i = 0; i < indexSize; i++) {
+                out.writeLong(indexTimestamps[i]);
+                out.writeInt(indexOffsets[i]);
+            }
+        }
+    }
+
+    private synchronized void writeStreamNames() throws IOException {
+        if (streamNames.isEmpty()) return;
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(directory, "streams.txt")), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String> entry : streamNames.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把录制的通知按原始时间间隔 (可加速) 或尽快地重新送进接收路径，用于在没有模块的桌面/CI JVM上
+ * 复现现场问题，或者用远超空口的速率压测解码器和UI。
+ * <p>
+ * 记录来自 Source (SessionReader 读二进制会话，HexLineSource 读十六进制文本)，交给 Sink；
+ * Sink 拿到的 buffer 只在本次调用期间有效。回放本身不分配内存。
+ * <p>
+ * 两种驱动方式：run() 在调用线程上阻塞回放完；step() 每次投递已到期的记录并返回还要等多久，
+ * 便于挂在 Handler/定时器上回放而不占用线程 (例如在BLE工作线程上)。回放结束、取消或读取失败时关闭 Source。
+ */
+public class SessionReplayer {
+
+    /** 尽快回放，不等待记录之间的间隔 */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    /** 记录来源，游标式：next() 之后读当前记录 */
+    public interface Source extends Closeable {
+        boolean next() throws IOException;
+        long getTimestampNanos();
+        int getStreamId();
+        int getLength();
+        /** 当前记录的数据在 [0, getLength())，下一次 next() 会覆盖 */
+        byte[] getBuffer();
+    }
+
+    public interface Sink {
+        void onNotification(int streamId, long timestampNanos, byte[] buffer, int offset, int length);
+    }
+
+    private static final long SPIN_THRESHOLD_NANOS = 200_000L;
+
+    private final Source source;
+    private final Sink sink;
+    private volatile double speed = 1.0;
+    private volatile int streamFilter = -1;
+    private volatile boolean cancelled;
+
+    private boolean started;
+    private volatile boolean finished;
+    private long startNanos;
+    private long firstTimestampNanos;
+    private long finishNanos;
+    private volatile long records;
+    private volatile long bytes;
+    private volatile long maxLatenessNanos;
+
+    public SessionReplayer(Source source, Sink sink) {
+        this.source = source;
+        this.sink = sink;
+    }
+
+    /** 1.0 为原始速度，2.0 为两倍速，AS_FAST_AS_POSSIBLE (0) 为尽快回放；开始前设置 */
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) throw new IllegalArgumentException("speed: " + speed);
+        this.speed = speed;
+    }
+
+    /** 只回放这个流编号的记录，-1 为全部 */
+    public void setStreamFilter(int streamId) {
+        streamFilter = streamId;
+    }
+
+    /** 下一次 step() 结束回放，可在任意线程调用 */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isFinished() { return finished; }
+    public long getRecords() { return records; }
+    public long getBytes() { return bytes; }
+    /** 按原速回放时，实际投递比应投递时间晚的最大值 */
+    public long getMaxLatenessNanos() { return maxLatenessNanos; }
+
+    /** 从第一次 step() 到现在 (结束后为到结束) 的纳秒数 */
+    public long getElapsedNanos() {
+        if (!started) return 0;
+        return (finished ? finishNanos : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * 投递所有在 nowNanos 之前到期的记录，最多 maxRecords 条。
+     * 返回到下一条记录到期还要等的纳秒数：0 表示还有已到期的记录 (达到了 maxRecords)，-1 表示回放已结束。
+     * 读取失败时回放结束 (关闭 Source) 并抛出异常。
+     */
+    public long step(long nowNanos, int maxRecords) throws IOException {
+        if (finished) return -1;
+        try {
+            return deliver(nowNanos, maxRecords);
+        } catch (IOException e) {
+            if (!finished) {
+                try {
+                    finish();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private long deliver(long nowNanos, int maxRecords) throws IOException {
+        if (!started) {
+            started = true;
+            startNanos = nowNanos;
+            if (!advance()) return finish();
+            firstTimestampNanos = source.getTimestampNanos();
+        }
+        double currentSpeed = speed;
+        for (int i = 0; i < maxRecords; i++) {
+            if (cancelled) return finish();
+            if (currentSpeed > 0) {
+                long due = startNanos + (long) ((source.getTimestampNanos() - firstTimestampNanos) / currentSpeed);
+                if (due > nowNanos) return due - nowNanos;
+                if (nowNanos - due > maxLatenessNanos) maxLatenessNanos = nowNanos - due;
+            }
+            int length = source.getLength();
+            sink.onNotification(source.getStreamId(), source.getTimestampNanos(), source.getBuffer(), 0, length);
+            records++;
+            bytes += length;
+            if (!advance()) return finish();
+        }
+        return 0;
+    }
+
+    /** 在调用线程上回放到结束或被取消：长的间隔 park，最后一小段自旋等待，保证原速回放的时间精度 */
+    public void run() throws IOException {
+        while (true) {
+            long wait = step(System.nanoTime(), 256);
+            if (wait < 0) return;
+            if (wait == 0) continue;
+            long deadline = System.nanoTime() + wait;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !cancelled) {
+                if (remaining > SPIN_THRESHOLD_NANOS) LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+                else Thread.yield();
+            }
+        }
+    }
+
+    // 前进到下一条满足过滤条件的记录
+    private boolean advance() throws IOException {
+        int filter = streamFilter;
+        while (source.next()) {
+            if (filter < 0 || source.getStreamId() == filter) return true;
+        }
+        return false;
+    }
+
+    private long finish() throws IOException {
+        finished = true;
+        finishNanos = System.nanoTime();
+        source.close();
+        return -1;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.atk_ble02.protocol;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在JVM中模拟一个透传模式的ATK-BLE02模块，用于无硬件的单元测试和基准。
+ * <ul>
+ *     <li>MTU可配置，写入超过单包负载的包被拒绝，和真实GATT写一样</li>
+ *     <li>每个包有固定的空口延迟，上下行各自串行，吞吐上限约为 单包负载/延迟</li>
+ *     <li>按 lossRate 随机丢包 (写完成仍然成功，对应 Write Without Response 的行为)，
+ *         按 corruptionRate 随机翻转一个比特</li>
+ *     <li>acknowledgedWrites 模拟 WRITE_TYPE_DEFAULT：每个写要等对端应答 (再加一个延迟)，
+ *         丢失或损坏的包由链路层重传，数据总是完整到达，但每次重传都要多花一个包的时间</li>
+ *     <li>模块收到的数据交给 Responder 处理，默认原样回传 (echo)；getModuleEnd() 把模块一端也当作传输使用</li>
+ * </ul>
+ * 所有回调都在同一个模拟线程上按顺序执行。随机数种子固定，同样的配置每次运行结果相同。
+ */
+public class SimulatedAtkBle02Transport implements BleTransport, Closeable {
+
+    /** 模拟模块对上行数据的处理，返回要通知给手机的数据 (会按MTU分片)，null 表示不回复 */
+    public interface Responder {
+        byte[] onModuleReceive(byte[] data);
+    }
+
+    public static final Responder ECHO = data -> data;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SimulatedAtkBle02");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Random random = new Random(0);
+
+    private volatile int mtu;
+    private volatile long packetLatencyNanos;
+    private volatile double lossRate;
+    private volatile double corruptionRate;
+    private volatile boolean acknowledgedWrites;
+    private volatile Responder responder = ECHO;
+    private volatile Receiver receiver;
+    private volatile boolean connected = true;
+
+    // 上下行各自的"空口"占用到何时，保证同方向的包按顺序、不重叠地传输
+    private long uplinkBusyUntil;
+    private long downlinkBusyUntil;
+    // 到达顺序由队列保证：调度线程抖动时定时任务可能互相越过，每个任务只投递队首的包
+    private final ArrayDeque<Runnable> uplinkQueue = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> downlinkQueue = new ArrayDeque<>();
+
+    private final AtomicLong packetsWritten = new AtomicLong();
+    private final AtomicLong packetsLost = new AtomicLong();
+    private final AtomicLong bytesDelivered = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+
+    public SimulatedAtkBle02Transport(int mtu) {
+        this.mtu = mtu;
+    }
+
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    public void setPacketLatency(long latency, TimeUnit unit) {
+        packetLatencyNanos = unit.toNanos(latency);
+    }
+
+    /** 0 到 1 之间，上下行都按这个概率丢包 */
+    public void setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1) throw new IllegalArgumentException("lossRate: " + lossRate);
+        this.lossRate = lossRate;
+    }
+
+    /** 0 到 1 之间，上下行都按这个概率在包里翻转一个比特 (CRC测试用) */
+    public void setCorruptionRate(double corruptionRate) {
+        if (corruptionRate < 0 || corruptionRate > 1) throw new IllegalArgumentException("corruptionRate: " + corruptionRate);
+        this.corruptionRate = corruptionRate;
+    }
+
+    public void setAcknowledgedWrites(boolean acknowledged) {
+        acknowledgedWrites = acknowledged;
+    }
+
+    public void setEcho(boolean echo) {
+        responder = echo ? ECHO : null;
+    }
+
+    public void setResponder(Responder responder) {
+        this.responder = responder;
+    }
+
+    public synchronized void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public boolean write(byte[] packet, WriteCallback callback) {
+        if (!connected || packet.length > PayloadFragmenter.maxChunkSize(mtu)) return false;
+        byte[] copy = packet.clone();
+        packetsWritten.incrementAndGet();
+        synchronized (this) {
+            long delay;
+            boolean lost;
+            if (acknowledgedWrites) {
+                // 链路层重传直到成功，每次失败多占一个包的空口时间，完成还要等应答返回
+                delay = reserve(true);
+                while (roll(lossRate + corruptionRate)) {
+                    packetsLost.incrementAndGet();
+                    delay = reserve(true);
+                }
+                delay += packetLatencyNanos;
+                lost = false;
+            } else {
+                delay = reserve(true);
+                lost = roll(lossRate);
+                if (!lost) corrupt(copy);
+            }
+            deliverInOrder(uplinkQueue, () -> onUplinkArrived(copy, lost, callback), delay);
+        }
+        return true;
+    }
+
+    /** 模拟模块主动发出的数据 (例如串口另一端的设备上报)，按当前MTU分片后通知 */
+    public void sendFromModule(byte[] data) {
+        if (!connected) return;
+        List<byte[]> chunks = PayloadFragmenter.split(data.clone(), mtu);
+        for (int i = 0; i < chunks.size(); i++) scheduleNotification(chunks.get(i));
+    }
+
+    /** 模拟链路断开：之后的写入被拒绝，已在途的包仍会完成 */
+    public void disconnect() {
+        connected = false;
+    }
+
+    public long getPacketsWritten() { return packetsWritten.get(); }
+    public long getPacketsLost() { return packetsLost.get(); }
+    public long getBytesDelivered() { return bytesDelivered.get(); }
+    public long getNotifications() { return notifications.get(); }
+
+    @Override
+    public void close() {
+        connected = false;
+        executor.shutdownNow();
+    }
+
+    private void onUplinkArrived(byte[] packet, boolean lost, WriteCallback callback) {
+        // 先更新统计再回调，写完成时统计已包含这个包
+        if (lost) packetsLost.incrementAndGet();
+        else bytesDelivered.addAndGet(packet.length);
+        callback.onWriteComplete(STATUS_SUCCESS);
+        if (lost) return;
+        Responder current = responder;
+        if (current == null) return;
+        byte[] reply = current.onModuleReceive(packet);
+        if (reply == null || reply.length == 0) return;
+        List<byte[]> chunks = PayloadFragmenter.split(reply, mtu);
+        for (int i = 0; i < chunks.size(); i++) scheduleNotification(chunks.get(i));
+    }
+
+    // 返回这个通知到达手机 (或丢失) 的延迟
+    private long scheduleNotification(byte[] packet) {
+        synchronized (this) {
+            long delay = reserve(false);
+            boolean lost = roll(lossRate);
+            if (!lost) corrupt(packet);
+            deliverInOrder(downlinkQueue, () -> {
+                if (lost) { packetsLost.incrementAndGet(); return; }
+                notifications.incrementAndGet();
+                Receiver current = receiver;
+                if (current != null) current.onReceive(packet, 0, packet.length);
+            }, delay);
+            return delay;
+        }
+    }
+
+    // 在 this 锁内调用，入队顺序和 reserve 的空口顺序一致
+    private void deliverInOrder(ArrayDeque<Runnable> queue, Runnable delivery, long delayNanos) {
+        synchronized (queue) {
+            queue.addLast(delivery);
+        }
+        executor.schedule(() -> {
+            Runnable next;
+            synchronized (queue) {
+                next = queue.pollFirst();
+            }
+            if (next != null) next.run();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 返回从现在起到这个包传输完成的纳秒数
+    private long reserve(boolean uplink) {
+        long now = System.nanoTime();
+        long start = Math.max(now, uplink ? uplinkBusyUntil : downlinkBusyUntil);
+        long done = start + packetLatencyNanos;
+        if (uplink) uplinkBusyUntil = done; else downlinkBusyUntil = done;
+        return done - now;
+    }
+
+    private boolean roll(double probability) {
+        return probability > 0 && random.nextDouble() < probability;
+    }
+
+    private void corrupt(byte[] packet) {
+        if (packet.length == 0 || !roll(corruptionRate)) return;
+        packet[random.nextInt(packet.length)] ^= (byte) (1 << random.nextInt(8));
+    }
+
+    private final BleTransport moduleEnd = new BleTransport() {
+        @Override
+        public int getMtu() {
+            return mtu;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean write(byte[] packet, WriteCallback callback) {
+            if (!connected || packet.length > PayloadFragmenter.maxChunkSize(mtu)) return false;
+            long delay = scheduleNotification(packet.clone());
+            executor.schedule(() -> callback.onWriteComplete(STATUS_SUCCESS), delay, TimeUnit.NANOSECONDS);
+            return true;
+        }
+
+        @Override
+        public void setReceiver(Receiver receiver) {
+            setResponder(receiver == null ? null : data -> {
+                receiver.onReceive(data, 0, data.length);
+                return null;
+            });
+        }
+    };
+
+    /**
+     * 模块一端的传输：write 作为通知发给手机一端，setReceiver 收到手机写入的包 (替换 Responder)。
+     * 用于在模块一端运行对等协议 (例如 ReliableChannel)。
+     */
+    public BleTransport getModuleEnd() {
+        return moduleEnd;
+    }
+}
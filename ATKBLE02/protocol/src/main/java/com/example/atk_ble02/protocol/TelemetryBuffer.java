@@ -0,0 +1,145 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 按列存储的遥测环形缓冲：每个通道一个 float[] 或 long[]，外加一列接收时间戳，全是基本类型，不装箱。
+ * 样本用递增的序号 (0, 1, 2, ...) 访问，只保留最近 capacity 个。
+ * <p>
+ * 单写多读：写线程先 setFloat/setLong 填好当前样本的各个通道，再 commit() 发布；
+ * 读线程只访问 [getOldestIndex(), getCount()) 范围内的样本。写入正在覆盖的是最旧的那个槽位，
+ * getOldestIndex() 已经把它排除在外；读得太慢的读者可能读到刚被覆盖的旧数据，绘图和导出可以容忍。
+ * 读者可以注册 UpdateListener，有新样本时才去读，不必定时轮询。
+ */
+public class TelemetryBuffer {
+
+    public interface UpdateListener {
+        /** 在写线程上、每次 commit() 或 clear() 之后调用，必须很快返回 (例如只是请求一次重绘) */
+        void onUpdated(TelemetryBuffer buffer);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final String[] names;
+    private final boolean[] longChannels;
+    private final float[][] floats;
+    private final long[][] longs;
+    private final long[] timestamps;
+    private volatile long count;
+    private volatile UpdateListener updateListener;
+
+    /** capacity 向上取整到2的幂 */
+    public TelemetryBuffer(String[] names, boolean[] longChannels, int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be >= 2");
+        if (names.length != longChannels.length) throw new IllegalArgumentException("names and longChannels differ in length");
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.names = names.clone();
+        this.longChannels = longChannels.clone();
+        this.floats = new float[names.length][];
+        this.longs = new long[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            if (longChannels[i]) longs[i] = new long[this.capacity];
+            else floats[i] = new float[this.capacity];
+        }
+        this.timestamps = new long[this.capacity];
+    }
+
+    public TelemetryBuffer(TelemetryLayout layout, int capacity) {
+        this(layout.getChannelNames(), layout.getLongChannels(), capacity);
+    }
+
+    /** null 取消；可在任意线程调用 */
+    public void setUpdateListener(UpdateListener listener) {
+        updateListener = listener;
+    }
+
+    public int getCapacity() { return capacity; }
+    public int getChannelCount() { return names.length; }
+    public String getName(int channel) { return names[channel]; }
+    public boolean isLong(int channel) { return longChannels[channel]; }
+
+    /** 已提交的样本总数，也是下一个样本的序号 */
+    public long getCount() { return count; }
+
+    /** 仍可读取的最旧样本序号 */
+    public long getOldestIndex() {
+        return Math.max(0, count - capacity + 1);
+    }
+
+    // ---- 写线程 ----
+
+    /** 写当前样本 (序号 getCount()) 的一个通道；long 通道会转成 long */
+    public void setFloat(int channel, float value) {
+        int slot = (int) (count & mask);
+        if (longChannels[channel]) longs[channel][slot] = (long) value;
+        else floats[channel][slot] = value;
+    }
+
+    /** 写当前样本的一个通道；float 通道会转成 float */
+    public void setLong(int channel, long value) {
+        int slot = (int) (count & mask);
+        if (longChannels[channel]) longs[channel][slot] = value;
+        else floats[channel][slot] = value;
+    }
+
+    public void commit(long timestampNanos) {
+        long index = count;
+        timestamps[(int) (index & mask)] = timestampNanos;
+        count = index + 1;
+        UpdateListener l = updateListener;
+        if (l != null) l.onUpdated(this);
+    }
+
+    /** 只能在写线程上、或确认写线程已停止时调用 */
+    public void clear() {
+        count = 0;
+        UpdateListener l = updateListener;
+        if (l != null) l.onUpdated(this);
+    }
+
+    // ---- 读线程 ----
+
+    public long getTimestampNanos(long index) {
+        return timestamps[(int) (index & mask)];
+    }
+
+    public float getFloat(int channel, long index) {
+        int slot = (int) (index & mask);
+        return longChannels[channel] ? longs[channel][slot] : floats[channel][slot];
+    }
+
+    public long getLong(int channel, long index) {
+        int slot = (int) (index & mask);
+        return longChannels[channel] ? longs[channel][slot] : (long) floats[channel][slot];
+    }
+
+    /**
+     * 把序号 [from, to) 的样本平均分到最多 buckets 个桶里，每个桶输出最小值和最大值 (min/max 抽取)，
+     * 按屏幕列绘制时每个像素列一个桶，尖峰不会因抽样丢掉。样本数少于桶数时每个样本一个桶。
+     * from 会被限制在 getOldestIndex() 之后。返回实际填充的桶数；不分配内存。
+     */
+    public int decimate(int channel, long from, long to, int buckets, float[] outMin, float[] outMax) {
+        from = Math.max(from, getOldestIndex());
+        to = Math.min(to, count);
+        long samples = to - from;
+        if (samples <= 0 || buckets <= 0) return 0;
+        if (samples < buckets) buckets = (int) samples;
+        float[] floatColumn = floats[channel];
+        long[] longColumn = longs[channel];
+        long start = from;
+        for (int b = 0; b < buckets; b++) {
+            long end = from + samples * (b + 1) / buckets;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i & mask);
+                float value = floatColumn != null ? floatColumn[slot] : longColumn[slot];
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+            outMin[b] = min;
+            outMax[b] = max;
+            start = end;
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 遥测数据的记录格式，由一行文本描述，方便在界面上直接配置：
+ * <pre>
+ * csv:ax,ay,az,_,count:long    每行一条记录，按列取值；"_" 跳过该列，":long" 存成 long，其余存成 float
+ * bin&lt;:h:ax,h:ay,h:az*0.001,x2,I:count
+ *                              定长二进制记录，'&lt;' 小端 '&gt;' 大端；字段类型同 Python struct：
+ *                              b B h H i I q f，xN 跳过 N 个字节；"*k" 乘以系数后存成 float
+ * </pre>
+ * 二进制记录中未缩放的整数字段存成 long，f 和带系数的字段存成 float。
+ */
+public final class TelemetryLayout {
+
+    public enum Format { CSV, BINARY }
+
+    public enum FieldType {
+        INT8('b', 1), UINT8('B', 1), INT16('h', 2), UINT16('H', 2), INT32('i', 4), UINT32('I', 4), INT64('q', 8), FLOAT32('f', 4);
+
+        public final char code;
+        public final int size;
+
+        FieldType(char code, int size) {
+            this.code = code;
+            this.size = size;
+        }
+
+        static FieldType of(char code) {
+            for (FieldType type : values()) {
+                if (type.code == code) return type;
+            }
+            return null;
+        }
+    }
+
+    /** 一个通道：CSV 的列号或二进制记录中的偏移 */
+    public static final class Field {
+        public final String name;
+        public final int column;
+        public final int offset;
+        public final FieldType type;
+        public final float scale;
+        public final boolean storedAsLong;
+
+        Field(String name, int column, int offset, FieldType type, float scale, boolean storedAsLong) {
+            this.name = name;
+            this.column = column;
+            this.offset = offset;
+            this.type = type;
+            this.scale = scale;
+            this.storedAsLong = storedAsLong;
+        }
+    }
+
+    private final Format format;
+    private final boolean bigEndian;
+    private final int recordSize;
+    private final Field[] fields;
+    private final String spec;
+
+    private TelemetryLayout(Format format, boolean bigEndian, int recordSize, Field[] fields, String spec) {
+        this.format = format;
+        this.bigEndian = bigEndian;
+        this.recordSize = recordSize;
+        this.fields = fields;
+        this.spec = spec;
+    }
+
+    public Format getFormat() { return format; }
+    public boolean isBigEndian() { return bigEndian; }
+    /** 二进制记录的字节数；CSV 为 0 */
+    public int getRecordSize() { return recordSize; }
+    public int getChannelCount() { return fields.length; }
+    public Field getField(int channel) { return fields[channel]; }
+
+    public String[] getChannelNames() {
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) names[i] = fields[i].name;
+        return names;
+    }
+
+    public boolean[] getLongChannels() {
+        boolean[] longs = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) longs[i] = fields[i].storedAsLong;
+        return longs;
+    }
+
+    /** CSV 记录至少要有的列数 */
+    int getMinColumns() {
+        int max = -1;
+        for (Field field : fields) max = Math.max(max, field.column);
+        return max + 1;
+    }
+
+    /** 格式错误时抛 IllegalArgumentException，消息可以直接显示给用户 */
+    public static TelemetryLayout parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.startsWith("csv:")) return parseCsv(trimmed);
+        if (trimmed.startsWith("bin<:") || trimmed.startsWith("bin>:")) return parseBinary(trimmed);
+        throw new IllegalArgumentException("格式应以 csv: 或 bin<: / bin>: 开头");
+    }
+
+    private static TelemetryLayout parseCsv(String spec) {
+        String[] items = spec.substring(4).split(",");
+        List<Field> fields = new ArrayList<>();
+        for (int column = 0; column < items.length; column++) {
+            String item = items[column].trim();
+            if (item.equals("_")) continue;
+            boolean storedAsLong = false;
+            if (item.endsWith(":long")) {
+                storedAsLong = true;
+                item = item.substring(0, item.length() - 5);
+            }
+            checkName(item);
+            fields.add(new Field(item, column, 0, storedAsLong ? FieldType.INT64 : FieldType.FLOAT32, 1f, storedAsLong));
+        }
+        if (fields.isEmpty()) throw new IllegalArgumentException("至少需要一个通道");
+        return new TelemetryLayout(Format.CSV, false, 0, fields.toArray(new Field[0]), spec);
+    }
+
+    private static TelemetryLayout parseBinary(String spec) {
+        boolean bigEndian = spec.charAt(3) == '>';
+        String[] items = spec.substring(5).split(",");
+        List<Field> fields = new ArrayList<>();
+        int offset = 0;
+        for (String raw : items) {
+            String item = raw.trim();
+            if (item.startsWith("x")) {
+                int padding;
+                try {
+                    padding = item.length() == 1 ? 1 : Integer.parseInt(item.substring(1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("无效的填充: " + item);
+                }
+                if (padding <= 0) throw new IllegalArgumentException("填充字节数必须为正: " + item);
+                offset += padding;
+                continue;
+            }
+            FieldType type = item.length() > 2 && item.charAt(1) == ':' ? FieldType.of(item.charAt(0)) : null;
+            if (type == null) throw new IllegalArgumentException("无效的字段: " + item + " (应为 类型:名称，如 h:ax)");
+            String name = item.substring(2);
+            float scale = 1f;
+            boolean scaled = false;
+            int star = name.indexOf('*');
+            if (star >= 0) {
+                try {
+                    scale = Float.parseFloat(name.substring(star + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("无效的系数: " + item);
+                }
+                name = name.substring(0, star);
+                scaled = true;
+            }
+            checkName(name);
+            boolean storedAsLong = type != FieldType.FLOAT32 && !scaled;
+            fields.add(new Field(name, -1, offset, type, scale, storedAsLong));
+            offset += type.size;
+        }
+        if (fields.isEmpty()) throw new IllegalArgumentException("至少需要一个通道");
+        return new TelemetryLayout(Format.BINARY, bigEndian, offset, fields.toArray(new Field[0]), spec);
+    }
+
+    private static void checkName(String name) {
+        if (name.isEmpty()) throw new IllegalArgumentException("通道名不能为空");
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.Arrays;
+
+/**
+ * 把通知数据按 TelemetryLayout 解析成样本写进 TelemetryBuffer。解析直接在字节上进行，
+ * 不经过 String、不装箱，稳定运行时不分配任何对象。
+ * <ul>
+ *     <li>CSV: parseLine() 每次一行 (不含行尾，通常来自 FrameDecoder.lines)，字段以逗号、分号或空白分隔；
+ *     需要的列有一个不是数字时整行不算遥测，返回 false，调用方可以按普通文本处理</li>
+ *     <li>BINARY: parseRecords() 按字节流处理，跨通知的半条记录会留到下次拼接；
+ *     记录没有同步头，丢过数据后用 reset() 重新对齐</li>
+ * </ul>
+ * 非线程安全，只在一个线程 (BLE工作线程) 上调用；读取 TelemetryBuffer 可在任意线程。
+ */
+public class TelemetryParser {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_MANTISSA = 100_000_000_000_000_000L; // 再多的有效位超出 double 精度，只计入指数
+
+    private final TelemetryLayout layout;
+    private final TelemetryBuffer buffer;
+    private final int[] columnToChannel; // CSV 列号 -> 通道，-1 表示跳过
+    private final double[] pendingValues;
+    private final long[] pendingLongs;
+    private final byte[] carry; // 跨通知的半条二进制记录
+    private int carryLength;
+
+    // parseNumber() 的结果，避免返回对象
+    private long parsedLong;
+    private double parsedDouble;
+    private boolean parsedInteger;
+
+    private long records;
+    private long malformed;
+
+    public TelemetryParser(TelemetryLayout layout, int capacity) {
+        this.layout = layout;
+        this.buffer = new TelemetryBuffer(layout, capacity);
+        int channels = layout.getChannelCount();
+        this.pendingValues = new double[channels];
+        this.pendingLongs = new long[channels];
+        if (layout.getFormat() == TelemetryLayout.Format.CSV) {
+            columnToChannel = new int[layout.getMinColumns()];
+            Arrays.fill(columnToChannel, -1);
+            for (int i = 0; i < channels; i++) columnToChannel[layout.getField(i).column] = i;
+            carry = null;
+        } else {
+            columnToChannel = null;
+            carry = new byte[layout.getRecordSize()];
+        }
+    }
+
+    public TelemetryLayout getLayout() { return layout; }
+    public TelemetryBuffer getBuffer() { return buffer; }
+    /** 已解析的记录数 */
+    public long getRecords() { return records; }
+    /** CSV 中解析失败的行数 */
+    public long getMalformed() { return malformed; }
+
+    /** 丢弃跨通知的半条记录，下一字节作为记录开头 */
+    public void reset() {
+        carryLength = 0;
+    }
+
+    /** 解析一行 CSV；成功时提交一个样本并返回 true */
+    public boolean parseLine(byte[] line, int offset, int length, long timestampNanos) {
+        int end = offset + length;
+        int i = offset;
+        int column = 0;
+        int wanted = columnToChannel.length;
+        while (column < wanted) {
+            while (i < end && isSpace(line[i])) i++;
+            int start = i;
+            while (i < end && !isSeparator(line[i])) i++;
+            int fieldEnd = i;
+            while (i < end && isSpace(line[i])) i++;
+            if (i < end && (line[i] == ',' || line[i] == ';')) i++;
+            int channel = columnToChannel[column];
+            if (channel >= 0) {
+                if (!parseNumber(line, start, fieldEnd)) { malformed++; return false; }
+                pendingValues[channel] = parsedDouble;
+                pendingLongs[channel] = parsedInteger ? parsedLong : (long) parsedDouble;
+            }
+            column++;
+            if (i >= end && column < wanted) { malformed++; return false; }
+        }
+        TelemetryBuffer b = buffer;
+        for (int channel = 0; channel < pendingValues.length; channel++) {
+            if (b.isLong(channel)) b.setLong(channel, pendingLongs[channel]);
+            else b.setFloat(channel, (float) pendingValues[channel]);
+        }
+        b.commit(timestampNanos);
+        records++;
+        return true;
+    }
+
+    /** 解析二进制记录流，返回本次提交的样本数；同一次通知里的样本使用同一个时间戳 */
+    public int parseRecords(byte[] data, int offset, int length, long timestampNanos) {
+        int recordSize = carry.length;
+        int parsed = 0;
+        if (carryLength > 0) {
+            int needed = Math.min(recordSize - carryLength, length);
+            System.arraycopy(data, offset, carry, carryLength, needed);
+            carryLength += needed;
+            offset += needed;
+            length -= needed;
+            if (carryLength < recordSize) return 0;
+            parseRecord(carry, 0, timestampNanos);
+            carryLength = 0;
+            parsed++;
+        }
+        while (length >= recordSize) {
+            parseRecord(data, offset, timestampNanos);
+            offset += recordSize;
+            length -= recordSize;
+            parsed++;
+        }
+        if (length > 0) {
+            System.arraycopy(data, offset, carry, 0, length);
+            carryLength = length;
+        }
+        return parsed;
+    }
+
+    private void parseRecord(byte[] data, int offset, long timestampNanos) {
+        TelemetryBuffer b = buffer;
+        boolean bigEndian = layout.isBigEndian();
+        for (int channel = 0; channel < layout.getChannelCount(); channel++) {
+            TelemetryLayout.Field field = layout.getField(channel);
+            int p = offset + field.offset;
+            long raw;
+            switch (field.type) {
+                case INT8: raw = data[p]; break;
+                case UINT8: raw = data[p] & 0xFF; break;
+                case INT16: raw = (short) readUnsigned(data, p, 2, bigEndian); break;
+                case UINT16: raw = readUnsigned(data, p, 2, bigEndian); break;
+                case INT32: raw = (int) readUnsigned(data, p, 4, bigEndian); break;
+                case UINT32: raw = readUnsigned(data, p, 4, bigEndian); break;
+                case INT64: raw = readUnsigned(data, p, 8, bigEndian); break;
+                default: {
+                    float value = Float.intBitsToFloat((int) readUnsigned(data, p, 4, bigEndian));
+                    b.setFloat(channel, value * field.scale);
+                    continue;
+                }
+            }
+            if (field.storedAsLong) b.setLong(channel, raw);
+            else b.setFloat(channel, (float) (raw * (double) field.scale));
+        }
+        b.commit(timestampNanos);
+        records++;
+    }
+
+    private static long readUnsigned(byte[] data, int offset, int size, boolean bigEndian) {
+        long value = 0;
+        if (bigEndian) {
+            for (int i = 0; i < size; i++) value = (value << 8) | (data[offset + i] & 0xFF);
+        } else {
+            for (int i = size - 1; i >= 0; i--) value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /** 十进制数：可选符号、整数和小数部分、可选指数；结果放在 parsed* 字段 */
+    private boolean parseNumber(byte[] s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s[i] == '-' || s[i] == '+')) negative = s[i++] == '-';
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        while (i < end && s[i] >= '0' && s[i] <= '9') {
+            if (mantissa < MAX_MANTISSA) mantissa = mantissa * 10 + (s[i] - '0');
+            else exponent++;
+            digits++;
+            i++;
+        }
+        boolean integer = true;
+        if (i < end && s[i] == '.') {
+            integer = false;
+            i++;
+            while (i < end && s[i] >= '0' && s[i] <= '9') {
+                if (mantissa < MAX_MANTISSA) { mantissa = mantissa * 10 + (s[i] - '0'); exponent--; }
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) return false;
+        if (i < end && (s[i] == 'e' || s[i] == 'E')) {
+            integer = false;
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (s[i] == '-' || s[i] == '+')) negativeExponent = s[i++] == '-';
+            int e = 0;
+            int expDigits = 0;
+            while (i < end && s[i] >= '0' && s[i] <= '9') {
+                if (e < 10_000) e = e * 10 + (s[i] - '0');
+                expDigits++;
+                i++;
+            }
+            if (expDigits == 0) return false;
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != end) return false;
+        double value = mantissa;
+        if (exponent > 0) value *= exponent < POW10.length ? POW10[exponent] : Math.pow(10, exponent);
+        else if (exponent < 0) value /= -exponent < POW10.length ? POW10[-exponent] : Math.pow(10, -exponent);
+        parsedDouble = negative ? -value : value;
+        parsedInteger = integer && exponent == 0;
+        parsedLong = negative ? -mantissa : mantissa;
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == ';' || isSpace(b);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.atk_ble02.protocol;
+
+/**
+ * 吞吐量统计：累计字节数，并按固定时间窗口计算最近的速率 (bytes/sec)。
+ * add() 可在任意线程调用，读取方法返回近似值即可。
+ */
+public class ThroughputMeter {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long windowNanos;
+    private volatile long startNanos;
+    private volatile long totalBytes;
+    private long windowStartNanos;
+    private long windowStartBytes;
+    private volatile double windowRate;
+
+    public ThroughputMeter() {
+        this(1000);
+    }
+
+    public ThroughputMeter(long windowMillis) {
+        this.windowNanos = windowMillis * 1_000_000L;
+        reset();
+    }
+
+    public synchronized void reset() {
+        startNanos = System.nanoTime();
+        totalBytes = 0;
+        windowStartNanos = startNanos;
+        windowStartBytes = 0;
+        windowRate = 0;
+    }
+
+    public synchronized void add(long bytes) {
+        totalBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= windowNanos) {
+            windowRate = (totalBytes - windowStartBytes) * (double) NANOS_PER_SECOND / elapsed;
+            windowStartNanos = now;
+            windowStartBytes = totalBytes;
+        }
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** 最近一个完整窗口内的速率；第一个窗口结束前返回平均速率 */
+    public double getBytesPerSecond() {
+        double rate = windowRate;
+        return rate > 0 ? rate : getAverageBytesPerSecond();
+    }
+
+    public double getAverageBytesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? totalBytes * (double) NANOS_PER_SECOND / elapsed : 0;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.atk_ble02.protocol;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * 基于credit的发送：消息按当前MTU分片后排队，最多 maxInFlight 个包同时在途，
+ * 每个写完成回调归还一个credit并立即补发下一个包，链路保持忙碌又不会压垮传输层缓冲区。
+ * 不阻塞调用线程，可在任意线程调用。
+ */
+public class TransportSender {
+
+    private final BleTransport transport;
+    private final int maxInFlight;
+    private final ArrayDeque<Packet> pending = new ArrayDeque<>();
+    private final ThroughputMeter meter = new ThroughputMeter();
+    private int inFlight;
+    private boolean emitting; // 有线程正在 pump() 里发包
+
+    public TransportSender(BleTransport transport, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be >= 1");
+        this.transport = transport;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void send(byte[] data, BleTransport.WriteCallback done) {
+        send(data, 0, data.length, done);
+    }
+
+    /**
+     * 排队一条消息，done 在最后一个分片写完或任一分片失败时回调一次 (传输层线程)。
+     * 分片失败后同一消息剩下的分片不再发送。返回后调用方可以立即改写或复用 data。
+     */
+    public void send(byte[] data, int offset, int length, BleTransport.WriteCallback done) {
+        if (!transport.isConnected()) { done.onWriteComplete(BleTransport.STATUS_NOT_CONNECTED); return; }
+        List<byte[]> chunks = PayloadFragmenter.split(data, offset, length, transport.getMtu());
+        if (chunks.isEmpty()) { done.onWriteComplete(BleTransport.STATUS_SUCCESS); return; }
+        // 整条消息放得进一个包时 split 直接返回 data 本身，包可能要排队等 credit，和多包路径一样拷一份
+        if (chunks.get(0) == data) chunks.set(0, data.clone());
+        Message message = new Message(chunks.size(), done);
+        synchronized (this) {
+            for (int i = 0; i < chunks.size(); i++) pending.addLast(new Packet(chunks.get(i), message));
+        }
+        pump();
+    }
+
+    /** 取消所有未发出的包，对应消息以 STATUS_CANCELLED 完成；已在途的包仍会回调 */
+    public void cancel() {
+        Packet[] cancelled;
+        synchronized (this) {
+            cancelled = pending.toArray(new Packet[0]);
+            pending.clear();
+        }
+        for (Packet packet : cancelled) packet.message.fail(BleTransport.STATUS_CANCELLED);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getPendingPackets() {
+        return pending.size();
+    }
+
+    public synchronized boolean isIdle() {
+        return inFlight == 0 && pending.isEmpty();
+    }
+
+    /** 已确认写出的字节数和速率 */
+    public ThroughputMeter getMeter() {
+        return meter;
+    }
+
+    /**
+     * 在锁外调用 transport.write，传输层同步回调也不会死锁。调用线程和写完成线程都会进来，
+     * 同一时刻只有一个线程发包 (emitting)，否则两个线程各取一个包后可能颠倒顺序写出；
+     * 其他线程看到 emitting 直接返回，它们带来的 credit 和新包由正在发包的线程在下一轮取走。
+     */
+    private void pump() {
+        synchronized (this) {
+            if (emitting) return;
+            emitting = true;
+        }
+        while (true) {
+            Packet packet;
+            synchronized (this) {
+                packet = inFlight < maxInFlight ? pending.pollFirst() : null;
+                if (packet == null) {
+                    emitting = false;
+                    return;
+                }
+                if (packet.message.failed) continue;
+                inFlight++;
+            }
+            if (!transport.write(packet.bytes, status -> onPacketWritten(packet, status))) {
+                onPacketWritten(packet, BleTransport.STATUS_NOT_CONNECTED);
+            }
+        }
+    }
+
+    private void onPacketWritten(Packet packet, int status) {
+        synchronized (this) {
+            inFlight--;
+        }
+        if (status == BleTransport.STATUS_SUCCESS) {
+            meter.add(packet.bytes.length);
+            packet.message.packetDone();
+        } else {
+            packet.message.fail(status);
+        }
+        pump();
+    }
+
+    private static final class Packet {
+        final byte[] bytes;
+        final Message message;
+
+        Packet(byte[] bytes, Message message) {
+            this.bytes = bytes;
+            this.message = message;
+        }
+    }
+
+    private static final class Message {
+        private final BleTransport.WriteCallback done;
+        private int remaining;
+        volatile boolean failed;
+        private boolean reported;
+
+        Message(int packets, BleTransport.WriteCallback done) {
+            this.remaining = packets;
+            this.done = done;
+        }
+
+        void packetDone() {
+            synchronized (this) {
+                if (--remaining > 0 || reported) return;
+                reported = true;
+            }
+            done.onWriteComplete(BleTransport.STATUS_SUCCESS);
+        }
+
+        void fail(int status) {
+            synchronized (this) {
+                failed = true;
+                if (reported) return;
+                reported = true;
+            }
+            done.onWriteComplete(status);
+        }
+    }
+}
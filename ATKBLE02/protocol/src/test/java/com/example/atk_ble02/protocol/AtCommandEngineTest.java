@@ -0,0 +1,173 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AtCommandEngineTest {
+
+    private SimulatedAtkBle02Transport transport;
+    private ScheduledExecutorService scheduler;
+    private AtCommandEngine engine;
+    private final List<String> unsolicited = new ArrayList<>();
+
+    /** 模拟模块的AT处理：查询返回数值行 + OK，设置返回 OK，AT+SLOW 不回复，其它指令返回 ERROR */
+    private static byte[] respond(byte[] packet) {
+        String command = new String(packet, StandardCharsets.UTF_8).trim();
+        String reply;
+        if (command.equals("AT+SLOW")) return null;
+        if (command.equals("AT+NAME?")) reply = "+NAME:ATK-BLE02\r\nOK\r\n";
+        else if (command.equals("AT") || command.startsWith("AT+SET")) reply = "OK\r\n";
+        else reply = "ERROR\r\n";
+        return reply.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Before
+    public void setUp() {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setPacketLatency(2, TimeUnit.MILLISECONDS);
+        transport.setResponder(AtCommandEngineTest::respond);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        engine = new AtCommandEngine(transport, scheduler);
+        engine.setUnsolicitedListener(line -> { synchronized (unsolicited) { unsolicited.add(line); } });
+        FrameDecoder decoder = FrameDecoder.lines(256, engine::onLine);
+        transport.setReceiver(decoder::feed);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void query_returnsValueLine() throws Exception {
+        AtResponse response = engine.send("AT+NAME?").get(1, TimeUnit.SECONDS);
+        assertTrue(response.isOk());
+        assertEquals("+NAME:ATK-BLE02", response.getValue());
+        assertEquals("OK", response.getTerminator());
+        assertTrue(response.getRoundTripNanos() > 0);
+    }
+
+    @Test
+    public void pipelinedScript_isFasterThanOneByOne() throws Exception {
+        StringBuilder script = new StringBuilder("# 配置脚本\n");
+        for (int i = 0; i < 24; i++) script.append("AT+SET").append(i).append("=1\n");
+        script.append("AT+NAME?\n");
+
+        engine.setPipelineDepth(1);
+        long start = System.nanoTime();
+        List<AtResponse> serial = engine.runScript(script.toString(), true).get(5, TimeUnit.SECONDS);
+        long serialNanos = System.nanoTime() - start;
+
+        engine.setPipelineDepth(AtCommandEngine.DEFAULT_PIPELINE_DEPTH);
+        start = System.nanoTime();
+        List<AtResponse> pipelined = engine.runScript(script.toString(), true).get(5, TimeUnit.SECONDS);
+        long pipelinedNanos = System.nanoTime() - start;
+
+        assertEquals(25, pipelined.size());
+        for (int i = 0; i < 24; i++) assertEquals("AT+SET" + i + "=1", pipelined.get(i).getCommand());
+        assertEquals("+NAME:ATK-BLE02", pipelined.get(24).getValue());
+        assertEquals(serial.size(), pipelined.size());
+        assertTrue("流水线 " + pipelinedNanos + "ns, 串行 " + serialNanos + "ns", pipelinedNanos < serialNanos);
+    }
+
+    @Test
+    public void stopOnError_cancelsRemainingCommands() throws Exception {
+        List<AtResponse> responses = engine.runScript("AT\nAT+BOGUS\nAT+SET1=2\n", true).get(1, TimeUnit.SECONDS);
+        assertEquals(2, responses.size());
+        assertTrue(responses.get(0).isOk());
+        assertFalse(responses.get(1).isOk());
+        assertEquals(0, engine.getQueued());
+    }
+
+    @Test
+    public void timeout_failsCommandAndNextCommandStillCorrelates() throws Exception {
+        CompletableFuture<AtResponse> slow = engine.send("AT+SLOW", 50);
+        try {
+            slow.get(1, TimeUnit.SECONDS);
+            fail("应当超时");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, engine.getOutstanding());
+        assertEquals("+NAME:ATK-BLE02", engine.send("AT+NAME?").get(1, TimeUnit.SECONDS).getValue());
+    }
+
+    @Test
+    public void lateReplyAfterTimeout_isNotCreditedToNextCommand() throws Exception {
+        CompletableFuture<AtResponse> slow = engine.send("AT+SLOW", 50);
+        try {
+            slow.get(1, TimeUnit.SECONDS);
+            fail("应当超时");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // 下一条指令的回复是 ERROR；AT+SLOW 迟到的 OK 不能被算到它头上
+        CompletableFuture<AtResponse> next = engine.send("AT+BOGUS");
+        transport.sendFromModule("OK\r\n".getBytes(StandardCharsets.UTF_8));
+        AtResponse response = next.get(2, TimeUnit.SECONDS);
+        assertFalse(response.isOk());
+        assertEquals("ERROR", response.getTerminator());
+    }
+
+    @Test
+    public void timeout_failsOtherCommandsAlreadySent() throws Exception {
+        CompletableFuture<AtResponse> slow = engine.send("AT+SLOW", 50);
+        CompletableFuture<AtResponse> behind = engine.send("AT+SLOW", 10_000);
+        try {
+            behind.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(slow.isCompletedExceptionally());
+        assertEquals(0, engine.getOutstanding());
+    }
+
+    @Test
+    public void linesWithoutCommand_areUnsolicited() throws Exception {
+        transport.sendFromModule("+CONNECTED\r\n".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (System.nanoTime() < deadline) {
+            synchronized (unsolicited) { if (!unsolicited.isEmpty()) break; }
+            Thread.sleep(1);
+        }
+        // 有在途指令时收到的行属于该指令
+        assertTrue(engine.send("AT").get(1, TimeUnit.SECONDS).getLines().isEmpty());
+        synchronized (unsolicited) {
+            assertEquals(Arrays.asList("+CONNECTED"), unsolicited);
+        }
+    }
+
+    @Test
+    public void failAll_completesOutstandingExceptionally() throws Exception {
+        CompletableFuture<AtResponse> pending = engine.send("AT+SLOW", 10_000);
+        engine.failAll(new IOException("连接已断开"));
+        try {
+            pending.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void parseScript_skipsBlankAndCommentLines() {
+        assertEquals(Arrays.asList("AT", "AT+NAME?"), AtCommandEngine.parseScript("# 注释\r\n\r\n  AT  \n// 另一种注释\nAT+NAME?"));
+    }
+}
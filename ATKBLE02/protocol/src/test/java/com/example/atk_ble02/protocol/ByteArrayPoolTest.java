@@ -0,0 +1,48 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void release_thenAcquireSameLength_reusesArray() {
+        ByteArrayPool pool = new ByteArrayPool(512, 4096);
+        byte[] first = pool.acquire(244);
+        pool.release(first);
+        assertSame(first, pool.acquire(244));
+        assertEquals(1, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+        // 长度不同的分片在各自的桶里
+        pool.release(first);
+        byte[] tail = pool.acquire(17);
+        assertEquals(17, tail.length);
+        assertNotSame(first, tail);
+        assertEquals(244, pool.getPooledBytes());
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        ByteArrayPool pool = new ByteArrayPool(512, 64 * 1024);
+        byte[][] inFlight = new byte[8][];
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < inFlight.length; i++) inFlight[i] = pool.acquire(i == 7 ? 100 : 244);
+            for (byte[] array : inFlight) pool.release(array);
+        }
+        assertEquals(8, pool.getAllocated());
+        assertEquals(8 * 999, pool.getReused());
+    }
+
+    @Test
+    public void pooledBytes_areCapped() {
+        ByteArrayPool pool = new ByteArrayPool(512, 500);
+        pool.release(new byte[244]);
+        pool.release(new byte[244]);
+        pool.release(new byte[244]); // 超过上限，丢弃
+        pool.release(new byte[1000]); // 超过 maxLength，不入池
+        assertEquals(488, pool.getPooledBytes());
+        assertEquals(1000, pool.acquire(1000).length);
+        assertEquals(0, pool.getAllocated());
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryTableTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void strongestLinkWins_notFastestAdvertiser() {
+        DiscoveryTable table = new DiscoveryTable();
+        // 远处的模块每20ms广播一次，近处的每200ms一次
+        for (int i = 0; i < 100; i++) table.update("FAR", "ATK-BLE02", -85 + (i % 3), i * 20 * MS);
+        for (int i = 0; i < 10; i++) table.update("NEAR", "ATK-BLE02", -55 - (i % 5), i * 200 * MS);
+
+        List<DiscoveryTable.Candidate> ranked = table.ranked();
+        assertEquals("NEAR", ranked.get(0).getAddress());
+        assertEquals("FAR", ranked.get(1).getAddress());
+        assertEquals("NEAR", table.select(null, Collections.<String>emptySet()).getAddress());
+        assertEquals(50.0, table.get("FAR").getAdvertisementRate(), 0.1);
+        assertEquals(5.0, table.get("NEAR").getAdvertisementRate(), 0.1);
+    }
+
+    @Test
+    public void smoothing_rejectsSingleSpike() {
+        DiscoveryTable table = new DiscoveryTable(0.25);
+        for (int i = 0; i < 20; i++) table.update("A", null, -70, i * MS);
+        for (int i = 0; i < 20; i++) table.update("B", null, -72, i * MS);
+        // 单次尖峰或衰落只按 alpha 的比例影响平滑值
+        table.update("B", null, -95, 20 * MS);
+        table.update("A", null, -40, 20 * MS);
+        DiscoveryTable.Candidate a = table.get("A");
+        assertEquals(-40, a.getLastRssi());
+        assertEquals(-62.5, a.getSmoothedRssi(), 1e-9);
+        assertEquals(-77.75, table.get("B").getSmoothedRssi(), 1e-9);
+        assertEquals(21, a.getAdvertisements());
+    }
+
+    @Test
+    public void pinnedAddress_overridesSignalAndExcludedAreSkipped() {
+        DiscoveryTable table = new DiscoveryTable();
+        table.update("STRONG", null, -40, 0);
+        table.update("WEAK", null, -90, 0);
+        assertEquals("WEAK", table.select("WEAK", Collections.<String>emptySet()).getAddress());
+        assertNull(table.select("MISSING", Collections.<String>emptySet()));
+        assertNull(table.select("WEAK", Collections.singleton("WEAK")));
+        assertEquals("WEAK", table.select(null, Collections.singleton("STRONG")).getAddress());
+        table.clear();
+        assertNull(table.select(null, Collections.<String>emptySet()));
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private final List<String> frames = new ArrayList<>();
+
+    private FrameDecoder lines(int maxFrameLength) {
+        return FrameDecoder.lines(maxFrameLength, (buffer, offset, length) ->
+                frames.add(new String(buffer, offset, length, StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void lines_splitAcrossNotifications() {
+        FrameDecoder decoder = lines(64);
+        decoder.feed(bytes("OK\r"));
+        decoder.feed(bytes("\nAT+NAME=ATK"));
+        decoder.feed(bytes("\r\n\r\nERROR\n"));
+        assertEquals(3, frames.size());
+        assertEquals("OK", frames.get(0));
+        assertEquals("AT+NAME=ATK", frames.get(1));
+        assertEquals("ERROR", frames.get(2));
+        assertEquals(0, decoder.getPendingBytes());
+    }
+
+    @Test
+    public void lines_oversizedLineIsTruncated() {
+        FrameDecoder decoder = lines(8);
+        decoder.feed(bytes("0123456789ABCDEF\n"));
+        assertEquals(1, decoder.getOversizedFrames());
+        assertEquals("01234567", frames.get(0));
+        assertEquals("89ABCDEF", frames.get(1));
+    }
+
+    @Test
+    public void flush_keepsIncompleteUtf8Sequence() {
+        FrameDecoder decoder = lines(64);
+        byte[] text = bytes("温度");
+        decoder.feed(text, 0, 4); // "温" 和 "度" 的第一个字节
+        decoder.flush();
+        assertEquals(1, frames.size());
+        assertEquals("温", frames.get(0));
+        decoder.feed(text, 4, 2);
+        decoder.flush();
+        assertEquals("度", frames.get(1));
+    }
+
+    @Test
+    public void lengthPrefixed_bigEndianHeader() {
+        List<Integer> lengths = new ArrayList<>();
+        FrameDecoder decoder = FrameDecoder.lengthPrefixed(2, true, 300, (buffer, offset, length) -> lengths.add(length));
+        byte[] frame = new byte[2 + 260];
+        frame[0] = 0x01;
+        frame[1] = 0x04;
+        decoder.feed(frame, 0, 100);
+        assertTrue(lengths.isEmpty());
+        decoder.feed(frame, 100, frame.length - 100);
+        assertEquals(1, lengths.size());
+        assertEquals(260, (int) lengths.get(0));
+    }
+
+    @Test
+    public void lengthPrefixed_resyncsAfterBadHeader() {
+        List<Integer> lengths = new ArrayList<>();
+        FrameDecoder decoder = FrameDecoder.lengthPrefixed(1, true, 16, (buffer, offset, length) -> lengths.add(length));
+        decoder.feed(new byte[]{(byte) 0xFF, 3, 'a', 'b', 'c'});
+        assertEquals(1, decoder.getDroppedBytes());
+        assertEquals(1, lengths.size());
+        assertEquals(3, (int) lengths.get(0));
+    }
+}
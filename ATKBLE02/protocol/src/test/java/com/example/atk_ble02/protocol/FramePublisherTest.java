@@ -0,0 +1,184 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** 每个订阅者的溢出策略，以及慢订阅者不影响发布线程和其他订阅者 */
+public class FramePublisherTest {
+
+    private static final int MAX_FRAME = 16;
+    // 最小的环 (32字节)，每帧 4 字节负载 + 12 字节头，环里放得下两帧
+    private static final int SMALL_BUFFER = FramePublisher.RECORD_HEADER_SIZE + MAX_FRAME;
+
+    /** 收到的第一帧处阻塞，直到 release；记录收到的每帧第一个字节 */
+    private static final class GatedSubscriber implements FramePublisher.Subscriber {
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> timestamps = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onFrame(long timestampNanos, byte[] buffer, int offset, int length) {
+            received.add((int) buffer[offset]);
+            timestamps.add(timestampNanos);
+            firstFrame.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    private static byte[] frame(int value) {
+        return new byte[]{(byte) value, 1, 2, 3};
+    }
+
+    // 第0帧被订阅者取走并卡住后，再发布 1..5 帧
+    private static void publishWhileStalled(FramePublisher publisher, GatedSubscriber subscriber) throws InterruptedException {
+        publisher.publish(0, frame(0), 0, 4);
+        assertTrue(subscriber.firstFrame.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) publisher.publish(i, frame(i), 0, 4);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrames() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        GatedSubscriber subscriber = new GatedSubscriber();
+        FramePublisher.Subscription subscription = publisher.subscribe(subscriber, FramePublisher.Overflow.DROP_OLDEST, SMALL_BUFFER);
+        publishWhileStalled(publisher, subscriber);
+        subscriber.gate.countDown();
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(0, 4, 5), subscriber.received);
+        assertEquals(Arrays.asList(0L, 4L, 5L), subscriber.timestamps);
+        assertEquals(3, subscription.getDropped());
+        assertEquals(6, subscription.getPublished());
+        assertEquals(3, subscription.getDelivered());
+    }
+
+    @Test
+    public void dropNewest_keepsOldestFrames() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        GatedSubscriber subscriber = new GatedSubscriber();
+        FramePublisher.Subscription subscription = publisher.subscribe(subscriber, FramePublisher.Overflow.DROP_NEWEST, SMALL_BUFFER);
+        publishWhileStalled(publisher, subscriber);
+        subscriber.gate.countDown();
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(0, 1, 2), subscriber.received);
+        assertEquals(3, subscription.getDropped());
+        assertEquals(3, subscription.getPublished());
+    }
+
+    @Test
+    public void block_losesNothingWithSlowSubscriber() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME, true);
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(1);
+        FramePublisher.Subscription subscription = publisher.subscribe(new FramePublisher.Subscriber() {
+            @Override
+            public void onFrame(long timestampNanos, byte[] buffer, int offset, int length) {
+                received.add(buffer[offset] & 0xFF);
+                if (received.size() % 10 == 0) Thread.yield();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        }, FramePublisher.Overflow.BLOCK, SMALL_BUFFER);
+        for (int i = 0; i < 200; i++) assertEquals(1, publisher.publish(i, frame(i), 0, 4));
+        publisher.close();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(200, received.size());
+        for (int i = 0; i < 200; i++) assertEquals(i, (int) received.get(i));
+        assertEquals(0, subscription.getDropped());
+    }
+
+    @Test
+    public void stalledSubscriber_doesNotStallPublisherOrOthers() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME, true);
+        GatedSubscriber stalled = new GatedSubscriber();
+        publisher.subscribe(stalled, FramePublisher.Overflow.DROP_NEWEST, SMALL_BUFFER);
+        CountDownLatch all = new CountDownLatch(1000);
+        FramePublisher.Subscription fast = publisher.subscribe((timestampNanos, buffer, offset, length) -> all.countDown(),
+                FramePublisher.Overflow.BLOCK);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) publisher.publish(i, frame(i), 0, 4);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(FramePublisher.BLOCK_TIMEOUT_MS));
+        assertTrue(all.await(5, TimeUnit.SECONDS));
+        assertEquals(1000, fast.getDelivered());
+        assertEquals(2, publisher.getSubscriberCount());
+
+        stalled.gate.countDown();
+        publisher.close();
+        assertTrue(stalled.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void cancel_discardsBacklogAndCompletes() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        GatedSubscriber subscriber = new GatedSubscriber();
+        FramePublisher.Subscription subscription = publisher.subscribe(subscriber, FramePublisher.Overflow.DROP_NEWEST);
+        publishWhileStalled(publisher, subscriber);
+        subscription.cancel();
+        subscriber.gate.countDown();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList(0), subscriber.received);
+        assertEquals(0, publisher.getSubscriberCount());
+        assertEquals(0, publisher.publish(6, frame(6), 0, 4));
+    }
+
+    @Test
+    public void oversizedFrame_isDropped() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        FramePublisher.Subscription subscription = publisher.subscribe((timestampNanos, buffer, offset, length) -> {}, FramePublisher.Overflow.DROP_NEWEST);
+        assertEquals(0, publisher.publish(0, new byte[MAX_FRAME + 1], 0, MAX_FRAME + 1));
+        assertEquals(1, subscription.getDropped());
+        publisher.close();
+    }
+
+    @Test
+    public void block_rejectedUnlessAllowed() {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        try {
+            publisher.subscribe((timestampNanos, buffer, offset, length) -> {}, FramePublisher.Overflow.BLOCK);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void subscribeAfterClose_completesImmediately() throws Exception {
+        FramePublisher publisher = new FramePublisher("test", MAX_FRAME);
+        publisher.close();
+        GatedSubscriber subscriber = new GatedSubscriber();
+        FramePublisher.Subscription subscription = publisher.subscribe(subscriber, FramePublisher.Overflow.DROP_OLDEST);
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, publisher.publish(0, frame(0), 0, 4));
+        assertEquals(0, subscription.getPublished());
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** 桶边界、百分位精度、并发记录和指标导出 */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverRangeContiguously() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(15, LatencyHistogram.bucketIndex(15));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            long lower = LatencyHistogram.lowerBound(i);
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(lower));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            assertEquals(upper + 1, LatencyHistogram.lowerBound(i + 1));
+            // 相对误差不超过 1/16
+            assertTrue(upper - lower <= Math.max(0, lower / 16));
+        }
+    }
+
+    @Test
+    public void percentiles_withinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 10_000; i++) histogram.recordNanos(i * 1000L); // 1us .. 10ms 均匀分布
+        long[] p = histogram.getPercentilesNanos(new double[]{50, 99, 100});
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(1000, histogram.getMinNanos());
+        assertEquals(10_000_000, histogram.getMaxNanos());
+        assertEquals(5_000_500, histogram.getMeanNanos());
+        assertTrue("p50 " + p[0], p[0] >= 5_000_000 && p[0] <= 5_000_000 * 17 / 16);
+        assertTrue("p99 " + p[1], p[1] >= 9_900_000 && p[1] <= 9_900_000 * 17 / 16);
+        assertEquals(10_000_000, p[2]);
+        assertEquals(p[1], histogram.getPercentileNanos(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getMinNanos());
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 50_000; i++) histogram.recordNanos(random.nextInt(5_000_000));
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(200_000, histogram.getCount());
+        assertTrue(histogram.getMaxNanos() < 5_000_000);
+    }
+
+    @Test
+    public void linkMetrics_dumpAndCsv() throws Exception {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onWriteComplete(0, 2_000_000, 9_000_000, 20, true);
+        metrics.onWriteComplete(0, 1_000_000, 3_000_000, 20, false);
+        metrics.onNotification(-1, 5_000, 20);
+        metrics.onNotification(7_500_000, 4_000, 20);
+
+        ConnectionStateMachine state = new ConnectionStateMachine();
+        state.setMetrics(metrics);
+        for (ConnectionStateMachine.State next : new ConnectionStateMachine.State[]{ConnectionStateMachine.State.CONNECTING,
+                ConnectionStateMachine.State.MTU, ConnectionStateMachine.State.DISCOVERING,
+                ConnectionStateMachine.State.SUBSCRIBING, ConnectionStateMachine.State.READY}) {
+            assertTrue(state.moveTo(next));
+        }
+        state.moveTo(ConnectionStateMachine.State.IDLE);
+
+        assertEquals(1, metrics.getWriteGatt().getCount());
+        assertEquals(1, metrics.getWritesFailed());
+        assertEquals(1, metrics.getNotifyInterval().getCount());
+        assertEquals(2, metrics.getNotifications());
+        assertEquals(1, metrics.getPhase(ConnectionStateMachine.State.DISCOVERING).getCount());
+        assertEquals(0, metrics.getPhase(ConnectionStateMachine.State.READY).getCount()); // 断开不算阶段耗时
+        assertEquals(1, metrics.getConnectTotal().getCount());
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.contains("write.gatt"));
+        assertFalse(dump, dump.contains("at.rtt")); // 没有记录的不显示
+
+        StringBuilder csv = new StringBuilder();
+        metrics.exportCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertEquals("metric,count,min_us,mean_us,p50_us,p90_us,p99_us,p999_us,max_us", lines[0]);
+        assertTrue(csv.toString(), csv.toString().contains("write.gatt,1,7000,7000,"));
+        for (String line : lines) assertEquals(line, 9, line.split(",", -1).length);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** 在模拟模块上跑回环测试：校验回显、丢包和损坏计数、重新切包的回显以及只测上行 */
+public class LoopbackBenchmarkTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private SimulatedAtkBle02Transport transport;
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.close();
+        timer.shutdownNow();
+    }
+
+    private LoopbackBenchmark.Result run(LoopbackBenchmark benchmark) throws Exception {
+        CompletableFuture<LoopbackBenchmark.Result> result = new CompletableFuture<>();
+        assertTrue(benchmark.start((b, r) -> result.complete(r)));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void cleanEcho_verifiesEveryPacket() throws Exception {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setPacketLatency(200, TimeUnit.MICROSECONDS);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setPattern(LoopbackBenchmark.Pattern.RANDOM);
+        benchmark.setTotalBytes(20_000);
+        benchmark.setLabel("sim");
+        LoopbackBenchmark.Result result = run(benchmark);
+
+        assertEquals(BleTransport.STATUS_SUCCESS, result.getStatus());
+        assertEquals(244, result.getPacketSize());
+        assertEquals(82, result.getPackets()); // 81 个整包 + 一个 236 字节的尾包
+        assertEquals(82, result.getPacketsEchoed());
+        assertEquals(0, result.getPacketsLost());
+        assertEquals(0, result.getPacketsCorrupt());
+        assertEquals(20_000, result.getBytesWritten());
+        assertEquals(20_000, result.getBytesEchoed());
+        assertEquals(82, result.getRtt().getCount());
+        // 至少要一上一下两个包的空口时间
+        assertTrue(result.getRtt().getMinNanos() >= 400_000);
+        assertTrue(result.getUplinkBytesPerSecond() > 0 && result.getDownlinkBytesPerSecond() > 0);
+        assertFalse(benchmark.isRunning());
+    }
+
+    @Test
+    public void maxMtu_limitsPacketSize() throws Exception {
+        transport = new SimulatedAtkBle02Transport(247);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setMaxMtu(23);
+        benchmark.setTotalBytes(1000);
+        LoopbackBenchmark.Result result = run(benchmark);
+        assertEquals(23, result.getMtu());
+        assertEquals(50, result.getPacketsEchoed());
+    }
+
+    @Test
+    public void lossAndCorruption_areCountedSeparately() throws Exception {
+        transport = new SimulatedAtkBle02Transport(64);
+        transport.setLossRate(0.05);
+        transport.setCorruptionRate(0.05);
+        transport.setRandomSeed(7);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setTotalBytes(61 * 400);
+        benchmark.setEchoTimeout(100, TimeUnit.MILLISECONDS);
+        LoopbackBenchmark.Result result = run(benchmark);
+
+        assertEquals(BleTransport.STATUS_SUCCESS, result.getStatus());
+        assertEquals(400, result.getPacketsWritten());
+        assertTrue("丢包 " + result.getPacketsLost(), result.getPacketsLost() > 10);
+        assertTrue("损坏 " + result.getPacketsCorrupt(), result.getPacketsCorrupt() > 10);
+        assertEquals(400, result.getPacketsEchoed() + result.getPacketsLost() + result.getPacketsCorrupt());
+        assertEquals(result.getPacketsEchoed(), result.getRtt().getCount());
+        assertTrue(result.getLossRate() > 0.05 && result.getLossRate() < 0.4);
+    }
+
+    @Test
+    public void echo_reassembledAcrossNotificationBoundaries() throws Exception {
+        // 串口回环把数据按自己的节奏重新切包：这里攒够7字节就通知一次，尾巴留到下一包
+        transport = new SimulatedAtkBle02Transport(100);
+        ByteArrayOutputStream uart = new ByteArrayOutputStream();
+        transport.setResponder(data -> {
+            uart.write(data, 0, data.length);
+            byte[] all = uart.toByteArray();
+            int ready = all.length - all.length % 7;
+            uart.reset();
+            uart.write(all, ready, all.length - ready);
+            byte[] reply = new byte[ready];
+            System.arraycopy(all, 0, reply, 0, ready);
+            return reply;
+        });
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setCustomPattern("ATK-BLE02 loopback ".getBytes("US-ASCII"));
+        benchmark.setTotalBytes(7 * 264); // 19 个整包 + 5 字节的尾包，总长是7的倍数，最后一包也能完整回来
+        LoopbackBenchmark.Result result = run(benchmark);
+        assertEquals(20, result.getPacketsEchoed());
+        assertEquals(0, result.getPacketsCorrupt());
+    }
+
+    @Test
+    public void noEcho_measuresUplinkOnly() throws Exception {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setEcho(false);
+        transport.setPacketLatency(1, TimeUnit.MILLISECONDS);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setExpectEcho(false);
+        benchmark.setTotalBytes(244 * 50);
+        LoopbackBenchmark.Result result = run(benchmark);
+        assertEquals(50, result.getPacketsWritten());
+        assertEquals(0, result.getPacketsLost());
+        // 上行串行，每包1ms：不超过 244 B/ms
+        assertTrue(result.getUplinkBytesPerSecond() <= 244_000 * 1.01);
+    }
+
+    @Test
+    public void disconnected_failsWithStatus() throws Exception {
+        transport = new SimulatedAtkBle02Transport(23);
+        LoopbackBenchmark benchmark = new LoopbackBenchmark(transport, timer);
+        benchmark.setTotalBytes(1000);
+        transport.disconnect();
+        assertFalse(benchmark.start((b, r) -> fail()));
+
+        SimulatedAtkBle02Transport other = new SimulatedAtkBle02Transport(23);
+        other.setPacketLatency(5, TimeUnit.MILLISECONDS);
+        LoopbackBenchmark cut = new LoopbackBenchmark(other, timer);
+        cut.setTotalBytes(20 * 100);
+        CompletableFuture<LoopbackBenchmark.Result> result = new CompletableFuture<>();
+        assertTrue(cut.start((b, r) -> result.complete(r)));
+        other.disconnect();
+        assertEquals(BleTransport.STATUS_NOT_CONNECTED, result.get(10, TimeUnit.SECONDS).getStatus());
+        other.close();
+    }
+}
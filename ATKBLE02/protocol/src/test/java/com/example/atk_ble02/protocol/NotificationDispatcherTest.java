@@ -0,0 +1,145 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** 阶段顺序、消费后停止分发，以及分发过程中移除监听者 */
+public class NotificationDispatcherTest {
+
+    private static final byte[] DATA = {1, 2, 3};
+
+    /** 记录自己被调用的名字，consume 为 true 时消费通知 */
+    private static class Recording implements NotificationListener {
+        final String name;
+        final List<String> calls;
+        boolean consume;
+
+        Recording(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+            calls.add(name);
+            return consume;
+        }
+
+        @Override
+        public boolean onFrame(byte[] buffer, int offset, int length, long timestampNanos) {
+            calls.add(name + ":frame");
+            return consume;
+        }
+
+        @Override
+        public void onLinkReset() {
+            calls.add(name + ":reset");
+        }
+    }
+
+    @Test
+    public void stages_runInOrderRegardlessOfAddOrder() {
+        List<String> calls = new ArrayList<>();
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        dispatcher.add(NotificationDispatcher.STAGE_PROTOCOL, new Recording("protocol", calls));
+        dispatcher.add(NotificationDispatcher.STAGE_EXCLUSIVE, new Recording("exclusive", calls));
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, new Recording("capture1", calls));
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, new Recording("capture2", calls));
+
+        assertFalse(dispatcher.dispatchNotification(DATA, 0, DATA.length, 0, false));
+        assertEquals(Arrays.asList("capture1", "capture2", "exclusive", "protocol"), calls);
+    }
+
+    @Test
+    public void exclusiveConsumes_protocolStageNotCalled() {
+        List<String> calls = new ArrayList<>();
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        Recording exclusive = new Recording("exclusive", calls);
+        exclusive.consume = true;
+        dispatcher.add(NotificationDispatcher.STAGE_PROTOCOL, new Recording("protocol", calls));
+        dispatcher.add(NotificationDispatcher.STAGE_EXCLUSIVE, exclusive);
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, new Recording("capture", calls));
+
+        assertTrue(dispatcher.dispatchNotification(DATA, 0, DATA.length, 0, false));
+        assertTrue(dispatcher.dispatchFrame(DATA, 0, DATA.length, 0));
+        assertEquals(Arrays.asList("capture", "exclusive", "capture:frame", "exclusive:frame"), calls);
+
+        // 独占测试结束后协议阶段重新收到通知
+        exclusive.consume = false;
+        calls.clear();
+        assertFalse(dispatcher.dispatchNotification(DATA, 0, DATA.length, 0, false));
+        assertEquals(Arrays.asList("capture", "exclusive", "protocol"), calls);
+    }
+
+    @Test
+    public void removeDuringDispatch_removedListenersAreSkipped() {
+        List<String> calls = new ArrayList<>();
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        Recording later = new Recording("later", calls);
+        Recording last = new Recording("last", calls);
+        // 回调里移除自己和后面的一个监听者
+        NotificationListener remover = new NotificationListener() {
+            @Override
+            public boolean onNotification(byte[] buffer, int offset, int length, long timestampNanos, boolean replayed) {
+                calls.add("remover");
+                dispatcher.remove(this);
+                dispatcher.remove(later);
+                return false;
+            }
+
+            @Override
+            public void onLinkReset() {
+                calls.add("remover:reset");
+                dispatcher.remove(this);
+            }
+        };
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, remover);
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, later);
+        dispatcher.add(NotificationDispatcher.STAGE_PROTOCOL, last);
+
+        assertFalse(dispatcher.dispatchNotification(DATA, 0, DATA.length, 0, false));
+        assertEquals(Arrays.asList("remover", "last"), calls);
+
+        calls.clear();
+        dispatcher.dispatchNotification(DATA, 0, DATA.length, 0, false);
+        dispatcher.dispatchLinkReset();
+        assertEquals(Arrays.asList("last", "last:reset"), calls);
+    }
+
+    @Test
+    public void linkReset_reachesEveryListenerEvenIfTheyRemoveThemselves() {
+        List<String> calls = new ArrayList<>();
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        Recording first = new Recording("first", calls) {
+            @Override
+            public void onLinkReset() {
+                super.onLinkReset();
+                dispatcher.remove(this);
+            }
+        };
+        dispatcher.add(NotificationDispatcher.STAGE_PROTOCOL, first);
+        dispatcher.add(NotificationDispatcher.STAGE_PROTOCOL, new Recording("second", calls));
+
+        dispatcher.dispatchLinkReset();
+        assertEquals(Arrays.asList("first:reset", "second:reset"), calls);
+        assertNull(dispatcher.find(first.getClass()));
+    }
+
+    @Test
+    public void find_returnsFirstOfType_removeUnknownIsNoOp() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher();
+        Recording recording = new Recording("r", new ArrayList<>());
+        assertNull(dispatcher.find(Recording.class));
+        dispatcher.add(NotificationDispatcher.STAGE_CAPTURE, recording);
+        assertSame(recording, dispatcher.find(Recording.class));
+        dispatcher.remove(new Recording("other", new ArrayList<>()));
+        assertSame(recording, dispatcher.find(Recording.class));
+        dispatcher.remove(recording);
+        assertTrue(dispatcher.isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PayloadFragmenterTest {
+
+    @Test
+    public void maxChunkSize_clampedToAttributeLength() {
+        assertEquals(20, PayloadFragmenter.maxChunkSize(23));
+        assertEquals(20, PayloadFragmenter.maxChunkSize(10));
+        assertEquals(244, PayloadFragmenter.maxChunkSize(247));
+        assertEquals(512, PayloadFragmenter.maxChunkSize(517));
+        assertEquals(512, PayloadFragmenter.maxChunkSize(1000));
+    }
+
+    @Test
+    public void split_preservesBytesAndOrder() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        List<byte[]> chunks = PayloadFragmenter.split(data, 247);
+        assertEquals(PayloadFragmenter.chunkCount(data.length, 247), chunks.size());
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            assertTrue(chunk.length <= 244);
+            for (byte b : chunk) assertEquals(data[position++], b);
+        }
+        assertEquals(data.length, position);
+    }
+
+    @Test
+    public void split_smallPayloadIsNotCopied() {
+        byte[] data = new byte[10];
+        List<byte[]> chunks = PayloadFragmenter.split(data, 23);
+        assertEquals(1, chunks.size());
+        assertSame(data, chunks.get(0));
+        assertTrue(PayloadFragmenter.split(new byte[0], 23).isEmpty());
+    }
+}
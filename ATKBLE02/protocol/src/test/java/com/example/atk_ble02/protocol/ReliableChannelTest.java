@@ -0,0 +1,173 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** 手机和模拟模块两端各跑一个 ReliableChannel，在丢包和比特错误下验证完整性和有效吞吐 */
+public class ReliableChannelTest {
+
+    private SimulatedAtkBle02Transport transport;
+    private ScheduledExecutorService scheduler;
+    private ReliableChannel phone;
+    private ReliableChannel module;
+    private final ByteArrayOutputStream moduleReceived = new ByteArrayOutputStream();
+    private final List<byte[]> moduleMessages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setPacketLatency(500, TimeUnit.MICROSECONDS);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        phone = new ReliableChannel(transport, scheduler);
+        transport.setReceiver(phone::onReceive);
+        module = new ReliableChannel(transport.getModuleEnd(), scheduler);
+        transport.getModuleEnd().setReceiver(module::onReceive);
+        module.setMessageListener(message -> {
+            synchronized (moduleMessages) {
+                moduleMessages.add(message);
+                moduleReceived.write(message, 0, message.length);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        phone.close();
+        module.close();
+        transport.close();
+        scheduler.shutdownNow();
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 131 + seed);
+        return data;
+    }
+
+    private static long sendAndWait(ReliableChannel channel, byte[] data) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger(Integer.MIN_VALUE);
+        long start = System.nanoTime();
+        channel.send(data, status -> { result.set(status); done.countDown(); });
+        assertTrue("传输超时", done.await(20, TimeUnit.SECONDS));
+        assertEquals(BleTransport.STATUS_SUCCESS, result.get());
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void codec_crcAndRoundTrip() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, BinaryFrameCodec.crc16(check, 0, check.length));
+
+        List<String> frames = new ArrayList<>();
+        BinaryFrameCodec.Decoder decoder = new BinaryFrameCodec.Decoder(64, (type, seq, buffer, offset, length) ->
+                frames.add(type + ":" + seq + ":" + new String(buffer, offset, length, StandardCharsets.US_ASCII)));
+        byte[] first = BinaryFrameCodec.encode(BinaryFrameCodec.TYPE_DATA, 0xFFFF, check, 0, 4);
+        byte[] second = BinaryFrameCodec.encode(BinaryFrameCodec.TYPE_DATA_END, 0, check, 4, 5);
+        byte[] corrupted = first.clone();
+        corrupted[7] ^= 0x10;
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(0x00);
+        stream.write(corrupted, 0, corrupted.length);
+        stream.write(first, 0, first.length);
+        stream.write(second, 0, second.length);
+        byte[] bytes = stream.toByteArray();
+        for (int i = 0; i < bytes.length; i += 3) decoder.feed(bytes, i, Math.min(3, bytes.length - i));
+
+        assertEquals(2, frames.size());
+        assertEquals("1:65535:1234", frames.get(0));
+        assertEquals("2:0:56789", frames.get(1));
+        assertEquals(1, decoder.getCrcErrors());
+    }
+
+    @Test
+    public void messages_arriveIntactAndInOrder() throws Exception {
+        for (int i = 0; i < 20; i++) phone.send(pattern(1 + i * 97, i), status -> { });
+        sendAndWait(phone, new byte[0]);
+        synchronized (moduleMessages) {
+            assertEquals(21, moduleMessages.size());
+            for (int i = 0; i < 20; i++) assertArrayEquals(pattern(1 + i * 97, i), moduleMessages.get(i));
+            assertEquals(0, moduleMessages.get(20).length);
+        }
+        assertEquals(0, phone.getRetransmissions());
+    }
+
+    @Test
+    public void lossAndCorruption_recoveredBySelectiveRetransmit() throws Exception {
+        transport.setLossRate(0.1);
+        transport.setCorruptionRate(0.02);
+        transport.setRandomSeed(7);
+        byte[] data = pattern(64 * 1024, 3);
+        sendAndWait(phone, data);
+        synchronized (moduleMessages) {
+            assertEquals(1, moduleMessages.size());
+            assertArrayEquals(data, moduleReceived.toByteArray());
+        }
+        assertTrue(phone.getRetransmissions() > 0);
+        assertTrue(module.getCrcErrors() + phone.getCrcErrors() > 0);
+        // 只重传丢失的帧：重传数应接近丢包数，而不是整个窗口
+        long frames = (data.length + BinaryFrameCodec.maxPayload(247) - 1) / BinaryFrameCodec.maxPayload(247);
+        assertTrue("重传过多: " + phone.getRetransmissions() + " / " + frames, phone.getRetransmissions() < frames / 2);
+    }
+
+    @Test
+    public void goodputUnderLoss_beatsAcknowledgedWrites() throws Exception {
+        transport.setLossRate(0.05);
+        transport.setRandomSeed(11);
+        byte[] data = pattern(48 * 1024, 5);
+        long reliableNanos = sendAndWait(phone, data);
+        synchronized (moduleMessages) {
+            assertArrayEquals(data, moduleReceived.toByteArray());
+        }
+
+        // 对照组：带应答写，GATT同一时刻只能有一个写请求在途
+        transport.setAcknowledgedWrites(true);
+        transport.setEcho(false);
+        TransportSender acknowledged = new TransportSender(transport, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        acknowledged.send(data, status -> done.countDown());
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        long acknowledgedNanos = System.nanoTime() - start;
+
+        assertTrue("可靠模式 " + reliableNanos / 1_000_000 + "ms, 带应答写 " + acknowledgedNanos / 1_000_000 + "ms",
+                reliableNanos < acknowledgedNanos);
+    }
+
+    @Test
+    public void oversizedMessage_isDroppedAndNextMessageDelivered() throws Exception {
+        module.setMaxMessageLength(1000);
+        sendAndWait(phone, pattern(5000, 1));
+        sendAndWait(phone, pattern(1000, 2));
+        synchronized (moduleMessages) {
+            assertEquals(1, moduleMessages.size());
+            assertArrayEquals(pattern(1000, 2), moduleMessages.get(0));
+        }
+        assertEquals(1, module.getOversizedMessages());
+    }
+
+    @Test
+    public void close_cancelsUnacknowledgedMessages() throws Exception {
+        transport.setLossRate(1.0);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger();
+        phone.send(pattern(1000, 1), status -> { result.set(status); done.countDown(); });
+        phone.close();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(BleTransport.STATUS_CANCELLED, result.get());
+    }
+}
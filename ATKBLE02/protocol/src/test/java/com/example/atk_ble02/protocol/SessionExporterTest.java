@@ -0,0 +1,99 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/** 导出后解压读回，验证 CSV 格式、RAW 字节流在环里绕圈后仍完整，以及丢弃计数 */
+public class SessionExporterTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("export").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void csv_oneLinePerNotification() throws Exception {
+        File file = new File(directory, "session.csv.gz");
+        SessionExporter exporter = new SessionExporter(file, SessionExporter.Format.CSV);
+        exporter.defineStream(0, "AA:BB:CC:DD:EE:FF");
+        assertTrue(exporter.record(0, 5_000_000_000L, new byte[]{0x01, (byte) 0xAB, (byte) 0xFF}, 0, 3));
+        assertTrue(exporter.record(1, 5_012_500_250L, "OK\r\n".getBytes(StandardCharsets.US_ASCII), 0, 4));
+        exporter.close();
+        assertFalse(exporter.record(0, 0, new byte[1], 0, 1));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.US_ASCII))) {
+            assertEquals(SessionExporter.CSV_HEADER, reader.readLine());
+            assertEquals("0.000000,AA:BB:CC:DD:EE:FF,3,01ABFF", reader.readLine());
+            assertEquals("12.500250,1,4,4F4B0D0A", reader.readLine());
+            assertNull(reader.readLine());
+        }
+        assertEquals(2, exporter.getRecords());
+        assertEquals(7, exporter.getPayloadBytes());
+        assertEquals(1, exporter.getDropped());
+        assertEquals(file.length(), exporter.getFileBytes());
+    }
+
+    @Test
+    public void raw_preservesByteStreamAcrossRingWraps() throws Exception {
+        File file = new File(directory, "raw.bin.gz");
+        // 最小的环 (1KB)，写线程追不上时重试，数据要在环里绕很多圈
+        SessionExporter exporter = new SessionExporter(file, SessionExporter.Format.RAW, 600);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] data = new byte[SessionRecorder.MAX_RECORD_LENGTH];
+        for (int i = 0; i < 2000; i++) {
+            int length = 1 + (i * 37) % data.length;
+            for (int j = 0; j < length; j++) data[j] = (byte) (i + j);
+            while (!exporter.record(0, i, data, 0, length)) Thread.yield();
+            expected.write(data, 0, length);
+        }
+        exporter.close();
+        assertArrayEquals(expected.toByteArray(), gunzip(file));
+        assertEquals(2000, exporter.getRecords());
+        assertEquals(expected.size(), exporter.getUncompressedBytes());
+        assertTrue(exporter.getExportBytesPerSecond() > 0);
+        assertTrue(exporter.getCompressionRatio() > 0 && exporter.getCompressionRatio() < 1);
+    }
+
+    @Test
+    public void oversizedRecord_isDropped() throws Exception {
+        SessionExporter exporter = new SessionExporter(new File(directory, "x.gz"), SessionExporter.Format.RAW);
+        assertFalse(exporter.record(0, 0, new byte[SessionRecorder.MAX_RECORD_LENGTH + 1], 0, SessionRecorder.MAX_RECORD_LENGTH + 1));
+        exporter.close();
+        assertEquals(1, exporter.getDropped());
+        assertEquals(0, exporter.getRecords());
+    }
+}
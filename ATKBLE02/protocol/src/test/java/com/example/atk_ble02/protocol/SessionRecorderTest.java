@@ -0,0 +1,156 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/** 录制后用 SessionReader 读回，验证内容、分段轮转、按时间定位和未正常关闭时的扫描恢复 */
+public class SessionRecorderTest {
+
+    private static final long MS = 1_000_000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("session").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    private static byte[] payload(int index) {
+        byte[] data = new byte[index % 200];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (index + i);
+        return data;
+    }
+
+    private static void awaitDrained(SessionRecorder recorder) throws InterruptedException {
+        for (int i = 0; i < 200 && recorder.getBacklogBytes() > 0; i++) Thread.sleep(5);
+        assertEquals(0, recorder.getBacklogBytes());
+    }
+
+    @Test
+    public void roundTrip_rotatesSegments() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(directory, 8 * 1024, 32 * 1024);
+        recorder.defineStream(0, "AA:BB:CC:DD:EE:01");
+        recorder.defineStream(1, "AA:BB:CC:DD:EE:02");
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = payload(i);
+            while (!recorder.record(i & 1, i * MS, data, 0, data.length)) Thread.sleep(1);
+        }
+        recorder.close();
+        assertTrue(recorder.getSegmentCount() > 1);
+        assertFalse(recorder.record(0, 0, new byte[1], 0, 1));
+
+        try (SessionReader reader = new SessionReader(directory)) {
+            assertEquals(recorder.getSegmentCount(), reader.getSegmentCount());
+            assertEquals("AA:BB:CC:DD:EE:02", reader.getStreamNames().get(1));
+            assertEquals(0L, reader.getStartNanos());
+            int count = 0;
+            while (reader.next()) {
+                byte[] expected = payload(count);
+                assertEquals(count & 1, reader.getStreamId());
+                assertEquals(count * MS, reader.getTimestampNanos());
+                assertEquals(expected.length, reader.getLength());
+                for (int i = 0; i < expected.length; i++) assertEquals(expected[i], reader.getBuffer()[i]);
+                count++;
+            }
+            assertEquals(1000, count);
+        }
+    }
+
+    @Test
+    public void seek_findsFirstRecordAtOrAfterTimestamp() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(directory, 16 * 1024, 32 * 1024);
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = payload(i);
+            while (!recorder.record(0, 1000 * MS + i * 7 * MS, data, 0, data.length)) Thread.sleep(1);
+        }
+        recorder.close();
+
+        try (SessionReader reader = new SessionReader(directory)) {
+            reader.seek(1000 * MS + 5000 * MS + 1);
+            assertTrue(reader.next());
+            assertEquals(1000 * MS + 715 * 7 * MS, reader.getTimestampNanos());
+            assertTrue(reader.next());
+            assertEquals(1000 * MS + 716 * 7 * MS, reader.getTimestampNanos());
+
+            reader.seek(0);
+            assertTrue(reader.next());
+            assertEquals(1000 * MS, reader.getTimestampNanos());
+
+            reader.seek(Long.MAX_VALUE);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void unfinishedSegment_isReadByScanning() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(directory, 64 * 1024, 32 * 1024);
+        for (int i = 0; i < 50; i++) {
+            byte[] data = payload(i);
+            assertTrue(recorder.record(2, i * MS, data, 0, data.length));
+            if ((i & 15) == 15) awaitDrained(recorder);
+        }
+        awaitDrained(recorder);
+
+        // 还没 close：分段头没有数据长度，也没有索引文件
+        try (SessionReader reader = new SessionReader(directory)) {
+            int count = 0;
+            while (reader.next()) count++;
+            assertEquals(50, count);
+        }
+        recorder.close();
+    }
+
+    @Test
+    public void oversizedRecord_isDroppedAndCounted() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(directory, 64 * 1024, 8 * 1024);
+        byte[] big = new byte[SessionRecorder.MAX_RECORD_LENGTH + 1];
+        assertFalse(recorder.record(0, 0, big, 0, big.length));
+        assertTrue(recorder.record(0, 1, big, 0, SessionRecorder.MAX_RECORD_LENGTH));
+        recorder.close();
+        assertEquals(1, recorder.getDropped());
+        assertEquals(1, recorder.getRecorded());
+        assertEquals(SessionRecorder.RECORD_HEADER_SIZE + SessionRecorder.MAX_RECORD_LENGTH, recorder.getBytesWritten());
+    }
+
+    @Test
+    public void recordRacingClose_isWrittenOrCounted() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            SessionRecorder recorder = new SessionRecorder(directory, 64 * 1024, 32 * 1024);
+            AtomicBoolean stop = new AtomicBoolean();
+            long[] accepted = new long[1];
+            long[] attempts = new long[1];
+            Thread producer = new Thread(() -> {
+                byte[] data = new byte[8];
+                while (!stop.get()) {
+                    attempts[0]++;
+                    if (recorder.record(0, attempts[0], data, 0, data.length)) accepted[0]++;
+                }
+            });
+            producer.start();
+            Thread.sleep(1);
+            recorder.close();
+            stop.set(true);
+            producer.join();
+            // 每次返回 true 的 record() 都写进了文件，其余的都计入了丢弃数
+            assertEquals(accepted[0], recorder.getRecorded());
+            assertEquals(attempts[0], recorder.getRecorded() + recorder.getDropped());
+            tearDown();
+            setUp();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** 把录制的会话或十六进制文本回放进解码器，验证内容、尽快/原速两种节奏和格式转换 */
+public class SessionReplayerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private File directory;
+    private final List<String> lines = new ArrayList<>();
+    private final FrameDecoder decoder = FrameDecoder.lines(256,
+            (buffer, offset, length) -> lines.add(new String(buffer, offset, length, StandardCharsets.US_ASCII)));
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("replay").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    // 每行 "LINE <n>\r\n" 拆成两个通知，模拟被MTU切开的行
+    private void recordLines(int count, long intervalNanos) throws Exception {
+        SessionRecorder recorder = new SessionRecorder(directory, 64 * 1024, 128 * 1024);
+        for (int i = 0; i < count; i++) {
+            byte[] line = ("LINE " + i + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            int half = line.length / 2;
+            while (!recorder.record(i & 1, i * intervalNanos, line, 0, half)) Thread.sleep(1);
+            while (!recorder.record(i & 1, i * intervalNanos + 1, line, half, line.length - half)) Thread.sleep(1);
+        }
+        recorder.close();
+    }
+
+    @Test
+    public void asFastAsPossible_feedsDecoderFarAboveRecordedRate() throws Exception {
+        recordLines(500, 10 * MS);
+        SessionReplayer replayer = new SessionReplayer(new SessionReader(directory),
+                (streamId, timestampNanos, buffer, offset, length) -> decoder.feed(buffer, offset, length));
+        replayer.setSpeed(SessionReplayer.AS_FAST_AS_POSSIBLE);
+        replayer.run();
+
+        assertTrue(replayer.isFinished());
+        assertEquals(1000, replayer.getRecords());
+        assertEquals(500, lines.size());
+        for (int i = 0; i < 500; i++) assertEquals("LINE " + i, lines.get(i));
+        // 录制跨度约5秒，尽快回放应远快于此
+        assertTrue("回放用时 " + replayer.getElapsedNanos() / MS + "ms", replayer.getElapsedNanos() < 1000 * MS);
+    }
+
+    @Test
+    public void streamFilter_replaysOneConnection() throws Exception {
+        recordLines(100, MS);
+        SessionReplayer replayer = new SessionReplayer(new SessionReader(directory),
+                (streamId, timestampNanos, buffer, offset, length) -> decoder.feed(buffer, offset, length));
+        replayer.setSpeed(SessionReplayer.AS_FAST_AS_POSSIBLE);
+        replayer.setStreamFilter(1);
+        replayer.run();
+        assertEquals(50, lines.size());
+        assertEquals("LINE 1", lines.get(0));
+        assertEquals("LINE 99", lines.get(49));
+    }
+
+    @Test
+    public void originalTiming_keepsRecordedIntervals() throws Exception {
+        String session = "# 三条通知，间隔40ms\n"
+                + "1000.0 0 4F 4B\n"
+                + "\n"
+                + "1040   0 0D0A\n"
+                + "1080.000000 0 4f4b0d0a\n";
+        List<Long> arrivals = new ArrayList<>();
+        SessionReplayer replayer = new SessionReplayer(new HexLineSource(new StringReader(session)),
+                (streamId, timestampNanos, buffer, offset, length) -> {
+                    arrivals.add(System.nanoTime());
+                    decoder.feed(buffer, offset, length);
+                });
+        long start = System.nanoTime();
+        replayer.run();
+
+        assertEquals(3, arrivals.size());
+        assertEquals(2, lines.size());
+        assertEquals("OK", lines.get(1));
+        assertTrue(arrivals.get(1) - start >= 40 * MS);
+        long span = arrivals.get(2) - start;
+        assertTrue("跨度 " + span / MS + "ms", span >= 80 * MS && span < 300 * MS);
+    }
+
+    @Test
+    public void step_reportsWaitUntilNextRecord() throws Exception {
+        String session = "0 0 01\n0.5 0 02\n10 0 03\n";
+        List<Integer> values = new ArrayList<>();
+        SessionReplayer replayer = new SessionReplayer(new HexLineSource(new StringReader(session)),
+                (streamId, timestampNanos, buffer, offset, length) -> values.add((int) buffer[offset]));
+        assertEquals(500_000L, replayer.step(0, 10));
+        assertEquals(1, values.size());
+        assertEquals(0L, replayer.step(MS, 1));
+        assertEquals(2, values.size());
+        assertEquals(9 * MS, replayer.step(MS, 10));
+        assertEquals(-1L, replayer.step(20 * MS, 10));
+        assertEquals(3, values.size());
+        assertEquals(10 * MS, replayer.getMaxLatenessNanos());
+        assertTrue(replayer.isFinished());
+    }
+
+    @Test
+    public void readError_finishesAndClosesSource() throws Exception {
+        boolean[] closed = new boolean[1];
+        StringReader text = new StringReader("0 0 01\n1 0 0\n") {
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        SessionReplayer replayer = new SessionReplayer(new HexLineSource(text), (streamId, timestampNanos, buffer, offset, length) -> { });
+        replayer.setSpeed(SessionReplayer.AS_FAST_AS_POSSIBLE);
+        try {
+            replayer.step(0, 10);
+            fail("奇数个十六进制字符应报错");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("第 2 行"));
+        }
+        assertTrue(replayer.isFinished());
+        assertTrue(closed[0]);
+        assertEquals(-1L, replayer.step(0, 10));
+    }
+
+    @Test
+    public void hexExport_roundTripsBinarySession() throws Exception {
+        recordLines(20, 3 * MS);
+        StringBuilder text = new StringBuilder();
+        assertEquals(40, HexLineSource.export(new SessionReader(directory), text));
+
+        try (SessionReader binary = new SessionReader(directory);
+             HexLineSource hex = new HexLineSource(new StringReader(text.toString()))) {
+            long first = -1;
+            while (binary.next()) {
+                assertTrue(hex.next());
+                if (first < 0) first = binary.getTimestampNanos();
+                assertEquals(binary.getTimestampNanos() - first, hex.getTimestampNanos());
+                assertEquals(binary.getStreamId(), hex.getStreamId());
+                assertEquals(binary.getLength(), hex.getLength());
+                for (int i = 0; i < binary.getLength(); i++) assertEquals(binary.getBuffer()[i], hex.getBuffer()[i]);
+            }
+            assertFalse(hex.next());
+        }
+    }
+
+    @Test
+    public void hexLine_reportsLineNumberOnError() throws Exception {
+        HexLineSource source = new HexLineSource(new StringReader("# ok\n1 0 4142\n2 0 41 4\n"));
+        assertTrue(source.next());
+        try {
+            source.next();
+            fail("奇数个十六进制字符应报错");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("第 3 行"));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TelemetryParserTest {
+
+    private static boolean line(TelemetryParser parser, String text, long timestamp) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return parser.parseLine(bytes, 0, bytes.length, timestamp);
+    }
+
+    @Test
+    public void csv_parsesColumnsIntoPrimitiveChannels() {
+        TelemetryParser parser = new TelemetryParser(TelemetryLayout.parse("csv:ax, ay, _, count:long"), 16);
+        TelemetryBuffer buffer = parser.getBuffer();
+        assertTrue(line(parser, "1.5,-2.25e1,junk,123456789012", 10));
+        assertTrue(line(parser, "  0.001 ; +3   skip\t7 ", 20));
+        assertEquals(2, buffer.getCount());
+        assertEquals(1.5f, buffer.getFloat(0, 0), 0);
+        assertEquals(-22.5f, buffer.getFloat(1, 0), 0);
+        assertTrue(buffer.isLong(2));
+        assertEquals(123456789012L, buffer.getLong(2, 0));
+        assertEquals(0.001f, buffer.getFloat(0, 1), 1e-9);
+        assertEquals(3f, buffer.getFloat(1, 1), 0);
+        assertEquals(7, buffer.getLong(2, 1));
+        assertEquals(20, buffer.getTimestampNanos(1));
+    }
+
+    @Test
+    public void csv_nonNumericOrShortLine_isNotTelemetry() {
+        TelemetryParser parser = new TelemetryParser(TelemetryLayout.parse("csv:a,b"), 16);
+        assertFalse(line(parser, "OK", 0));
+        assertFalse(line(parser, "1.0", 0));
+        assertFalse(line(parser, "1.0,2.0x", 0));
+        assertFalse(line(parser, "1.0,,2.0", 0));
+        assertFalse(line(parser, "1e,2", 0));
+        assertEquals(5, parser.getMalformed());
+        assertEquals(0, parser.getBuffer().getCount());
+        // 多出的列忽略
+        assertTrue(line(parser, "1,2,3,4", 0));
+    }
+
+    @Test
+    public void binary_reassemblesRecordsAcrossNotifications() {
+        TelemetryLayout layout = TelemetryLayout.parse("bin<:h:ax*0.001,x2,I:count,f:temp");
+        assertEquals(12, layout.getRecordSize());
+        TelemetryParser parser = new TelemetryParser(layout, 64);
+        ByteBuffer stream = ByteBuffer.allocate(12 * 5).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 5; i++) {
+            stream.putShort((short) (-1000 * i)).putShort((short) 0xFFFF).putInt(0xFFFFFFF0 + i).putFloat(i + 0.5f);
+        }
+        byte[] bytes = stream.array();
+        // 按 20 字节切包，记录跨越通知边界
+        int parsed = 0;
+        for (int off = 0; off < bytes.length; off += 20) parsed += parser.parseRecords(bytes, off, Math.min(20, bytes.length - off), off);
+        assertEquals(5, parsed);
+        TelemetryBuffer buffer = parser.getBuffer();
+        assertFalse(buffer.isLong(0));
+        assertTrue(buffer.isLong(1));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-i, buffer.getFloat(0, i), 1e-6);
+            assertEquals(0xFFFFFFF0L + i, buffer.getLong(1, i));
+            assertEquals(i + 0.5f, buffer.getFloat(2, i), 0);
+        }
+    }
+
+    @Test
+    public void binary_bigEndian() {
+        TelemetryParser parser = new TelemetryParser(TelemetryLayout.parse("bin>:b:s,H:u,q:big"), 4);
+        byte[] record = ByteBuffer.allocate(11).put((byte) -5).putShort((short) 0xABCD).putLong(-42).array();
+        assertEquals(1, parser.parseRecords(record, 0, record.length, 0));
+        assertEquals(-5, parser.getBuffer().getLong(0, 0));
+        assertEquals(0xABCD, parser.getBuffer().getLong(1, 0));
+        assertEquals(-42, parser.getBuffer().getLong(2, 0));
+    }
+
+    @Test
+    public void layout_rejectsBadSpecs() {
+        String[] bad = {"json:a", "csv:", "csv:a,,b", "bin<:z:a", "bin<:h:", "bin<:h:a*k", "bin<:x", "bin<:x-5,h:a", "bin<:x0,h:a"};
+        for (String spec : bad) {
+            try {
+                TelemetryLayout.parse(spec);
+                fail(spec);
+            } catch (IllegalArgumentException expected) {
+                // 预期
+            }
+        }
+    }
+
+    @Test
+    public void buffer_keepsNewestAndDecimatesMinMax() {
+        TelemetryBuffer buffer = new TelemetryBuffer(new String[]{"v"}, new boolean[]{false}, 100);
+        assertEquals(128, buffer.getCapacity());
+        int[] updates = new int[1];
+        buffer.setUpdateListener(b -> updates[0]++);
+        for (int i = 0; i < 1000; i++) {
+            buffer.setFloat(0, i == 900 ? 1e6f : i % 10);
+            buffer.commit(i);
+        }
+        assertEquals(1000, buffer.getCount());
+        assertEquals(1000, updates[0]);
+        assertEquals(1000 - 127, buffer.getOldestIndex());
+
+        float[] min = new float[8];
+        float[] max = new float[8];
+        // 请求的范围早于最旧样本，按可读范围 [873, 1000) 切成8个桶
+        assertEquals(8, buffer.decimate(0, 0, 1000, 8, min, max));
+        float peak = 0;
+        for (int b = 0; b < 8; b++) {
+            assertEquals(0f, min[b], 0);
+            peak = Math.max(peak, max[b]);
+        }
+        assertEquals(1e6f, peak, 0); // 单点尖峰不会在抽取中丢掉
+
+        // 样本少于桶数时每个样本一个桶
+        assertEquals(3, buffer.decimate(0, 997, 1000, 8, min, max));
+        assertEquals(7f, min[0], 0);
+        assertEquals(9f, max[2], 0);
+    }
+}
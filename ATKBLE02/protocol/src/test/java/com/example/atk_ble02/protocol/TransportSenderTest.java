@@ -0,0 +1,146 @@
+package com.example.atk_ble02.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** 在模拟模块上验证分片、流控、丢包统计和吞吐随延迟的变化，不需要硬件 */
+public class TransportSenderTest {
+
+    private SimulatedAtkBle02Transport transport;
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.close();
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (i * 31 + 7);
+        return data;
+    }
+
+    private static int send(TransportSender sender, byte[] data) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger(Integer.MIN_VALUE);
+        sender.send(data, status -> { result.set(status); done.countDown(); });
+        assertTrue("发送超时", done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void echo_returnsIdenticalBytes() throws Exception {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setPacketLatency(200, TimeUnit.MICROSECONDS);
+        byte[] data = pattern(5000);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CountDownLatch allEchoed = new CountDownLatch(1);
+        transport.setReceiver((buffer, offset, length) -> {
+            received.write(buffer, offset, length);
+            if (received.size() == data.length) allEchoed.countDown();
+        });
+
+        TransportSender sender = new TransportSender(transport, 4);
+        assertEquals(BleTransport.STATUS_SUCCESS, send(sender, data));
+        assertTrue(allEchoed.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(data, received.toByteArray());
+        assertEquals(PayloadFragmenter.chunkCount(data.length, 247), transport.getPacketsWritten());
+        assertEquals(data.length, sender.getMeter().getTotalBytes());
+        assertTrue(sender.isIdle());
+    }
+
+    @Test
+    public void credits_limitPacketsInFlight() throws Exception {
+        transport = new SimulatedAtkBle02Transport(23);
+        transport.setPacketLatency(50, TimeUnit.MILLISECONDS);
+        transport.setEcho(false);
+        TransportSender sender = new TransportSender(transport, 3);
+        CountDownLatch done = new CountDownLatch(1);
+        sender.send(pattern(400), status -> done.countDown());
+        assertEquals(3, sender.getInFlight());
+        assertEquals(20 - 3, sender.getPendingPackets());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void singleChunk_sourceArrayReusableAfterSend() throws Exception {
+        transport = new SimulatedAtkBle02Transport(23);
+        transport.setPacketLatency(50, TimeUnit.MILLISECONDS);
+        byte[] first = pattern(20);
+        byte[] second = pattern(20);
+        byte[] expected = new byte[40];
+        System.arraycopy(first, 0, expected, 0, 20);
+        System.arraycopy(second, 0, expected, 20, 20);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CountDownLatch allEchoed = new CountDownLatch(1);
+        transport.setReceiver((buffer, offset, length) -> {
+            received.write(buffer, offset, length);
+            if (received.size() == expected.length) allEchoed.countDown();
+        });
+
+        // 只有一个credit，第二条消息排队时调用方已经改写了数组
+        TransportSender sender = new TransportSender(transport, 1);
+        sender.send(first, status -> { });
+        sender.send(second, status -> { });
+        assertEquals(1, sender.getPendingPackets());
+        Arrays.fill(second, (byte) 0);
+        assertTrue(allEchoed.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(expected, received.toByteArray());
+    }
+
+    @Test
+    public void loss_isCountedAndDeterministic() throws Exception {
+        long[] lost = new long[2];
+        for (int run = 0; run < 2; run++) {
+            transport = new SimulatedAtkBle02Transport(23);
+            transport.setEcho(false);
+            transport.setLossRate(0.1);
+            transport.setRandomSeed(42);
+            assertEquals(BleTransport.STATUS_SUCCESS, send(new TransportSender(transport, 8), pattern(20 * 1000)));
+            assertEquals(1000, transport.getPacketsWritten());
+            lost[run] = transport.getPacketsLost();
+            assertEquals(20 * (1000 - lost[run]), transport.getBytesDelivered());
+            transport.close();
+        }
+        assertTrue("丢包率偏离配置: " + lost[0], lost[0] > 50 && lost[0] < 150);
+        assertEquals(lost[0], lost[1]);
+    }
+
+    @Test
+    public void throughput_boundedByLatencyAndMtu() throws Exception {
+        transport = new SimulatedAtkBle02Transport(247);
+        transport.setEcho(false);
+        transport.setPacketLatency(1, TimeUnit.MILLISECONDS);
+        TransportSender sender = new TransportSender(transport, 8);
+        int length = 244 * 100;
+        long start = System.nanoTime();
+        assertEquals(BleTransport.STATUS_SUCCESS, send(sender, pattern(length)));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // 上行串行传输，100个包至少要100ms；上限 244 B/ms
+        assertTrue("耗时过短: " + seconds, seconds >= 0.1);
+        assertTrue(length / seconds <= 244_000 * 1.01);
+    }
+
+    @Test
+    public void disconnected_failsPendingMessages() throws Exception {
+        transport = new SimulatedAtkBle02Transport(23);
+        transport.setEcho(false);
+        transport.disconnect();
+        assertEquals(BleTransport.STATUS_NOT_CONNECTED, send(new TransportSender(transport, 2), pattern(100)));
+        assertFalse(transport.write(new byte[10], status -> fail()));
+    }
+
+    @Test
+    public void write_rejectsOversizedPacket() {
+        transport = new SimulatedAtkBle02Transport(23);
+        assertFalse(transport.write(new byte[21], status -> fail()));
+        assertTrue(transport.write(Arrays.copyOf(pattern(20), 20), status -> { }));
+    }
+}
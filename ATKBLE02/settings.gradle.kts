@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "ATK-BLE02"
 include(":app")
+include(":protocol")
+include(":benchmark")